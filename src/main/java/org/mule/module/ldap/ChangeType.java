@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import java.util.Collection;
+
+import org.mule.module.ldap.api.LDAPEntryChange;
+
+public enum ChangeType
+{
+    /**
+     * Entry added
+     */
+    ADD(LDAPEntryChange.ADD),
+
+    /**
+     * Entry deleted
+     */
+    DELETE(LDAPEntryChange.DELETE),
+
+    /**
+     * Attributes of the entry modified
+     */
+    MODIFY(LDAPEntryChange.MODIFY),
+
+    /**
+     * Entry renamed or moved
+     */
+    MOD_DN(LDAPEntryChange.MOD_DN);
+
+    private int value;
+
+    private ChangeType(int value)
+    {
+        this.value = value;
+    }
+
+    public int getValue()
+    {
+        return this.value;
+    }
+
+    /**
+     * @return The change type with the given value or <i>null</i> if there is none (as for entries that did not
+     *         change).
+     */
+    public static ChangeType fromValue(int value)
+    {
+        for (ChangeType type : values())
+        {
+            if (type.value == value)
+            {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The combination of the values of the change types, or of all of them if there are none.
+     */
+    public static int toValue(Collection<ChangeType> types)
+    {
+        if (types == null || types.isEmpty())
+        {
+            return LDAPEntryChange.ANY;
+        }
+        int value = 0;
+        for (ChangeType type : types)
+        {
+            value |= type.value;
+        }
+        return value;
+    }
+}
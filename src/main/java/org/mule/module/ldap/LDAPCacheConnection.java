@@ -28,9 +28,17 @@ import org.mule.api.annotations.display.Placement;
 import org.mule.api.annotations.param.ConnectionKey;
 import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
+import org.mule.module.ldap.api.LDAPAsyncExecutor;
+import org.mule.module.ldap.api.LDAPAuthenticator;
+import org.mule.module.ldap.api.LDAPCacheConfiguration;
 import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
 import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryCache;
 import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPFilterTemplate;
+import org.mule.module.ldap.api.LDAPRequestCoalescer;
+import org.mule.module.ldap.api.LDAPSearchCache;
 
 @ConnectionManagement(friendlyName="Config", configElementName="config")
 public class LDAPCacheConnection implements LDAPConnectionStrategy
@@ -46,7 +54,8 @@ public class LDAPCacheConnection implements LDAPConnectionStrategy
     private String url;
 
     /**
-     * The implementation of the connection to be used. 
+     * The implementation of the connection to be used. NIO multiplexes all the operations of a connection on a
+     * single socket but supports neither TLS nor schema retrieval.
      */
     @Configurable
     @Default(value = "JNDI")
@@ -55,6 +64,9 @@ public class LDAPCacheConnection implements LDAPConnectionStrategy
     /**
      * The string representation of an integer that represents the number of connections per connection identity to create when initially
      * creating a connection for the identity. To disable pooling, just set this value to 0 (zero).
+     * <p/>
+     * Connections are pooled by the connector itself (see {@link LDAPConnectionPool}) and validated before being handed out, so the
+     * native pooling of the connection implementation is not used.
      */
     @Configurable
     @Default(value = "1")
@@ -63,7 +75,7 @@ public class LDAPCacheConnection implements LDAPConnectionStrategy
 
     /**
      * The string representation of an integer that represents the maximum number of connections per connection identity that can be maintained
-     * concurrently.
+     * concurrently. When this limit is reached, requests for a new connection wait (in arrival order) until a connection is returned to the pool.
      */
     @Configurable
     @Default(value = "5")
@@ -105,6 +117,133 @@ public class LDAPCacheConnection implements LDAPConnectionStrategy
     @Placement(group = "General")
     private boolean schemaEnabled;
     
+    /**
+     * Number of milliseconds a successful bind is trusted by the <i>bind</i> operation. If the connection was binded within this window (for example
+     * because it was just created by the connection manager) it is not binded again. Set this value to 0 (zero) to always bind again.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "1000")
+    @Placement(group = "Advanced")
+    private long bindFreshnessWindow;
+    
+    /**
+     * Maximum number of operations the connector performs in parallel (each one on its own pooled connection) when an
+     * operation needs several requests to the LDAP server.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "10")
+    @Placement(group = "Advanced")
+    private int asyncMaxConcurrency;
+    
+    /**
+     * Named LDAP filters with <code>{n}</code> placeholders used by the <i>template-search</i> operation, keyed by
+     * name (see {@link LDAPFilterTemplates}).
+     * @since 2.0.0
+     */
+    @Configurable
+    @Optional
+    @Placement(group = "Advanced")
+    private Map<String, String> filterTemplates;
+    
+    private final LDAPFilterTemplates compiledFilterTemplates = new LDAPFilterTemplates();
+    
+    /**
+     * Number of milliseconds the credentials accepted by the LDAP server are trusted, so binds and authentications of
+     * the same user are answered without contacting the server. Only a salted hash of the passwords is kept in memory.
+     * Default value is 0 (zero) which disables the cache.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "0")
+    @Placement(group = "Advanced")
+    private long credentialCacheTtl;
+    
+    /**
+     * Maximum number of users whose credentials are cached. Least recently used users are evicted first.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "10000")
+    @Placement(group = "Advanced")
+    private long credentialCacheMaxSize;
+    
+    /**
+     * Number of milliseconds the results of a search are reused by later searches of the same user with the same base DN,
+     * filter, scope, attributes and limits. Adding, modifying, deleting or renaming an entry through the connector removes
+     * the searches that may have returned it. Paged searches and searches returning more than <i>searchCacheMaxResults</i>
+     * entries are never cached. Default value is 0 (zero) which disables the cache.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "0")
+    @Placement(group = "Advanced")
+    private long searchCacheTtl;
+    
+    /**
+     * Maximum number of searches whose results are cached. Least recently used searches are evicted first.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "1000")
+    @Placement(group = "Advanced")
+    private long searchCacheMaxSize;
+    
+    /**
+     * Maximum number of entries of the searches whose results are cached. Searches returning more entries are not cached
+     * (their results are read from the LDAP server as they are consumed).
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "1000")
+    @Placement(group = "Advanced")
+    private long searchCacheMaxResults;
+    
+    /**
+     * Number of milliseconds the entries returned by lookups are reused by later lookups of the same user with the same DN
+     * and attributes, and by existence checks. Adding, modifying, deleting or renaming an entry through the connector
+     * removes it from the cache. Default value is 0 (zero) which disables the cache.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "0")
+    @Placement(group = "Advanced")
+    private long entryCacheTtl;
+    
+    /**
+     * Number of milliseconds a DN that was not found is known to be missing, so lookups and existence checks of it are
+     * answered without contacting the server. Only used if the entry cache is enabled. Default value is 0 (zero) which
+     * disables negative caching.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "0")
+    @Placement(group = "Advanced")
+    private long entryCacheNegativeTtl;
+    
+    /**
+     * Maximum number of DNs whose entries are cached (and, separately, of missing DNs). Least recently used DNs are
+     * evicted first.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "10000")
+    @Placement(group = "Advanced")
+    private long entryCacheMaxSize;
+    
+    /**
+     * If true, identical lookups and searches (same user, DN or base DN, filter, scope, limits and attributes) performed at
+     * the same time share a single request to the LDAP server, and each one gets its own copy of the result. As the results of a
+     * shared search are kept in memory, only searches limited by <i>maxResults</i> are coalesced, and never the ones using paging
+     * or virtual list view. Default value is false.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "false")
+    @Placement(group = "Advanced")
+    private boolean coalesceRequests;
+    
 	/**
      * 
      */
@@ -117,6 +256,21 @@ public class LDAPCacheConnection implements LDAPConnectionStrategy
      */
     private LDAPConnection connection = null;
     
+    /*
+     * Pool the LDAP client was borrowed from
+     */
+    private LDAPConnectionPool pool = null;
+    
+    /*
+     * Verifies user credentials on connections bound as the connection identity
+     */
+    private LDAPAuthenticator authenticator = null;
+    
+    /*
+     * Performs operations in parallel on connections bound as the connection identity
+     */
+    private LDAPAsyncExecutor asyncExecutor = null;
+    
     private final String connectionIdPrefix = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
     
     // Connection Management
@@ -151,20 +305,43 @@ public class LDAPCacheConnection implements LDAPConnectionStrategy
          */
         try
         {
-            if(this.connection == null)
+            if(this.connection != null)
             {
-                this.connection = LDAPConnection.getConnection(type.toString(), getUrl(), authentication, getInitialPoolSize(), getMaxPoolSize(), getPoolTimeout(), getReferral().toString(), getExtendedConfiguration(), isSchemaEnabled());
+                releaseConnection();
+            }
+            
+            // Configurations share a pool only if they use the same caches
+            LDAPCacheConfiguration caches = new LDAPCacheConfiguration();
+            caches.setCredentialCacheTtl(getCredentialCacheTtl());
+            caches.setCredentialCacheMaxSize(getCredentialCacheMaxSize());
+            caches.setSearchCacheTtl(getSearchCacheTtl());
+            caches.setSearchCacheMaxSize(getSearchCacheMaxSize());
+            caches.setSearchCacheMaxResults(getSearchCacheMaxResults());
+            caches.setEntryCacheTtl(getEntryCacheTtl());
+            caches.setEntryCacheNegativeTtl(getEntryCacheNegativeTtl());
+            caches.setEntryCacheMaxSize(getEntryCacheMaxSize());
+            caches.setCoalesceRequests(isCoalesceRequests());
+            
+            LDAPConnectionPool previous = this.pool;
+            this.pool = LDAPConnectionPool.getPool(type.toString(), getUrl(), authentication, getInitialPoolSize(), getMaxPoolSize(), getPoolTimeout(), getReferral().toString(), getExtendedConfiguration(), isSchemaEnabled(), LDAPConnection.DEFAULT_TLS_ENABLED, caches);
+            if(previous != null)
+            {
+                previous.release();
             }
             
             if(LDAPConnection.NO_AUTHENTICATION.equals(authentication))
             {
                 // Anonymous -> Ignoring authDn and authPassword
                 // For DevKit connection Management to work, authDn should be set to a value (like ANONYMOUS)
-                this.connection.bind(null, null);
+                this.connection = this.pool.borrowConnection(null, null);
+                this.authenticator = new LDAPAuthenticator(this.pool, null, null);
+                replaceAsyncExecutor(new LDAPAsyncExecutor(this.pool, null, null, getAsyncMaxConcurrency()));
             }
             else
             {
-                this.connection.bind(authDn, authPassword);
+                this.connection = this.pool.borrowConnection(authDn, authPassword);
+                this.authenticator = new LDAPAuthenticator(this.pool, authDn, authPassword);
+                replaceAsyncExecutor(new LDAPAsyncExecutor(this.pool, authDn, authPassword, getAsyncMaxConcurrency()));
             }
         }
         catch(Exception ex)
@@ -185,19 +362,43 @@ public class LDAPCacheConnection implements LDAPConnectionStrategy
         {
             logger.debug("About to disconnect " + id);
         }
+        releaseConnection();
+        replaceAsyncExecutor(null);
+        releasePool();
+    }
+
+    /**
+     * Gives the current connection back to the pool it was borrowed from.
+     */
+    private void releaseConnection()
+    {
         if (this.connection != null)
         {
             try
             {
-                this.connection.close();
+                this.pool.returnConnection(this.connection);
             }
-            catch (LDAPException ex)
+            finally
             {
-                logger.error("Unable to close connection " + id + ". Forcing close anyway.", ex);
+                this.connection = null;
+            }
+        }
+    }
+
+    /**
+     * Gives back the shared pool, closing it if no other connection uses it.
+     */
+    private void releasePool()
+    {
+        if (this.pool != null)
+        {
+            try
+            {
+                this.pool.release();
             }
             finally
             {
-                this.connection = null;
+                this.pool = null;
             }
         }
     }
@@ -314,11 +515,189 @@ public class LDAPCacheConnection implements LDAPConnectionStrategy
         this.schemaEnabled = schemaEnabled;
     }
 
+    @Override
+    public long getBindFreshnessWindow()
+    {
+        return bindFreshnessWindow;
+    }
+
+    public void setBindFreshnessWindow(long bindFreshnessWindow)
+    {
+        this.bindFreshnessWindow = bindFreshnessWindow;
+    }
+
+    public long getCredentialCacheTtl()
+    {
+        return credentialCacheTtl;
+    }
+
+    public void setCredentialCacheTtl(long credentialCacheTtl)
+    {
+        this.credentialCacheTtl = credentialCacheTtl;
+    }
+
+    public long getCredentialCacheMaxSize()
+    {
+        return credentialCacheMaxSize;
+    }
+
+    public void setCredentialCacheMaxSize(long credentialCacheMaxSize)
+    {
+        this.credentialCacheMaxSize = credentialCacheMaxSize;
+    }
+
+    public long getSearchCacheTtl()
+    {
+        return searchCacheTtl;
+    }
+
+    public void setSearchCacheTtl(long searchCacheTtl)
+    {
+        this.searchCacheTtl = searchCacheTtl;
+    }
+
+    public long getSearchCacheMaxSize()
+    {
+        return searchCacheMaxSize;
+    }
+
+    public void setSearchCacheMaxSize(long searchCacheMaxSize)
+    {
+        this.searchCacheMaxSize = searchCacheMaxSize;
+    }
+
+    public long getSearchCacheMaxResults()
+    {
+        return searchCacheMaxResults;
+    }
+
+    public void setSearchCacheMaxResults(long searchCacheMaxResults)
+    {
+        this.searchCacheMaxResults = searchCacheMaxResults;
+    }
+
+    /**
+     * @return The cache of search results with its hit and miss counts or <i>null</i> if search results are not cached.
+     */
+    public LDAPSearchCache getSearchCache()
+    {
+        return this.pool != null ? this.pool.getSearchCache() : null;
+    }
+
+    public long getEntryCacheTtl()
+    {
+        return entryCacheTtl;
+    }
+
+    public void setEntryCacheTtl(long entryCacheTtl)
+    {
+        this.entryCacheTtl = entryCacheTtl;
+    }
+
+    public long getEntryCacheNegativeTtl()
+    {
+        return entryCacheNegativeTtl;
+    }
+
+    public void setEntryCacheNegativeTtl(long entryCacheNegativeTtl)
+    {
+        this.entryCacheNegativeTtl = entryCacheNegativeTtl;
+    }
+
+    public long getEntryCacheMaxSize()
+    {
+        return entryCacheMaxSize;
+    }
+
+    public void setEntryCacheMaxSize(long entryCacheMaxSize)
+    {
+        this.entryCacheMaxSize = entryCacheMaxSize;
+    }
+
+    /**
+     * @return The cache of looked up entries with its hit and miss counts or <i>null</i> if entries are not cached.
+     */
+    public LDAPEntryCache getEntryCache()
+    {
+        return this.pool != null ? this.pool.getEntryCache() : null;
+    }
+
+    public boolean isCoalesceRequests()
+    {
+        return coalesceRequests;
+    }
+
+    public void setCoalesceRequests(boolean coalesceRequests)
+    {
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    /**
+     * @return The coalescer of identical requests with its request and coalesced counts or <i>null</i> if requests are
+     *         not coalesced.
+     */
+    public LDAPRequestCoalescer getRequestCoalescer()
+    {
+        return this.pool != null ? this.pool.getRequestCoalescer() : null;
+    }
+
     @Override
     public LDAPConnection getConnection()
     {
         return connection;
-    }    
-}
+    }
+
+    @Override
+    public LDAPAuthenticator getAuthenticator()
+    {
+        return authenticator;
+    }
+
+    public int getAsyncMaxConcurrency()
+    {
+        return asyncMaxConcurrency;
+    }
+
+    public void setAsyncMaxConcurrency(int asyncMaxConcurrency)
+    {
+        this.asyncMaxConcurrency = asyncMaxConcurrency;
+    }
+
+    public Map<String, String> getFilterTemplates()
+    {
+        return filterTemplates;
+    }
 
+    /**
+     * @throws IllegalArgumentException If any of the filters is not valid.
+     */
+    public void setFilterTemplates(Map<String, String> filterTemplates)
+    {
+        this.compiledFilterTemplates.setFilters(filterTemplates);
+        this.filterTemplates = filterTemplates;
+    }
 
+    @Override
+    public LDAPFilterTemplate getFilterTemplate(String name) throws LDAPException
+    {
+        return compiledFilterTemplates.get(name);
+    }
+
+    @Override
+    public LDAPAsyncExecutor getAsyncExecutor()
+    {
+        return asyncExecutor;
+    }
+
+    /**
+     * Shuts down the current executor (letting the operations already submitted finish) and replaces it.
+     */
+    private void replaceAsyncExecutor(LDAPAsyncExecutor executor)
+    {
+        if (this.asyncExecutor != null)
+        {
+            this.asyncExecutor.shutdown();
+        }
+        this.asyncExecutor = executor;
+    }
+}
@@ -1,10 +1,37 @@
 package org.mule.module.ldap;
 
+import org.mule.module.ldap.api.LDAPAsyncExecutor;
+import org.mule.module.ldap.api.LDAPAuthenticator;
 import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPFilterTemplate;
 
 public interface LDAPConnectionStrategy
 {
 	LDAPConnection getConnection();
 	
 	void disconnect();
+	
+	/**
+	 * @return The {@link LDAPAuthenticator} that verifies user credentials using connections bound as the identity
+	 *         of the current connection.
+	 */
+	LDAPAuthenticator getAuthenticator();
+	
+	/**
+	 * @return Number of milliseconds a bind is trusted before the <i>bind</i> operation binds the connection again.
+	 */
+	long getBindFreshnessWindow();
+	
+	/**
+	 * @return The {@link LDAPAsyncExecutor} that performs operations in parallel on connections bound as the identity
+	 *         of the current connection.
+	 */
+	LDAPAsyncExecutor getAsyncExecutor();
+	
+	/**
+	 * @return The filter template with the given name, compiled when the configuration was created.
+	 * @throws LDAPException If there is no filter template with that name.
+	 */
+	LDAPFilterTemplate getFilterTemplate(String name) throws LDAPException;
 }
@@ -10,9 +10,13 @@ package org.mule.module.ldap;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.UUID;
 
 import org.apache.log4j.Logger;
 import org.mule.api.ConnectionException;
@@ -24,13 +28,16 @@ import org.mule.api.annotations.MetaDataRetriever;
 import org.mule.api.annotations.Paged;
 import org.mule.api.annotations.Processor;
 import org.mule.api.annotations.ReconnectOn;
+import org.mule.api.annotations.Source;
 import org.mule.api.annotations.Transformer;
 import org.mule.api.annotations.display.FriendlyName;
+import org.mule.api.annotations.display.Password;
 import org.mule.api.annotations.display.Placement;
 import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.MetaDataKeyParam;
 import org.mule.api.annotations.param.MetaDataKeyParamAffectsType;
 import org.mule.api.annotations.param.Optional;
+import org.mule.api.callback.SourceCallback;
 import org.mule.common.metadata.DefaultMetaData;
 import org.mule.common.metadata.DefaultMetaDataKey;
 import org.mule.common.metadata.MetaData;
@@ -43,17 +50,26 @@ import org.mule.module.ldap.api.AuthenticationException;
 import org.mule.module.ldap.api.CommunicationException;
 import org.mule.module.ldap.api.ContextNotEmptyException;
 import org.mule.module.ldap.api.InvalidAttributeException;
+import org.mule.module.ldap.api.LDAPAsyncExecutor;
+import org.mule.module.ldap.api.LDAPChangeStream;
 import org.mule.module.ldap.api.LDAPConnection;
 import org.mule.module.ldap.api.LDAPEntry;
 import org.mule.module.ldap.api.LDAPEntryAttribute;
 import org.mule.module.ldap.api.LDAPEntryAttributeTypeDefinition;
+import org.mule.module.ldap.api.LDAPEntryChange;
 import org.mule.module.ldap.api.LDAPEntryObjectClassDefinition;
 import org.mule.module.ldap.api.LDAPException;
 import org.mule.module.ldap.api.LDAPMultiValueEntryAttribute;
+import org.mule.module.ldap.api.LDAPParallelResultSet;
+import org.mule.module.ldap.api.LDAPPartitionedResultSet;
 import org.mule.module.ldap.api.LDAPResultSet;
 import org.mule.module.ldap.api.LDAPSearchControls;
 import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
 import org.mule.module.ldap.api.LDAPSortKey;
+import org.mule.module.ldap.api.LDAPSyncChange;
+import org.mule.module.ldap.api.LDAPSyncCookieStore;
+import org.mule.module.ldap.api.LDAPVirtualListView;
+import org.mule.module.ldap.api.LDAPVirtualListViewResultSet;
 import org.mule.module.ldap.api.NameNotFoundException;
 import org.mule.module.ldap.api.SyntaxObjectIdentifier;
 import org.mule.streaming.PagingConfiguration;
@@ -65,6 +81,7 @@ import org.mule.util.StringUtils;
  * The LDAP Connector will allow to connect to any LDAP server and perform every LDAP operation:
  * <ul>
  *  <li><a href="#bind"><b>bind</b></a>: Authenticate against the LDAP server. This occurs automatically before each operation but can also be performed on request</li>
+ *  <li><a href="#authenticate"><b>authenticate</b></a>: Verify the credentials of a user without changing the identity of the connection</li>
  *  <li><a href="#search"><b>search</b></a>: Perform a LDAP search in a base DN with a given filter</li>
  *  <li><a href="#lookup"><b>lookup</b></a>: Retrieve a unique LDAP entry</li>
  *  <li><a href="#add"><b>add</b></a>: Creates a new LDAP entry</li>
@@ -232,6 +249,10 @@ import org.mule.util.StringUtils;
  * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:config-2}
  * <p/>
  * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:config-3}
+ * <p/>
+ * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:multi-server-config-1}
+ * <p/>
+ * {@sample.config ../../../doc/mule-module-ldap.xml.sample ldap:routing-config-1}
  *
  * @author Mariano Capurro (MuleSoft, Inc.)
  */
@@ -242,6 +263,16 @@ public class LDAPConnector
 
 	private static final String OBJECT_CLASS_ATTR_NAME = "objectClass";
 
+    public static final String CHANGE_TYPE_PROPERTY = "ldap.changeType";
+    public static final String PREVIOUS_DN_PROPERTY = "ldap.previousDn";
+    public static final String CHANGE_NUMBER_PROPERTY = "ldap.changeNumber";
+    public static final String ENTRY_UUID_PROPERTY = "ldap.entryUUID";
+
+    /**
+     * Milliseconds the persistent search and sync sources wait for a change before checking whether it was stopped.
+     */
+    private static final long CHANGE_POLL_INTERVAL = 1000L;
+
 	protected final Logger logger = Logger.getLogger(getClass());
 
     @ConnectionStrategy
@@ -254,7 +285,8 @@ public class LDAPConnector
      * If no values are provided to override <i>authDn</i> and <i>authPassword</i> then using
      * this operation will just re-bind (re-authenticate) the user/password defined in the <i>config</i>
      * element. If new values are provided for <i>authDn</i> and <i>authPassword</i>, then authentication
-     * will be performed.
+     * will be performed. Connections binded within the <i>bindFreshnessWindow</i> defined in the <i>config</i> element
+     * (like the ones just created by the connection manager) are not binded again.
      * <p/>
      * <h4>Re-authenticating and returning the LDAP entry using <i>config</i> level credentials (authDn & authPassword)</h4>
      * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:bind-1}
@@ -277,12 +309,23 @@ public class LDAPConnector
     public LDAPEntry bind() throws Exception
     {
         /*
-         * Force the login. By the time the connection makes it here it is already handled by the Connection Manager.
-         * :TODO: Check when the connection was binded and avoid rebinding a newly created connection by the connection manager.
+         * Force the login. By the time the connection makes it here it is already handled by the Connection Manager, so
+         * the bind is only performed again if the connection was not binded recently as the configured user.
          */
-        getConnectionStrategy().getConnection().rebind();
+        LDAPConnection connection = getConnectionStrategy().getConnection();
+        if(connection.isBindFresh(getConnectionStrategy().getAuthenticator().getServiceDn(), getConnectionStrategy().getBindFreshnessWindow()))
+        {
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("Reusing bind performed " + (System.currentTimeMillis() - connection.getLastBindTime()) + " ms ago");
+            }
+        }
+        else
+        {
+            connection.rebind();
+        }
         
-        String dn = getConnectionStrategy().getConnection().getBindedUserDn();
+        String dn = connection.getBindedUserDn();
         
         if(logger.isInfoEnabled())
         {
@@ -336,6 +379,45 @@ public class LDAPConnector
         getConnectionStrategy().disconnect();
     }
     
+    /**
+     * Verifies the credentials of a user without changing the identity of the connections used by the other operations. The LDAP bind is
+     * performed on an already open connection, which is bound back to the <i>config</i> level credentials afterwards, so no new connection
+     * (nor TLS negotiation) is needed for each authentication. Use this operation over {@link LDAPConnector#bind()} when using the LDAP
+     * server as a login backend.
+     * <p/>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:authenticate}
+     * 
+     * @param authDn The DN (distinguished name) of the user to authenticate (for example: uid=user,ou=people,dc=mulesoft,dc=org).
+     * @param authPassword The password of the user. Empty passwords are always rejected.
+     * @return <i>true</i> if the credentials are valid or <i>false</i> otherwise.
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems.
+     * @throws Exception In case there is any other error verifying the credentials.
+     * @since 2.0.0
+     */
+    @Processor
+    @ReconnectOn(exceptions = CommunicationException.class)
+    public boolean authenticate(@FriendlyName("Principal DN") String authDn, @FriendlyName("Password") @Password String authPassword) throws Exception
+    {
+        try
+        {
+            getConnectionStrategy().getAuthenticator().authenticate(authDn, authPassword);
+            
+            if(logger.isInfoEnabled())
+            {
+                logger.info("Authentication was successful for user: " + authDn);
+            }
+            return true;
+        }
+        catch(AuthenticationException ex)
+        {
+            if(logger.isInfoEnabled())
+            {
+                logger.info("Authentication failed for user: " + authDn);
+            }
+            return false;
+        }
+    }
+    
     /**
      * Retrieves an entry from the LDAP server base on its distinguished name (DN). DNs are the unique identifiers
      * of an LDAP entry, so this method will perform a search based on this ID and so return a single entry as result
@@ -389,7 +471,52 @@ public class LDAPConnector
     }
 
     /**
-     * Checks whether a LDAP entry exists in the LDAP server or not.
+     * Retrieves many LDAP entries at once. The DNs are grouped by parent and the entries of each group are read with a
+     * single search matching their RDNs, instead of one lookup per entry. The groups (and the DNs that cannot be read
+     * that way) are retrieved in parallel on connections borrowed from the pool.
+     * <h4>Retrieve the cn and mail of many LDAP entries</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:lookup-many-1}
+     * @param dns The DNs of the LDAP entries that will be retrieved. Repeated DNs are retrieved once.
+     * @param attributes A list of the attributes that should be returned in the result. If omitted, all the attributes are returned.
+     * @return A map with the DNs (in the same order as <code>dns</code>) as keys and the LDAP entries as values. DNs that do not exist are not included.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the lookup of any of the DNs.
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems or referrals.
+     * @throws Exception In case there is any other error retrieving the entries.
+     * @since 2.0.0
+     */
+    @Processor
+    @ReconnectOn(exceptions = CommunicationException.class)
+    public Map<String, LDAPEntry> lookupMany(@FriendlyName("DNs") @Default("#[payload:]") List<String> dns, @Optional List<String> attributes) throws Exception
+    {
+        String[] attributesToReturn = attributes != null && attributes.size() > 0 ? attributes.toArray(new String[0]) : null;
+        List<Map<String, LDAPEntry>> groups = LDAPAsyncExecutor.getResult(getConnectionStrategy().getAsyncExecutor().lookupManyGroups(dns, attributesToReturn));
+        
+        Map<String, LDAPEntry> found = new HashMap<String, LDAPEntry>();
+        for(Map<String, LDAPEntry> group : groups)
+        {
+            found.putAll(group);
+        }
+        
+        Map<String, LDAPEntry> result = new LinkedHashMap<String, LDAPEntry>();
+        for(String dn : dns)
+        {
+            if(found.containsKey(dn))
+            {
+                result.put(dn, found.get(dn));
+            }
+        }
+        
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("Retrieved " + result.size() + " of " + dns.size() + " entries");
+        }
+        
+        return result;
+    }
+
+    /**
+     * Checks whether a LDAP entry exists in the LDAP server or not. The entry is read with a base object search that
+     * requests no attributes, so only its DN is transferred.
      * <h4>Check if LDAP entry exists</h4>
      * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:exists-1}
      * @param dn The DN of the LDAP entry that will be retrieved.
@@ -403,14 +530,35 @@ public class LDAPConnector
     @ReconnectOn(exceptions = CommunicationException.class)
     public boolean exists(@FriendlyName("DN") String dn) throws Exception
     {
-        try
-        {
-            return lookup(dn, null, null) != null;
-        }
-        catch(NameNotFoundException nnfe)
+        // Looks up the entry without attributes (or answers from the entry cache) instead of fetching the whole entry
+        return getConnectionStrategy().getConnection().exists(dn);
+    }
+
+    /**
+     * Checks whether many LDAP entries exist in the LDAP server or not. The checks are performed in parallel on
+     * connections borrowed from the pool (at most as many at the same time as the configured async max concurrency).
+     * <h4>Check which of the LDAP entries exist</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:exists-all-1}
+     * @param dns The DNs of the LDAP entries to check. Repeated DNs are checked once.
+     * @return A map with the DNs (in the same order as <code>dns</code>) as keys and whether each LDAP entry exists as values.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the lookup of any of the DNs.
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems or referrals.
+     * @throws Exception In case there is any other error checking for entries existence.
+     * @since 2.0.0
+     */
+    @Processor
+    @ReconnectOn(exceptions = CommunicationException.class)
+    public Map<String, Boolean> existsAll(@FriendlyName("DNs") @Default("#[payload:]") List<String> dns) throws Exception
+    {
+        List<String> distinctDns = new ArrayList<String>(new LinkedHashSet<String>(dns));
+        List<Boolean> existing = LDAPAsyncExecutor.getResult(getConnectionStrategy().getAsyncExecutor().existsAll(distinctDns));
+        
+        Map<String, Boolean> result = new LinkedHashMap<String, Boolean>(distinctDns.size());
+        for(int i = 0; i < distinctDns.size(); i++)
         {
-            return false;
+            result.put(distinctDns.get(i), existing.get(i));
         }
+        return result;
     }
     
     /**
@@ -509,6 +657,310 @@ public class LDAPConnector
         }
     }
     
+    /**
+     * Performs a LDAP search using one of the filter templates of the configuration, returning a list with all the
+     * resulting LDAP entries. The arguments replace the <code>{n}</code> placeholders of the template once escaped, so
+     * flows do not need to build filters concatenating strings and special characters in the arguments (like
+     * <code>*</code> or <code>)</code>) cannot change the meaning of the filter.
+     * <p/>
+     * <h4>Searching all persons by surname using the bySurname template (with filter (&(objectClass=person)(sn={0})))</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:template-search-1}
+     * 
+     * @param baseDn The base DN of the LDAP search.
+     * @param template The name of a filter template defined in the configuration.
+     * @param arguments The values that replace the <code>{0}</code>, <code>{1}</code>, ... placeholders of the template. Their number
+     *        must match the placeholders of the template. <code>byte[]</code> values are escaped byte by byte and other values are
+     *        converted to strings.
+     * @param attributes A list of the attributes that should be returned in the result. If the attributes list is empty or null, then by default all
+     *        LDAP entry attributes are returned.
+     * @param scope The scope of the search. Valid attributes are:
+     *              <ul>
+     *                 <li><b>OBJECT</b>: This value is used to indicate searching only the entry at the base DN, resulting in only that entry
+     *                               being returned (keeping in mind that it also has to meet the search filter criteria!)</li>
+     *                 <li><b>ONE_LEVEL</b>: This value is used to indicate searching all entries one level under the base DN - but not including
+     *                               the base DN and not including any entries under that one level under the base DN. </li>
+     *                 <li><b>SUB_TREE</b>: This value is used to indicate searching of all entries at all levels under and including the specified base DN.</li>
+     *              </ul>
+     * @param timeout Search timeout in milliseconds. If the value is 0, this means to wait indefinitely. 
+     * @param maxResults The maximum number of entries that will be returned as a result of the search. 0 indicates that all entries will be returned. 
+     * @param returnObject Enables/disables returning objects returned as part of the result. If disabled, only the name and class of the object is returned.
+     *                     If enabled, the object will be returned. 
+     * @param pageSize If the LDAP server supports paging results set in this attribute the size of the page. If the pageSize is less or equals than 0, then paging will be disabled.
+     * @param structuralObjectClass The type of entry that will be returned. Only for DataSense purposes to be used in Anypoint Studio IDE. Has no impact on runtime, that's why it is optional.
+     * 
+     * @return A {@link java.util.List} of {@link LDAPEntry} objects with the results of the search. If the search throws no results, then this is an empty list.
+     * @throws org.mule.module.ldap.api.InvalidAttributeException If the number of arguments does not match the placeholders of the template.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the search under the given base DN.
+     * @throws org.mule.module.ldap.api.NameNotFoundException If base DN is invalid (for example it doesn't exist)
+     * @throws org.mule.module.ldap.api.LDAPException If the template is not defined or in case there is any other exception, mainly related to connectivity problems or referrals.
+     * @throws Exception In case there is any other error performing the search.
+     * @since 2.0.0
+     */
+    @Processor
+    @ReconnectOn(exceptions = CommunicationException.class)
+    public List<LDAPEntry> templateSearch(@FriendlyName("Base DN") String baseDn, String template, @Optional List<Object> arguments, @Optional List<String> attributes,
+                                          @Default("ONE_LEVEL") SearchScope scope, @Default("0") @Placement(group = "Search Controls") int timeout,
+                                          @Default("0") @Placement(group = "Search Controls") long maxResults,
+                                          @Default("false") @Placement(group = "Search Controls") boolean returnObject,
+                                          @Default("0") @Placement(group = "Search Controls") int pageSize,
+                                          @Optional @MetaDataKeyParam(affects=MetaDataKeyParamAffectsType.OUTPUT) String structuralObjectClass) throws Exception
+    {
+        String filter = getConnectionStrategy().getFilterTemplate(template).format(arguments != null ? arguments.toArray() : null);
+        return search(baseDn, filter, attributes, scope, timeout, maxResults, returnObject, pageSize, structuralObjectClass);
+    }
+    
+    /**
+     * Performs a LDAP search returning an iterator that reads the resulting LDAP entries from the server as they are consumed,
+     * so memory usage does not depend on the size of the result. Use it with a <i>foreach</i> or any other component able to
+     * consume an {@link java.util.Iterator} to process large results.
+     * <p/>
+     * The search is performed on a connection borrowed for it (counted as one of the <i>asyncMaxConcurrency</i> connections of
+     * the connector configuration), which is given back once the last entry is read, reading fails or the iterator is closed.
+     * Components that stop consuming the iterator before the last entry should call {@link LDAPResultSetIterator#close()}, as
+     * the connection is otherwise only given back once no entry is read for 5 minutes, and the iterator fails afterwards.
+     * Entries can only be iterated once.
+     * <p/>
+     * Use <i>paged-result-search</i> instead to let Mule stream the entries and close the search.
+     * <p/>
+     * For queries returning large results it is recommended to also use pagination (not all LDAP servers support this or are configured
+     * to support it), so the LDAP server returns the entries in pages of <i>pageSize</i> entries.
+     * <p/>
+     * <h4>Processing all person entries one at a time</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:streaming-search-1}
+     * 
+     * @param baseDn The base DN of the LDAP search.
+     * @param filter A valid LDAP filter. The LDAP connector supports LDAP search filters as defined in RFC 2254. Some examples are:
+     *               <ul>
+     *                  <li>(objectClass=*): All objects.</li>
+     *                  <li>(&(objectClass=person)(!cn=andy)): All persons except for the one with common name (cn) "andy".</li>
+     *                  <li>(sn=sm*): All objects with a surname that starts with "sm".</li>
+     *                  <li>(&(objectClass=person)(|(sn=Smith)(sn=Johnson))): All persons with a surname equal to "Smith" or "Johnson".</li>
+     *               </ul>
+     * @param attributes A list of the attributes that should be returned in the result. If the attributes list is empty or null, then by default all
+     *        LDAP entry attributes are returned.
+     * @param scope The scope of the search. Valid attributes are:
+     *              <ul>
+     *                 <li><b>OBJECT</b>: This value is used to indicate searching only the entry at the base DN, resulting in only that entry
+     *                               being returned (keeping in mind that it also has to meet the search filter criteria!)</li>
+     *                 <li><b>ONE_LEVEL</b>: This value is used to indicate searching all entries one level under the base DN - but not including
+     *                               the base DN and not including any entries under that one level under the base DN. </li>
+     *                 <li><b>SUB_TREE</b>: This value is used to indicate searching of all entries at all levels under and including the specified base DN.</li>
+     *              </ul>
+     * @param timeout Search timeout in milliseconds. If the value is 0, this means to wait indefinitely. 
+     * @param maxResults The maximum number of entries that will be returned as a result of the search. 0 indicates that all entries will be returned. 
+     * @param returnObject Enables/disables returning objects returned as part of the result. If disabled, only the name and class of the object is returned.
+     *                     If enabled, the object will be returned. 
+     * @param pageSize If the LDAP server supports paging results set in this attribute the size of the page. If the pageSize is less or equals than 0, then paging will be disabled.
+     * @param prefetchPages If paging is enabled, the amount of pages read in the background while the current one is processed, so the next page is
+     *                      already there when it is needed. 0 disables prefetching. Memory usage grows with <i>prefetchPages</i> times <i>pageSize</i>.
+     *                      Prefetching stops and the search is abandoned if no page is consumed for 5 minutes.
+     * @param pageTargetLatency If paging is enabled, the milliseconds each page should take to be read. If greater than 0, the size of each page
+     *                          is adapted to the time per entry of the previous pages, starting with <i>pageSize</i>.
+     * @param pageByteBudget If paging is enabled, the bytes each page should hold. If greater than 0, the size of each page is adapted to the size
+     *                       of the entries of the previous pages (for example smaller pages for entries with photos or large group memberships).
+     * @param structuralObjectClass The type of entry that will be returned. Only for DataSense purposes to be used in Anypoint Studio IDE. Has no impact on runtime, that's why it is optional.
+     * 
+     * @return A {@link LDAPResultSetIterator} over the {@link LDAPEntry} objects resulting from the search.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the search under the given base DN.
+     * @throws org.mule.module.ldap.api.NameNotFoundException If base DN is invalid (for example it doesn't exist)
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems or referrals.
+     * @throws Exception In case there is any other error performing the search.
+     * @since 2.0.0
+     */
+    @Processor
+    @ReconnectOn(exceptions = CommunicationException.class)
+    public LDAPResultSetIterator streamingSearch(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> attributes,
+                                                 @Default("ONE_LEVEL") SearchScope scope, @Default("0") @Placement(group = "Search Controls") int timeout,
+                                                 @Default("0") @Placement(group = "Search Controls") long maxResults,
+                                                 @Default("false") @Placement(group = "Search Controls") boolean returnObject,
+                                                 @Default("0") @Placement(group = "Search Controls") int pageSize,
+                                                 @Default("0") @Placement(group = "Search Controls") int prefetchPages,
+                                                 @Default("0") @Placement(group = "Search Controls") int pageTargetLatency,
+                                                 @Default("0") @Placement(group = "Search Controls") long pageByteBudget,
+                                                 @Optional @MetaDataKeyParam(affects=MetaDataKeyParamAffectsType.OUTPUT) String structuralObjectClass) throws Exception
+    {
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("About to stream LDAP entries matching " + filter + " under: " + baseDn);
+        }
+        
+        LDAPSearchControls controls = new LDAPSearchControls();
+        if(attributes != null && attributes.size() > 0)
+        {
+            controls.setAttributesToReturn(attributes.toArray(new String[0]));
+        }
+        controls.setMaxResults(maxResults);
+        controls.setTimeout(timeout);
+        controls.setScope(scope.getValue());
+        controls.setReturnObject(returnObject);
+        controls.setPageSize(pageSize);
+        controls.setPrefetchPages(prefetchPages);
+        controls.setPageTargetLatency(pageTargetLatency);
+        controls.setPageByteBudget(pageByteBudget);
+        
+        // The connection of the processor is given back once it returns, so the search needs a connection of its own
+        return new LDAPResultSetIterator(getConnectionStrategy().getAsyncExecutor().openSearch(baseDn, filter, controls));
+    }
+    
+    /**
+     * Performs a sub tree LDAP search splitting it in one search per entry immediately under the base DN. These searches are performed in parallel,
+     * each on a connection of its own, and their results are merged as they are read. It is intended for trees with many branches (like one
+     * organizational unit per tenant) where a single sub tree search walks every branch one after the other.
+     * <p/>
+     * As {@link #streamingSearch(String, String, List, SearchScope, int, long, boolean, int, int, int, long, String)}, entries are returned through an iterator
+     * as they are read, so memory usage does not depend on the size of the result. The order of the results is not defined. If any of the searches
+     * fails, the rest of them are cancelled and the iterator fails once the entries already read are consumed. Searches are also cancelled (giving
+     * their connections back) when no entry is consumed for 5 minutes, as it happens with iterators that are abandoned without being closed.
+     * <p/>
+     * <h4>Searching all person entries under every tenant organizational unit</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:parallel-search-1}
+     * 
+     * @param baseDn The base DN of the LDAP search.
+     * @param filter A valid LDAP filter. The LDAP connector supports LDAP search filters as defined in RFC 2254. Some examples are:
+     *               <ul>
+     *                  <li>(objectClass=*): All objects.</li>
+     *                  <li>(&(objectClass=person)(!cn=andy)): All persons except for the one with common name (cn) "andy".</li>
+     *                  <li>(sn=sm*): All objects with a surname that starts with "sm".</li>
+     *                  <li>(&(objectClass=person)(|(sn=Smith)(sn=Johnson))): All persons with a surname equal to "Smith" or "Johnson".</li>
+     *               </ul>
+     * @param attributes A list of the attributes that should be returned in the result. If the attributes list is empty or null, then by default all
+     *        LDAP entry attributes are returned.
+     * @param timeout Timeout in milliseconds of each one of the searches. If the value is 0, this means to wait indefinitely. 
+     * @param maxResults The maximum number of entries that will be returned as a result of the search. 0 indicates that all entries will be returned. 
+     * @param returnObject Enables/disables returning objects returned as part of the result. If disabled, only the name and class of the object is returned.
+     *                     If enabled, the object will be returned. 
+     * @param pageSize If the LDAP server supports paging results set in this attribute the size of the page used by each one of the searches. If the
+     *                 pageSize is less or equals than 0, then paging will be disabled.
+     * @param maxConcurrency Maximum number of searches performed at the same time. It is also limited by the <i>asyncMaxConcurrency</i> of the connector
+     *                       configuration.
+     * @param structuralObjectClass The type of entry that will be returned. Only for DataSense purposes to be used in Anypoint Studio IDE. Has no impact on runtime, that's why it is optional.
+     * 
+     * @return A {@link LDAPResultSetIterator} over the {@link LDAPEntry} objects resulting from the search.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the search under the given base DN.
+     * @throws org.mule.module.ldap.api.NameNotFoundException If base DN is invalid (for example it doesn't exist)
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems or referrals.
+     * @throws Exception In case there is any other error performing the search.
+     * @since 2.0.0
+     */
+    @Processor
+    @ReconnectOn(exceptions = CommunicationException.class)
+    public LDAPResultSetIterator parallelSearch(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> attributes,
+                                                @Default("0") @Placement(group = "Search Controls") int timeout,
+                                                @Default("0") @Placement(group = "Search Controls") long maxResults,
+                                                @Default("false") @Placement(group = "Search Controls") boolean returnObject,
+                                                @Default("0") @Placement(group = "Search Controls") int pageSize,
+                                                @Default("4") @Placement(group = "Search Controls") int maxConcurrency,
+                                                @Optional @MetaDataKeyParam(affects=MetaDataKeyParamAffectsType.OUTPUT) String structuralObjectClass) throws Exception
+    {
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("About to search in parallel LDAP entries matching " + filter + " under: " + baseDn);
+        }
+        
+        LDAPSearchControls controls = new LDAPSearchControls();
+        if(attributes != null && attributes.size() > 0)
+        {
+            controls.setAttributesToReturn(attributes.toArray(new String[0]));
+        }
+        controls.setMaxResults(maxResults);
+        controls.setTimeout(timeout);
+        controls.setScope(SearchScope.SUB_TREE.getValue());
+        controls.setReturnObject(returnObject);
+        controls.setPageSize(pageSize);
+        
+        return new LDAPResultSetIterator(new LDAPParallelResultSet(getConnectionStrategy().getAsyncExecutor(), baseDn, filter, null, controls, maxConcurrency));
+    }
+    
+    /**
+     * Performs a LDAP search splitting it in partitions by filter that are searched in parallel, each on a connection of its own. Partitions are either
+     * given as a list of filters (ranges) or generated from the first character of the values of the partition attribute (for example <i>(uid=a*)</i> to
+     * <i>(uid=z*)</i>, <i>(uid=0*)</i> to <i>(uid=9*)</i> and one more partition for the rest of the entries).
+     * <p/>
+     * Partitions reaching the size limit of the LDAP server are split again by the next character of the partition attribute, so searches returning
+     * more entries than the size limit are returned completely. Entries read by a partition before it reaches the size limit are not returned again
+     * by the partitions it is split in: each running partition keeps the DNs of the entries it returned, so memory usage grows with <i>maxConcurrency</i>
+     * times the size limit of the server while partitions are split. Entries matching more than one of the given partitions (or with values of the
+     * partition attribute starting with different characters) are returned once per partition.
+     * <p/>
+     * As {@link #streamingSearch(String, String, List, SearchScope, int, long, boolean, int, int, int, long, String)}, entries are returned through an iterator
+     * as they are read. The order of the results is not defined.
+     * <p/>
+     * <h4>Searching all person entries partitioning by uid</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:partitioned-search-1}
+     * <p/>
+     * <h4>Searching all person entries in two given partitions</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:partitioned-search-2}
+     * 
+     * @param baseDn The base DN of the LDAP search.
+     * @param filter A valid LDAP filter. The LDAP connector supports LDAP search filters as defined in RFC 2254. Some examples are:
+     *               <ul>
+     *                  <li>(objectClass=*): All objects.</li>
+     *                  <li>(&(objectClass=person)(!cn=andy)): All persons except for the one with common name (cn) "andy".</li>
+     *                  <li>(sn=sm*): All objects with a surname that starts with "sm".</li>
+     *                  <li>(&(objectClass=person)(|(sn=Smith)(sn=Johnson))): All persons with a surname equal to "Smith" or "Johnson".</li>
+     *               </ul>
+     * @param attributes A list of the attributes that should be returned in the result. If the attributes list is empty or null, then by default all
+     *        LDAP entry attributes are returned.
+     * @param scope The scope of the search. Valid attributes are:
+     *              <ul>
+     *                 <li><b>OBJECT</b>: This value is used to indicate searching only the entry at the base DN, resulting in only that entry
+     *                               being returned (keeping in mind that it also has to meet the search filter criteria!)</li>
+     *                 <li><b>ONE_LEVEL</b>: This value is used to indicate searching all entries one level under the base DN - but not including
+     *                               the base DN and not including any entries under that one level under the base DN. </li>
+     *                 <li><b>SUB_TREE</b>: This value is used to indicate searching of all entries at all levels under and including the specified base DN.</li>
+     *              </ul>
+     * @param timeout Timeout in milliseconds of each one of the partition searches. If the value is 0, this means to wait indefinitely. 
+     * @param maxResults The maximum number of entries that will be returned as a result of the search. 0 indicates that all entries will be returned. 
+     * @param returnObject Enables/disables returning objects returned as part of the result. If disabled, only the name and class of the object is returned.
+     *                     If enabled, the object will be returned. 
+     * @param pageSize If the LDAP server supports paging results set in this attribute the size of the page used by each one of the partition searches.
+     *                 If the pageSize is less or equals than 0, then paging will be disabled.
+     * @param partitionAttribute Attribute whose values are used to generate partitions and to split the ones reaching the size limit.
+     * @param partitions Filters defining the partitions. If not set, partitions are generated from the values of <i>partitionAttribute</i>. One of
+     *                   them is required.
+     * @param maxConcurrency Maximum number of partitions searched at the same time. It is also limited by the <i>asyncMaxConcurrency</i> of the connector
+     *                       configuration.
+     * @param structuralObjectClass The type of entry that will be returned. Only for DataSense purposes to be used in Anypoint Studio IDE. Has no impact on runtime, that's why it is optional.
+     * 
+     * @return A {@link LDAPResultSetIterator} over the {@link LDAPEntry} objects resulting from the search.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the search under the given base DN.
+     * @throws org.mule.module.ldap.api.NameNotFoundException If base DN is invalid (for example it doesn't exist)
+     * @throws org.mule.module.ldap.api.SizeLimitExceededException If a partition reaches the size limit and cannot be split any further.
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems or referrals.
+     * @throws Exception In case there is any other error performing the search.
+     * @since 2.0.0
+     */
+    @Processor
+    @ReconnectOn(exceptions = CommunicationException.class)
+    public LDAPResultSetIterator partitionedSearch(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> attributes,
+                                                   @Default("ONE_LEVEL") SearchScope scope, @Default("0") @Placement(group = "Search Controls") int timeout,
+                                                   @Default("0") @Placement(group = "Search Controls") long maxResults,
+                                                   @Default("false") @Placement(group = "Search Controls") boolean returnObject,
+                                                   @Default("0") @Placement(group = "Search Controls") int pageSize,
+                                                   @Optional @Placement(group = "Partitions") String partitionAttribute,
+                                                   @Optional @Placement(group = "Partitions") List<String> partitions,
+                                                   @Default("4") @Placement(group = "Partitions") int maxConcurrency,
+                                                   @Optional @MetaDataKeyParam(affects=MetaDataKeyParamAffectsType.OUTPUT) String structuralObjectClass) throws Exception
+    {
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("About to search in partitions LDAP entries matching " + filter + " under: " + baseDn);
+        }
+        
+        LDAPSearchControls controls = new LDAPSearchControls();
+        if(attributes != null && attributes.size() > 0)
+        {
+            controls.setAttributesToReturn(attributes.toArray(new String[0]));
+        }
+        controls.setMaxResults(maxResults);
+        controls.setTimeout(timeout);
+        controls.setScope(scope.getValue());
+        controls.setReturnObject(returnObject);
+        controls.setPageSize(pageSize);
+        
+        return new LDAPResultSetIterator(new LDAPPartitionedResultSet(getConnectionStrategy().getAsyncExecutor(), baseDn, filter, null, controls, partitionAttribute, partitions, maxConcurrency));
+    }
+    
     /**
      * Performs a LDAP search and streams result to the rest of the flow. This means that instead of returning a list with all results it partitions the LDAP
      * search result into pages (individual entry if <i>resultPageSize</i> is 1) or lists of size <i>resultPageSize</i>.
@@ -549,6 +1001,13 @@ public class LDAPConnector
      * @param returnObject Enables/disables returning objects returned as part of the result. If disabled, only the name and class of the object is returned.
      *                     If enabled, the object will be returned. 
      * @param pageSize If the LDAP server supports paging results set in this attribute the size of the page. If the pageSize is less or equals than 0, then paging will be disabled.
+     * @param prefetchPages If paging is enabled, the amount of pages read in the background while the current one is processed, so the next page is
+     *                      already there when it is needed. 0 disables prefetching. Memory usage grows with <i>prefetchPages</i> times <i>pageSize</i>.
+     *                      Prefetching stops and the search is abandoned if no page is consumed for 5 minutes.
+     * @param pageTargetLatency If paging is enabled, the milliseconds each page should take to be read. If greater than 0, the size of each page
+     *                          is adapted to the time per entry of the previous pages, starting with <i>pageSize</i>.
+     * @param pageByteBudget If paging is enabled, the bytes each page should hold. If greater than 0, the size of each page is adapted to the size
+     *                       of the entries of the previous pages (for example smaller pages for entries with photos or large group memberships).
      * @param orderBy Name of the LDAP attribute used to sort results.
      * @param ascending If <i>orderBy</i> was set, whether to sort in ascending or descending order.
      * @param structuralObjectClass The type of entry that will be returned. Only for DataSense purposes to be used in Anypoint Studio IDE. Has no impact on runtime, that's why it is optional.
@@ -567,6 +1026,9 @@ public class LDAPConnector
                                           @Default("0") @Placement(group = "Search Controls") long maxResults,
                                           @Default("false") @Placement(group = "Search Controls") boolean returnObject,
                                           @Default("0") @Placement(group = "Search Controls") int pageSize,
+                                          @Default("0") @Placement(group = "Search Controls") int prefetchPages,
+                                          @Default("0") @Placement(group = "Search Controls") int pageTargetLatency,
+                                          @Default("0") @Placement(group = "Search Controls") long pageByteBudget,
                                           @FriendlyName("Order by attribute") @Optional @Placement(group = "Search Controls", order = 1) String orderBy,
                                           @FriendlyName("Ascending order?") @Default("true") @Placement(group = "Search Controls", order = 2) boolean ascending,
                                           @Optional @MetaDataKeyParam(affects=MetaDataKeyParamAffectsType.OUTPUT) String structuralObjectClass,
@@ -589,6 +1051,9 @@ public class LDAPConnector
         controls.setScope(scope.getValue());
         controls.setReturnObject(returnObject);
         controls.setPageSize(pageSize);
+        controls.setPrefetchPages(prefetchPages);
+        controls.setPageTargetLatency(pageTargetLatency);
+        controls.setPageByteBudget(pageByteBudget);
         if(StringUtils.isNotBlank(orderBy))
         {
             controls.getSortKeys().add(new LDAPSortKey(orderBy, ascending, null));
@@ -599,6 +1064,102 @@ public class LDAPConnector
         return new LDAPPagingDelegate(result, pagingConfiguration);
     }
 
+    /**
+     * Performs a LDAP search returning a window of the sorted results using the Virtual List View control, so any page of a large result can be
+     * read without reading the pages before it (for example "page 4000 of users sorted by sn"). The window is made of the target entry plus
+     * <i>beforeCount</i> entries before it and <i>afterCount</i> entries after it. The target entry is either the one at position <i>offset</i>
+     * or, if <i>assertionValue</i> is set, the first one whose <i>orderBy</i> attribute is greater than or equal to it.
+     * <p/>
+     * The LDAP server must support both the Virtual List View and the server side sorting controls. Only supported by the jndi connection type.
+     * <p/>
+     * <h4>Returning the entries 80001 to 80020 of all persons sorted by surname</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:virtual-list-view-search-1}
+     * <h4>Returning the 20 persons with the surnames following "Smith"</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:virtual-list-view-search-2}
+     * 
+     * @param baseDn The base DN of the LDAP search.
+     * @param filter A valid LDAP filter. The LDAP connector supports LDAP search filters as defined in RFC 2254.
+     * @param attributes A list of the attributes that should be returned in the result. If the attributes list is empty or null, then by default all
+     *        LDAP entry attributes are returned.
+     * @param scope The scope of the search. Valid attributes are:
+     *              <ul>
+     *                 <li><b>OBJECT</b>: This value is used to indicate searching only the entry at the base DN, resulting in only that entry
+     *                               being returned (keeping in mind that it also has to meet the search filter criteria!)</li>
+     *                 <li><b>ONE_LEVEL</b>: This value is used to indicate searching all entries one level under the base DN - but not including
+     *                               the base DN and not including any entries under that one level under the base DN. </li>
+     *                 <li><b>SUB_TREE</b>: This value is used to indicate searching of all entries at all levels under and including the specified base DN.</li>
+     *              </ul>
+     * @param timeout Search timeout in milliseconds. If the value is 0, this means to wait indefinitely. 
+     * @param returnObject Enables/disables returning objects returned as part of the result. If disabled, only the name and class of the object is returned.
+     *                     If enabled, the object will be returned. 
+     * @param orderBy Name of the LDAP attribute used to sort results.
+     * @param ascending Whether to sort in ascending or descending order.
+     * @param offset Position of the target entry in the sorted results, starting at 1. Ignored if <i>assertionValue</i> is set.
+     * @param contentCount The estimate of the total amount of entries <i>offset</i> is relative to, as returned by a previous search (so
+     *                     <i>offset</i> equal to <i>contentCount</i> is always the last entry). 0 uses the estimate of the LDAP server.
+     * @param assertionValue If set, the target entry is the first one whose <i>orderBy</i> attribute is greater than or equal to this value.
+     * @param beforeCount Amount of entries returned before the target entry.
+     * @param afterCount Amount of entries returned after the target entry.
+     * @param structuralObjectClass The type of entry that will be returned. Only for DataSense purposes to be used in Anypoint Studio IDE. Has no impact on runtime, that's why it is optional.
+     * 
+     * @return A {@link LDAPVirtualListViewResult} with the entries of the window, the position of the target entry and the estimate of the total
+     *         amount of entries.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the search under the given base DN.
+     * @throws org.mule.module.ldap.api.NameNotFoundException If base DN is invalid (for example it doesn't exist)
+     * @throws org.mule.module.ldap.api.OperationNotSupportedException If the LDAP server or the connection type does not support virtual list views.
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems or referrals.
+     * @throws Exception In case there is any other error performing the search.
+     * @since 2.0.0
+     */
+    @Processor
+    @ReconnectOn(exceptions = CommunicationException.class)
+    public LDAPVirtualListViewResult virtualListViewSearch(@FriendlyName("Base DN") String baseDn, String filter, @Optional List<String> attributes,
+                                                           @Default("ONE_LEVEL") SearchScope scope, @Default("0") @Placement(group = "Search Controls") int timeout,
+                                                           @Default("false") @Placement(group = "Search Controls") boolean returnObject,
+                                                           @FriendlyName("Order by attribute") @Placement(group = "Search Controls", order = 1) String orderBy,
+                                                           @FriendlyName("Ascending order?") @Default("true") @Placement(group = "Search Controls", order = 2) boolean ascending,
+                                                           @Default("1") @Placement(group = "Window") int offset,
+                                                           @Default("0") @Placement(group = "Window") int contentCount,
+                                                           @Optional @Placement(group = "Window") String assertionValue,
+                                                           @Default("0") @Placement(group = "Window") int beforeCount,
+                                                           @Default("19") @Placement(group = "Window") int afterCount,
+                                                           @Optional @MetaDataKeyParam(affects=MetaDataKeyParamAffectsType.OUTPUT) String structuralObjectClass) throws Exception
+    {
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("About to search a window of LDAP entries matching " + filter + " under: " + baseDn + " sorted by " + orderBy);
+        }
+        
+        LDAPSearchControls controls = new LDAPSearchControls();
+        if(attributes != null && attributes.size() > 0)
+        {
+            controls.setAttributesToReturn(attributes.toArray(new String[0]));
+        }
+        controls.setTimeout(timeout);
+        controls.setScope(scope.getValue());
+        controls.setReturnObject(returnObject);
+        controls.getSortKeys().add(new LDAPSortKey(orderBy, ascending, null));
+        if(assertionValue != null)
+        {
+            controls.setVirtualListView(new LDAPVirtualListView(beforeCount, afterCount, assertionValue));
+        }
+        else
+        {
+            controls.setVirtualListView(new LDAPVirtualListView(beforeCount, afterCount, offset, contentCount));
+        }
+        
+        LDAPVirtualListViewResultSet result = (LDAPVirtualListViewResultSet) getConnectionStrategy().getConnection().search(baseDn, filter, controls);
+        try
+        {
+            List<LDAPEntry> entries = result.getAllEntries();
+            return new LDAPVirtualListViewResult(entries, result.getTargetPosition(), result.getContentCount());
+        }
+        finally
+        {
+            result.close();
+        }
+    }
+
     /**
      * Performs a LDAP search that is supposed to return a unique result. If the search returns more than one result, then a
      * warn log message is generated and the first element of the result is returned.
@@ -656,6 +1217,313 @@ public class LDAPConnector
         return results != null && results.size() > 0 ? results.get(0) : null;
     }
 
+    /**
+     * Counts the LDAP entries matching a search filter. Unlike the size of the result of a {@link #search}, no attributes are
+     * requested and no entries are built, so only the DNs of the entries are transferred. The results are always paged (with pages
+     * of 1000 entries if <i>pageSize</i> is not set), and if the LDAP server supplies an estimate of the size of the result when
+     * returning the first page, the estimate (never greater than <i>maxResults</i>) is returned without reading the rest of the
+     * pages and the paged search is abandoned. In that case the result is only as accurate as the estimate of the LDAP server.
+     * <p/>
+     * <h4>Counting the disabled accounts under an organizational unit</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:count-1}
+     *
+     * @param baseDn The base DN of the LDAP search.
+     * @param filter A valid LDAP filter. The LDAP connector supports LDAP search filters as defined in RFC 2254. Some examples are:
+     *               <ul>
+     *                  <li>(objectClass=*): All objects.</li>
+     *                  <li>(&(objectClass=person)(!cn=andy)): All persons except for the one with common name (cn) "andy".</li>
+     *                  <li>(sn=sm*): All objects with a surname that starts with "sm".</li>
+     *                  <li>(&(objectClass=person)(|(sn=Smith)(sn=Johnson))): All persons with a surname equal to "Smith" or "Johnson".</li>
+     *               </ul>
+     * @param scope The scope of the search. Valid attributes are:
+     *              <ul>
+     *                 <li><b>OBJECT</b>: This value is used to indicate searching only the entry at the base DN, resulting in only that entry
+     *                               being returned (keeping in mind that it also has to meet the search filter criteria!)</li>
+     *                 <li><b>ONE_LEVEL</b>: This value is used to indicate searching all entries one level under the base DN - but not including
+     *                               the base DN and not including any entries under that one level under the base DN. </li>
+     *                 <li><b>SUB_TREE</b>: This value is used to indicate searching of all entries at all levels under and including the specified base DN.</li>
+     *              </ul>
+     * @param timeout Search timeout in milliseconds. If the value is 0, this means to wait indefinitely.
+     * @param maxResults The maximum number of entries that will be counted. 0 indicates that all entries will be counted.
+     * @param pageSize The size of the pages requested to the LDAP server. If the pageSize is less or equals than 0, then pages of 1000 entries are requested.
+     *
+     * @return The number of entries matching the filter, or the estimate of the LDAP server if it supplies one.
+     * @throws org.mule.module.ldap.api.NoPermissionException If the current binded user has no permissions to perform the search under the given base DN.
+     * @throws org.mule.module.ldap.api.NameNotFoundException If base DN is invalid (for example it doesn't exist)
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, mainly related to connectivity problems or referrals.
+     * @throws Exception In case there is any other error performing the search.
+     * @since 2.0.0
+     */
+    @Processor
+    @ReconnectOn(exceptions = CommunicationException.class)
+    public int count(@FriendlyName("Base DN") String baseDn, String filter, @Default("ONE_LEVEL") SearchScope scope,
+                     @Default("0") @Placement(group = "Search Controls") int timeout,
+                     @Default("0") @Placement(group = "Search Controls") long maxResults,
+                     @Default("0") @Placement(group = "Search Controls") int pageSize) throws Exception
+    {
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("About to count LDAP entries matching " + filter + " under: " + baseDn);
+        }
+
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setMaxResults(maxResults);
+        controls.setTimeout(timeout);
+        controls.setScope(scope.getValue());
+        controls.setPageSize(pageSize);
+
+        int count = getConnectionStrategy().getConnection().count(baseDn, filter, null, controls);
+
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("Counted " + count + " entries");
+        }
+
+        return count;
+    }
+
+    /**
+     * Listens to the changes of the LDAP entries matching a filter using a persistent search (draft-ietf-ldapext-psearch)
+     * with entry change notifications. Each changed {@link LDAPEntry} is sent to the flow as payload, with its change type
+     * in the <i>ldap.changeType</i> inbound property (ADD, DELETE, MODIFY or MOD_DN), the DN the entry had before being
+     * renamed in <i>ldap.previousDn</i> and the change number (if the server supplies one) in <i>ldap.changeNumber</i>.
+     * <p/>
+     * Changes are read in the background, on a connection of the search's own, and at most <i>bufferSize</i> of them wait
+     * for the flow to process them. While the buffer is full, the connection of the search is not read, so the LDAP server
+     * holds back the changes. If the connection is lost, the search is subscribed again every <i>reconnectInterval</i>
+     * milliseconds until it succeeds. Changes performed while there is no subscription are not notified unless
+     * <i>changesOnly</i> is false, in which case every matching entry is sent again (without change type) each time the
+     * search is subscribed. If the flow fails processing a change, the error is logged and the next changes are still sent.
+     * <p/>
+     * The LDAP server has to support the persistent search control (2.16.840.1.113730.3.4.3) and the connection type
+     * must be JNDI.
+     * <p/>
+     * <h4>Listening to the changes of the entries under an organizational unit</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:persistent-search-1}
+     *
+     * @param baseDn The base DN of the LDAP search.
+     * @param filter A valid LDAP filter. Only changes of the entries matching it are notified.
+     * @param attributes A list of the attributes of the changed entries that should be returned. If null or empty, all
+     *                   attributes are returned.
+     * @param scope The scope of the search. Valid attributes are:
+     *              <ul>
+     *                 <li><b>OBJECT</b>: Only changes of the entry at the base DN are notified.</li>
+     *                 <li><b>ONE_LEVEL</b>: Only changes of the entries immediately under the base DN are notified.</li>
+     *                 <li><b>SUB_TREE</b>: Changes of all entries at all levels under and including the base DN are notified.</li>
+     *              </ul>
+     * @param changeTypes The types of change to notify (ADD, DELETE, MODIFY and MOD_DN). If null or empty, all changes are notified.
+     * @param changesOnly Whether only changes are sent or the entries matching the filter are sent first.
+     * @param bufferSize Maximum number of changes read from the server waiting to be processed.
+     * @param reconnectInterval Milliseconds to wait before subscribing again after the connection was lost.
+     * @param callback The callback that sends each change to the flow.
+     * @throws org.mule.module.ldap.api.OperationNotSupportedException If the connection type does not support persistent searches.
+     * @throws org.mule.module.ldap.api.NameNotFoundException If base DN is invalid (for example it doesn't exist)
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, like the server not supporting persistent searches.
+     * @throws Exception In case there is any other error processing the changes.
+     * @since 2.0.0
+     */
+    @Source
+    public void persistentSearch(@FriendlyName("Base DN") String baseDn, @Default("(objectClass=*)") String filter, @Optional List<String> attributes,
+                                 @Default("SUB_TREE") SearchScope scope, @Optional List<ChangeType> changeTypes,
+                                 @Default("true") boolean changesOnly,
+                                 @Default("1000") @Placement(group = "Advanced") int bufferSize,
+                                 @Default("5000") @Placement(group = "Advanced") long reconnectInterval,
+                                 SourceCallback callback) throws Exception
+    {
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("About to listen to changes of LDAP entries matching " + filter + " under: " + baseDn);
+        }
+
+        LDAPSearchControls controls = new LDAPSearchControls();
+        if(attributes != null && attributes.size() > 0)
+        {
+            controls.setAttributesToReturn(attributes.toArray(new String[0]));
+        }
+        controls.setScope(scope.getValue());
+
+        LDAPChangeStream changes = getConnectionStrategy().getConnection().persistentSearch(baseDn, filter, null, controls, ChangeType.toValue(changeTypes), changesOnly, bufferSize, reconnectInterval);
+        try
+        {
+            // Stopping the source interrupts this thread
+            while(!Thread.currentThread().isInterrupted())
+            {
+                LDAPEntryChange change = changes.next(CHANGE_POLL_INTERVAL);
+                if(change != null)
+                {
+                    if(logger.isDebugEnabled())
+                    {
+                        logger.debug("Received change " + change);
+                    }
+                    try
+                    {
+                        callback.process(change.getEntry(), changeProperties(change));
+                    }
+                    catch(Exception ex)
+                    {
+                        logger.error("Failed processing change " + change + " of LDAP entries under: " + baseDn, ex);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            changes.close();
+            logger.info("Stopped listening to changes of LDAP entries under: " + baseDn + " " + changes);
+        }
+    }
+
+    /**
+     * Synchronizes the entries matching the filter under the base DN using the LDAP content synchronization operation
+     * (RFC 4533, also known as syncrepl). Each added, modified or deleted {@link LDAPEntry} is sent to the flow as
+     * payload, with its change type in the <i>ldap.changeType</i> inbound property (ADD, MODIFY or DELETE) and its
+     * entryUUID in <i>ldap.entryUUID</i>. Deleted entries only hold their DN.
+     * <p/>
+     * In <b>REFRESH_AND_PERSIST</b> mode the changes are notified as they happen once the content is refreshed. In
+     * <b>REFRESH_ONLY</b> mode the content is refreshed every <i>pollingInterval</i> milliseconds.
+     * <p/>
+     * The first time the whole content is sent. After that, the synchronization resumes from the last change processed
+     * by the flow, even after losing the connection. If a <i>cookieStore</i> is set, the synchronization state
+     * (cookie) is stored in it after each change is processed, so restarting the application also resumes from the
+     * last change processed instead of sending the whole content again. Additions and modifications may be sent more
+     * than once (for example if the application stops right after processing a change but before storing its cookie).
+     * If the flow fails processing a change, the error is logged, the cookie of the change is not stored and the next
+     * changes are still sent.
+     * <p/>
+     * Deletions are only sent when the LDAP server notifies them one by one. Servers may instead report the entries
+     * still present when resuming (or the deleted ones in Sync Info messages, which JNDI does not expose), and entries
+     * missing from that present set are not sent as deleted. So entries deleted while the synchronization was not
+     * running (application stopped or connection lost) can be missed. Synchronizing the whole content again (removing
+     * the stored cookie) is the way to detect them.
+     * <p/>
+     * The LDAP server has to support the content synchronization control (1.3.6.1.4.1.4203.1.9.1.1) and the connection
+     * type must be JNDI.
+     * <p/>
+     * <h4>Synchronizing the entries under an organizational unit</h4>
+     * {@sample.xml ../../../doc/mule-module-ldap.xml.sample ldap:sync-1}
+     *
+     * @param baseDn The base DN of the LDAP search.
+     * @param filter A valid LDAP filter. Only the entries matching it are synchronized.
+     * @param attributes A list of the attributes of the entries that should be returned. If null or empty, all
+     *                   attributes are returned.
+     * @param scope The scope of the search. Valid attributes are:
+     *              <ul>
+     *                 <li><b>OBJECT</b>: Only the entry at the base DN is synchronized.</li>
+     *                 <li><b>ONE_LEVEL</b>: Only the entries immediately under the base DN are synchronized.</li>
+     *                 <li><b>SUB_TREE</b>: All entries at all levels under and including the base DN are synchronized.</li>
+     *              </ul>
+     * @param mode REFRESH_AND_PERSIST to be notified of the changes as they happen or REFRESH_ONLY to poll for them.
+     * @param syncId Identifier of the synchronization in the cookie store. If not set, it is derived from the base DN,
+     *               filter and scope.
+     * @param cookieStore Reference to the {@link LDAPSyncCookieStore} the synchronization state is kept in across
+     *                    restarts (for example a {@link org.mule.module.ldap.api.LDAPFileSyncCookieStore}). If not set,
+     *                    the whole content is sent every time the application starts.
+     * @param pollingInterval Milliseconds between refreshes in REFRESH_ONLY mode.
+     * @param bufferSize Maximum number of changes read from the server waiting to be processed.
+     * @param reconnectInterval Milliseconds to wait before resuming after the connection was lost.
+     * @param callback The callback that sends each change to the flow.
+     * @throws org.mule.module.ldap.api.OperationNotSupportedException If the connection type does not support content synchronization.
+     * @throws org.mule.module.ldap.api.NameNotFoundException If base DN is invalid (for example it doesn't exist)
+     * @throws org.mule.module.ldap.api.LDAPException In case there is any other exception, like the server not supporting content synchronization.
+     * @throws Exception In case there is any other error processing the changes.
+     * @since 2.0.0
+     */
+    @Source
+    public void sync(@FriendlyName("Base DN") String baseDn, @Default("(objectClass=*)") String filter, @Optional List<String> attributes,
+                     @Default("SUB_TREE") SearchScope scope, @Default("REFRESH_AND_PERSIST") SyncMode mode,
+                     @Optional @FriendlyName("Sync ID") String syncId, @Optional LDAPSyncCookieStore cookieStore,
+                     @Default("60000") long pollingInterval,
+                     @Default("1000") @Placement(group = "Advanced") int bufferSize,
+                     @Default("5000") @Placement(group = "Advanced") long reconnectInterval,
+                     SourceCallback callback) throws Exception
+    {
+        if(syncId == null)
+        {
+            syncId = "sync-" + UUID.nameUUIDFromBytes((baseDn + "|" + filter + "|" + scope).getBytes("UTF-8"));
+        }
+
+        byte[] cookie = cookieStore != null ? cookieStore.retrieve(syncId) : null;
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("About to synchronize LDAP entries matching " + filter + " under: " + baseDn + (cookie != null ? " resuming " + syncId : ""));
+        }
+
+        LDAPSearchControls controls = new LDAPSearchControls();
+        if(attributes != null && attributes.size() > 0)
+        {
+            controls.setAttributesToReturn(attributes.toArray(new String[0]));
+        }
+        controls.setScope(scope.getValue());
+
+        LDAPChangeStream changes = getConnectionStrategy().getConnection().sync(baseDn, filter, null, controls, mode.isPersist(), cookie, bufferSize, reconnectInterval, pollingInterval);
+        try
+        {
+            // Stopping the source interrupts this thread
+            while(!Thread.currentThread().isInterrupted())
+            {
+                LDAPSyncChange change = (LDAPSyncChange) changes.next(CHANGE_POLL_INTERVAL);
+                if(change == null)
+                {
+                    continue;
+                }
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("Received change " + change);
+                }
+
+                // Checkpoints and entries reported as present (unchanged) only carry the synchronization state
+                if(change.isChange())
+                {
+                    Map<String, Object> properties = changeProperties(change);
+                    if(change.getEntryUuid() != null)
+                    {
+                        properties.put(ENTRY_UUID_PROPERTY, change.getEntryUuid());
+                    }
+                    try
+                    {
+                        callback.process(change.getEntry(), properties);
+                    }
+                    catch(Exception ex)
+                    {
+                        // The cookie is not stored, so the change is sent again if the application stops before the next one is processed
+                        logger.error("Failed processing change " + change + " of LDAP entries under: " + baseDn, ex);
+                        continue;
+                    }
+                }
+
+                // Stored only once the change was processed, so it is sent again if the application stops before
+                if(cookieStore != null && change.getCookie() != null)
+                {
+                    cookieStore.store(syncId, change.getCookie());
+                }
+            }
+        }
+        finally
+        {
+            changes.close();
+            logger.info("Stopped synchronizing LDAP entries under: " + baseDn + " " + changes);
+        }
+    }
+
+    private static Map<String, Object> changeProperties(LDAPEntryChange change)
+    {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        ChangeType changeType = ChangeType.fromValue(change.getChangeType());
+        if(changeType != null)
+        {
+            properties.put(CHANGE_TYPE_PROPERTY, changeType.name());
+        }
+        if(change.getPreviousDn() != null)
+        {
+            properties.put(PREVIOUS_DN_PROPERTY, change.getPreviousDn());
+        }
+        if(change.getChangeNumber() >= 0)
+        {
+            properties.put(CHANGE_NUMBER_PROPERTY, change.getChangeNumber());
+        }
+        return properties;
+    }
+
     private LDAPEntry mapToLDAPEntry(Map<String, Object> entryMap) throws LDAPException
     {
         return entryMap instanceof LDAPEntry ? (LDAPEntry) entryMap : new LDAPEntry(entryMap);        
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPFilterTemplate;
+
+/**
+ * Named LDAP filters with <code>{n}</code> placeholders used by the <i>template-search</i> operation, shared by all
+ * the connection strategies. The filters are parsed and validated once, when the configuration is created, and the
+ * search arguments are escaped before replacing the placeholders.
+ *
+ * @author mariano
+ */
+public class LDAPFilterTemplates
+{
+    private Map<String, LDAPFilterTemplate> templates = Collections.emptyMap();
+
+    /**
+     * @param filters The filters keyed by template name. May be <i>null</i>.
+     * @throws IllegalArgumentException If any of the filters is not valid.
+     */
+    public void setFilters(Map<String, String> filters)
+    {
+        this.templates = LDAPFilterTemplate.compileAll(filters);
+    }
+
+    /**
+     * @throws LDAPException If there is no template with the given name.
+     */
+    public LDAPFilterTemplate get(String name) throws LDAPException
+    {
+        LDAPFilterTemplate template = templates.get(name);
+        if (template == null)
+        {
+            throw new LDAPException("Unknown filter template " + name + ". Defined templates are " + templates.keySet());
+        }
+        return template;
+    }
+}
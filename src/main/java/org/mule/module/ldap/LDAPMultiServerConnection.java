@@ -0,0 +1,584 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.ldap;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.mule.api.ConnectionException;
+import org.mule.api.ConnectionExceptionCode;
+import org.mule.api.annotations.Configurable;
+import org.mule.api.annotations.Connect;
+import org.mule.api.annotations.ConnectStrategy;
+import org.mule.api.annotations.ConnectionIdentifier;
+import org.mule.api.annotations.Disconnect;
+import org.mule.api.annotations.TestConnectivity;
+import org.mule.api.annotations.ValidateConnection;
+import org.mule.api.annotations.components.ConnectionManagement;
+import org.mule.api.annotations.display.FriendlyName;
+import org.mule.api.annotations.display.Password;
+import org.mule.api.annotations.display.Placement;
+import org.mule.api.annotations.param.ConnectionKey;
+import org.mule.api.annotations.param.Default;
+import org.mule.api.annotations.param.Optional;
+import org.mule.module.ldap.api.LDAPAsyncExecutor;
+import org.mule.module.ldap.api.LDAPAuthenticator;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPFilterTemplate;
+import org.mule.module.ldap.api.LDAPLoadBalancedConnection;
+import org.mule.module.ldap.api.LDAPServer;
+
+/**
+ * Connection strategy that balances the operations among several replicas of the same directory, without the need of
+ * an external load balancer. See {@link LDAPLoadBalancedConnection} for the details about server selection and
+ * failover.
+ * 
+ * @since 2.0.0
+ */
+@ConnectionManagement(friendlyName="Multi-Server Config", configElementName="multi-server-config")
+public class LDAPMultiServerConnection implements LDAPConnectionStrategy
+{
+    protected final Logger logger = Logger.getLogger(getClass());
+
+    /**
+     * The connection URLs to the LDAP servers with the following syntax: <code>ldap[s]://hostname:port/base_dn</code>. All the servers
+     * must hold replicas of the same directory.
+     */
+    @Configurable
+    @Placement(group = "Connection", order = 0)
+    @FriendlyName("URLs")
+    private List<String> urls;
+
+    /**
+     * How the server of each operation is chosen: the server with less operations in progress (LEAST_OUTSTANDING) or the server with
+     * the lowest latency (EWMA_LATENCY), measured as an exponentially weighted moving average and weighted by the operations in progress.
+     */
+    @Configurable
+    @Default(value = "LEAST_OUTSTANDING")
+    @Placement(group = "Connection", order = 1)
+    private LoadBalancingPolicy loadBalancingPolicy;
+
+    /**
+     * Number of milliseconds a server is not used after a communication error. Operations are transparently retried on the remaining
+     * servers in the meantime.
+     */
+    @Configurable
+    @Default(value = "30000")
+    @Placement(group = "Connection", order = 2)
+    private long retryInterval;
+
+    /**
+     * The implementation of the connection to be used. 
+     */
+    @Configurable
+    @Default(value = "JNDI")
+    private Type type;
+
+    /**
+     * The string representation of an integer that represents the number of connections per connection identity to create when initially
+     * creating a connection for the identity. To disable pooling, just set this value to 0 (zero).
+     * <p/>
+     * Connections are pooled by the connector itself (see {@link LDAPConnectionPool}) and validated before being handed out, so the
+     * native pooling of the connection implementation is not used.
+     */
+    @Configurable
+    @Default(value = "1")
+    @Placement(group = "Pooling Configuration", order = 1)
+    private int initialPoolSize;
+
+    /**
+     * The string representation of an integer that represents the maximum number of connections per connection identity that can be maintained
+     * concurrently. When this limit is reached, requests for a new connection wait (in arrival order) until a connection is returned to the pool.
+     */
+    @Configurable
+    @Default(value = "5")
+    @Placement(group = "Pooling Configuration", order = 2)
+    private int maxPoolSize;
+
+    /**
+     * The string representation of an integer that represents the number of milliseconds that an idle connection may remain in the pool without
+     * being closed and removed from the pool. 
+     */
+    @Configurable
+    @Default(value = "60000")
+    @Placement(group = "Pooling Configuration", order = 3)
+    private long poolTimeout;
+
+    /**
+     * Constant that holds the name of the environment property for specifying how referrals encountered by the service provider are to be processed (follow, ignore, throw).
+     */
+    @Configurable
+    @Default(value = "IGNORE")
+    @Placement(group = "Advanced")
+    private Referral referral;
+    
+    /**
+     * This is a {@link Map} instance holding extended configuration attributes that will be used in the Context environment.
+     */
+    @Configurable
+    @Optional
+    @Placement(group = "Advanced")
+    private Map<String, String> extendedConfiguration;
+    
+    /**
+     * If set to true, the LDAP connector will use the LDAP schema (only works for LDAP v3) to define the structure of the LDAP entry (or map). This needs to be 'true'
+     * in order to use DataSense as it will affect the implementing class of {@link LDAPEntry} attributes.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "false")
+    @Placement(group = "General")
+    private boolean schemaEnabled;
+    
+    /**
+     * Number of milliseconds a successful bind is trusted by the <i>bind</i> operation. If the connection was binded within this window (for example
+     * because it was just created by the connection manager) it is not binded again. Set this value to 0 (zero) to always bind again.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "1000")
+    @Placement(group = "Advanced")
+    private long bindFreshnessWindow;
+    
+    /**
+     * Maximum number of operations the connector performs in parallel (each one on its own pooled connection) when an
+     * operation needs several requests to the LDAP server.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "10")
+    @Placement(group = "Advanced")
+    private int asyncMaxConcurrency;
+    
+    /**
+     * Named LDAP filters with <code>{n}</code> placeholders used by the <i>template-search</i> operation, keyed by
+     * name (see {@link LDAPFilterTemplates}).
+     * @since 2.0.0
+     */
+    @Configurable
+    @Optional
+    @Placement(group = "Advanced")
+    private Map<String, String> filterTemplates;
+    
+    private final LDAPFilterTemplates compiledFilterTemplates = new LDAPFilterTemplates();
+    
+	/**
+     * 
+     */
+    public LDAPMultiServerConnection()
+    {
+    }
+
+    /*
+     * LDAP client
+     */
+    private LDAPLoadBalancedConnection connection = null;
+    
+    /*
+     * Servers the operations are balanced among
+     */
+    private List<LDAPServer> servers = null;
+    
+    /*
+     * Verifies user credentials on connections bound as the connection identity
+     */
+    private LDAPAuthenticator authenticator = null;
+    
+    /*
+     * Performs operations in parallel on connections bound as the connection identity
+     */
+    private LDAPAsyncExecutor asyncExecutor = null;
+    
+    private final String connectionIdPrefix = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+    
+    // Connection Management
+    /**
+     * Establish the connection to the LDAP server and use connection management to handle different
+     * users.
+     * 
+     * @param authDn The DN (distinguished name) of the user (for example: uid=user,ou=people,dc=mulesoft,dc=org).
+     *               If using Microsoft Active Directory, instead of the DN, you can provide the user@domain (for example: user@mulesoft.org)
+     * @param authPassword The password of the user
+     * @param authentication Specifies the authentication mechanism to use. For the Sun LDAP service provider, this can be one of the following strings:
+     * <ul>
+     *    <li><b>simple</b> (DEFAULT): Used for user/password authentication.</li>
+     *    <li><b>none</b>: Used for anonymous authentication.</li>
+     *    <li><b>sasl_mech</b> (UNSUPPORTED): Where sasl_mech is a space-separated list of SASL mechanism names.
+     *             SASL is the Simple Authentication and Security Layer (RFC 2222). It specifies a challenge-response protocol in which
+     *             data is exchanged between the client and the server for the purposes of authentication and establishment of a security
+     *             layer on which to carry out subsequent communication. By using SASL, the LDAP can support any type of authentication
+     *             agreed upon by the LDAP client and server.</li>
+     * </ul>
+     * @throws ConnectionException Holding one of the possible values in {@link ConnectionExceptionCode}.
+     */
+    @Connect(strategy=ConnectStrategy.SINGLE_INSTANCE)
+    @TestConnectivity
+    public void connect(@ConnectionKey @FriendlyName("Principal DN") String authDn, @Optional @FriendlyName("Password") @Password String authPassword, @Optional String authentication) throws ConnectionException
+    {
+        
+        authentication = authentication == null ? LDAPConnection.SIMPLE_AUTHENTICATION : authentication;
+        /*
+         * DevKit doesn't support null values for the @Connect parameters. In order to have an anonymous bind, the
+         * authentication parameter should be "none" and a default value should be provided as value for "authDn".
+         */
+        try
+        {
+            if(this.connection != null)
+            {
+                releaseConnection();
+            }
+            
+            if(this.servers == null)
+            {
+                // Servers are kept while connected so their health and latency metrics are not lost
+                List<LDAPServer> servers = new ArrayList<LDAPServer>();
+                for (String url : getUrls())
+                {
+                    LDAPConnectionPool pool = LDAPConnectionPool.getPool(type.toString(), url, authentication, getInitialPoolSize(), getMaxPoolSize(), getPoolTimeout(), getReferral().toString(), getExtendedConfiguration(), isSchemaEnabled(), LDAPConnection.DEFAULT_TLS_ENABLED);
+                    servers.add(new LDAPServer(url, pool));
+                }
+                this.servers = servers;
+            }
+            
+            if(LDAPConnection.NO_AUTHENTICATION.equals(authentication))
+            {
+                // Anonymous -> Ignoring authDn and authPassword
+                // For DevKit connection Management to work, authDn should be set to a value (like ANONYMOUS)
+                authDn = null;
+                authPassword = null;
+            }
+            
+            LDAPLoadBalancedConnection conn = openConnection(authDn, authPassword, false);
+            
+            this.connection = conn;
+            this.authenticator = conn.getAuthenticator();
+            
+            final String asyncDn = authDn;
+            final String asyncPassword = authPassword;
+            replaceAsyncExecutor(new LDAPAsyncExecutor(this.servers.get(0).getPool(), getAsyncMaxConcurrency())
+            {
+                @Override
+                protected LDAPConnection acquireConnection() throws LDAPException
+                {
+                    return openConnection(asyncDn, asyncPassword, true);
+                }
+                
+                @Override
+                protected void releaseConnection(LDAPConnection conn, boolean reusable)
+                {
+                    try
+                    {
+                        conn.close();
+                    }
+                    catch (LDAPException ex)
+                    {
+                        logger.warn("Unable to release LDAP connections of an async operation", ex);
+                    }
+                }
+            });
+        }
+        catch(Exception ex)
+        {
+            throw LDAPConnector.toConnectionException(ex);
+        }
+    }
+    
+    /**
+     * Disconnect the current connection
+     */
+    @Override
+    @Disconnect
+    public void disconnect()
+    {
+        String id = connectionId();
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("About to disconnect " + id);
+        }
+        releaseConnection();
+        replaceAsyncExecutor(null);
+        releasePools();
+    }
+
+    /**
+     * Gives back the shared pools of the servers, closing the ones that no other connection uses.
+     */
+    private void releasePools()
+    {
+        if (this.servers != null)
+        {
+            try
+            {
+                for (LDAPServer server : this.servers)
+                {
+                    server.getPool().release();
+                }
+            }
+            finally
+            {
+                this.servers = null;
+            }
+        }
+    }
+
+    /**
+     * Creates a connection to the servers binded with the given identity.
+     * 
+     * @param async Whether the connection performs the operations of the async executor.
+     */
+    private LDAPLoadBalancedConnection openConnection(String authDn, String authPassword, boolean async) throws LDAPException
+    {
+        LDAPLoadBalancedConnection conn = new LDAPLoadBalancedConnection(this.servers, getLoadBalancingPolicy().toString(), getRetryInterval());
+        conn.setSchemaEnabled(isSchemaEnabled());
+        conn.setAsyncOperations(async);
+        conn.bind(authDn, authPassword);
+        return conn;
+    }
+
+    /**
+     * Gives the connections to the servers back to the pools they were borrowed from.
+     */
+    private void releaseConnection()
+    {
+        if (this.connection != null)
+        {
+            try
+            {
+                this.connection.close();
+            }
+            catch (Exception ex)
+            {
+                logger.warn("Unable to release LDAP connections of " + connectionId(), ex);
+            }
+            finally
+            {
+                this.connection = null;
+            }
+        }
+    }
+
+    /**
+     * Are we connected?
+     * 
+     * @return boolean <i>true</i> if the connection is still valid or <i>false</i> otherwise.
+     */
+    @ValidateConnection
+    public boolean isConnected()
+    {
+        try
+        {
+            return this.connection != null && !this.connection.isClosed();
+        }
+        catch (Exception ex)
+        {
+            logger.error("Unable to validate LDAP connection. Returning that LDAP is not connected.", ex);
+            return false;
+        }        
+    }
+
+    /**
+     * Returns the connection ID
+     * 
+     * @return String with the connection Id
+     */
+    @ConnectionIdentifier
+    public String connectionId()
+    {
+        return "[" + connectionIdPrefix + "]:" + (this.connection != null ? this.connection.toString() : "{null connection}");
+    }    
+    
+    // Getters and Setters of @Configurable elements
+    
+    public List<String> getUrls()
+    {
+        return urls;
+    }
+
+    public void setUrls(List<String> urls)
+    {
+        this.urls = urls;
+    }
+
+    public LoadBalancingPolicy getLoadBalancingPolicy()
+    {
+        return loadBalancingPolicy;
+    }
+
+    public void setLoadBalancingPolicy(LoadBalancingPolicy loadBalancingPolicy)
+    {
+        this.loadBalancingPolicy = loadBalancingPolicy;
+    }
+
+    public long getRetryInterval()
+    {
+        return retryInterval;
+    }
+
+    public void setRetryInterval(long retryInterval)
+    {
+        this.retryInterval = retryInterval;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public void setType(Type type)
+    {
+        this.type = type;
+    }
+
+    public int getInitialPoolSize()
+    {
+        return initialPoolSize;
+    }
+
+    public void setInitialPoolSize(int initialPoolSize)
+    {
+        this.initialPoolSize = initialPoolSize;
+    }
+
+    public int getMaxPoolSize()
+    {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize)
+    {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public long getPoolTimeout()
+    {
+        return poolTimeout;
+    }
+
+    public void setPoolTimeout(long poolTimeout)
+    {
+        this.poolTimeout = poolTimeout;
+    }
+
+    public Referral getReferral()
+    {
+        return referral;
+    }
+
+    public void setReferral(Referral referral)
+    {
+        this.referral = referral;
+    }
+
+    public Map<String, String> getExtendedConfiguration()
+    {
+        return extendedConfiguration;
+    }
+
+    public void setExtendedConfiguration(Map<String, String> extendedConfiguration)
+    {
+        this.extendedConfiguration = extendedConfiguration;
+    }
+
+    public boolean isSchemaEnabled()
+    {
+        return schemaEnabled;
+    }
+
+    public void setSchemaEnabled(boolean schemaEnabled)
+    {
+        this.schemaEnabled = schemaEnabled;
+    }
+
+    @Override
+    public long getBindFreshnessWindow()
+    {
+        return bindFreshnessWindow;
+    }
+
+    public void setBindFreshnessWindow(long bindFreshnessWindow)
+    {
+        this.bindFreshnessWindow = bindFreshnessWindow;
+    }
+
+    @Override
+    public LDAPConnection getConnection()
+    {
+        return connection;
+    }
+
+    @Override
+    public LDAPAuthenticator getAuthenticator()
+    {
+        return authenticator;
+    }
+    
+    /**
+     * @return The servers the operations are balanced among, holding their health and latency metrics, or an empty list if
+     *         not connected yet.
+     */
+    public List<LDAPServer> getServers()
+    {
+        return servers != null ? Collections.unmodifiableList(servers) : Collections.<LDAPServer>emptyList();
+    }
+
+    public int getAsyncMaxConcurrency()
+    {
+        return asyncMaxConcurrency;
+    }
+
+    public void setAsyncMaxConcurrency(int asyncMaxConcurrency)
+    {
+        this.asyncMaxConcurrency = asyncMaxConcurrency;
+    }
+
+    public Map<String, String> getFilterTemplates()
+    {
+        return filterTemplates;
+    }
+
+    /**
+     * @throws IllegalArgumentException If any of the filters is not valid.
+     */
+    public void setFilterTemplates(Map<String, String> filterTemplates)
+    {
+        this.compiledFilterTemplates.setFilters(filterTemplates);
+        this.filterTemplates = filterTemplates;
+    }
+
+    @Override
+    public LDAPFilterTemplate getFilterTemplate(String name) throws LDAPException
+    {
+        return compiledFilterTemplates.get(name);
+    }
+
+    @Override
+    public LDAPAsyncExecutor getAsyncExecutor()
+    {
+        return asyncExecutor;
+    }
+
+    /**
+     * Shuts down the current executor (letting the operations already submitted finish) and replaces it.
+     */
+    private void replaceAsyncExecutor(LDAPAsyncExecutor executor)
+    {
+        if (this.asyncExecutor != null)
+        {
+            this.asyncExecutor.shutdown();
+        }
+        this.asyncExecutor = executor;
+    }
+}
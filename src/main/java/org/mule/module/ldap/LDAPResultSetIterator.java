@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.ldap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPResultSet;
+
+/**
+ * Iterates the entries of a {@link LDAPResultSet} as they are read from the LDAP server, so only the entry being
+ * processed is kept in memory. The result set is closed as soon as the last entry is read or reading fails, and it
+ * can be closed before that calling {@link #close()}.
+ *
+ * @author mariano
+ */
+public class LDAPResultSetIterator implements Iterator<LDAPEntry>, Closeable
+{
+    private static final Logger logger = Logger.getLogger(LDAPResultSetIterator.class);
+
+    private LDAPResultSet rs = null;
+    private int count = 0;
+
+    /**
+     *
+     */
+    public LDAPResultSetIterator(LDAPResultSet rs)
+    {
+        this.rs = rs;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if(this.rs == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            if(this.rs.hasNext())
+            {
+                return true;
+            }
+
+            if(logger.isDebugEnabled())
+            {
+                logger.debug("Retrieved " + this.count + " entries");
+            }
+            closeQuietly();
+            return false;
+        }
+        catch(LDAPException ex)
+        {
+            closeQuietly();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public LDAPEntry next()
+    {
+        if(!hasNext())
+        {
+            throw new NoSuchElementException("End of result set");
+        }
+
+        try
+        {
+            LDAPEntry entry = this.rs.next();
+            this.count++;
+            return entry;
+        }
+        catch(LDAPException ex)
+        {
+            closeQuietly();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("LDAP search results cannot be removed.");
+    }
+
+    /**
+     * Closes the underlying result set. Calling it more than once has no effect.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(this.rs != null)
+        {
+            try
+            {
+                this.rs.close();
+            }
+            catch(LDAPException ex)
+            {
+                throw new IOException(ex);
+            }
+            finally
+            {
+                this.rs = null;
+            }
+        }
+    }
+
+    private void closeQuietly()
+    {
+        try
+        {
+            close();
+        }
+        catch(IOException ex)
+        {
+            logger.warn("Unable to close LDAP result set", ex);
+        }
+    }
+
+    /**
+     * @return Whether the underlying result set was closed.
+     */
+    public boolean isClosed()
+    {
+        return this.rs == null;
+    }
+}
@@ -28,9 +28,13 @@ import org.mule.api.annotations.display.Placement;
 import org.mule.api.annotations.param.ConnectionKey;
 import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
+import org.mule.module.ldap.api.LDAPAsyncExecutor;
+import org.mule.module.ldap.api.LDAPAuthenticator;
 import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
 import org.mule.module.ldap.api.LDAPEntry;
 import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPFilterTemplate;
 
 @ConnectionManagement(friendlyName="TLS Config", configElementName="tls-config")
 public class LDAPTlsConnection implements LDAPConnectionStrategy
@@ -38,8 +42,6 @@ public class LDAPTlsConnection implements LDAPConnectionStrategy
     protected final Logger logger = Logger.getLogger(getClass());
 
     protected final static boolean USE_TLS = true;
-    protected final static int DISABLE_POOLING = 0;
-    protected final static int NO_POOLING_TIMEOUT = 0;
     
     
     /**
@@ -57,6 +59,46 @@ public class LDAPTlsConnection implements LDAPConnectionStrategy
     @Default(value = "JNDI")
     private Type type;
 
+    /**
+     * The string representation of an integer that represents the number of connections per connection identity to create when initially
+     * creating a connection for the identity. Pooling is disabled by default (0) so each connection performs its own StartTLS negotiation.
+     * <p/>
+     * When enabled, connections keep their negotiated TLS session while pooled.
+     */
+    @Configurable
+    @Default(value = "0")
+    @Placement(group = "Pooling Configuration", order = 1)
+    private int initialPoolSize;
+
+    /**
+     * The string representation of an integer that represents the maximum number of connections per connection identity that can be maintained
+     * concurrently. When this limit is reached, requests for a new connection wait (in arrival order) until a connection is returned to the pool.
+     */
+    @Configurable
+    @Default(value = "5")
+    @Placement(group = "Pooling Configuration", order = 2)
+    private int maxPoolSize;
+
+    /**
+     * The string representation of an integer that represents the number of milliseconds that an idle connection may remain in the pool without
+     * being closed and removed from the pool. 
+     */
+    @Configurable
+    @Default(value = "60000")
+    @Placement(group = "Pooling Configuration", order = 3)
+    private long poolTimeout;
+
+    /**
+     * If true and there is no idle connection for the requested identity, an idle connection of another identity is re-bound instead of adding a
+     * new one to the pool. As the credentials must never be sent before StartTLS, re-binding replaces the connection with a new one that resumes
+     * the cached TLS session, which saves the full TLS handshake but not the StartTLS negotiation.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "false")
+    @Placement(group = "Pooling Configuration", order = 4)
+    private boolean rebindIdleConnections;
+
     /**
      * Constant that holds the name of the environment property for specifying how referrals encountered by the service provider are to be processed (follow, ignore, throw).
      */
@@ -68,7 +110,11 @@ public class LDAPTlsConnection implements LDAPConnectionStrategy
     /**
      * This is a {@link Map} instance holding extended configuration attributes that will be used in the Context environment.
      * When working with TLS connections you need to make sure that the native LDAP pooling functionality is turned off. For example if
-     * using JNDI do not use attributes such as 'com.sun.jndi.ldap.connect.pool=true' will cause problems when using TLS.
+     * using JNDI do not use attributes such as 'com.sun.jndi.ldap.connect.pool=true' will cause problems when using TLS. Use the pooling
+     * configuration of this element instead.
+     * <p/>
+     * The StartTLS negotiation uses the JVM default SSL socket factory unless a class name with a static <code>getDefault()</code> method is
+     * set in the <code>tlsSocketFactory</code> attribute (for example <code>org.mule.module.ldap.security.BypassTrustSSLSocketFactory</code>).
      */
     @Configurable
     @Optional
@@ -85,6 +131,38 @@ public class LDAPTlsConnection implements LDAPConnectionStrategy
     @Placement(group = "General")
     private boolean schemaEnabled;
     
+    /**
+     * Number of milliseconds a successful bind is trusted by the <i>bind</i> operation. If the connection was binded within this window (for example
+     * because it was just created by the connection manager) it is not binded again. Set this value to 0 (zero) to always bind again.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "1000")
+    @Placement(group = "Advanced")
+    private long bindFreshnessWindow;
+    
+    /**
+     * Maximum number of operations the connector performs in parallel (each one on its own pooled connection) when an
+     * operation needs several requests to the LDAP server.
+     * @since 2.0.0
+     */
+    @Configurable
+    @Default(value = "10")
+    @Placement(group = "Advanced")
+    private int asyncMaxConcurrency;
+    
+    /**
+     * Named LDAP filters with <code>{n}</code> placeholders used by the <i>template-search</i> operation, keyed by
+     * name (see {@link LDAPFilterTemplates}).
+     * @since 2.0.0
+     */
+    @Configurable
+    @Optional
+    @Placement(group = "Advanced")
+    private Map<String, String> filterTemplates;
+    
+    private final LDAPFilterTemplates compiledFilterTemplates = new LDAPFilterTemplates();
+    
 	/**
      * 
      */
@@ -97,6 +175,21 @@ public class LDAPTlsConnection implements LDAPConnectionStrategy
      */
     private LDAPConnection connection = null;
     
+    /*
+     * Pool the LDAP client was borrowed from
+     */
+    private LDAPConnectionPool pool = null;
+    
+    /*
+     * Verifies user credentials on connections bound as the connection identity
+     */
+    private LDAPAuthenticator authenticator = null;
+    
+    /*
+     * Performs operations in parallel on connections bound as the connection identity
+     */
+    private LDAPAsyncExecutor asyncExecutor = null;
+    
     private final String connectionIdPrefix = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
     
     // Connection Management
@@ -132,20 +225,32 @@ public class LDAPTlsConnection implements LDAPConnectionStrategy
          */
         try
         {
-            if(this.connection == null)
+            if(this.connection != null)
             {
-                this.connection = LDAPConnection.getConnection(type.toString(), getUrl(), authentication, DISABLE_POOLING, DISABLE_POOLING, NO_POOLING_TIMEOUT, getReferral().toString(), getExtendedConfiguration(), isSchemaEnabled(), USE_TLS);
+                releaseConnection();
             }
             
+            LDAPConnectionPool previous = this.pool;
+            this.pool = LDAPConnectionPool.getPool(type.toString(), getUrl(), authentication, getInitialPoolSize(), getMaxPoolSize(), getPoolTimeout(), getReferral().toString(), getExtendedConfiguration(), isSchemaEnabled(), USE_TLS);
+            if(previous != null)
+            {
+                previous.release();
+            }
+            this.pool.setRebindIdleConnections(isRebindIdleConnections());
+            
             if(LDAPConnection.NO_AUTHENTICATION.equals(authentication))
             {
                 // Anonymous -> Ignoring authDn and authPassword
                 // For DevKit connection Management to work, authDn should be set to a value (like ANONYMOUS)
-                this.connection.bind(null, null);
+                this.connection = this.pool.borrowConnection(null, null);
+                this.authenticator = new LDAPAuthenticator(this.pool, null, null);
+                replaceAsyncExecutor(new LDAPAsyncExecutor(this.pool, null, null, getAsyncMaxConcurrency()));
             }
             else
             {
-                this.connection.bind(authDn, authPassword);
+                this.connection = this.pool.borrowConnection(authDn, authPassword);
+                this.authenticator = new LDAPAuthenticator(this.pool, authDn, authPassword);
+                replaceAsyncExecutor(new LDAPAsyncExecutor(this.pool, authDn, authPassword, getAsyncMaxConcurrency()));
             }
         }
         catch(Exception ex)
@@ -166,19 +271,43 @@ public class LDAPTlsConnection implements LDAPConnectionStrategy
         {
             logger.debug("About to disconnect " + id);
         }
+        releaseConnection();
+        replaceAsyncExecutor(null);
+        releasePool();
+    }
+
+    /**
+     * Gives the current connection back to the pool it was borrowed from.
+     */
+    private void releaseConnection()
+    {
         if (this.connection != null)
         {
             try
             {
-                this.connection.close();
+                this.pool.returnConnection(this.connection);
+            }
+            finally
+            {
+                this.connection = null;
             }
-            catch (LDAPException ex)
+        }
+    }
+
+    /**
+     * Gives back the shared pool, closing it if no other connection uses it.
+     */
+    private void releasePool()
+    {
+        if (this.pool != null)
+        {
+            try
             {
-                logger.error("Unable to close connection " + id + ". Forcing close anyway.", ex);
+                this.pool.release();
             }
             finally
             {
-                this.connection = null;
+                this.pool = null;
             }
         }
     }
@@ -235,6 +364,46 @@ public class LDAPTlsConnection implements LDAPConnectionStrategy
         this.type = type;
     }
 
+    public int getInitialPoolSize()
+    {
+        return initialPoolSize;
+    }
+
+    public void setInitialPoolSize(int initialPoolSize)
+    {
+        this.initialPoolSize = initialPoolSize;
+    }
+
+    public int getMaxPoolSize()
+    {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize)
+    {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public long getPoolTimeout()
+    {
+        return poolTimeout;
+    }
+
+    public void setPoolTimeout(long poolTimeout)
+    {
+        this.poolTimeout = poolTimeout;
+    }
+
+    public boolean isRebindIdleConnections()
+    {
+        return rebindIdleConnections;
+    }
+
+    public void setRebindIdleConnections(boolean rebindIdleConnections)
+    {
+        this.rebindIdleConnections = rebindIdleConnections;
+    }
+
     public Referral getReferral()
     {
         return referral;
@@ -265,11 +434,74 @@ public class LDAPTlsConnection implements LDAPConnectionStrategy
         this.schemaEnabled = schemaEnabled;
     }
 
+    @Override
+    public long getBindFreshnessWindow()
+    {
+        return bindFreshnessWindow;
+    }
+
+    public void setBindFreshnessWindow(long bindFreshnessWindow)
+    {
+        this.bindFreshnessWindow = bindFreshnessWindow;
+    }
+
     @Override
     public LDAPConnection getConnection()
     {
         return connection;
-    }    
-}
+    }
 
+    @Override
+    public LDAPAuthenticator getAuthenticator()
+    {
+        return authenticator;
+    }
 
+    public int getAsyncMaxConcurrency()
+    {
+        return asyncMaxConcurrency;
+    }
+
+    public void setAsyncMaxConcurrency(int asyncMaxConcurrency)
+    {
+        this.asyncMaxConcurrency = asyncMaxConcurrency;
+    }
+
+    public Map<String, String> getFilterTemplates()
+    {
+        return filterTemplates;
+    }
+
+    /**
+     * @throws IllegalArgumentException If any of the filters is not valid.
+     */
+    public void setFilterTemplates(Map<String, String> filterTemplates)
+    {
+        this.compiledFilterTemplates.setFilters(filterTemplates);
+        this.filterTemplates = filterTemplates;
+    }
+
+    @Override
+    public LDAPFilterTemplate getFilterTemplate(String name) throws LDAPException
+    {
+        return compiledFilterTemplates.get(name);
+    }
+
+    @Override
+    public LDAPAsyncExecutor getAsyncExecutor()
+    {
+        return asyncExecutor;
+    }
+
+    /**
+     * Shuts down the current executor (letting the operations already submitted finish) and replaces it.
+     */
+    private void replaceAsyncExecutor(LDAPAsyncExecutor executor)
+    {
+        if (this.asyncExecutor != null)
+        {
+            this.asyncExecutor.shutdown();
+        }
+        this.asyncExecutor = executor;
+    }
+}
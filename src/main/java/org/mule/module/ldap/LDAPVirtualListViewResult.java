@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+package org.mule.module.ldap;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.mule.module.ldap.api.LDAPEntry;
+
+/**
+ * Window of sorted search results returned by a virtual list view search, with its position in the whole result.
+ *
+ * @author mariano
+ */
+public class LDAPVirtualListViewResult implements Serializable
+{
+    private static final long serialVersionUID = -4204127447931617325L;
+
+    private final List<LDAPEntry> entries;
+    private final int targetPosition;
+    private final int contentCount;
+
+    public LDAPVirtualListViewResult(List<LDAPEntry> entries, int targetPosition, int contentCount)
+    {
+        this.entries = entries;
+        this.targetPosition = targetPosition;
+        this.contentCount = contentCount;
+    }
+
+    /**
+     * @return The entries of the window, in order.
+     */
+    public List<LDAPEntry> getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * @return Position of the target entry in the sorted results, starting at 1.
+     */
+    public int getTargetPosition()
+    {
+        return targetPosition;
+    }
+
+    /**
+     * @return Estimate of the total amount of entries in the sorted results given by the LDAP server.
+     */
+    public int getContentCount()
+    {
+        return contentCount;
+    }
+}
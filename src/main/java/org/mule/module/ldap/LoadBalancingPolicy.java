@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import org.mule.module.ldap.api.LDAPLoadBalancedConnection;
+
+public enum LoadBalancingPolicy
+{
+    LEAST_OUTSTANDING(LDAPLoadBalancedConnection.LEAST_OUTSTANDING_POLICY), EWMA_LATENCY(LDAPLoadBalancedConnection.EWMA_LATENCY_POLICY);
+    
+    private String policy;
+    
+    private LoadBalancingPolicy(String policy)
+    {
+        this.policy = policy;
+    }
+    
+    public String toString()
+    {
+        return this.policy;
+    }
+}
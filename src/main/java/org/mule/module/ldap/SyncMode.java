@@ -0,0 +1,34 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+public enum SyncMode
+{
+    /**
+     * The content is refreshed every polling interval
+     */
+    REFRESH_ONLY(false),
+
+    /**
+     * The changes are notified as they happen after the content is refreshed
+     */
+    REFRESH_AND_PERSIST(true);
+
+    private boolean persist;
+
+    private SyncMode(boolean persist)
+    {
+        this.persist = persist;
+    }
+
+    public boolean isPersist()
+    {
+        return this.persist;
+    }
+}
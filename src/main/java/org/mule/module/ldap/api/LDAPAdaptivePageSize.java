@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the size of each page of a paged search from the size of the entries and the time spent waiting for them in
+ * the previous pages, so each page takes about a target time to be read and holds about a budget of bytes.
+ * <p/>
+ * Averages per entry are smoothed (exponentially weighted) across pages, and the page size changes at most
+ * {@link #MAX_GROWTH} times from one page to the next, so a single odd page does not swing it.
+ *
+ * @author mariano
+ */
+public class LDAPAdaptivePageSize
+{
+    public static final int MIN_PAGE_SIZE = 1;
+    public static final int MAX_PAGE_SIZE = 10000;
+    public static final int MAX_GROWTH = 2;
+
+    private static final double SMOOTHING = 0.5;
+    private static final int VALUE_OVERHEAD = 8;
+
+    private final long targetLatency;
+    private final long byteBudget;
+    private int pageSize;
+
+    private double nanosPerEntry = -1;
+    private double bytesPerEntry = -1;
+
+    private int pageEntries = 0;
+    private long pageBytes = 0;
+    private long pageNanos = 0;
+
+    /**
+     * @param initialPageSize Size of the first page.
+     * @param targetLatency Milliseconds each page should take to be read (0 for no target).
+     * @param byteBudget Bytes each page should hold (0 for no budget).
+     */
+    public LDAPAdaptivePageSize(int initialPageSize, long targetLatency, long byteBudget)
+    {
+        this.pageSize = clamp(initialPageSize);
+        this.targetLatency = TimeUnit.MILLISECONDS.toNanos(Math.max(targetLatency, 0));
+        this.byteBudget = Math.max(byteBudget, 0);
+    }
+
+    /**
+     * Records time spent waiting for the server while reading the current page.
+     */
+    public void waited(long nanos)
+    {
+        pageNanos += nanos;
+    }
+
+    /**
+     * Records an entry of the current page.
+     */
+    public void entryRead(LDAPEntry entry)
+    {
+        pageEntries++;
+        pageBytes += estimateSize(entry);
+    }
+
+    /**
+     * Ends the current page.
+     *
+     * @return The size of the next page.
+     */
+    public int nextPageSize()
+    {
+        if (pageEntries > 0)
+        {
+            nanosPerEntry = smooth(nanosPerEntry, (double) pageNanos / pageEntries);
+            bytesPerEntry = smooth(bytesPerEntry, (double) pageBytes / pageEntries);
+
+            double size = MAX_PAGE_SIZE;
+            if (targetLatency > 0 && nanosPerEntry > 0)
+            {
+                size = Math.min(size, targetLatency / nanosPerEntry);
+            }
+            if (byteBudget > 0 && bytesPerEntry > 0)
+            {
+                size = Math.min(size, byteBudget / bytesPerEntry);
+            }
+            size = Math.min(size, (double) pageSize * MAX_GROWTH);
+            size = Math.max(size, (double) pageSize / MAX_GROWTH);
+            pageSize = clamp((int) size);
+        }
+
+        pageEntries = 0;
+        pageBytes = 0;
+        pageNanos = 0;
+        return pageSize;
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    private static double smooth(double average, double value)
+    {
+        return average < 0 ? value : SMOOTHING * value + (1 - SMOOTHING) * average;
+    }
+
+    private static int clamp(int size)
+    {
+        return Math.max(MIN_PAGE_SIZE, Math.min(MAX_PAGE_SIZE, size));
+    }
+
+    /**
+     * @return An estimate of the bytes the entry takes in a search response.
+     */
+    public static long estimateSize(LDAPEntry entry)
+    {
+        long size = entry.getDn() != null ? entry.getDn().length() : 0;
+        for (Iterator<LDAPEntryAttribute> it = entry.attributes(); it.hasNext();)
+        {
+            LDAPEntryAttribute attribute = it.next();
+            size += attribute.getName() != null ? attribute.getName().length() : 0;
+            for (Object value : attribute.getValues())
+            {
+                size += VALUE_OVERHEAD + (value instanceof byte[] ? ((byte[]) value).length : String.valueOf(value).length());
+            }
+        }
+        return size;
+    }
+}
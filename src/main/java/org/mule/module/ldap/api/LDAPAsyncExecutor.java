@@ -0,0 +1,651 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Runs LDAP operations in the background on connections borrowed from a {@link LDAPConnectionPool}, so many
+ * operations can be performed in parallel. Each operation borrows its own connection (bound with the identity of
+ * the executor) using {@link LDAPConnectionPool#borrowAsyncConnection(String, String)} and gives it back as soon as
+ * it finishes. As those connections do not count towards <i>maxPoolSize</i>, a flow holding a connection never
+ * waits for itself when it waits for the operations it submitted.
+ * <p/>
+ * The operations run on threads shared by all the executors of the same pool: at most <i>maxConcurrency</i>
+ * operations run at the same time and up to {@link #DEFAULT_QUEUE_SIZE} more wait for their turn. When the queue is
+ * full, the thread submitting the operation runs it, which slows down producers instead of rejecting operations.
+ * <p/>
+ * Cancelling a running operation interrupts the thread running it. The NIO connection type answers the interruption
+ * sending an Abandon request to the server. Connection types that cannot abandon operations (like JNDI) finish the
+ * operation, and the connection is discarded instead of being returned to the pool.
+ *
+ * @author mariano
+ */
+public class LDAPAsyncExecutor
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 10;
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private static final long MIN_ABANDON_INTERVAL = 1000L;
+
+    private static final AtomicInteger EXECUTOR_COUNT = new AtomicInteger(0);
+
+    private final LDAPConnectionPool pool;
+    private final String dn;
+    private final String password;
+    private final ListeningExecutorService executor;
+    private volatile boolean shutdown = false;
+
+    /**
+     * An operation performed on a connection borrowed for it.
+     */
+    public interface Operation<T>
+    {
+        T execute(LDAPConnection conn) throws LDAPException;
+    }
+
+    /**
+     * @param pool The pool the connections are borrowed from.
+     * @param dn The DN of the identity the connections are bound with. <i>null</i> for anonymous.
+     * @param password The password of the identity the connections are bound with.
+     * @param maxConcurrency Maximum number of operations running at the same time for all the executors of the pool.
+     *            Only the value of the first executor of the pool is used.
+     */
+    public LDAPAsyncExecutor(LDAPConnectionPool pool, String dn, String password, int maxConcurrency)
+    {
+        this.pool = pool;
+        this.dn = dn;
+        this.password = password;
+        this.executor = pool.getAsyncThreads(maxConcurrency);
+    }
+
+    /**
+     * Constructor for executors that override {@link #acquireConnection()} and
+     * {@link #releaseConnection(LDAPConnection, boolean)}.
+     * 
+     * @param pool The pool whose threads run the operations.
+     */
+    protected LDAPAsyncExecutor(LDAPConnectionPool pool, int maxConcurrency)
+    {
+        this(pool, null, null, maxConcurrency);
+    }
+
+    static ListeningExecutorService createExecutor(int maxConcurrency)
+    {
+        final String namePrefix = "ldap-async-" + EXECUTOR_COUNT.incrementAndGet() + "-";
+        int threads = maxConcurrency > 0 ? maxConcurrency : DEFAULT_MAX_CONCURRENCY;
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(DEFAULT_QUEUE_SIZE), new ThreadFactory()
+        {
+            private final AtomicInteger threadCount = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        threadPool.allowCoreThreadTimeOut(true);
+        return MoreExecutors.listeningDecorator(threadPool);
+    }
+
+    /**
+     * Runs the operation in the background on a connection of its own.
+     */
+    public <T> ListenableFuture<T> submit(final Operation<T> operation)
+    {
+        if (shutdown)
+        {
+            throw new RejectedExecutionException("LDAP async executor is shut down.");
+        }
+        return executor.submit(new Callable<T>()
+        {
+            @Override
+            public T call() throws Exception
+            {
+                LDAPConnection conn = acquireConnection();
+                boolean reusable = false;
+                try
+                {
+                    T result = operation.execute(conn);
+                    reusable = true;
+                    return result;
+                }
+                catch (CommunicationException ex)
+                {
+                    throw ex;
+                }
+                catch (LDAPException ex)
+                {
+                    // The server answered, so the connection can still be used
+                    reusable = true;
+                    throw ex;
+                }
+                finally
+                {
+                    // Interrupted operations (cancelled) may have left a response unread on the connection
+                    releaseConnection(conn, reusable && !Thread.currentThread().isInterrupted());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return A connection bound with the identity of this executor.
+     */
+    protected LDAPConnection acquireConnection() throws LDAPException
+    {
+        return pool.borrowAsyncConnection(dn, password);
+    }
+
+    /**
+     * Gives back a connection obtained from {@link #acquireConnection()}.
+     *
+     * @param reusable <i>false</i> if the connection may be in an inconsistent state and must be discarded.
+     */
+    protected void releaseConnection(LDAPConnection conn, boolean reusable)
+    {
+        if (reusable)
+        {
+            pool.returnConnection(conn);
+        }
+        else
+        {
+            pool.invalidateConnection(conn);
+        }
+    }
+
+    public ListenableFuture<LDAPEntry> lookup(final String dn, final String[] attributes)
+    {
+        return submit(new Operation<LDAPEntry>()
+        {
+            @Override
+            public LDAPEntry execute(LDAPConnection conn) throws LDAPException
+            {
+                return attributes != null ? conn.lookup(dn, attributes) : conn.lookup(dn);
+            }
+        });
+    }
+
+    /**
+     * Looks up all the entries in parallel.
+     *
+     * @return A future holding the entries in the same order as <i>dns</i>. It fails if any of the lookups fails.
+     */
+    public ListenableFuture<List<LDAPEntry>> lookupAll(List<String> dns, String[] attributes)
+    {
+        List<ListenableFuture<LDAPEntry>> lookups = new ArrayList<ListenableFuture<LDAPEntry>>(dns.size());
+        for (String entryDn : dns)
+        {
+            lookups.add(lookup(entryDn, attributes));
+        }
+        return Futures.allAsList(lookups);
+    }
+
+    /**
+     * @see LDAPConnection#lookupMany(List, String[])
+     */
+    public ListenableFuture<Map<String, LDAPEntry>> lookupMany(final List<String> dns, final String[] attributes)
+    {
+        return submit(new Operation<Map<String, LDAPEntry>>()
+        {
+            @Override
+            public Map<String, LDAPEntry> execute(LDAPConnection conn) throws LDAPException
+            {
+                return conn.lookupMany(dns, attributes);
+            }
+        });
+    }
+
+    /**
+     * Looks up the entries grouping them by parent as {@link LDAPConnection#lookupMany(List, String[])} does, but
+     * reading each group in parallel.
+     *
+     * @return A future holding the entries found by each group, in the order of {@link LDAPConnection#groupByParent(List)}.
+     */
+    public ListenableFuture<List<Map<String, LDAPEntry>>> lookupManyGroups(List<String> dns, String[] attributes)
+    {
+        List<ListenableFuture<Map<String, LDAPEntry>>> lookups = new ArrayList<ListenableFuture<Map<String, LDAPEntry>>>();
+        for (List<String> group : LDAPConnection.groupByParent(dns))
+        {
+            lookups.add(lookupMany(group, attributes));
+        }
+        return Futures.allAsList(lookups);
+    }
+
+    /**
+     * @see LDAPConnection#exists(String)
+     */
+    public ListenableFuture<Boolean> exists(final String dn)
+    {
+        return submit(new Operation<Boolean>()
+        {
+            @Override
+            public Boolean execute(LDAPConnection conn) throws LDAPException
+            {
+                return conn.exists(dn);
+            }
+        });
+    }
+
+    /**
+     * Checks whether the entries exist in parallel.
+     *
+     * @return A future holding whether each entry exists, in the same order as <i>dns</i>. It fails if any of the
+     *         checks fails for any other reason than the entry not existing.
+     */
+    public ListenableFuture<List<Boolean>> existsAll(List<String> dns)
+    {
+        List<ListenableFuture<Boolean>> checks = new ArrayList<ListenableFuture<Boolean>>(dns.size());
+        for (String entryDn : dns)
+        {
+            checks.add(exists(entryDn));
+        }
+        return Futures.allAsList(checks);
+    }
+
+    /**
+     * Performs the search reading all the results, as the connection is given back once the operation finishes.
+     */
+    public ListenableFuture<List<LDAPEntry>> search(final String baseDn, final String filter, final Object[] filterArgs, final LDAPSearchControls controls)
+    {
+        return submit(new Operation<List<LDAPEntry>>()
+        {
+            @Override
+            public List<LDAPEntry> execute(LDAPConnection conn) throws LDAPException
+            {
+                LDAPResultSet result = conn.search(baseDn, filter, filterArgs, controls);
+                try
+                {
+                    return result.getAllEntries();
+                }
+                finally
+                {
+                    result.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts the search on a connection borrowed for it (as the ones of the asynchronous operations) that the
+     * returned result set keeps until it is closed, so the entries can be read while the connection of the caller is
+     * used for other operations. The search runs on the calling thread.
+     *
+     * @return The result set, which must be closed to give the connection back. It is closed anyway once no entry is
+     *         read for longer than the consumer timeout of <i>controls</i>.
+     */
+    public LDAPResultSet openSearch(String baseDn, String filter, LDAPSearchControls controls) throws LDAPException
+    {
+        if (shutdown)
+        {
+            throw new RejectedExecutionException("LDAP async executor is shut down.");
+        }
+        LDAPConnection conn = acquireConnection();
+        try
+        {
+            return new BorrowedConnectionResultSet(conn, conn.search(baseDn, filter, controls), controls.getConsumerTimeout());
+        }
+        catch (CommunicationException ex)
+        {
+            releaseConnection(conn, false);
+            throw ex;
+        }
+        catch (LDAPException ex)
+        {
+            releaseConnection(conn, true);
+            throw ex;
+        }
+        catch (RuntimeException ex)
+        {
+            releaseConnection(conn, false);
+            throw ex;
+        }
+    }
+
+    public ListenableFuture<Void> addEntry(final LDAPEntry entry)
+    {
+        return submit(new Operation<Void>()
+        {
+            @Override
+            public Void execute(LDAPConnection conn) throws LDAPException
+            {
+                conn.addEntry(entry);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Void> updateEntry(final LDAPEntry entry)
+    {
+        return submit(new Operation<Void>()
+        {
+            @Override
+            public Void execute(LDAPConnection conn) throws LDAPException
+            {
+                conn.updateEntry(entry);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Void> deleteEntry(final String dn)
+    {
+        return submit(new Operation<Void>()
+        {
+            @Override
+            public Void execute(LDAPConnection conn) throws LDAPException
+            {
+                conn.deleteEntry(dn);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Void> renameEntry(final String oldDn, final String newDn)
+    {
+        return submit(new Operation<Void>()
+        {
+            @Override
+            public Void execute(LDAPConnection conn) throws LDAPException
+            {
+                conn.renameEntry(oldDn, newDn);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Void> addAttribute(final String dn, final LDAPEntryAttribute attribute)
+    {
+        return submit(new Operation<Void>()
+        {
+            @Override
+            public Void execute(LDAPConnection conn) throws LDAPException
+            {
+                conn.addAttribute(dn, attribute);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Void> updateAttribute(final String dn, final LDAPEntryAttribute attribute)
+    {
+        return submit(new Operation<Void>()
+        {
+            @Override
+            public Void execute(LDAPConnection conn) throws LDAPException
+            {
+                conn.updateAttribute(dn, attribute);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Void> deleteAttribute(final String dn, final LDAPEntryAttribute attribute)
+    {
+        return submit(new Operation<Void>()
+        {
+            @Override
+            public Void execute(LDAPConnection conn) throws LDAPException
+            {
+                conn.deleteAttribute(dn, attribute);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Waits for the result of an operation, unwrapping the {@link LDAPException} it failed with. The operation is
+     * cancelled if the waiting thread is interrupted.
+     */
+    public static <T> T getResult(ListenableFuture<T> future) throws LDAPException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (CancellationException ex)
+        {
+            throw new LDAPException("LDAP operation was cancelled", ex);
+        }
+        catch (InterruptedException ex)
+        {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new LDAPException("Interrupted while waiting for LDAP operation", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof LDAPException)
+            {
+                throw (LDAPException) ex.getCause();
+            }
+            throw new LDAPException(ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage(), ex.getCause());
+        }
+    }
+
+    /**
+     * Stops accepting operations. Operations already submitted are still performed. The threads shared with the
+     * other executors of the pool are stopped when the pool is closed.
+     */
+    public void shutdown()
+    {
+        shutdown = true;
+    }
+
+    public boolean isShutdown()
+    {
+        return shutdown || executor.isShutdown();
+    }
+
+    /**
+     * Result set giving back the connection it was read from when it is closed. If no entry is read for longer than
+     * the consumer timeout of the search (see {@link LDAPSearchControls#setConsumerTimeout(long)}) the result set is
+     * considered abandoned, and it is closed so the connection is given back anyway.
+     */
+    private final class BorrowedConnectionResultSet implements LDAPResultSet
+    {
+        private final LDAPConnection conn;
+        private final LDAPResultSet rs;
+        private final long consumerTimeout;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ScheduledFuture<?> abandonTask;
+        private volatile long lastRead = System.currentTimeMillis();
+        private boolean reusable = true;
+        private boolean closed = false;
+        private boolean abandoned = false;
+
+        private BorrowedConnectionResultSet(LDAPConnection conn, LDAPResultSet rs, long consumerTimeout)
+        {
+            this.conn = conn;
+            this.rs = rs;
+            this.consumerTimeout = consumerTimeout;
+            if (consumerTimeout > 0)
+            {
+                this.abandonTask = LDAPConnectionPool.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        abandonIfIdle();
+                    }
+                }, Math.max(consumerTimeout / 2, MIN_ABANDON_INTERVAL));
+            }
+            else
+            {
+                this.abandonTask = null;
+            }
+        }
+
+        /**
+         * Runs on the thread evicting idle connections, so it does not wait for an entry being read.
+         */
+        private void abandonIfIdle()
+        {
+            if (!lock.tryLock())
+            {
+                return;
+            }
+            try
+            {
+                if (closed || System.currentTimeMillis() - lastRead < consumerTimeout)
+                {
+                    return;
+                }
+                logger.warn("No entry was read in " + consumerTimeout + " ms. Abandoning streaming search.");
+                abandoned = true;
+                close();
+            }
+            catch (LDAPException ex)
+            {
+                logger.debug("Could not close abandoned streaming search", ex);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws LDAPException
+        {
+            lock.lock();
+            try
+            {
+                if (closed)
+                {
+                    return;
+                }
+                closed = true;
+                if (abandonTask != null)
+                {
+                    abandonTask.cancel(false);
+                }
+                try
+                {
+                    rs.close();
+                }
+                catch (LDAPException ex)
+                {
+                    reusable = false;
+                    throw ex;
+                }
+                finally
+                {
+                    releaseConnection(conn, reusable);
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public LDAPEntry next() throws LDAPException
+        {
+            lock.lock();
+            try
+            {
+                checkAbandoned();
+                return rs.next();
+            }
+            catch (CommunicationException ex)
+            {
+                reusable = false;
+                throw ex;
+            }
+            finally
+            {
+                lastRead = System.currentTimeMillis();
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean hasNext() throws LDAPException
+        {
+            lock.lock();
+            try
+            {
+                checkAbandoned();
+                return rs.hasNext();
+            }
+            catch (CommunicationException ex)
+            {
+                reusable = false;
+                throw ex;
+            }
+            finally
+            {
+                lastRead = System.currentTimeMillis();
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public List<LDAPEntry> getAllEntries() throws LDAPException
+        {
+            lock.lock();
+            try
+            {
+                checkAbandoned();
+                return rs.getAllEntries();
+            }
+            catch (CommunicationException ex)
+            {
+                reusable = false;
+                throw ex;
+            }
+            finally
+            {
+                lastRead = System.currentTimeMillis();
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int getResultSize() throws LDAPException
+        {
+            return rs.getResultSize();
+        }
+
+        private void checkAbandoned() throws LDAPException
+        {
+            if (abandoned)
+            {
+                throw new LDAPException("Streaming search was abandoned as no entry was read in " + consumerTimeout + " ms");
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Verifies user credentials performing a simple bind on connections that are already open. A connection bound as
+ * the service identity is borrowed from the {@link LDAPConnectionPool}, re-bound as the user being authenticated and
+ * then re-bound as the service identity before giving it back to the pool. This way authenticating a user does not
+ * open a new connection (nor negotiates TLS) with the LDAP server.
+ * <p/>
+ * The time spent binding the users is recorded in {@link LDAPConnectionPool#getBindStatistics()}, apart from the
+ * time spent opening new connections ({@link LDAPConnectionPool#getConnectStatistics()}).
+ *
+ * @author mariano
+ */
+public class LDAPAuthenticator
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final LDAPConnectionPool pool;
+    private final String serviceDn;
+    private final String servicePassword;
+
+    /**
+     * @param pool The pool the connections are borrowed from.
+     * @param serviceDn The DN of the identity the pooled connections are bound with. <i>null</i> for anonymous.
+     * @param servicePassword The password of the identity the pooled connections are bound with.
+     */
+    public LDAPAuthenticator(LDAPConnectionPool pool, String serviceDn, String servicePassword)
+    {
+        this.pool = pool;
+        this.serviceDn = serviceDn;
+        this.servicePassword = servicePassword;
+    }
+
+    /**
+     * Verifies the credentials of a user.
+     *
+     * @param dn The DN of the user.
+     * @param password The password of the user.
+     * @throws AuthenticationException If the credentials are not valid. Empty passwords are always rejected as
+     *             most LDAP servers would accept them as an unauthenticated bind (RFC 4513).
+     * @throws LDAPException If the credentials cannot be verified.
+     */
+    public void authenticate(String dn, String password) throws LDAPException
+    {
+        if (StringUtils.isEmpty(dn) || StringUtils.isEmpty(password))
+        {
+            throw new AuthenticationException("DN and password are required to authenticate a user.");
+        }
+
+        LDAPCredentialCache credentialCache = pool.getCredentialCache();
+        if (credentialCache != null && credentialCache.isVerified(dn, password))
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Credentials of " + dn + " were verified recently. Skipping bind.");
+            }
+            return;
+        }
+
+        LDAPConnection conn = pool.borrowConnection(serviceDn, servicePassword);
+        boolean successful = false;
+        long start = System.nanoTime();
+        try
+        {
+            conn.bind(dn, password);
+            successful = true;
+            if (credentialCache != null)
+            {
+                credentialCache.verified(dn, password);
+            }
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Authenticated " + dn + " in " + (System.nanoTime() - start) / 1000 + " us");
+            }
+        }
+        finally
+        {
+            pool.getBindStatistics().record(System.nanoTime() - start, successful);
+            resetConnection(conn);
+        }
+    }
+
+    /**
+     * Binds the connection back as the service identity and returns it to the pool, or discards it if it cannot be
+     * reset. Connections that rejected the user credentials are already bound back as the service identity.
+     */
+    private void resetConnection(LDAPConnection conn)
+    {
+        try
+        {
+            if (conn.isClosed())
+            {
+                pool.invalidateConnection(conn);
+            }
+            else
+            {
+                if (!StringUtils.equals(serviceDn, conn.getBindedUserDn()))
+                {
+                    conn.bind(serviceDn, servicePassword);
+                }
+                pool.returnConnection(conn);
+            }
+        }
+        catch (LDAPException ex)
+        {
+            logger.warn("Unable to reset connection to " + (serviceDn != null ? serviceDn : "anonymous") + " after authentication. Discarding it.", ex);
+            pool.invalidateConnection(conn);
+        }
+    }
+
+    public LDAPConnectionPool getPool()
+    {
+        return pool;
+    }
+
+    public String getServiceDn()
+    {
+        return serviceDn;
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Caches and request coalescing enabled on a shared {@link LDAPConnectionPool}. Pools are shared only by the callers
+ * using both the same connection configuration and the same caches, so a configuration never uses the caches (nor
+ * joins the requests in flight) of another one. Every cache is disabled by default, and the settings of disabled
+ * caches are ignored when comparing configurations.
+ *
+ * @author mariano
+ */
+public class LDAPCacheConfiguration
+{
+    private long credentialCacheTtl = 0L;
+    private long credentialCacheMaxSize = 0L;
+    private long searchCacheTtl = 0L;
+    private long searchCacheMaxSize = 0L;
+    private long searchCacheMaxResults = 0L;
+    private long entryCacheTtl = 0L;
+    private long entryCacheNegativeTtl = 0L;
+    private long entryCacheMaxSize = 0L;
+    private boolean coalesceRequests = false;
+
+    public LDAPCacheConfiguration()
+    {
+    }
+
+    public LDAPCacheConfiguration(LDAPCacheConfiguration other)
+    {
+        this.credentialCacheTtl = other.credentialCacheTtl;
+        this.credentialCacheMaxSize = other.credentialCacheMaxSize;
+        this.searchCacheTtl = other.searchCacheTtl;
+        this.searchCacheMaxSize = other.searchCacheMaxSize;
+        this.searchCacheMaxResults = other.searchCacheMaxResults;
+        this.entryCacheTtl = other.entryCacheTtl;
+        this.entryCacheNegativeTtl = other.entryCacheNegativeTtl;
+        this.entryCacheMaxSize = other.entryCacheMaxSize;
+        this.coalesceRequests = other.coalesceRequests;
+    }
+
+    /**
+     * Enables the pool caches that are enabled in this configuration.
+     */
+    void apply(LDAPConnectionPool pool)
+    {
+        if (credentialCacheTtl > 0)
+        {
+            pool.enableCredentialCache(credentialCacheTtl, credentialCacheMaxSize);
+        }
+        if (searchCacheTtl > 0)
+        {
+            pool.enableSearchCache(searchCacheTtl, searchCacheMaxSize, searchCacheMaxResults);
+        }
+        if (entryCacheTtl > 0)
+        {
+            pool.enableEntryCache(entryCacheTtl, entryCacheNegativeTtl, entryCacheMaxSize);
+        }
+        if (coalesceRequests)
+        {
+            pool.enableRequestCoalescing();
+        }
+    }
+
+    public long getCredentialCacheTtl()
+    {
+        return credentialCacheTtl;
+    }
+
+    /**
+     * @param credentialCacheTtl Number of milliseconds verified credentials are trusted. Use 0 (zero) to disable the
+     *            cache.
+     */
+    public void setCredentialCacheTtl(long credentialCacheTtl)
+    {
+        this.credentialCacheTtl = credentialCacheTtl;
+    }
+
+    public long getCredentialCacheMaxSize()
+    {
+        return credentialCacheMaxSize;
+    }
+
+    public void setCredentialCacheMaxSize(long credentialCacheMaxSize)
+    {
+        this.credentialCacheMaxSize = credentialCacheMaxSize;
+    }
+
+    public long getSearchCacheTtl()
+    {
+        return searchCacheTtl;
+    }
+
+    /**
+     * @param searchCacheTtl Number of milliseconds search results are reused. Use 0 (zero) to disable the cache.
+     */
+    public void setSearchCacheTtl(long searchCacheTtl)
+    {
+        this.searchCacheTtl = searchCacheTtl;
+    }
+
+    public long getSearchCacheMaxSize()
+    {
+        return searchCacheMaxSize;
+    }
+
+    public void setSearchCacheMaxSize(long searchCacheMaxSize)
+    {
+        this.searchCacheMaxSize = searchCacheMaxSize;
+    }
+
+    public long getSearchCacheMaxResults()
+    {
+        return searchCacheMaxResults;
+    }
+
+    public void setSearchCacheMaxResults(long searchCacheMaxResults)
+    {
+        this.searchCacheMaxResults = searchCacheMaxResults;
+    }
+
+    public long getEntryCacheTtl()
+    {
+        return entryCacheTtl;
+    }
+
+    /**
+     * @param entryCacheTtl Number of milliseconds looked up entries are reused. Use 0 (zero) to disable the cache.
+     */
+    public void setEntryCacheTtl(long entryCacheTtl)
+    {
+        this.entryCacheTtl = entryCacheTtl;
+    }
+
+    public long getEntryCacheNegativeTtl()
+    {
+        return entryCacheNegativeTtl;
+    }
+
+    /**
+     * @param entryCacheNegativeTtl Number of milliseconds DNs that were not found are known to be missing. Use 0
+     *            (zero) to disable negative caching.
+     */
+    public void setEntryCacheNegativeTtl(long entryCacheNegativeTtl)
+    {
+        this.entryCacheNegativeTtl = entryCacheNegativeTtl;
+    }
+
+    public long getEntryCacheMaxSize()
+    {
+        return entryCacheMaxSize;
+    }
+
+    public void setEntryCacheMaxSize(long entryCacheMaxSize)
+    {
+        this.entryCacheMaxSize = entryCacheMaxSize;
+    }
+
+    public boolean isCoalesceRequests()
+    {
+        return coalesceRequests;
+    }
+
+    /**
+     * @param coalesceRequests Whether identical lookups and searches in flight are performed only once.
+     */
+    public void setCoalesceRequests(boolean coalesceRequests)
+    {
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (!(obj instanceof LDAPCacheConfiguration))
+        {
+            return false;
+        }
+        return getEnabledSettings().equals(((LDAPCacheConfiguration) obj).getEnabledSettings());
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return getEnabledSettings().hashCode();
+    }
+
+    private List<Object> getEnabledSettings()
+    {
+        boolean credentialCache = credentialCacheTtl > 0;
+        boolean searchCache = searchCacheTtl > 0;
+        boolean entryCache = entryCacheTtl > 0;
+        return Arrays.<Object>asList(credentialCache ? credentialCacheTtl : 0L, credentialCache ? credentialCacheMaxSize : 0L,
+                                     searchCache ? searchCacheTtl : 0L, searchCache ? searchCacheMaxSize : 0L, searchCache ? searchCacheMaxResults : 0L,
+                                     entryCache ? entryCacheTtl : 0L, entryCache ? entryCacheNegativeTtl : 0L, entryCache ? entryCacheMaxSize : 0L,
+                                     coalesceRequests);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{credentialCacheTtl: " + credentialCacheTtl + ", credentialCacheMaxSize: " + credentialCacheMaxSize + ", searchCacheTtl: " + searchCacheTtl + ", searchCacheMaxSize: " + searchCacheMaxSize + ", searchCacheMaxResults: " + searchCacheMaxResults + ", entryCacheTtl: " + entryCacheTtl + ", entryCacheNegativeTtl: " + entryCacheNegativeTtl + ", entryCacheMaxSize: " + entryCacheMaxSize + ", coalesceRequests: " + coalesceRequests + "}";
+    }
+}
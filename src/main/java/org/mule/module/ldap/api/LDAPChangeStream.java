@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Stream of the changes notified by a long lived search (like a persistent search). Changes are read in the
+ * background by a thread of its own and consumed with {@link #next(long)}.
+ * <p/>
+ * At most <i>bufferSize</i> changes wait to be consumed. While the buffer is full the reader stops reading changes.
+ * Subclasses must bound the responses their connection buffers as well (see {@link #getBufferSize()}), as only then a
+ * slow consumer slows down the stream instead of exhausting the memory.
+ * <p/>
+ * If the connection is lost (or the server ends the search, unless {@link #searchEnded()} says otherwise) the search
+ * is subscribed again after <i>reconnectInterval</i> milliseconds, as many times as needed until the stream is closed.
+ * Changes performed while there is no subscription are not notified (unless the search itself resumes from where it
+ * was left). Any other failure ends the stream and is reported once the changes already read are consumed.
+ * <p/>
+ * Subclasses perform the actual search.
+ *
+ * @author mariano
+ * @since 2.0.0
+ */
+public abstract class LDAPChangeStream
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    public static final int DEFAULT_BUFFER_SIZE = 1000;
+    public static final long DEFAULT_RECONNECT_INTERVAL = 5000L;
+
+    private static final AtomicInteger threadCount = new AtomicInteger(0);
+
+    private final BlockingQueue<Object> changes;
+    private final int bufferSize;
+    private final long reconnectInterval;
+    private final Thread reader;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong subscriptions = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /*
+     * Only used by the consumer
+     */
+    private LDAPException failure = null;
+
+    /**
+     * @param bufferSize Maximum number of changes waiting to be consumed.
+     * @param reconnectInterval Milliseconds to wait before subscribing again after the search was lost.
+     */
+    protected LDAPChangeStream(int bufferSize, long reconnectInterval)
+    {
+        this.bufferSize = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+        this.changes = new ArrayBlockingQueue<Object>(this.bufferSize);
+        this.reconnectInterval = reconnectInterval >= 0 ? reconnectInterval : DEFAULT_RECONNECT_INTERVAL;
+        this.reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                read();
+            }
+        }, "ldap-change-stream-" + threadCount.incrementAndGet());
+        this.reader.setDaemon(true);
+    }
+
+    /**
+     * Starts the search in the background. Called once the subclass is ready to {@link #subscribe()}.
+     */
+    protected void start()
+    {
+        reader.start();
+    }
+
+    /**
+     * Starts (or starts again) the search.
+     *
+     * @throws CommunicationException If the server cannot be reached. Subscribing is attempted again later.
+     */
+    protected abstract void subscribe() throws LDAPException;
+
+    /**
+     * Waits for the next change of the current subscription.
+     *
+     * @return The next change or <i>null</i> if the server ended the search.
+     * @throws CommunicationException If the connection was lost. The search is subscribed again later.
+     */
+    protected abstract LDAPEntryChange readChange() throws LDAPException;
+
+    /**
+     * Abandons the current subscription. May be called more than once and by other threads than the reader.
+     */
+    protected abstract void unsubscribe();
+
+    /**
+     * Releases the resources used by the stream once it is closed.
+     */
+    protected void release()
+    {
+    }
+
+    /**
+     * Called when the server ends the search.
+     *
+     * @return Milliseconds to wait before subscribing again.
+     */
+    protected long searchEnded()
+    {
+        logger.warn("Search ended by the server. Subscribing again in " + reconnectInterval + " ms.");
+        return reconnectInterval;
+    }
+
+    private void read()
+    {
+        try
+        {
+            while (!closed)
+            {
+                long delay;
+                try
+                {
+                    subscribe();
+                    subscriptions.incrementAndGet();
+
+                    LDAPEntryChange change;
+                    while (!closed && (change = readChange()) != null)
+                    {
+                        received.incrementAndGet();
+                        changes.put(change);
+                    }
+
+                    delay = !closed ? searchEnded() : 0L;
+                }
+                catch (CommunicationException ex)
+                {
+                    if (!closed)
+                    {
+                        logger.warn("Search lost (" + ex.getMessage() + "). Subscribing again in " + reconnectInterval + " ms.", ex);
+                    }
+                    delay = reconnectInterval;
+                }
+                finally
+                {
+                    unsubscribe();
+                }
+
+                if (!closed)
+                {
+                    Thread.sleep(delay);
+                }
+            }
+        }
+        catch (LDAPException ex)
+        {
+            if (!closed)
+            {
+                offer(ex);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            if (!closed)
+            {
+                offer(new LDAPException(ex.getMessage(), ex));
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            // Closed while waiting
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    private void offer(LDAPException ex)
+    {
+        try
+        {
+            changes.put(ex);
+        }
+        catch (InterruptedException iex)
+        {
+            // Closed while waiting for the consumer
+        }
+    }
+
+    /**
+     * Waits for the next change.
+     *
+     * @param timeout Maximum number of milliseconds to wait.
+     * @return The next change or <i>null</i> if no change arrived on time, the stream is closed or the current
+     *         thread was interrupted (its interrupted status is kept).
+     * @throws LDAPException If the search failed for any other reason than losing the connection.
+     */
+    public LDAPEntryChange next(long timeout) throws LDAPException
+    {
+        if (failure != null)
+        {
+            throw failure;
+        }
+        if (closed)
+        {
+            return null;
+        }
+
+        Object next;
+        try
+        {
+            next = changes.poll(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        if (next instanceof LDAPException)
+        {
+            failure = (LDAPException) next;
+            throw failure;
+        }
+        return (LDAPEntryChange) next;
+    }
+
+    /**
+     * Abandons the search. Changes not consumed yet are discarded.
+     */
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        reader.interrupt();
+        unsubscribe();
+        changes.clear();
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * @return The maximum number of changes waiting to be consumed.
+     */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * @return The number of changes read from the server, consumed or not.
+     */
+    public long getReceivedCount()
+    {
+        return received.get();
+    }
+
+    /**
+     * @return The number of changes waiting to be consumed.
+     */
+    public int getPendingCount()
+    {
+        return changes.size();
+    }
+
+    /**
+     * @return The number of times the search was subscribed, including the first one.
+     */
+    public long getSubscriptionCount()
+    {
+        return subscriptions.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{received: " + getReceivedCount() + ", pending: " + getPendingCount() + ", subscriptions: " + getSubscriptionCount() + (closed ? ", closed" : "") + "}";
+    }
+}
@@ -8,12 +8,27 @@
 
 package org.mule.module.ldap.api;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.mule.module.ldap.api.jndi.LDAPJNDIConnection;
+import org.mule.module.ldap.api.nio.LDAPNIOConnection;
 
 /**
  * This class is the abstraction
@@ -33,9 +48,18 @@ public abstract class LDAPConnection implements LDAPSchemaAware
     private boolean schemaEnabled = DEFAULT_SCHEMA_ENABLED;
     private boolean tlsEnabled = DEFAULT_TLS_ENABLED;
 
+    private LDAPCredentialCache credentialCache = null;
+    private LDAPSearchCache searchCache = null;
+    private LDAPEntryCache entryCache = null;
+    private LDAPRequestCoalescer requestCoalescer = null;
+
+    private volatile String lastBindDn = null;
+    private volatile long lastBindTime = 0L;
+
     static
     {
         CONNECTION_IMPLEMENTATIONS.put("jndi", LDAPJNDIConnection.class);
+        CONNECTION_IMPLEMENTATIONS.put("nio", LDAPNIOConnection.class);
     }
 
     public static final String NO_AUTHENTICATION = "none";
@@ -49,6 +73,22 @@ public abstract class LDAPConnection implements LDAPSchemaAware
     public static final String REFERRAL_ATTR = "referral";
     public static final String SCHEMA_ENABLED = "schema-enabled";
     public static final String TLS_ENABLED = "tls-enabled";
+
+    /**
+     * Attribute list requesting no attributes at all (RFC 4511 section 4.5.1.8).
+     */
+    protected static final String[] NO_ATTRIBUTES = new String[] {"1.1"};
+
+    /**
+     * Maximum number of DNs whose entries are read with a single search by {@link #lookupMany(List, String[])}.
+     */
+    public static final int MAX_LOOKUP_GROUP_SIZE = 100;
+
+    /**
+     * Page size used by {@link #count(String, String, Object[], LDAPSearchControls)} if the search controls do not set
+     * one.
+     */
+    public static final int COUNT_PAGE_SIZE = 1000;
     
     /**
 	 * 
@@ -83,6 +123,17 @@ public abstract class LDAPConnection implements LDAPSchemaAware
     }    
 
     public static LDAPConnection getConnection(String type, String url, String authentication, int initialPoolSize, int maxPoolSize, long poolTimeout, String referral, Map<String, String> extendedConf, boolean schemaEnabled, boolean tlsEnabled) throws LDAPException
+    {
+        return getConnection(buildConfiguration(type, url, authentication, initialPoolSize, maxPoolSize, poolTimeout, referral, extendedConf, schemaEnabled, tlsEnabled));        
+    }    
+
+    /**
+     * Builds the configuration {@link Map} that {@link #getConnection(Map)} expects out of the individual
+     * connection parameters.
+     * 
+     * @return A new (mutable) {@link Map} holding the connection configuration.
+     */
+    public static Map<String, String> buildConfiguration(String type, String url, String authentication, int initialPoolSize, int maxPoolSize, long poolTimeout, String referral, Map<String, String> extendedConf, boolean schemaEnabled, boolean tlsEnabled)
     {
         Map<String, String> conf = extendedConf != null ? new HashMap<String, String>(extendedConf) : new HashMap<String, String>();
         conf.put(CONNECTION_TYPE_ATTR, type);
@@ -95,8 +146,8 @@ public abstract class LDAPConnection implements LDAPSchemaAware
         conf.put(SCHEMA_ENABLED, String.valueOf(schemaEnabled));
         conf.put(TLS_ENABLED, String.valueOf(tlsEnabled));
         
-        return getConnection(conf);        
-    }    
+        return conf;
+    }
     
     public static LDAPConnection getConnection(String type, String url, String authentication, int initialPoolSize, int maxPoolSize, long poolTimeout, String referral) throws LDAPException
     {
@@ -213,6 +264,372 @@ public abstract class LDAPConnection implements LDAPSchemaAware
      */
     public abstract LDAPEntry lookup(String dn, String attributes[]) throws LDAPException;
 
+    /**
+     * Checks whether the entry identified by <i>dn</i> exists. The entry is looked up without attributes, unless the
+     * answer is known by the entry cache.
+     *
+     * @param dn The DN of the entry.
+     * @return <i>true</i> if the entry exists, <i>false</i> otherwise.
+     * @throws LDAPException If the lookup failed for any other reason than the entry not existing.
+     * @since 2.0.0
+     */
+    public boolean exists(String dn) throws LDAPException
+    {
+        if (entryCache != null)
+        {
+            Boolean exists = entryCache.exists(getBindedUserDn(), dn);
+            if (exists != null)
+            {
+                return exists.booleanValue();
+            }
+        }
+
+        try
+        {
+            return lookup(dn, NO_ATTRIBUTES) != null;
+        }
+        catch (NameNotFoundException nnfe)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Looks up many entries at once. The DNs are grouped by parent and the entries of each group are read with a
+     * single one level search whose filter matches their RDNs (see {@link #groupByParent(List)}). DNs alone in their
+     * group, and those of groups whose search failed, are looked up one by one.
+     *
+     * @param dns The DNs of the entries.
+     * @param attributes Attributes names to fetch or <i>null</i> for all of them.
+     * @return The entries found keyed by DN, in the same order as <i>dns</i>. DNs that do not exist are not included.
+     * @throws LDAPException If any of the lookups failed for any other reason than the entry not existing.
+     * @since 2.0.0
+     */
+    public Map<String, LDAPEntry> lookupMany(List<String> dns, String[] attributes) throws LDAPException
+    {
+        Map<String, LDAPEntry> found = new HashMap<String, LDAPEntry>();
+        for (List<String> group : groupByParent(dns))
+        {
+            lookupGroup(group, attributes, found);
+        }
+
+        Map<String, LDAPEntry> entries = new LinkedHashMap<String, LDAPEntry>();
+        for (String dn : dns)
+        {
+            if (found.containsKey(dn))
+            {
+                entries.put(dn, found.get(dn));
+            }
+        }
+        return entries;
+    }
+
+    private void lookupGroup(List<String> dns, String[] attributes, Map<String, LDAPEntry> found) throws LDAPException
+    {
+        final Map<LdapName, String> pending = new LinkedHashMap<LdapName, String>();
+        for (String dn : dns)
+        {
+            try
+            {
+                LDAPEntry cached = getCachedEntry(dn, attributes);
+                if (cached != null)
+                {
+                    found.put(dn, cached);
+                }
+                else
+                {
+                    pending.put(new LdapName(dn), dn);
+                }
+            }
+            catch (NameNotFoundException nnfe)
+            {
+                // Known to be missing
+            }
+            catch (InvalidNameException inex)
+            {
+                throw new InvalidAttributeException("Invalid DN " + dn, inex);
+            }
+        }
+
+        if (pending.size() > 1)
+        {
+            LdapName first = pending.keySet().iterator().next();
+            LdapName parent = (LdapName) first.getPrefix(first.size() - 1);
+            List<Object> filterArgs = new ArrayList<Object>();
+            StringBuilder filter = new StringBuilder("(|");
+            for (LdapName name : pending.keySet())
+            {
+                Rdn rdn = name.getRdn(name.size() - 1);
+                Attributes rdnAttributes = rdn.toAttributes();
+                filter.append(rdnAttributes.size() > 1 ? "(&" : "");
+                for (NamingEnumeration<? extends Attribute> it = rdnAttributes.getAll(); it.hasMoreElements();)
+                {
+                    Attribute attribute = it.nextElement();
+                    filter.append('(').append(attribute.getID()).append("={").append(filterArgs.size()).append("})");
+                    try
+                    {
+                        filterArgs.add(attribute.get());
+                    }
+                    catch (NamingException nex)
+                    {
+                        throw LDAPException.create(nex);
+                    }
+                }
+                filter.append(rdnAttributes.size() > 1 ? ")" : "");
+            }
+            filter.append(')');
+
+            final LDAPSearchControls controls = new LDAPSearchControls();
+            controls.setScope(LDAPSearchControls.ONELEVEL_SCOPE);
+            controls.setAttributesToReturn(attributes);
+
+            final String baseDn = parent.toString();
+            final String groupFilter = filter.toString();
+            final Object[] groupFilterArgs = filterArgs.toArray();
+            LDAPRequestCoalescer.Request<Map<String, LDAPEntry>> search = new LDAPRequestCoalescer.Request<Map<String, LDAPEntry>>()
+            {
+                @Override
+                public Map<String, LDAPEntry> execute() throws LDAPException
+                {
+                    Map<String, LDAPEntry> entries = new HashMap<String, LDAPEntry>();
+                    LDAPResultSet result = search(baseDn, groupFilter, groupFilterArgs, controls);
+                    try
+                    {
+                        while (result.hasNext())
+                        {
+                            LDAPEntry entry = result.next();
+                            // The filter may match other children whose RDN attributes hold the same values
+                            String dn = pending.get(new LdapName(entry.getDn()));
+                            if (dn != null)
+                            {
+                                entry.setDn(dn);
+                                entries.put(dn, entry);
+                            }
+                        }
+                    }
+                    catch (InvalidNameException inex)
+                    {
+                        throw new InvalidAttributeException("Search of entries under " + baseDn + " returned an invalid DN", inex);
+                    }
+                    finally
+                    {
+                        result.close();
+                    }
+                    return entries;
+                }
+            };
+
+            try
+            {
+                found.putAll(entryCache != null ? entryCache.lookupMany(getBindedUserDn(), pending.values(), attributes, search) : search.execute());
+                // The entries not returned do not exist (or the user cannot see them)
+                pending.clear();
+            }
+            catch (LDAPException ex)
+            {
+                if (ex instanceof CommunicationException)
+                {
+                    throw ex;
+                }
+                logger.debug("Search of entries under " + parent + " failed. Looking them up one by one.", ex);
+            }
+        }
+
+        for (String dn : pending.values())
+        {
+            try
+            {
+                LDAPEntry entry = attributes != null ? lookup(dn, attributes) : lookup(dn);
+                if (entry != null)
+                {
+                    found.put(dn, entry);
+                }
+            }
+            catch (NameNotFoundException nnfe)
+            {
+                // Not included in the result
+            }
+        }
+    }
+
+    /**
+     * Groups DNs with the same parent, so their entries can be read with a single search. Groups have at most
+     * {@link #MAX_LOOKUP_GROUP_SIZE} DNs, to keep search filters short. Repeated DNs are only included once and
+     * invalid DNs (including the root DSE) are left alone in their own group.
+     *
+     * @return The groups, in the order their first DN appears in <i>dns</i>.
+     * @since 2.0.0
+     */
+    public static List<List<String>> groupByParent(List<String> dns)
+    {
+        Map<Object, List<String>> groups = new LinkedHashMap<Object, List<String>>();
+        List<List<String>> result = new ArrayList<List<String>>();
+        Set<String> seen = new HashSet<String>();
+        for (String dn : dns)
+        {
+            if (!seen.add(dn))
+            {
+                continue;
+            }
+
+            Object parent;
+            try
+            {
+                LdapName name = new LdapName(dn);
+                parent = name.isEmpty() ? null : name.getPrefix(name.size() - 1);
+            }
+            catch (InvalidNameException inex)
+            {
+                parent = null;
+            }
+
+            if (parent == null)
+            {
+                result.add(Collections.singletonList(dn));
+                continue;
+            }
+
+            List<String> group = groups.get(parent);
+            if (group == null || group.size() >= MAX_LOOKUP_GROUP_SIZE)
+            {
+                group = new ArrayList<String>();
+                groups.put(parent, group);
+                result.add(group);
+            }
+            group.add(dn);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the entries matching a search. No attributes are requested and, as the whole result has to be read,
+     * it is paged (with pages of {@link #COUNT_PAGE_SIZE} entries if the controls do not set a page size). Sort keys,
+     * the virtual list view and the attributes to return set in the controls are ignored.
+     * <p/>
+     * If the server supplies an estimate of the result size in the paged results response control, the estimate
+     * (capped at the maximum results of the controls) is returned without reading the rest of the pages, and the paged
+     * search is abandoned. The count may then differ from the actual number of entries.
+     *
+     * @param baseDn The base DN of the search.
+     * @param filter The search filter. May contain <code>{n}</code> placeholders replaced by the filter arguments.
+     * @param filterArgs The filter arguments or <i>null</i>.
+     * @param controls Scope, time limit, size limit and page size of the search.
+     * @return The number of entries matching the filter.
+     * @throws LDAPException If the search failed.
+     * @since 2.0.0
+     */
+    public int count(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    {
+        LDAPResultSet result = search(baseDn, filter, filterArgs, countControls(controls));
+        try
+        {
+            int count = 0;
+            while (result.hasNext())
+            {
+                result.next();
+                count++;
+            }
+            return count;
+        }
+        finally
+        {
+            result.close();
+        }
+    }
+
+    /**
+     * @return A copy of the controls requesting no attributes and paging the results, as used by
+     *         {@link #count(String, String, Object[], LDAPSearchControls)}.
+     */
+    protected static LDAPSearchControls countControls(LDAPSearchControls controls)
+    {
+        LDAPSearchControls countControls = new LDAPSearchControls(controls);
+        countControls.setAttributesToReturn(NO_ATTRIBUTES);
+        countControls.setReturnObject(false);
+        countControls.setVirtualListView(null);
+        countControls.getSortKeys().clear();
+        countControls.setPrefetchPages(0);
+        countControls.setPageTargetLatency(0);
+        countControls.setPageByteBudget(0);
+        if (!countControls.isPagingEnabled())
+        {
+            countControls.setPageSize(COUNT_PAGE_SIZE);
+        }
+        return countControls;
+    }
+
+    /**
+     * @param resultSize The estimate of the result size supplied by the server in the paged results response control.
+     * @return The estimate capped at the maximum results of the controls, or -1 if the rest of the pages must be read
+     *         because there is no estimate or it exceeds the maximum results and reaching them fails the count.
+     */
+    protected static int countEstimate(int resultSize, LDAPSearchControls controls)
+    {
+        if (resultSize <= 0)
+        {
+            return -1;
+        }
+        long maxResults = controls.getMaxResults();
+        if (maxResults > 0 && resultSize > maxResults)
+        {
+            return controls.isFailOnSizeLimitExceeded() ? -1 : (int) maxResults;
+        }
+        return resultSize;
+    }
+
+    /**
+     * Starts a persistent search (draft-ietf-ldapext-psearch) that notifies the changes of the entries matching the
+     * filter, each one with its entry change notification. The search is performed in the background until the
+     * returned stream is closed, subscribing again whenever the connection is lost.
+     * <p/>
+     * This implementation throws {@link OperationNotSupportedException}.
+     *
+     * @param baseDn The base DN of the search.
+     * @param filter The search filter. May contain <code>{n}</code> placeholders replaced by the filter arguments.
+     * @param filterArgs The filter arguments or <i>null</i>.
+     * @param controls Scope and attributes to return of the search. Paging, sorting and virtual list view are not
+     *        supported.
+     * @param changeTypes Changes to notify as a combination of the {@link LDAPEntryChange} change types.
+     * @param changesOnly Whether the entries matching the search are not returned before the changes.
+     * @param bufferSize Maximum number of changes waiting to be consumed.
+     * @param reconnectInterval Milliseconds to wait before subscribing again after the search was lost.
+     * @return The stream of changes.
+     * @throws LDAPException If the search cannot be started.
+     * @since 2.0.0
+     */
+    public LDAPChangeStream persistentSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, int changeTypes, boolean changesOnly, int bufferSize, long reconnectInterval) throws LDAPException
+    {
+        throw new OperationNotSupportedException("Persistent search is not supported by " + getClass().getSimpleName() + ".");
+    }
+
+    /**
+     * Starts a content synchronization (RFC 4533) of the entries matching the filter. The changes are notified as
+     * {@link LDAPSyncChange LDAPSyncChanges}, which carry the cookie to resume the synchronization from if the server
+     * sent one. The synchronization goes on in the background until the returned stream is closed, resuming from the
+     * last cookie received whenever the connection is lost.
+     * <p/>
+     * This implementation throws {@link OperationNotSupportedException}.
+     *
+     * @param baseDn The base DN of the search.
+     * @param filter The search filter. May contain <code>{n}</code> placeholders replaced by the filter arguments.
+     * @param filterArgs The filter arguments or <i>null</i>.
+     * @param controls Scope and attributes to return of the search. Paging, sorting and virtual list view are not
+     *        supported.
+     * @param persist Whether the changes are notified as they happen after the first refresh (refreshAndPersist) or
+     *        the content is refreshed every <i>pollingInterval</i> milliseconds (refreshOnly).
+     * @param cookie The cookie to resume the synchronization from or <i>null</i> to synchronize the whole content.
+     * @param bufferSize Maximum number of changes waiting to be consumed.
+     * @param reconnectInterval Milliseconds to wait before resuming after the search was lost.
+     * @param pollingInterval Milliseconds between refreshes in refreshOnly mode.
+     * @return The stream of changes.
+     * @throws LDAPException If the synchronization cannot be started.
+     * @since 2.0.0
+     */
+    public LDAPChangeStream sync(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, boolean persist, byte[] cookie, int bufferSize, long reconnectInterval, long pollingInterval) throws LDAPException
+    {
+        throw new OperationNotSupportedException("Content synchronization is not supported by " + getClass().getSimpleName() + ".");
+    }
+
     /**
      * @param entry
      * @throws LDAPException
@@ -270,7 +687,306 @@ public abstract class LDAPConnection implements LDAPSchemaAware
      * @throws LDAPException
      */
     public abstract boolean isClosed() throws LDAPException;
+
+    /**
+     * Checks whether this connection can still be used to perform operations against the LDAP server. It is used
+     * by {@link LDAPConnectionPool} to validate connections before handing them out. Implementations should
+     * override this method with the cheapest possible round trip to the server, as by default it only checks that
+     * the connection has not been closed.
+     * 
+     * @return <i>true</i> if the connection is usable or <i>false</i> otherwise.
+     */
+    public boolean isValid()
+    {
+        try
+        {
+            return !isClosed();
+        }
+        catch (LDAPException ex)
+        {
+            return false;
+        }
+    }
     
+    /**
+     * Implementations must call this method every time a bind succeeds, so the identity and time of the bind are
+     * tracked without querying the underlying connection.
+     * 
+     * @param dn The DN of the binded user. <i>null</i> for anonymous binds.
+     */
+    protected void bindPerformed(String dn)
+    {
+        this.lastBindDn = dn;
+        this.lastBindTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Implementations must call this method when the connection is closed.
+     */
+    protected void clearBindInformation()
+    {
+        this.lastBindDn = null;
+        this.lastBindTime = 0L;
+    }
+
+    /**
+     * @return The DN used in the last successful bind or <i>null</i> if it was anonymous or there was no bind.
+     */
+    protected String getLastBindDn()
+    {
+        return lastBindDn;
+    }
+
+    /**
+     * @return The time (in milliseconds since epoch) of the last successful bind or 0 (zero) if there was no bind
+     *         since the connection was opened.
+     */
+    public long getLastBindTime()
+    {
+        return lastBindTime;
+    }
+
+    /**
+     * Checks whether the last bind was performed as <i>dn</i> and happened recently enough to be trusted instead of
+     * binding again.
+     * 
+     * @param dn The DN the connection is expected to be binded as. <i>null</i> for anonymous binds.
+     * @param freshnessWindow Number of milliseconds a bind is considered fresh.
+     * @return <i>true</i> if the connection is open, the last bind was performed as <i>dn</i> and it happened within
+     *         the last <i>freshnessWindow</i> milliseconds.
+     */
+    public boolean isBindFresh(String dn, long freshnessWindow)
+    {
+        try
+        {
+            long bindTime = lastBindTime;
+            return freshnessWindow > 0 && bindTime > 0 && isSameDn(dn, lastBindDn) && !isClosed() && System.currentTimeMillis() - bindTime <= freshnessWindow;
+        }
+        catch (LDAPException ex)
+        {
+            return false;
+        }
+    }
+
+    private static boolean isSameDn(String dn, String otherDn)
+    {
+        if (dn == null || otherDn == null)
+        {
+            return dn == otherDn;
+        }
+        try
+        {
+            return new LdapName(dn).equals(new LdapName(otherDn));
+        }
+        catch (InvalidNameException ex)
+        {
+            return dn.equalsIgnoreCase(otherDn);
+        }
+    }
+
+
+    /**
+     * @return The cache of verified credentials used by this connection or <i>null</i> if credentials are not
+     *         cached.
+     */
+    public LDAPCredentialCache getCredentialCache()
+    {
+        return credentialCache;
+    }
+
+    public void setCredentialCache(LDAPCredentialCache credentialCache)
+    {
+        this.credentialCache = credentialCache;
+    }
+
+    /**
+     * Implementations must call this method when a bind fails or the entry identified by <i>dn</i> is modified, as
+     * the cached credentials for it (if any) cannot be trusted anymore.
+     * 
+     * @param dn The DN of the entry.
+     */
+    protected void invalidateCredentials(String dn)
+    {
+        if (credentialCache != null)
+        {
+            credentialCache.invalidate(dn);
+        }
+    }
+
+    /**
+     * @return The cache of search results used by this connection or <i>null</i> if search results are not cached.
+     */
+    public LDAPSearchCache getSearchCache()
+    {
+        return searchCache;
+    }
+
+    public void setSearchCache(LDAPSearchCache searchCache)
+    {
+        this.searchCache = searchCache;
+    }
+
+    /**
+     * @return The cache of entries looked up by this connection or <i>null</i> if entries are not cached.
+     */
+    public LDAPEntryCache getEntryCache()
+    {
+        return entryCache;
+    }
+
+    public void setEntryCache(LDAPEntryCache entryCache)
+    {
+        this.entryCache = entryCache;
+    }
+
+    /**
+     * @return The coalescer of identical lookups and searches in flight used by this connection or <i>null</i> if
+     *         requests are not coalesced.
+     */
+    public LDAPRequestCoalescer getRequestCoalescer()
+    {
+        return requestCoalescer;
+    }
+
+    public void setRequestCoalescer(LDAPRequestCoalescer requestCoalescer)
+    {
+        this.requestCoalescer = requestCoalescer;
+    }
+
+    /**
+     * Implementations must call this method when the entry identified by <i>dn</i> is added, modified or deleted, as
+     * the cached entry and the cached searches that may have returned it (if any) are not valid anymore, and neither
+     * are the identical requests in flight that later requests would join.
+     *
+     * @param dn The DN of the entry.
+     */
+    protected void invalidateCaches(String dn)
+    {
+        if (searchCache != null)
+        {
+            searchCache.invalidate(dn);
+        }
+        if (entryCache != null)
+        {
+            entryCache.invalidate(dn);
+        }
+        if (requestCoalescer != null)
+        {
+            requestCoalescer.invalidate(dn);
+        }
+    }
+
+    /**
+     * Same as {@link #invalidateCaches(String)} but also invalidates the cached descendants of the entry. Implementations
+     * must call this method with the old DN of a renamed entry.
+     *
+     * @param dn The DN of the entry.
+     */
+    protected void invalidateCachedTree(String dn)
+    {
+        if (searchCache != null)
+        {
+            searchCache.invalidate(dn);
+        }
+        if (entryCache != null)
+        {
+            entryCache.invalidateTree(dn);
+        }
+        if (requestCoalescer != null)
+        {
+            requestCoalescer.invalidate(dn);
+        }
+    }
+
+    /**
+     * Implementations call this method before looking up an entry.
+     *
+     * @return A copy of the cached entry or <i>null</i> if it has to be looked up.
+     * @throws NameNotFoundException If the entry is known to be missing.
+     */
+    protected LDAPEntry getCachedEntry(String dn, String[] attributes) throws LDAPException
+    {
+        if (entryCache == null)
+        {
+            return null;
+        }
+        return entryCache.get(getBindedUserDn(), dn, attributes);
+    }
+
+    /**
+     * Implementations call this method to look up an entry that is not cached, so it is looked up only once if an
+     * identical lookup is in flight and the entry found (or that it is missing) is cached.
+     *
+     * @return The entry looked up by <i>lookup</i> or a copy of the one looked up by the identical lookup.
+     */
+    protected LDAPEntry coalesceLookup(final String dn, final String[] attributes, final LDAPRequestCoalescer.Request<LDAPEntry> lookup) throws LDAPException
+    {
+        final LDAPEntryCache cache = entryCache;
+        LDAPRequestCoalescer.Request<LDAPEntry> request = lookup;
+        if (cache != null)
+        {
+            final String bindDn = getBindedUserDn();
+            request = new LDAPRequestCoalescer.Request<LDAPEntry>()
+            {
+                @Override
+                public LDAPEntry execute() throws LDAPException
+                {
+                    return cache.lookup(bindDn, dn, attributes, lookup);
+                }
+            };
+        }
+
+        if (requestCoalescer == null)
+        {
+            return request.execute();
+        }
+        return requestCoalescer.lookup(getBindedUserDn(), dn, attributes, request);
+    }
+
+    /**
+     * Implementations call this method to perform a search that is not cached, so it is performed only once if an
+     * identical search is in flight and its results are cached (if they can be).
+     *
+     * @return The results of <i>search</i> or of the identical search.
+     */
+    protected LDAPResultSet coalesceSearch(final String baseDn, final String filter, final Object[] filterArgs, final LDAPSearchControls controls, final LDAPRequestCoalescer.Request<LDAPResultSet> search) throws LDAPException
+    {
+        final LDAPSearchCache cache = searchCache;
+        LDAPRequestCoalescer.Request<LDAPResultSet> request = search;
+        if (cache != null && cache.isCacheable(controls))
+        {
+            final String bindDn = getBindedUserDn();
+            request = new LDAPRequestCoalescer.Request<LDAPResultSet>()
+            {
+                @Override
+                public LDAPResultSet execute() throws LDAPException
+                {
+                    return cache.search(bindDn, baseDn, filter, filterArgs, controls, search);
+                }
+            };
+        }
+
+        if (requestCoalescer == null || !requestCoalescer.isCoalescable(controls))
+        {
+            return request.execute();
+        }
+        return requestCoalescer.search(getBindedUserDn(), baseDn, filter, filterArgs, controls, request);
+    }
+
+    /**
+     * Implementations call this method before performing a search.
+     * 
+     * @return The cached results of the search or <i>null</i> if it has to be performed.
+     */
+    protected LDAPResultSet getCachedSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    {
+        if (searchCache == null || !searchCache.isCacheable(controls))
+        {
+            return null;
+        }
+        return searchCache.get(getBindedUserDn(), baseDn, filter, filterArgs, controls);
+    }
+
     @Override
     public boolean isSchemaEnabled()
     {
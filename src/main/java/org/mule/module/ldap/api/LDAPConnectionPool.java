@@ -0,0 +1,985 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Pool of {@link LDAPConnection} instances owned by the connector. Connections are grouped in sub-pools by the
+ * identity (DN and password) they are bound with, so a borrowed connection is always ready to be used by the
+ * requested identity.
+ * <p/>
+ * Each identity sub-pool:
+ * <ul>
+ * <li>Creates <i>initialPoolSize</i> connections the first time the identity is requested.</li>
+ * <li>Lends at most <i>maxPoolSize</i> connections at the same time. When the limit is reached, borrowers wait in
+ * arrival order for a connection to be returned. Idle connections are not counted, they are only limited by
+ * <i>initialPoolSize</i> and by the connections returned.</li>
+ * <li>Closes the connections that stay idle for more than <i>poolTimeout</i> milliseconds.</li>
+ * <li>Validates idle connections (see {@link LDAPConnection#isValid()}) before handing them out.</li>
+ * </ul>
+ * Connections borrowed for the operations of a {@link LDAPAsyncExecutor} are kept in a sub-pool of their own, limited
+ * by the number of threads running asynchronous operations (shared by all the executors of the pool) instead of
+ * <i>maxPoolSize</i>.
+ * <p/>
+ * Pooling is disabled when <i>initialPoolSize</i> is 0 (zero), in which case a new connection is created on every
+ * borrow and closed when returned.
+ * <p/>
+ * Connections created by the pool never use the native pooling of the underlying implementation (for example the
+ * JNDI <code>com.sun.jndi.ldap.connect.pool</code> feature).
+ * <p/>
+ * Pools obtained with {@link #getPool(String, String, String, int, int, long, String, Map, boolean, boolean)} are
+ * shared and must be given back with {@link #release()}. The pool is closed when its last user releases it.
+ *
+ * @author mariano
+ */
+public class LDAPConnectionPool
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    public static final int DISABLE_POOLING = 0;
+    public static final long WAIT_FOREVER = -1L;
+
+    /**
+     * Milliseconds asynchronous operations wait for a connection. Streaming searches give their connection back once
+     * they are idle for as long (see {@link LDAPSearchControls#setConsumerTimeout(long)}), so waiting any longer
+     * would only wait for a leak.
+     */
+    public static final long DEFAULT_ASYNC_MAX_WAIT = LDAPSearchControls.DEFAULT_CONSUMER_TIMEOUT;
+
+    private static final long MIN_EVICTION_INTERVAL = 1000L;
+
+    /**
+     * Shared pools keyed by their connection configuration and their {@link LDAPCacheConfiguration}.
+     */
+    private static final ConcurrentMap<List<Object>, LDAPConnectionPool> POOLS = new ConcurrentHashMap<List<Object>, LDAPConnectionPool>();
+
+    private static final ScheduledExecutorService EVICTOR = createEvictor();
+
+    private final Map<String, String> connectionConf;
+    private final int initialPoolSize;
+    private final int maxPoolSize;
+    private final long poolTimeout;
+    private long maxWait = WAIT_FOREVER;
+    private long asyncMaxWait = DEFAULT_ASYNC_MAX_WAIT;
+    private boolean rebindIdleConnections = false;
+
+    private final ConcurrentMap<PoolKey, IdentityPool> identityPools = new ConcurrentHashMap<PoolKey, IdentityPool>();
+    private final Map<LDAPConnection, IdentityPool> borrowed = Collections.synchronizedMap(new IdentityHashMap<LDAPConnection, IdentityPool>());
+
+    private final LDAPLatencyStatistics connectStatistics = new LDAPLatencyStatistics("connect");
+    private final LDAPLatencyStatistics bindStatistics = new LDAPLatencyStatistics("bind");
+
+    private volatile LDAPCredentialCache credentialCache = null;
+    private volatile LDAPSearchCache searchCache = null;
+    private volatile LDAPEntryCache entryCache = null;
+    private volatile LDAPRequestCoalescer requestCoalescer = null;
+
+    private ListeningExecutorService asyncThreads = null;
+    private int asyncMaxConcurrency = 0;
+
+    private ScheduledFuture<?> evictionTask = null;
+    private volatile boolean closed = false;
+    private int references = 0;
+
+    /**
+     * @param conf The configuration used to create new connections (see {@link LDAPConnection#getConnection(Map)}).
+     *            Pooling attributes are ignored as they are provided as parameters.
+     * @param initialPoolSize Number of connections to create when an identity is requested for the first time. Use
+     *            0 (zero) to disable pooling.
+     * @param maxPoolSize Maximum number of connections per identity. Use 0 (zero) for no maximum.
+     * @param poolTimeout Number of milliseconds that a connection may remain idle in the pool before being closed.
+     *            Use 0 (zero) for no timeout.
+     */
+    public LDAPConnectionPool(Map<String, String> conf, int initialPoolSize, int maxPoolSize, long poolTimeout)
+    {
+        this.connectionConf = new HashMap<String, String>(conf);
+        this.connectionConf.put(LDAPConnection.INITIAL_POOL_CONNECTIONS_ATTR, String.valueOf(DISABLE_POOLING));
+        this.connectionConf.put(LDAPConnection.MAX_POOL_CONNECTIONS_ATTR, String.valueOf(DISABLE_POOLING));
+        this.connectionConf.put(LDAPConnection.POOL_TIMEOUT_ATTR, String.valueOf(DISABLE_POOLING));
+
+        this.initialPoolSize = initialPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.poolTimeout = poolTimeout;
+
+        if (isPoolingEnabled() && poolTimeout > 0)
+        {
+            long interval = Math.max(poolTimeout / 2, MIN_EVICTION_INTERVAL);
+            this.evictionTask = EVICTOR.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    evictIdleConnections();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the pool shared by all the callers using the same connection configuration and no caches, creating it
+     * if necessary. Every call must be matched by a call to {@link #release()} once the pool is not used anymore.
+     */
+    public static LDAPConnectionPool getPool(String type, String url, String authentication, int initialPoolSize, int maxPoolSize, long poolTimeout, String referral, Map<String, String> extendedConf, boolean schemaEnabled, boolean tlsEnabled)
+    {
+        return getPool(type, url, authentication, initialPoolSize, maxPoolSize, poolTimeout, referral, extendedConf, schemaEnabled, tlsEnabled, new LDAPCacheConfiguration());
+    }
+
+    /**
+     * Returns the pool shared by all the callers using the same connection configuration and the same caches,
+     * creating it (with the caches enabled) if necessary. Every call must be matched by a call to {@link #release()}
+     * once the pool is not used anymore.
+     */
+    public static LDAPConnectionPool getPool(String type, String url, String authentication, int initialPoolSize, int maxPoolSize, long poolTimeout, String referral, Map<String, String> extendedConf, boolean schemaEnabled, boolean tlsEnabled, LDAPCacheConfiguration caches)
+    {
+        Map<String, String> conf = LDAPConnection.buildConfiguration(type, url, authentication, initialPoolSize, maxPoolSize, poolTimeout, referral, extendedConf, schemaEnabled, tlsEnabled);
+        List<Object> key = Arrays.<Object>asList(conf, new LDAPCacheConfiguration(caches));
+
+        while (true)
+        {
+            LDAPConnectionPool pool = POOLS.get(key);
+            if (pool == null)
+            {
+                LDAPConnectionPool newPool = new LDAPConnectionPool(conf, initialPoolSize, maxPoolSize, poolTimeout);
+                caches.apply(newPool);
+                pool = POOLS.putIfAbsent(key, newPool);
+                if (pool == null)
+                {
+                    pool = newPool;
+                }
+                else
+                {
+                    newPool.close();
+                }
+            }
+
+            if (pool.acquire())
+            {
+                return pool;
+            }
+            // Released by its last user (or closed) after it was looked up
+            POOLS.remove(key, pool);
+        }
+    }
+
+    private synchronized boolean acquire()
+    {
+        if (closed)
+        {
+            return false;
+        }
+        references++;
+        return true;
+    }
+
+    /**
+     * Gives back a pool obtained with
+     * {@link #getPool(String, String, String, int, int, long, String, Map, boolean, boolean)}. When the last user
+     * releases it, the pool is closed and the next call to <i>getPool</i> creates a new one.
+     */
+    public void release()
+    {
+        synchronized (this)
+        {
+            if (closed || --references > 0)
+            {
+                return;
+            }
+            closed = true;
+        }
+        POOLS.values().remove(this);
+        close();
+    }
+
+    private static ScheduledExecutorService createEvictor()
+    {
+        ScheduledThreadPoolExecutor evictor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "ldap-connection-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        evictor.setRemoveOnCancelPolicy(true);
+        return evictor;
+    }
+
+    /**
+     * Runs the task every <i>interval</i> milliseconds on the thread evicting idle connections, so it must not block.
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long interval)
+    {
+        return EVICTOR.scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection bound with the given identity. The connection must be given back to the pool using
+     * {@link #returnConnection(LDAPConnection)} or {@link #invalidateConnection(LDAPConnection)}.
+     *
+     * @param dn The DN of the identity. <i>null</i> for anonymous connections.
+     * @param password The password of the identity. <i>null</i> for anonymous connections.
+     * @return A connection bound to the LDAP server as <i>dn</i>.
+     * @throws LDAPException If the connection cannot be created or bound, or if no connection was available after
+     *             waiting for <i>maxWait</i> milliseconds.
+     */
+    public LDAPConnection borrowConnection(String dn, String password) throws LDAPException
+    {
+        return borrowConnection(new PoolKey(dn, password, false));
+    }
+
+    /**
+     * Borrows a connection bound with the given identity for an operation run by a {@link LDAPAsyncExecutor}. These
+     * connections have their own limit (the number of threads running asynchronous operations) instead of
+     * <i>maxPoolSize</i>, so a thread holding connections of the identity never waits for itself when it waits for
+     * the operations it submitted. They wait at most <i>asyncMaxWait</i> milliseconds for a connection.
+     *
+     * @see #borrowConnection(String, String)
+     */
+    public LDAPConnection borrowAsyncConnection(String dn, String password) throws LDAPException
+    {
+        return borrowConnection(new PoolKey(dn, password, true));
+    }
+
+    private LDAPConnection borrowConnection(PoolKey key) throws LDAPException
+    {
+        String dn = key.dn;
+        String password = key.password;
+        if (closed)
+        {
+            throw new LDAPException("Cannot borrow a connection from a closed pool.");
+        }
+
+        if (!isPoolingEnabled())
+        {
+            return createConnection(dn, password);
+        }
+
+        IdentityPool pool = getIdentityPool(key);
+
+        pool.acquire(key.async ? asyncMaxWait : maxWait);
+        try
+        {
+            LDAPConnection conn = pool.takeIdleConnection();
+            if (conn == null && isRebindIdleConnections())
+            {
+                conn = rebindIdleConnection(pool.key);
+            }
+            if (conn == null)
+            {
+                conn = createConnection(dn, password);
+                pool.prefill();
+            }
+            // Idle connections may have been created before the search and entry caches were enabled
+            conn.setSearchCache(searchCache);
+            conn.setEntryCache(entryCache);
+            conn.setRequestCoalescer(requestCoalescer);
+            borrowed.put(conn, pool);
+            return conn;
+        }
+        catch (Exception ex)
+        {
+            pool.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Takes the oldest valid idle connection of another identity and binds it as <i>key</i>.
+     * 
+     * @return The re-bound connection or <i>null</i> if there is no idle connection available.
+     */
+    private LDAPConnection rebindIdleConnection(PoolKey key) throws LDAPException
+    {
+        for (IdentityPool other : identityPools.values())
+        {
+            if (other.key.isIdentity(key))
+            {
+                continue;
+            }
+            
+            IdleConnection candidate;
+            while ((candidate = other.idle.pollLast()) != null)
+            {
+                if (!candidate.conn.isValid())
+                {
+                    destroyConnection(candidate.conn);
+                    continue;
+                }
+
+                try
+                {
+                    candidate.conn.bind(key.dn, key.password);
+                    if (credentialCache != null && key.dn != null)
+                    {
+                        credentialCache.verified(key.dn, key.password);
+                    }
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("Re-binded idle connection of " + other.key + " as " + key);
+                    }
+                    return candidate.conn;
+                }
+                catch (AuthenticationException ex)
+                {
+                    // The connection is bound again as its own identity unless it could not be restored
+                    if (isBoundAs(candidate.conn, other.key.dn))
+                    {
+                        other.addIdleConnection(candidate.conn);
+                    }
+                    else
+                    {
+                        destroyConnection(candidate.conn);
+                    }
+                    throw ex;
+                }
+                catch (LDAPException ex)
+                {
+                    logger.warn("Unable to re-bind idle connection of " + other.key + " as " + key + ". Discarding it.", ex);
+                    destroyConnection(candidate.conn);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gives back a connection previously borrowed from this pool. Closed connections and connections that were not
+     * borrowed from this pool are discarded.
+     *
+     * @param conn The connection to return.
+     */
+    public void returnConnection(LDAPConnection conn)
+    {
+        if (conn == null)
+        {
+            return;
+        }
+
+        IdentityPool pool = borrowed.remove(conn);
+        if (pool == null)
+        {
+            destroyConnection(conn);
+            return;
+        }
+
+        try
+        {
+            if (closed || isClosed(conn))
+            {
+                destroyConnection(conn);
+            }
+            else
+            {
+                pool.addIdleConnection(conn);
+            }
+        }
+        finally
+        {
+            pool.release();
+        }
+    }
+
+    /**
+     * Discards a connection previously borrowed from this pool, usually because it failed in a way that makes it
+     * unusable.
+     *
+     * @param conn The connection to discard.
+     */
+    public void invalidateConnection(LDAPConnection conn)
+    {
+        if (conn == null)
+        {
+            return;
+        }
+
+        IdentityPool pool = borrowed.remove(conn);
+        destroyConnection(conn);
+        if (pool != null)
+        {
+            pool.release();
+        }
+    }
+
+    /**
+     * Closes all the idle connections and stops evicting. Borrowed connections are closed as soon as they are
+     * returned.
+     */
+    public void close()
+    {
+        closed = true;
+        if (evictionTask != null)
+        {
+            evictionTask.cancel(false);
+        }
+        synchronized (this)
+        {
+            if (asyncThreads != null)
+            {
+                asyncThreads.shutdown();
+            }
+        }
+        for (IdentityPool pool : identityPools.values())
+        {
+            pool.clear();
+        }
+        identityPools.clear();
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Closes the connections that have been idle for more than <i>poolTimeout</i> milliseconds.
+     */
+    protected void evictIdleConnections()
+    {
+        try
+        {
+            long oldest = System.currentTimeMillis() - poolTimeout;
+            for (IdentityPool pool : identityPools.values())
+            {
+                pool.evict(oldest);
+            }
+        }
+        catch (Exception ex)
+        {
+            logger.warn("Idle connection eviction failed.", ex);
+        }
+    }
+
+    protected LDAPConnection createConnection(String dn, String password) throws LDAPException
+    {
+        long start = System.nanoTime();
+        boolean successful = false;
+        LDAPConnection conn = LDAPConnection.getConnection(connectionConf);
+        conn.setCredentialCache(credentialCache);
+        conn.setSearchCache(searchCache);
+        conn.setEntryCache(entryCache);
+        conn.setRequestCoalescer(requestCoalescer);
+        try
+        {
+            conn.bind(dn, password);
+            successful = true;
+            if (credentialCache != null && dn != null)
+            {
+                credentialCache.verified(dn, password);
+            }
+            return conn;
+        }
+        catch (Exception ex)
+        {
+            destroyConnection(conn);
+            throw ex;
+        }
+        finally
+        {
+            connectStatistics.record(System.nanoTime() - start, successful);
+        }
+    }
+
+    protected void destroyConnection(LDAPConnection conn)
+    {
+        try
+        {
+            if (!conn.isClosed())
+            {
+                conn.close();
+            }
+        }
+        catch (Exception ex)
+        {
+            logger.warn("Unable to close pooled connection " + conn + ". Discarding it anyway.", ex);
+        }
+    }
+
+    private boolean isBoundAs(LDAPConnection conn, String dn)
+    {
+        try
+        {
+            return !conn.isClosed() && (dn != null ? dn.equals(conn.getBindedUserDn()) : conn.getBindedUserDn() == null);
+        }
+        catch (LDAPException ex)
+        {
+            return false;
+        }
+    }
+
+    private boolean isClosed(LDAPConnection conn)
+    {
+        try
+        {
+            return conn.isClosed();
+        }
+        catch (LDAPException ex)
+        {
+            return true;
+        }
+    }
+
+    private IdentityPool getIdentityPool(PoolKey key)
+    {
+        IdentityPool pool = identityPools.get(key);
+        if (pool == null)
+        {
+            IdentityPool newPool = new IdentityPool(key);
+            pool = identityPools.putIfAbsent(key, newPool);
+            if (pool == null)
+            {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
+    public boolean isPoolingEnabled()
+    {
+        return initialPoolSize > 0;
+    }
+
+    /**
+     * @return The number of connections currently borrowed from the pool.
+     */
+    public int getActiveCount()
+    {
+        return borrowed.size();
+    }
+
+    /**
+     * @return The number of idle connections waiting to be borrowed.
+     */
+    public int getIdleCount()
+    {
+        int count = 0;
+        for (IdentityPool pool : identityPools.values())
+        {
+            count += pool.idle.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return The cache of verified credentials shared by the connections of this pool or <i>null</i> if
+     *         credentials are not cached.
+     */
+    public LDAPCredentialCache getCredentialCache()
+    {
+        return credentialCache;
+    }
+
+    /**
+     * Enables caching of verified credentials for the connections created from now on, unless it was already
+     * enabled. Shared pools enable it when they are created (see {@link LDAPCacheConfiguration}).
+     * 
+     * @param ttl Number of milliseconds verified credentials are trusted.
+     * @param maxSize Maximum number of users in the cache.
+     * @return The cache used by the pool.
+     */
+    public synchronized LDAPCredentialCache enableCredentialCache(long ttl, long maxSize)
+    {
+        if (credentialCache == null)
+        {
+            credentialCache = new LDAPCredentialCache(ttl, maxSize);
+        }
+        return credentialCache;
+    }
+
+    /**
+     * @return The cache of search results shared by the connections of this pool or <i>null</i> if search results
+     *         are not cached.
+     */
+    public LDAPSearchCache getSearchCache()
+    {
+        return searchCache;
+    }
+
+    /**
+     * Enables caching of search results for the connections borrowed from now on, unless it was already enabled.
+     * Shared pools enable it when they are created (see {@link LDAPCacheConfiguration}).
+     * 
+     * @param ttl Number of milliseconds search results are reused.
+     * @param maxSize Maximum number of searches in the cache.
+     * @param maxResults Maximum number of entries of the searches cached.
+     * @return The cache used by the pool.
+     */
+    public synchronized LDAPSearchCache enableSearchCache(long ttl, long maxSize, long maxResults)
+    {
+        if (searchCache == null)
+        {
+            searchCache = new LDAPSearchCache(ttl, maxSize, maxResults);
+        }
+        return searchCache;
+    }
+
+    /**
+     * @return The cache of entries shared by the connections of this pool or <i>null</i> if entries are not cached.
+     */
+    public LDAPEntryCache getEntryCache()
+    {
+        return entryCache;
+    }
+
+    /**
+     * Enables caching of looked up entries for the connections borrowed from now on, unless it was already enabled.
+     * Shared pools enable it when they are created (see {@link LDAPCacheConfiguration}).
+     * 
+     * @param ttl Number of milliseconds found entries are reused.
+     * @param negativeTtl Number of milliseconds DNs that were not found are known to be missing.
+     * @param maxSize Maximum number of DNs in the cache.
+     * @return The cache used by the pool.
+     */
+    public synchronized LDAPEntryCache enableEntryCache(long ttl, long negativeTtl, long maxSize)
+    {
+        if (entryCache == null)
+        {
+            entryCache = new LDAPEntryCache(ttl, negativeTtl, maxSize);
+        }
+        return entryCache;
+    }
+
+    /**
+     * @return The coalescer of identical requests shared by the connections of this pool or <i>null</i> if requests
+     *         are not coalesced.
+     */
+    public LDAPRequestCoalescer getRequestCoalescer()
+    {
+        return requestCoalescer;
+    }
+
+    /**
+     * Enables coalescing identical lookups and searches in flight for the connections borrowed from now on, unless it
+     * was already enabled.
+     * Shared pools enable it when they are created (see {@link LDAPCacheConfiguration}).
+     * 
+     * @return The coalescer used by the pool.
+     */
+    public synchronized LDAPRequestCoalescer enableRequestCoalescing()
+    {
+        if (requestCoalescer == null)
+        {
+            requestCoalescer = new LDAPRequestCoalescer();
+        }
+        return requestCoalescer;
+    }
+
+    /**
+     * Gets the threads that run the operations of every {@link LDAPAsyncExecutor} of this pool, creating them the
+     * first time.
+     * 
+     * @param maxConcurrency Maximum number of operations running at the same time. Only used the first time.
+     */
+    synchronized ListeningExecutorService getAsyncThreads(int maxConcurrency)
+    {
+        if (asyncThreads == null)
+        {
+            asyncMaxConcurrency = maxConcurrency > 0 ? maxConcurrency : LDAPAsyncExecutor.DEFAULT_MAX_CONCURRENCY;
+            asyncThreads = LDAPAsyncExecutor.createExecutor(asyncMaxConcurrency);
+        }
+        return asyncThreads;
+    }
+
+    /**
+     * @return Maximum number of asynchronous operations running at the same time (and of connections borrowed for
+     *         them per identity) or 0 (zero) if no asynchronous operation was run yet.
+     */
+    public synchronized int getAsyncMaxConcurrency()
+    {
+        return asyncMaxConcurrency;
+    }
+
+    /**
+     * @return The latency of opening (and binding) new connections.
+     */
+    public LDAPLatencyStatistics getConnectStatistics()
+    {
+        return connectStatistics;
+    }
+
+    /**
+     * @return The latency of the binds performed on already open connections by {@link LDAPAuthenticator}.
+     */
+    public LDAPLatencyStatistics getBindStatistics()
+    {
+        return bindStatistics;
+    }
+
+    public int getInitialPoolSize()
+    {
+        return initialPoolSize;
+    }
+
+    public int getMaxPoolSize()
+    {
+        return maxPoolSize;
+    }
+
+    public long getPoolTimeout()
+    {
+        return poolTimeout;
+    }
+
+    public long getMaxWait()
+    {
+        return maxWait;
+    }
+
+    /**
+     * @param maxWait Number of milliseconds to wait for a connection when <i>maxPoolSize</i> is reached. Use
+     *            {@link #WAIT_FOREVER} to wait until a connection is returned.
+     */
+    public void setMaxWait(long maxWait)
+    {
+        this.maxWait = maxWait;
+    }
+
+    public long getAsyncMaxWait()
+    {
+        return asyncMaxWait;
+    }
+
+    /**
+     * @param asyncMaxWait Number of milliseconds to wait for a connection of an asynchronous operation when
+     *            <i>asyncMaxConcurrency</i> is reached. Defaults to {@link #DEFAULT_ASYNC_MAX_WAIT}. Use
+     *            {@link #WAIT_FOREVER} to wait until a connection is returned.
+     */
+    public void setAsyncMaxWait(long asyncMaxWait)
+    {
+        this.asyncMaxWait = asyncMaxWait;
+    }
+
+    public boolean isRebindIdleConnections()
+    {
+        return rebindIdleConnections;
+    }
+
+    /**
+     * @param rebindIdleConnections If <i>true</i> and there is no idle connection for the requested identity, an
+     *            idle connection of another identity is re-bound instead of opening a new one. This pays off when
+     *            opening a connection is much more expensive than binding. TLS connections are re-opened to bind
+     *            (resuming their TLS session), so the credentials are never sent before StartTLS.
+     */
+    public void setRebindIdleConnections(boolean rebindIdleConnections)
+    {
+        this.rebindIdleConnections = rebindIdleConnections;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{url: " + connectionConf.get(LDAPConnection.LDAP_URL_ATTR) + ", initialPoolSize: " + initialPoolSize + ", maxPoolSize: " + maxPoolSize + ", poolTimeout: " + poolTimeout + ", active: " + getActiveCount() + ", idle: " + getIdleCount() + ", " + connectStatistics + ", " + bindStatistics + (searchCache != null ? ", searchCache: " + searchCache : "") + (entryCache != null ? ", entryCache: " + entryCache : "") + (requestCoalescer != null ? ", requestCoalescer: " + requestCoalescer : "") + "}";
+    }
+
+    /**
+     * Identity (DN and password) used to bind the pooled connections. Connections for asynchronous operations are
+     * kept apart from the rest of the connections of the identity.
+     */
+    private static final class PoolKey
+    {
+        private final String dn;
+        private final String password;
+        private final boolean async;
+
+        private PoolKey(String dn, String password, boolean async)
+        {
+            this.dn = dn;
+            this.password = password;
+            this.async = async;
+        }
+
+        private boolean isIdentity(PoolKey other)
+        {
+            return (dn == null ? other.dn == null : dn.equals(other.dn)) && (password == null ? other.password == null : password.equals(other.password));
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof PoolKey))
+            {
+                return false;
+            }
+            PoolKey other = (PoolKey) obj;
+            return isIdentity(other) && async == other.async;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * (31 * (dn != null ? dn.hashCode() : 0) + (password != null ? password.hashCode() : 0)) + (async ? 1 : 0);
+        }
+
+        @Override
+        public String toString()
+        {
+            return (dn != null ? dn : "anonymous") + (async ? " (async)" : "");
+        }
+    }
+
+    private static final class IdleConnection
+    {
+        private final LDAPConnection conn;
+        private final long since;
+
+        private IdleConnection(LDAPConnection conn)
+        {
+            this.conn = conn;
+            this.since = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Sub-pool holding the connections of a single identity. Idle connections are kept in LIFO order, so the most
+     * recently used connections are reused first and the rest are left to expire.
+     */
+    private final class IdentityPool
+    {
+        private final PoolKey key;
+        private final Semaphore permits;
+        private final LinkedBlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<IdleConnection>();
+        private final AtomicBoolean prefilled = new AtomicBoolean(false);
+
+        private IdentityPool(PoolKey key)
+        {
+            this.key = key;
+            int size = key.async ? getAsyncMaxConcurrency() : maxPoolSize;
+            this.permits = size > 0 ? new Semaphore(size, true) : null;
+        }
+
+        private void acquire(long timeout) throws LDAPException
+        {
+            if (permits == null)
+            {
+                return;
+            }
+
+            try
+            {
+                if (timeout < 0)
+                {
+                    permits.acquire();
+                }
+                else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+                {
+                    throw new LDAPException("Timeout waiting for an available connection for " + key + " after " + timeout + " ms. Pool " + LDAPConnectionPool.this);
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new LDAPException("Interrupted while waiting for an available connection for " + key + ".", ex);
+            }
+        }
+
+        private void release()
+        {
+            if (permits != null)
+            {
+                permits.release();
+            }
+        }
+
+        private LDAPConnection takeIdleConnection()
+        {
+            IdleConnection candidate;
+            while ((candidate = idle.pollFirst()) != null)
+            {
+                if (candidate.conn.isValid())
+                {
+                    return candidate.conn;
+                }
+
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Discarding invalid pooled connection " + candidate.conn);
+                }
+                destroyConnection(candidate.conn);
+            }
+            return null;
+        }
+
+        private void addIdleConnection(LDAPConnection conn)
+        {
+            idle.offerFirst(new IdleConnection(conn));
+        }
+
+        /**
+         * Creates the remaining initial connections for the identity the first time it is used.
+         */
+        private void prefill()
+        {
+            if (!prefilled.compareAndSet(false, true))
+            {
+                return;
+            }
+
+            for (int i = 1; i < initialPoolSize && (maxPoolSize <= 0 || i < maxPoolSize); i++)
+            {
+                try
+                {
+                    addIdleConnection(createConnection(key.dn, key.password));
+                }
+                catch (LDAPException ex)
+                {
+                    logger.warn("Unable to create initial pooled connection for " + key + ".", ex);
+                    break;
+                }
+            }
+        }
+
+        private void evict(long oldest)
+        {
+            for (Iterator<IdleConnection> it = idle.descendingIterator(); it.hasNext();)
+            {
+                IdleConnection candidate = it.next();
+                if (candidate.since < oldest && idle.removeLastOccurrence(candidate))
+                {
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("Evicting idle connection " + candidate.conn);
+                    }
+                    destroyConnection(candidate.conn);
+                }
+            }
+        }
+
+        private void clear()
+        {
+            IdleConnection candidate;
+            while ((candidate = idle.pollFirst()) != null)
+            {
+                destroyConnection(candidate.conn);
+            }
+        }
+    }
+}
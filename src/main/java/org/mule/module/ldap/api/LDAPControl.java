@@ -0,0 +1,353 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.mule.module.ldap.api.ber.BerDecoder;
+import org.mule.module.ldap.api.ber.BerEncoder;
+import org.mule.module.ldap.api.ber.BerTags;
+
+/**
+ * A request control (RFC 4511, section 4.1.11), with the BER encoding of the request controls and the decoding of the
+ * response controls used by the connector. Shared by the JNDI and NIO connection types.
+ *
+ * @author mariano
+ */
+public class LDAPControl
+{
+    /**
+     * Simple Paged Results Manipulation (RFC 2696).
+     */
+    public static final String PAGED_RESULTS_OID = "1.2.840.113556.1.4.319";
+
+    /**
+     * Server Side Sorting of Search Results (RFC 2891).
+     */
+    public static final String SORT_REQUEST_OID = "1.2.840.113556.1.4.473";
+    public static final String SORT_RESPONSE_OID = "1.2.840.113556.1.4.474";
+
+    /**
+     * Virtual List View (draft-ietf-ldapext-ldapv3-vlv).
+     */
+    public static final String VLV_REQUEST_OID = "2.16.840.1.113730.3.4.9";
+    public static final String VLV_RESPONSE_OID = "2.16.840.1.113730.3.4.10";
+
+    /**
+     * Content Synchronization Operation (RFC 4533).
+     */
+    public static final String SYNC_REQUEST_OID = "1.3.6.1.4.1.4203.1.9.1.1";
+    public static final String SYNC_STATE_OID = "1.3.6.1.4.1.4203.1.9.1.2";
+    public static final String SYNC_DONE_OID = "1.3.6.1.4.1.4203.1.9.1.3";
+
+    public static final int SYNC_REFRESH_ONLY = 1;
+    public static final int SYNC_REFRESH_AND_PERSIST = 3;
+
+    public static final int SYNC_STATE_PRESENT = 0;
+    public static final int SYNC_STATE_ADD = 1;
+    public static final int SYNC_STATE_MODIFY = 2;
+    public static final int SYNC_STATE_DELETE = 3;
+
+    private static final int SORT_ORDERING_RULE = BerTags.context(0, false);
+    private static final int SORT_REVERSE_ORDER = BerTags.context(1, false);
+    private static final int VLV_BY_OFFSET = BerTags.context(0, true);
+    private static final int VLV_GREATER_THAN_OR_EQUAL = BerTags.context(1, false);
+
+    private final String oid;
+    private final boolean critical;
+    private final byte[] value;
+
+    public LDAPControl(String oid, boolean critical, byte[] value)
+    {
+        this.oid = oid;
+        this.critical = critical;
+        this.value = value;
+    }
+
+    /**
+     * <pre>
+     * realSearchControlValue ::= SEQUENCE {
+     *      size    INTEGER (0..maxInt),
+     *      cookie  OCTET STRING }
+     * </pre>
+     */
+    public static LDAPControl pagedResults(int pageSize, byte[] cookie)
+    {
+        BerEncoder value = new BerEncoder(32);
+        value.beginSequence(BerTags.SEQUENCE);
+        value.writeInteger(pageSize);
+        value.writeOctetString(cookie);
+        value.endSequence();
+        return new LDAPControl(PAGED_RESULTS_OID, true, value.toByteArray());
+    }
+
+    /**
+     * @return The cookie of a paged results response control or <i>null</i> if there are no more pages.
+     */
+    public static byte[] getPagedResultsCookie(byte[] controlValue) throws IOException
+    {
+        BerDecoder value = new BerDecoder(controlValue).readSequence();
+        value.readInteger();
+        byte[] cookie = value.readOctetString();
+        return cookie.length > 0 ? cookie : null;
+    }
+
+    /**
+     * @return The estimated result size of a paged results response control.
+     */
+    public static int getPagedResultsSize(byte[] controlValue) throws IOException
+    {
+        return (int) new BerDecoder(controlValue).readSequence().readInteger();
+    }
+
+    /**
+     * <pre>
+     * SortKeyList ::= SEQUENCE OF SEQUENCE {
+     *      attributeType   AttributeDescription,
+     *      orderingRule    [0] MatchingRuleId OPTIONAL,
+     *      reverseOrder    [1] BOOLEAN DEFAULT FALSE }
+     * </pre>
+     */
+    public static LDAPControl sort(List<LDAPSortKey> sortKeys)
+    {
+        BerEncoder value = new BerEncoder(64);
+        value.beginSequence(BerTags.SEQUENCE);
+        for (LDAPSortKey key : sortKeys)
+        {
+            value.beginSequence(BerTags.SEQUENCE);
+            value.writeString(key.getAttributeName());
+            if (key.getMatchingRuleID() != null)
+            {
+                value.writeString(SORT_ORDERING_RULE, key.getMatchingRuleID());
+            }
+            if (!key.isAscending())
+            {
+                value.writeBoolean(SORT_REVERSE_ORDER, true);
+            }
+            value.endSequence();
+        }
+        value.endSequence();
+        return new LDAPControl(SORT_REQUEST_OID, true, value.toByteArray());
+    }
+
+    /**
+     * @return The sortResult of a sort response control (0 means success).
+     */
+    public static int getSortResult(byte[] controlValue) throws IOException
+    {
+        return new BerDecoder(controlValue).readSequence().readEnumerated();
+    }
+
+    /**
+     * <pre>
+     * VirtualListViewRequest ::= SEQUENCE {
+     *      beforeCount    INTEGER (0..maxInt),
+     *      afterCount     INTEGER (0..maxInt),
+     *      target       CHOICE {
+     *                     byOffset        [0] SEQUENCE {
+     *                          offset          INTEGER (1 .. maxInt),
+     *                          contentCount    INTEGER (0 .. maxInt) },
+     *                     greaterThanOrEqual [1] AssertionValue },
+     *      contextID     OCTET STRING OPTIONAL }
+     * </pre>
+     */
+    public static LDAPControl virtualListView(LDAPVirtualListView view)
+    {
+        BerEncoder value = new BerEncoder(64);
+        value.beginSequence(BerTags.SEQUENCE);
+        value.writeInteger(view.getBeforeCount());
+        value.writeInteger(view.getAfterCount());
+        if (view.isByValue())
+        {
+            value.writeString(VLV_GREATER_THAN_OR_EQUAL, view.getAssertionValue());
+        }
+        else
+        {
+            value.beginSequence(VLV_BY_OFFSET);
+            value.writeInteger(view.getOffset());
+            value.writeInteger(view.getContentCount());
+            value.endSequence();
+        }
+        if (view.getContextId() != null)
+        {
+            value.writeOctetString(view.getContextId());
+        }
+        value.endSequence();
+        return new LDAPControl(VLV_REQUEST_OID, true, value.toByteArray());
+    }
+
+    /**
+     * <pre>
+     * VirtualListViewResponse ::= SEQUENCE {
+     *      targetPosition    INTEGER (0 .. maxInt),
+     *      contentCount     INTEGER (0 .. maxInt),
+     *      virtualListViewResult ENUMERATED { ... },
+     *      contextID     OCTET STRING OPTIONAL }
+     * </pre>
+     *
+     * @return The targetPosition of a virtual list view response control.
+     */
+    public static int getVirtualListViewTargetPosition(byte[] controlValue) throws IOException
+    {
+        return (int) new BerDecoder(controlValue).readSequence().readInteger();
+    }
+
+    /**
+     * @return The contentCount of a virtual list view response control.
+     */
+    public static int getVirtualListViewContentCount(byte[] controlValue) throws IOException
+    {
+        BerDecoder value = new BerDecoder(controlValue).readSequence();
+        value.readInteger();
+        return (int) value.readInteger();
+    }
+
+    /**
+     * @return The virtualListViewResult of a virtual list view response control (0 means success).
+     */
+    public static int getVirtualListViewResult(byte[] controlValue) throws IOException
+    {
+        BerDecoder value = new BerDecoder(controlValue).readSequence();
+        value.readInteger();
+        value.readInteger();
+        return value.readEnumerated();
+    }
+
+    /**
+     * @return The contextID of a virtual list view response control or <i>null</i> if the server did not return one.
+     */
+    public static byte[] getVirtualListViewContextId(byte[] controlValue) throws IOException
+    {
+        BerDecoder value = new BerDecoder(controlValue).readSequence();
+        value.readInteger();
+        value.readInteger();
+        value.readEnumerated();
+        return value.hasMore() ? value.readOctetString() : null;
+    }
+
+    /**
+     * <pre>
+     * syncRequestValue ::= SEQUENCE {
+     *      mode ENUMERATED {
+     *          refreshOnly       (1),
+     *          refreshAndPersist (3) },
+     *      cookie     syncCookie OPTIONAL,
+     *      reloadHint BOOLEAN DEFAULT FALSE }
+     * </pre>
+     *
+     * @param mode {@link #SYNC_REFRESH_ONLY} or {@link #SYNC_REFRESH_AND_PERSIST}.
+     * @param cookie The cookie of the last synchronization or <i>null</i> to synchronize the whole content.
+     */
+    public static LDAPControl syncRequest(int mode, byte[] cookie)
+    {
+        BerEncoder value = new BerEncoder(32 + (cookie != null ? cookie.length : 0));
+        value.beginSequence(BerTags.SEQUENCE);
+        value.writeEnumerated(mode);
+        if (cookie != null)
+        {
+            value.writeOctetString(cookie);
+        }
+        value.endSequence();
+        return new LDAPControl(SYNC_REQUEST_OID, true, value.toByteArray());
+    }
+
+    /**
+     * <pre>
+     * syncStateValue ::= SEQUENCE {
+     *      state ENUMERATED {
+     *          present (0),
+     *          add     (1),
+     *          modify  (2),
+     *          delete  (3) },
+     *      entryUUID syncUUID,
+     *      cookie    syncCookie OPTIONAL }
+     * </pre>
+     *
+     * @return The state of a sync state control (one of the <i>SYNC_STATE</i> constants).
+     */
+    public static int getSyncState(byte[] controlValue) throws IOException
+    {
+        return new BerDecoder(controlValue).readSequence().readEnumerated();
+    }
+
+    /**
+     * @return The entryUUID of a sync state control.
+     */
+    public static byte[] getSyncStateEntryUuid(byte[] controlValue) throws IOException
+    {
+        BerDecoder value = new BerDecoder(controlValue).readSequence();
+        value.readEnumerated();
+        return value.readOctetString();
+    }
+
+    /**
+     * @return The cookie of a sync state control or <i>null</i> if the server did not return one.
+     */
+    public static byte[] getSyncStateCookie(byte[] controlValue) throws IOException
+    {
+        BerDecoder value = new BerDecoder(controlValue).readSequence();
+        value.readEnumerated();
+        value.readOctetString();
+        return value.hasMore() ? value.readOctetString() : null;
+    }
+
+    /**
+     * <pre>
+     * syncDoneValue ::= SEQUENCE {
+     *      cookie         syncCookie OPTIONAL,
+     *      refreshDeletes BOOLEAN DEFAULT FALSE }
+     * </pre>
+     *
+     * @return The cookie of a sync done control or <i>null</i> if the server did not return one.
+     */
+    public static byte[] getSyncDoneCookie(byte[] controlValue) throws IOException
+    {
+        BerDecoder value = new BerDecoder(controlValue).readSequence();
+        return value.hasMore() && value.peekTag() == BerTags.OCTET_STRING ? value.readOctetString() : null;
+    }
+
+    /**
+     * <pre>
+     * Control ::= SEQUENCE {
+     *      controlType             LDAPOID,
+     *      criticality             BOOLEAN DEFAULT FALSE,
+     *      controlValue            OCTET STRING OPTIONAL }
+     * </pre>
+     */
+    public void encode(BerEncoder encoder)
+    {
+        encoder.beginSequence(BerTags.SEQUENCE);
+        encoder.writeString(oid);
+        if (critical)
+        {
+            encoder.writeBoolean(true);
+        }
+        if (value != null)
+        {
+            encoder.writeOctetString(value);
+        }
+        encoder.endSequence();
+    }
+
+    public String getOid()
+    {
+        return oid;
+    }
+
+    public boolean isCritical()
+    {
+        return critical;
+    }
+
+    public byte[] getValue()
+    {
+        return value;
+    }
+}
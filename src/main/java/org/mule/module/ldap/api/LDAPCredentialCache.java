@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Cache of credentials recently verified by the LDAP server. It allows answering repeated binds of the same user
+ * locally during a short period of time.
+ * <p/>
+ * Passwords are never stored: only a salted PBKDF2 hash of each password is kept, so a memory dump of the cache
+ * does not reveal them. Entries expire <i>ttl</i> milliseconds after the credentials were verified and the least
+ * recently used entries are evicted once <i>maxSize</i> is reached. Users are identified by their DN compared as an
+ * LDAP name, so equivalent spellings of a DN share the same entry, while invalid DNs are never cached.
+ * <p/>
+ * The credentials of a user must be invalidated when a bind with them fails or when the entry of the user is
+ * modified (as the password may have changed).
+ *
+ * @author mariano
+ */
+public class LDAPCredentialCache
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    public static final int DEFAULT_ITERATIONS = 10000;
+
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 160;
+
+    private final Cache<LdapName, VerifiedCredential> cache;
+    private final long ttl;
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param ttl Number of milliseconds verified credentials are trusted.
+     * @param maxSize Maximum number of users in the cache.
+     */
+    public LDAPCredentialCache(long ttl, long maxSize)
+    {
+        this(ttl, maxSize, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param ttl Number of milliseconds verified credentials are trusted.
+     * @param maxSize Maximum number of users in the cache.
+     * @param iterations Number of PBKDF2 iterations used to hash the passwords.
+     */
+    public LDAPCredentialCache(long ttl, long maxSize, int iterations)
+    {
+        this.ttl = ttl;
+        this.iterations = iterations;
+        this.cache = CacheBuilder.newBuilder()
+            .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+            .maximumSize(maxSize)
+            .build();
+    }
+
+    /**
+     * Checks whether the credentials were verified by the LDAP server within the last <i>ttl</i> milliseconds.
+     *
+     * @param dn The DN of the user.
+     * @param password The password of the user.
+     * @return <i>true</i> if the same credentials were verified recently or <i>false</i> otherwise.
+     */
+    public boolean isVerified(String dn, String password)
+    {
+        LdapName name = toName(dn);
+        if (name == null || password == null || password.isEmpty())
+        {
+            return false;
+        }
+
+        VerifiedCredential credential = cache.getIfPresent(name);
+        if (credential != null)
+        {
+            byte[] hash = hash(password, credential.salt);
+            if (hash != null && MessageDigest.isEqual(credential.hash, hash))
+            {
+                hits.incrementAndGet();
+                return true;
+            }
+        }
+
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stores credentials that the LDAP server has just accepted.
+     *
+     * @param dn The DN of the user.
+     * @param password The password of the user.
+     */
+    public void verified(String dn, String password)
+    {
+        LdapName name = toName(dn);
+        if (name == null || password == null || password.isEmpty())
+        {
+            return;
+        }
+
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        byte[] hash = hash(password, salt);
+        if (hash != null)
+        {
+            cache.put(name, new VerifiedCredential(salt, hash));
+        }
+    }
+
+    /**
+     * Removes the credentials of a user, forcing them to be verified against the LDAP server the next time.
+     *
+     * @param dn The DN of the user.
+     */
+    public void invalidate(String dn)
+    {
+        LdapName name = toName(dn);
+        if (name != null)
+        {
+            cache.invalidate(name);
+        }
+    }
+
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    private static LdapName toName(String dn)
+    {
+        if (dn == null)
+        {
+            return null;
+        }
+        try
+        {
+            return new LdapName(dn);
+        }
+        catch (InvalidNameException ex)
+        {
+            return null;
+        }
+    }
+
+    private byte[] hash(String password, byte[] salt)
+    {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH);
+        try
+        {
+            return SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException ex)
+        {
+            logger.error("Cannot hash credentials using " + HASH_ALGORITHM + ". Credentials will not be cached.", ex);
+            return null;
+        }
+        finally
+        {
+            spec.clearPassword();
+        }
+    }
+
+    public long getTtl()
+    {
+        return ttl;
+    }
+
+    public long getSize()
+    {
+        return cache.size();
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{ttl: " + ttl + ", size: " + getSize() + ", hits: " + getHitCount() + ", misses: " + getMissCount() + "}";
+    }
+
+    private static final class VerifiedCredential
+    {
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private VerifiedCredential(byte[] salt, byte[] hash)
+        {
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,530 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Cache of entries looked up by DN. Repeated lookups of the same user for the same DN and attributes are answered
+ * locally during a short period of time, and so are lookups of DNs that were not found (negative caching).
+ * <p/>
+ * Entries are keyed by their normalized DN (ignoring case and spacing). Each DN keeps one projection per set of
+ * requested attributes, as a lookup of some attributes cannot be answered with the result of a lookup of other ones.
+ * Found entries expire <i>ttl</i> milliseconds after being cached while missing DNs expire after <i>negativeTtl</i>
+ * milliseconds.
+ * <p/>
+ * The DN must be invalidated when its entry is added, modified, deleted or renamed (see {@link #invalidate(String)}
+ * and {@link #invalidateTree(String)}). Invalidating also bumps the generation of the lookups of the DN in flight,
+ * whose results are then not cached, as they may have been read before the change. Changes made by other LDAP
+ * clients are seen once the entries expire.
+ *
+ * @author mariano
+ */
+public class LDAPEntryCache
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final Cache<LdapName, ConcurrentMap<List<Object>, LDAPEntry>> entries;
+    private final Cache<LdapName, Set<LdapName>> missing;
+    private final long ttl;
+    private final long negativeTtl;
+
+    /**
+     * Generations of the DNs being looked up, guarded by itself
+     */
+    private final Map<LdapName, Generation> generations = new HashMap<LdapName, Generation>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Generation of the lookups in flight of the same DN, bumped when the entry changes.
+     */
+    private static final class Generation
+    {
+        private long value = 0;
+        private int lookups = 0;
+    }
+
+    /**
+     * @param ttl Number of milliseconds found entries are reused.
+     * @param negativeTtl Number of milliseconds DNs that were not found are known to be missing. Zero disables
+     *        negative caching.
+     * @param maxSize Maximum number of DNs in the cache (and, separately, of missing DNs).
+     */
+    public LDAPEntryCache(long ttl, long negativeTtl, long maxSize)
+    {
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.entries = CacheBuilder.newBuilder()
+            .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+            .maximumSize(maxSize)
+            .build();
+        this.missing = CacheBuilder.newBuilder()
+            .expireAfterWrite(Math.max(negativeTtl, 1L), TimeUnit.MILLISECONDS)
+            .maximumSize(maxSize)
+            .build();
+    }
+
+    /**
+     * @param bindDn The DN of the user performing the lookup, as results depend on its permissions.
+     * @param attributes The attributes requested or <i>null</i> for all of them.
+     * @return A copy of the cached entry or <i>null</i> if the lookup is not cached.
+     * @throws NameNotFoundException If the DN is known to be missing.
+     */
+    public LDAPEntry get(String bindDn, String dn, String[] attributes) throws NameNotFoundException
+    {
+        LdapName bindName = toName(bindDn);
+        LdapName name = toName(dn);
+        if (bindName == null || name == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        ConcurrentMap<List<Object>, LDAPEntry> projections = entries.getIfPresent(name);
+        LDAPEntry entry = projections != null ? projections.get(projectionKey(bindName, attributes)) : null;
+        if (entry != null)
+        {
+            hits.incrementAndGet();
+            return LDAPSearchCache.copy(entry);
+        }
+
+        if (isMissing(bindName, name))
+        {
+            negativeHits.incrementAndGet();
+            throw new NameNotFoundException("Entry " + dn + " does not exist (cached)");
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @param bindDn The DN of the user performing the lookup.
+     * @return <i>true</i> if any projection of the entry is cached, <i>false</i> if the DN is known to be missing or
+     *         <i>null</i> if it is unknown.
+     */
+    public Boolean exists(String bindDn, String dn)
+    {
+        LdapName bindName = toName(bindDn);
+        LdapName name = toName(dn);
+        if (bindName == null || name == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        ConcurrentMap<List<Object>, LDAPEntry> projections = entries.getIfPresent(name);
+        if (projections != null)
+        {
+            for (List<Object> key : projections.keySet())
+            {
+                if (bindName.equals(key.get(0)))
+                {
+                    hits.incrementAndGet();
+                    return Boolean.TRUE;
+                }
+            }
+        }
+
+        if (isMissing(bindName, name))
+        {
+            negativeHits.incrementAndGet();
+            return Boolean.FALSE;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Performs a lookup that was not cached, caching the entry found (or that the DN is missing) unless the entry
+     * changed meanwhile.
+     *
+     * @param bindDn The DN of the user performing the lookup.
+     * @param attributes The attributes requested or <i>null</i> for all of them.
+     * @param lookup Looks up the entry.
+     * @return The entry looked up by <i>lookup</i>, as a copy is cached.
+     */
+    public LDAPEntry lookup(String bindDn, String dn, String[] attributes, LDAPRequestCoalescer.Request<LDAPEntry> lookup) throws LDAPException
+    {
+        LdapName bindName = toName(bindDn);
+        LdapName name = toName(dn);
+        if (bindName == null || name == null)
+        {
+            return lookup.execute();
+        }
+
+        Generation generation;
+        long started;
+        synchronized (generations)
+        {
+            generation = startLookup(name);
+            started = generation.value;
+        }
+
+        try
+        {
+            LDAPEntry entry = lookup.execute();
+            synchronized (generations)
+            {
+                // Invalidations bump the generation before removing the cached entries, so entries put before are
+                // removed and entries read before the change are not put
+                if (generation.value == started)
+                {
+                    cache(bindName, name, attributes, entry);
+                }
+            }
+            return entry;
+        }
+        catch (NameNotFoundException nnfe)
+        {
+            synchronized (generations)
+            {
+                if (generation.value == started)
+                {
+                    cacheMissing(bindName, name);
+                }
+            }
+            throw nnfe;
+        }
+        finally
+        {
+            synchronized (generations)
+            {
+                endLookup(name, generation);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #lookup(String, String, String[], LDAPRequestCoalescer.Request)} for many entries read at once.
+     * Only the entries found are cached.
+     *
+     * @param lookup Looks up the entries, returning the ones found keyed by DN.
+     * @return The entries found by <i>lookup</i>.
+     */
+    public Map<String, LDAPEntry> lookupMany(String bindDn, Collection<String> dns, String[] attributes, LDAPRequestCoalescer.Request<Map<String, LDAPEntry>> lookup) throws LDAPException
+    {
+        LdapName bindName = toName(bindDn);
+        if (bindName == null)
+        {
+            return lookup.execute();
+        }
+
+        Map<String, LdapName> names = new HashMap<String, LdapName>();
+        for (String dn : dns)
+        {
+            LdapName name = toName(dn);
+            if (name != null)
+            {
+                names.put(dn, name);
+            }
+        }
+
+        Map<LdapName, Generation> lookups = new HashMap<LdapName, Generation>();
+        Map<LdapName, Long> started = new HashMap<LdapName, Long>();
+        synchronized (generations)
+        {
+            for (LdapName name : names.values())
+            {
+                if (!lookups.containsKey(name))
+                {
+                    Generation generation = startLookup(name);
+                    lookups.put(name, generation);
+                    started.put(name, generation.value);
+                }
+            }
+        }
+
+        try
+        {
+            Map<String, LDAPEntry> entries = lookup.execute();
+            synchronized (generations)
+            {
+                for (Map.Entry<String, LDAPEntry> entry : entries.entrySet())
+                {
+                    LdapName name = names.get(entry.getKey());
+                    if (name != null && lookups.get(name).value == started.get(name))
+                    {
+                        cache(bindName, name, attributes, entry.getValue());
+                    }
+                }
+            }
+            return entries;
+        }
+        finally
+        {
+            synchronized (generations)
+            {
+                for (Map.Entry<LdapName, Generation> entry : lookups.entrySet())
+                {
+                    endLookup(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private Generation startLookup(LdapName name)
+    {
+        Generation generation = generations.get(name);
+        if (generation == null)
+        {
+            generation = new Generation();
+            generations.put(name, generation);
+        }
+        generation.lookups++;
+        return generation;
+    }
+
+    private void endLookup(LdapName name, Generation generation)
+    {
+        if (--generation.lookups == 0)
+        {
+            generations.remove(name);
+        }
+    }
+
+    private void cache(LdapName bindName, LdapName name, String[] attributes, LDAPEntry entry)
+    {
+        if (entry == null)
+        {
+            return;
+        }
+
+        try
+        {
+            entries.get(name, new Callable<ConcurrentMap<List<Object>, LDAPEntry>>()
+            {
+                @Override
+                public ConcurrentMap<List<Object>, LDAPEntry> call()
+                {
+                    return new ConcurrentHashMap<List<Object>, LDAPEntry>();
+                }
+            }).put(projectionKey(bindName, attributes), LDAPSearchCache.copy(entry));
+        }
+        catch (ExecutionException ex)
+        {
+            logger.warn("Could not cache entry " + name, ex);
+        }
+    }
+
+    /**
+     * Records that the DN was not found by a lookup of the user.
+     */
+    private void cacheMissing(LdapName bindName, LdapName name)
+    {
+        if (negativeTtl <= 0)
+        {
+            return;
+        }
+
+        try
+        {
+            missing.get(name, new Callable<Set<LdapName>>()
+            {
+                @Override
+                public Set<LdapName> call()
+                {
+                    return Collections.newSetFromMap(new ConcurrentHashMap<LdapName, Boolean>());
+                }
+            }).add(bindName);
+        }
+        catch (ExecutionException ex)
+        {
+            logger.warn("Could not cache missing entry " + name, ex);
+        }
+    }
+
+    /**
+     * Removes the cached projections of the entry identified by <i>dn</i> and forgets whether it was missing.
+     *
+     * @param dn The DN of the entry added, modified or deleted.
+     */
+    public void invalidate(String dn)
+    {
+        LdapName name = toName(dn);
+        if (name == null)
+        {
+            invalidateAll();
+            return;
+        }
+
+        synchronized (generations)
+        {
+            Generation generation = generations.get(name);
+            if (generation != null)
+            {
+                generation.value++;
+            }
+        }
+        entries.invalidate(name);
+        missing.invalidate(name);
+    }
+
+    /**
+     * Same as {@link #invalidate(String)} for the entry identified by <i>dn</i> and all its descendants, which is
+     * needed when the entry is renamed.
+     *
+     * @param dn The DN of the root of the tree.
+     */
+    public void invalidateTree(String dn)
+    {
+        LdapName name = toName(dn);
+        if (name == null)
+        {
+            invalidateAll();
+            return;
+        }
+
+        synchronized (generations)
+        {
+            for (Map.Entry<LdapName, Generation> entry : generations.entrySet())
+            {
+                if (entry.getKey().startsWith(name))
+                {
+                    entry.getValue().value++;
+                }
+            }
+        }
+        for (Iterator<LdapName> it = entries.asMap().keySet().iterator(); it.hasNext();)
+        {
+            if (it.next().startsWith(name))
+            {
+                it.remove();
+            }
+        }
+        for (Iterator<LdapName> it = missing.asMap().keySet().iterator(); it.hasNext();)
+        {
+            if (it.next().startsWith(name))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    public void invalidateAll()
+    {
+        synchronized (generations)
+        {
+            for (Generation generation : generations.values())
+            {
+                generation.value++;
+            }
+        }
+        entries.invalidateAll();
+        missing.invalidateAll();
+    }
+
+    private boolean isMissing(LdapName bindName, LdapName name)
+    {
+        Set<LdapName> users = missing.getIfPresent(name);
+        return users != null && users.contains(bindName);
+    }
+
+    /**
+     * The requested attributes are compared ignoring case and order.
+     */
+    private static List<Object> projectionKey(LdapName bindName, String[] attributes)
+    {
+        List<String> names = null;
+        if (attributes != null)
+        {
+            names = new ArrayList<String>(attributes.length);
+            for (String attribute : attributes)
+            {
+                names.add(attribute.toLowerCase(Locale.ENGLISH));
+            }
+            Collections.sort(names);
+        }
+        return Arrays.<Object> asList(bindName, names);
+    }
+
+    private static LdapName toName(String dn)
+    {
+        try
+        {
+            return new LdapName(dn != null ? dn : "");
+        }
+        catch (InvalidNameException ex)
+        {
+            return null;
+        }
+    }
+
+    public long getTtl()
+    {
+        return ttl;
+    }
+
+    public long getNegativeTtl()
+    {
+        return negativeTtl;
+    }
+
+    public long getSize()
+    {
+        return entries.size();
+    }
+
+    public long getMissingSize()
+    {
+        return missing.size();
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups answered with a DN known to be missing.
+     */
+    public long getNegativeHitCount()
+    {
+        return negativeHits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{ttl: " + ttl + ", negativeTtl: " + negativeTtl + ", size: " + getSize() + ", missing: " + getMissingSize() + ", hits: " + getHitCount() + ", negativeHits: " + getNegativeHitCount() + ", misses: " + getMissCount() + "}";
+    }
+}
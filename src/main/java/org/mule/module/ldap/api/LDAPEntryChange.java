@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * A change of an entry notified by a persistent search (draft-ietf-ldapext-psearch) with the entry change
+ * notification control.
+ * <p/>
+ * Change types are bit masks, so the changes a persistent search is interested in are combined with <i>|</i>.
+ *
+ * @author mariano
+ * @since 2.0.0
+ */
+public class LDAPEntryChange
+{
+    public static final int ADD = 1;
+    public static final int DELETE = 2;
+    public static final int MODIFY = 4;
+    public static final int MOD_DN = 8;
+    public static final int ANY = ADD | DELETE | MODIFY | MOD_DN;
+
+    private final LDAPEntry entry;
+    private final int changeType;
+    private final String previousDn;
+    private final long changeNumber;
+
+    /**
+     * @param entry The entry after the change (its last state if it was deleted).
+     * @param changeType One of {@link #ADD}, {@link #DELETE}, {@link #MODIFY} or {@link #MOD_DN}, or 0 if the entry
+     *        was not changed but returned by the initial search.
+     * @param previousDn The DN of the entry before it was renamed or moved, only for {@link #MOD_DN} changes.
+     * @param changeNumber The change number assigned by the server or -1 if it does not supply one.
+     */
+    public LDAPEntryChange(LDAPEntry entry, int changeType, String previousDn, long changeNumber)
+    {
+        this.entry = entry;
+        this.changeType = changeType;
+        this.previousDn = previousDn;
+        this.changeNumber = changeNumber;
+    }
+
+    public LDAPEntry getEntry()
+    {
+        return entry;
+    }
+
+    public int getChangeType()
+    {
+        return changeType;
+    }
+
+    /**
+     * @return Whether this is an actual change and not an entry returned by the initial search.
+     */
+    public boolean isChange()
+    {
+        return changeType != 0;
+    }
+
+    public String getPreviousDn()
+    {
+        return previousDn;
+    }
+
+    public long getChangeNumber()
+    {
+        return changeNumber;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{changeType: " + changeType + ", dn: " + (entry != null ? entry.getDn() : null) + (previousDn != null ? ", previousDn: " + previousDn : "") + (changeNumber >= 0 ? ", changeNumber: " + changeNumber : "") + "}";
+    }
+}
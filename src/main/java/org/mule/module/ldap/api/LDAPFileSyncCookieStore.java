@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps each cookie in a file of its own under a directory. Cookies are written to a temporary file that then
+ * replaces the previous one, so a crash never leaves a partially written cookie behind.
+ *
+ * @author mariano
+ * @since 2.0.0
+ */
+public class LDAPFileSyncCookieStore implements LDAPSyncCookieStore
+{
+    private static final String COOKIE_SUFFIX = ".cookie";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    /**
+     * @param directory Directory of the cookie files. Created if it does not exist.
+     */
+    public LDAPFileSyncCookieStore(String directory)
+    {
+        this(new File(directory));
+    }
+
+    public LDAPFileSyncCookieStore(File directory)
+    {
+        this.directory = directory.toPath();
+    }
+
+    @Override
+    public byte[] retrieve(String syncId) throws LDAPException
+    {
+        try
+        {
+            return Files.readAllBytes(getCookieFile(syncId));
+        }
+        catch (NoSuchFileException ex)
+        {
+            return null;
+        }
+        catch (IOException ex)
+        {
+            throw new LDAPException("Cannot read the cookie of synchronization " + syncId + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void store(String syncId, byte[] cookie) throws LDAPException
+    {
+        Path file = getCookieFile(syncId);
+        try
+        {
+            if (cookie == null)
+            {
+                Files.deleteIfExists(file);
+                return;
+            }
+
+            Files.createDirectories(directory);
+            Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+            Files.write(temp, cookie);
+            try
+            {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException ex)
+            {
+                // File systems that cannot replace a file atomically
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new LDAPException("Cannot write the cookie of synchronization " + syncId + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return The file of the cookie, named after the synchronization identifier replacing any character that is
+     *         not safe in file names.
+     */
+    private Path getCookieFile(String syncId)
+    {
+        StringBuilder name = new StringBuilder(syncId.length() + COOKIE_SUFFIX.length());
+        for (int i = 0; i < syncId.length(); i++)
+        {
+            char c = syncId.charAt(i);
+            name.append(Character.isLetterOrDigit(c) || c == '-' || c == '.' ? c : '_');
+        }
+        return directory.resolve(name.append(COOKIE_SUFFIX).toString());
+    }
+
+    public File getDirectory()
+    {
+        return directory.toFile();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{directory: " + directory + "}";
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mule.module.ldap.api.nio.LDAPFilterEncoder;
+
+/**
+ * LDAP filter with <code>{n}</code> argument placeholders (as accepted by
+ * {@link LDAPConnection#search(String, String, Object[], LDAPSearchControls)}) that is parsed and validated once.
+ * <p/>
+ * The filter is split into its literal parts and placeholders when compiled, so building a filter only escapes the
+ * arguments (as defined in RFC 4515) and concatenates them with the literal parts. Arguments never change the
+ * structure of the filter, whatever characters they contain.
+ *
+ * @author mariano
+ */
+public class LDAPFilterTemplate
+{
+    private final String name;
+    private final String filter;
+    private final List<Object> parts;
+    private final int argumentCount;
+
+    private LDAPFilterTemplate(String name, String filter, List<Object> parts, int argumentCount)
+    {
+        this.name = name;
+        this.filter = filter;
+        this.parts = parts;
+        this.argumentCount = argumentCount;
+    }
+
+    /**
+     * @param name The name the template is referenced by.
+     * @param filter A valid LDAP filter with <code>{n}</code> placeholders in the place of assertion values. Every
+     *        placeholder from <code>{0}</code> to the one with the greatest index must be used.
+     * @throws InvalidAttributeException If the filter is not valid.
+     */
+    public static LDAPFilterTemplate compile(String name, String filter) throws LDAPException
+    {
+        if (filter == null || filter.trim().length() == 0)
+        {
+            throw new InvalidAttributeException("Filter template " + name + " is empty");
+        }
+
+        List<Object> parts = new ArrayList<Object>();
+        boolean[] used = new boolean[filter.length()];
+        int argumentCount = 0;
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < filter.length())
+        {
+            char c = filter.charAt(i);
+            int end;
+            if (c == '{' && (end = filter.indexOf('}', i)) > i)
+            {
+                int index;
+                try
+                {
+                    index = Integer.parseInt(filter.substring(i + 1, end).trim());
+                }
+                catch (NumberFormatException ex)
+                {
+                    throw new InvalidAttributeException("Invalid filter argument placeholder " + filter.substring(i, end + 1) + " in filter template " + name);
+                }
+                if (index < 0 || index >= filter.length())
+                {
+                    throw new InvalidAttributeException("Invalid filter argument placeholder " + filter.substring(i, end + 1) + " in filter template " + name);
+                }
+                if (literal.length() > 0)
+                {
+                    parts.add(literal.toString());
+                    literal.setLength(0);
+                }
+                parts.add(Integer.valueOf(index));
+                used[index] = true;
+                argumentCount = Math.max(argumentCount, index + 1);
+                i = end + 1;
+            }
+            else
+            {
+                literal.append(c);
+                i++;
+            }
+        }
+        if (literal.length() > 0)
+        {
+            parts.add(literal.toString());
+        }
+
+        for (int index = 0; index < argumentCount; index++)
+        {
+            if (!used[index])
+            {
+                throw new InvalidAttributeException("Filter template " + name + " does not use argument {" + index + "}");
+            }
+        }
+
+        LDAPFilterTemplate template = new LDAPFilterTemplate(name, filter, Collections.unmodifiableList(parts), argumentCount);
+
+        // Validates the syntax with sample arguments
+        Object[] sampleArgs = new Object[argumentCount];
+        Arrays.fill(sampleArgs, "x");
+        try
+        {
+            LDAPFilterEncoder.encode(template.format(sampleArgs));
+        }
+        catch (LDAPException ex)
+        {
+            throw new InvalidAttributeException("Invalid filter template " + name + ": " + ex.getMessage(), ex);
+        }
+        return template;
+    }
+
+    /**
+     * Compiles the templates of a configuration.
+     *
+     * @param filters The filters keyed by template name. May be <i>null</i>.
+     * @return The templates keyed by name.
+     * @throws IllegalArgumentException If any of the filters is not valid, as this happens when configuring.
+     */
+    public static Map<String, LDAPFilterTemplate> compileAll(Map<String, String> filters)
+    {
+        Map<String, LDAPFilterTemplate> templates = new HashMap<String, LDAPFilterTemplate>();
+        if (filters != null)
+        {
+            for (Map.Entry<String, String> filter : filters.entrySet())
+            {
+                try
+                {
+                    templates.put(filter.getKey(), compile(filter.getKey(), filter.getValue()));
+                }
+                catch (LDAPException ex)
+                {
+                    throw new IllegalArgumentException(ex.getMessage(), ex);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(templates);
+    }
+
+    /**
+     * Builds the filter replacing the placeholders with the escaped string representation of the arguments.
+     * <code>byte[]</code> arguments are escaped byte by byte.
+     *
+     * @throws InvalidAttributeException If the number of arguments does not match the placeholders of the template.
+     */
+    public String format(Object[] args) throws LDAPException
+    {
+        int count = args != null ? args.length : 0;
+        if (count != argumentCount)
+        {
+            throw new InvalidAttributeException("Filter template " + name + " expects " + argumentCount + " arguments but got " + count);
+        }
+
+        StringBuilder formatted = new StringBuilder(filter.length() + 16 * count);
+        for (Object part : parts)
+        {
+            if (part instanceof Integer)
+            {
+                formatted.append(LDAPUtils.escapeFilterValue(args[((Integer) part).intValue()]));
+            }
+            else
+            {
+                formatted.append((String) part);
+            }
+        }
+        return formatted.toString();
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getFilter()
+    {
+        return filter;
+    }
+
+    /**
+     * @return The number of arguments expected by {@link #format(Object[])}.
+     */
+    public int getArgumentCount()
+    {
+        return argumentCount;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + ": " + filter;
+    }
+}
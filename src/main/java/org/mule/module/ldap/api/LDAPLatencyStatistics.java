@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe accumulator of the latency of a given kind of operation (for example opening a connection or
+ * performing a bind).
+ *
+ * @author mariano
+ */
+public class LDAPLatencyStatistics
+{
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LDAPLatencyStatistics(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Records an operation that took <i>nanos</i> nanoseconds.
+     *
+     * @param nanos Elapsed time in nanoseconds (see {@link System#nanoTime()}).
+     * @param successful Whether the operation succeeded or not.
+     */
+    public void record(long nanos, boolean successful)
+    {
+        count.incrementAndGet();
+        if (!successful)
+        {
+            failures.incrementAndGet();
+        }
+        totalNanos.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos))
+        {
+            // Retry until max is updated
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    /**
+     * @return The average latency in milliseconds.
+     */
+    public double getAverageMillis()
+    {
+        long total = count.get();
+        return total > 0 ? (double) totalNanos.get() / total / TimeUnit.MILLISECONDS.toNanos(1) : 0.0;
+    }
+
+    /**
+     * @return The highest latency in milliseconds.
+     */
+    public double getMaxMillis()
+    {
+        return (double) maxNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public void reset()
+    {
+        count.set(0);
+        failures.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + "{count: " + getCount() + ", failures: " + getFailures() + ", avg: " + String.format("%.3f", getAverageMillis()) + " ms, max: " + String.format("%.3f", getMaxMillis()) + " ms}";
+    }
+}
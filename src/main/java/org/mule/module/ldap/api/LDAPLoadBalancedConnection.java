@@ -0,0 +1,676 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link LDAPConnection} that spreads the operations among several replicas of the same directory. Each operation
+ * is executed on the available server with the best score according to the load balancing policy:
+ * <ul>
+ * <li><b>{@value #LEAST_OUTSTANDING_POLICY}</b>: The server with less operations in progress.</li>
+ * <li><b>{@value #EWMA_LATENCY_POLICY}</b>: The server with the lowest EWMA latency, weighted by the number of
+ * operations in progress.</li>
+ * </ul>
+ * Ties are broken in a round robin fashion. When an operation fails with a {@link CommunicationException}, the
+ * server is marked as down for <i>retryInterval</i> milliseconds and the operation is transparently retried on the
+ * next server. The exception is only propagated once all the servers failed. Modifications are only retried if the
+ * connection to the server could not be obtained: once a modification was sent it may have been applied even if the
+ * response was lost, so the failure is propagated instead.
+ * <p/>
+ * A connection bound as the identity of this connection is borrowed from the {@link LDAPConnectionPool} of each server
+ * the first time the server is used, and given back when this connection is closed.
+ *
+ * @author mariano
+ */
+public class LDAPLoadBalancedConnection extends LDAPConnection
+{
+    public static final String LEAST_OUTSTANDING_POLICY = "least-outstanding";
+    public static final String EWMA_LATENCY_POLICY = "ewma-latency";
+    public static final long DEFAULT_RETRY_INTERVAL = 30000L;
+
+    private final List<LDAPServer> servers;
+    private final String policy;
+    private final long retryInterval;
+
+    private final ConcurrentMap<LDAPServer, LDAPConnection> connections = new ConcurrentHashMap<LDAPServer, LDAPConnection>();
+    private final ConcurrentMap<LDAPServer, LDAPAuthenticator> authenticators = new ConcurrentHashMap<LDAPServer, LDAPAuthenticator>();
+    private final AtomicInteger nextServer = new AtomicInteger();
+
+    private volatile String bindDn = null;
+    private volatile String bindPassword = null;
+    private volatile boolean closed = false;
+    private boolean asyncOperations = false;
+
+    /**
+     * @param servers The servers to balance the operations among. At least one is required.
+     * @param policy {@link #LEAST_OUTSTANDING_POLICY} or {@link #EWMA_LATENCY_POLICY}.
+     * @param retryInterval Number of milliseconds a server is not used after a communication failure.
+     */
+    public LDAPLoadBalancedConnection(List<LDAPServer> servers, String policy, long retryInterval)
+    {
+        if (servers == null || servers.isEmpty())
+        {
+            throw new IllegalArgumentException("At least one LDAP server is required.");
+        }
+        if (!LEAST_OUTSTANDING_POLICY.equals(policy) && !EWMA_LATENCY_POLICY.equals(policy))
+        {
+            throw new IllegalArgumentException("Unsupported load balancing policy: " + policy);
+        }
+        this.servers = Collections.unmodifiableList(new ArrayList<LDAPServer>(servers));
+        this.policy = policy;
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * Connections are created with {@link #LDAPLoadBalancedConnection(List, String, long)} instead of
+     * {@link LDAPConnection#getConnection(Map)}, so there is nothing to initialize.
+     */
+    @Override
+    protected void initialize(Map<String, String> conf) throws LDAPException
+    {
+    }
+
+    /**
+     * An operation executed on a single server.
+     */
+    protected abstract class Operation<T>
+    {
+        public abstract T execute(LDAPServer server) throws LDAPException;
+
+        /**
+         * @return <i>true</i> if the operation can be executed on another server after a communication failure.
+         */
+        public boolean isRetryable()
+        {
+            return true;
+        }
+    }
+
+    /**
+     * A modification executed on a single server. It can only be retried if it was not sent to the server.
+     */
+    protected abstract class WriteOperation extends Operation<Void>
+    {
+        private boolean sent = false;
+
+        @Override
+        public Void execute(LDAPServer server) throws LDAPException
+        {
+            LDAPConnection conn = getConnection(server);
+            sent = true;
+            write(conn);
+            return null;
+        }
+
+        protected abstract void write(LDAPConnection conn) throws LDAPException;
+
+        @Override
+        public boolean isRetryable()
+        {
+            return !sent;
+        }
+    }
+
+    /**
+     * Executes the operation on the best available server, failing over to the remaining servers on communication
+     * errors as long as the operation is retryable.
+     */
+    protected <T> T execute(Operation<T> operation) throws LDAPException
+    {
+        if (closed)
+        {
+            throw new CommunicationException("Connection is closed.");
+        }
+
+        Set<LDAPServer> tried = Collections.newSetFromMap(new IdentityHashMap<LDAPServer, Boolean>());
+        CommunicationException lastFailure = null;
+        LDAPServer server;
+        while ((server = selectServer(tried)) != null)
+        {
+            tried.add(server);
+
+            boolean reached = false;
+            long start = System.nanoTime();
+            server.operationStarted();
+            try
+            {
+                T result = operation.execute(server);
+                reached = true;
+                server.markUp();
+                return result;
+            }
+            catch (CommunicationException ex)
+            {
+                lastFailure = ex;
+                server.markDown(retryInterval);
+                discardConnection(server);
+                logger.warn("LDAP server " + server.getUrl() + " is not reachable. It will not be used for " + retryInterval + " ms.", ex);
+                if (!operation.isRetryable())
+                {
+                    throw ex;
+                }
+            }
+            catch (LDAPException ex)
+            {
+                // The server answered, so it is healthy even if the operation failed
+                reached = true;
+                server.markUp();
+                throw ex;
+            }
+            finally
+            {
+                server.operationFinished(System.nanoTime() - start, reached);
+            }
+        }
+
+        throw lastFailure != null ? lastFailure : new CommunicationException("No LDAP server available.");
+    }
+
+    /**
+     * Chooses the server with the best score among the available servers not tried yet. If all of them are marked
+     * as down, the ones not tried yet are used anyway, as a server may have recovered before its retry interval
+     * elapsed.
+     *
+     * @return The server or <i>null</i> if all the servers were tried.
+     */
+    protected LDAPServer selectServer(Set<LDAPServer> tried)
+    {
+        LDAPServer selected = selectServer(tried, true);
+        return selected != null ? selected : selectServer(tried, false);
+    }
+
+    private LDAPServer selectServer(Set<LDAPServer> tried, boolean onlyAvailable)
+    {
+        int size = servers.size();
+        int offset = (nextServer.getAndIncrement() & Integer.MAX_VALUE) % size;
+
+        LDAPServer selected = null;
+        double selectedScore = 0.0;
+        for (int i = 0; i < size; i++)
+        {
+            LDAPServer server = servers.get((offset + i) % size);
+            if (tried.contains(server) || (onlyAvailable && !server.isAvailable()))
+            {
+                continue;
+            }
+
+            double score = score(server);
+            if (selected == null || score < selectedScore)
+            {
+                selected = server;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return The score of the server according to the policy. Lower is better.
+     */
+    protected double score(LDAPServer server)
+    {
+        if (EWMA_LATENCY_POLICY.equals(policy))
+        {
+            // Servers without samples score 0 so they are probed before the rest
+            return server.getEwmaLatencyMillis() * (server.getOutstandingRequests() + 1);
+        }
+        return server.getOutstandingRequests();
+    }
+
+    /**
+     * @return The connection to the server bound as the identity of this connection, borrowing it from the pool of
+     *         the server if necessary.
+     */
+    protected LDAPConnection getConnection(LDAPServer server) throws LDAPException
+    {
+        LDAPConnection conn = connections.get(server);
+        if (conn != null && !conn.isClosed())
+        {
+            return conn;
+        }
+        if (conn != null)
+        {
+            discardConnection(server);
+        }
+
+        conn = asyncOperations ? server.getPool().borrowAsyncConnection(bindDn, bindPassword) : server.getPool().borrowConnection(bindDn, bindPassword);
+        LDAPConnection existing = connections.putIfAbsent(server, conn);
+        if (existing != null)
+        {
+            server.getPool().returnConnection(conn);
+            return existing;
+        }
+        return conn;
+    }
+
+    private void discardConnection(LDAPServer server)
+    {
+        LDAPConnection conn = connections.remove(server);
+        if (conn != null)
+        {
+            server.getPool().invalidateConnection(conn);
+        }
+    }
+
+    private void releaseConnections()
+    {
+        for (Iterator<Map.Entry<LDAPServer, LDAPConnection>> it = connections.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<LDAPServer, LDAPConnection> entry = it.next();
+            it.remove();
+            entry.getKey().getPool().returnConnection(entry.getValue());
+        }
+        authenticators.clear();
+    }
+
+    /**
+     * Binds this connection as <i>dn</i>. The connections to all the servers are given back to their pools and a
+     * connection bound as <i>dn</i> is borrowed from the best available server.
+     */
+    @Override
+    public void bind(String dn, String password) throws LDAPException
+    {
+        releaseConnections();
+        this.bindDn = dn;
+        this.bindPassword = password;
+        this.closed = false;
+
+        execute(new Operation<Void>()
+        {
+            @Override
+            public Void execute(LDAPServer server) throws LDAPException
+            {
+                getConnection(server);
+                return null;
+            }
+        });
+        bindPerformed(dn);
+    }
+
+    @Override
+    public void rebind() throws LDAPException
+    {
+        bind(bindDn, bindPassword);
+    }
+
+    @Override
+    public String getBindedUserDn() throws LDAPException
+    {
+        return !closed ? getLastBindDn() : null;
+    }
+
+    /**
+     * @return An authenticator that verifies user credentials on the best available server, failing over to the
+     *         remaining servers on communication errors.
+     */
+    public LDAPAuthenticator getAuthenticator()
+    {
+        return new LoadBalancedAuthenticator();
+    }
+
+    private LDAPAuthenticator getAuthenticator(LDAPServer server)
+    {
+        LDAPAuthenticator authenticator = authenticators.get(server);
+        if (authenticator == null)
+        {
+            authenticator = new LDAPAuthenticator(server.getPool(), bindDn, bindPassword);
+            LDAPAuthenticator existing = authenticators.putIfAbsent(server, authenticator);
+            authenticator = existing != null ? existing : authenticator;
+        }
+        return authenticator;
+    }
+
+    @Override
+    public LDAPResultSet search(final String baseDn, final String filter, final Object[] filterArgs, final LDAPSearchControls controls) throws LDAPException
+    {
+        return execute(new Operation<LDAPResultSet>()
+        {
+            @Override
+            public LDAPResultSet execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).search(baseDn, filter, filterArgs, controls);
+            }
+        });
+    }
+
+    @Override
+    public LDAPResultSet search(final String baseDn, final String filter, final LDAPSearchControls controls) throws LDAPException
+    {
+        return execute(new Operation<LDAPResultSet>()
+        {
+            @Override
+            public LDAPResultSet execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).search(baseDn, filter, controls);
+            }
+        });
+    }
+
+    @Override
+    public LDAPEntry lookup(final String dn) throws LDAPException
+    {
+        return execute(new Operation<LDAPEntry>()
+        {
+            @Override
+            public LDAPEntry execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).lookup(dn);
+            }
+        });
+    }
+
+    @Override
+    public LDAPEntry lookup(final String dn, final String[] attributes) throws LDAPException
+    {
+        return execute(new Operation<LDAPEntry>()
+        {
+            @Override
+            public LDAPEntry execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).lookup(dn, attributes);
+            }
+        });
+    }
+
+    @Override
+    public boolean exists(final String dn) throws LDAPException
+    {
+        return execute(new Operation<Boolean>()
+        {
+            @Override
+            public Boolean execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).exists(dn);
+            }
+        });
+    }
+
+    @Override
+    public int count(final String baseDn, final String filter, final Object[] filterArgs, final LDAPSearchControls controls) throws LDAPException
+    {
+        return execute(new Operation<Integer>()
+        {
+            @Override
+            public Integer execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).count(baseDn, filter, filterArgs, controls);
+            }
+        });
+    }
+
+    @Override
+    public LDAPChangeStream persistentSearch(final String baseDn, final String filter, final Object[] filterArgs, final LDAPSearchControls controls, final int changeTypes, final boolean changesOnly, final int bufferSize, final long reconnectInterval) throws LDAPException
+    {
+        return execute(new Operation<LDAPChangeStream>()
+        {
+            @Override
+            public LDAPChangeStream execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).persistentSearch(baseDn, filter, filterArgs, controls, changeTypes, changesOnly, bufferSize, reconnectInterval);
+            }
+        });
+    }
+
+    @Override
+    public LDAPChangeStream sync(final String baseDn, final String filter, final Object[] filterArgs, final LDAPSearchControls controls, final boolean persist, final byte[] cookie, final int bufferSize, final long reconnectInterval, final long pollingInterval) throws LDAPException
+    {
+        return execute(new Operation<LDAPChangeStream>()
+        {
+            @Override
+            public LDAPChangeStream execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).sync(baseDn, filter, filterArgs, controls, persist, cookie, bufferSize, reconnectInterval, pollingInterval);
+            }
+        });
+    }
+
+    @Override
+    public void renameEntry(final String oldDn, final String newDn) throws LDAPException
+    {
+        execute(new WriteOperation()
+        {
+            @Override
+            protected void write(LDAPConnection conn) throws LDAPException
+            {
+                conn.renameEntry(oldDn, newDn);
+            }
+        });
+    }
+
+    @Override
+    public void addEntry(final LDAPEntry entry) throws LDAPException
+    {
+        execute(new WriteOperation()
+        {
+            @Override
+            protected void write(LDAPConnection conn) throws LDAPException
+            {
+                conn.addEntry(entry);
+            }
+        });
+    }
+
+    @Override
+    public void updateEntry(final LDAPEntry entry) throws LDAPException
+    {
+        execute(new WriteOperation()
+        {
+            @Override
+            protected void write(LDAPConnection conn) throws LDAPException
+            {
+                conn.updateEntry(entry);
+            }
+        });
+    }
+
+    @Override
+    public void deleteEntry(LDAPEntry entry) throws LDAPException
+    {
+        deleteEntry(entry.getDn());
+    }
+
+    @Override
+    public void deleteEntry(final String dn) throws LDAPException
+    {
+        execute(new WriteOperation()
+        {
+            @Override
+            protected void write(LDAPConnection conn) throws LDAPException
+            {
+                conn.deleteEntry(dn);
+            }
+        });
+    }
+
+    @Override
+    public void addAttribute(final String dn, final LDAPEntryAttribute attribute) throws LDAPException
+    {
+        execute(new WriteOperation()
+        {
+            @Override
+            protected void write(LDAPConnection conn) throws LDAPException
+            {
+                conn.addAttribute(dn, attribute);
+            }
+        });
+    }
+
+    @Override
+    public void updateAttribute(final String dn, final LDAPEntryAttribute attribute) throws LDAPException
+    {
+        execute(new WriteOperation()
+        {
+            @Override
+            protected void write(LDAPConnection conn) throws LDAPException
+            {
+                conn.updateAttribute(dn, attribute);
+            }
+        });
+    }
+
+    @Override
+    public void deleteAttribute(final String dn, final LDAPEntryAttribute attribute) throws LDAPException
+    {
+        execute(new WriteOperation()
+        {
+            @Override
+            protected void write(LDAPConnection conn) throws LDAPException
+            {
+                conn.deleteAttribute(dn, attribute);
+            }
+        });
+    }
+
+    @Override
+    public LDAPEntryAttributeTypeDefinition getAttributeTypeDefinition(final String attributeName) throws LDAPException
+    {
+        return execute(new Operation<LDAPEntryAttributeTypeDefinition>()
+        {
+            @Override
+            public LDAPEntryAttributeTypeDefinition execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).getAttributeTypeDefinition(attributeName);
+            }
+        });
+    }
+
+    @Override
+    public LDAPEntryObjectClassDefinition getObjectClassDefinition(final String objectClassName) throws LDAPException
+    {
+        return execute(new Operation<LDAPEntryObjectClassDefinition>()
+        {
+            @Override
+            public LDAPEntryObjectClassDefinition execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).getObjectClassDefinition(objectClassName);
+            }
+        });
+    }
+
+    @Override
+    public List<String> getAllObjectClasses() throws LDAPException
+    {
+        return execute(new Operation<List<String>>()
+        {
+            @Override
+            public List<String> execute(LDAPServer server) throws LDAPException
+            {
+                return getConnection(server).getAllObjectClasses();
+            }
+        });
+    }
+
+    @Override
+    public void close() throws LDAPException
+    {
+        closed = true;
+        releaseConnections();
+        clearBindInformation();
+    }
+
+    @Override
+    public boolean isClosed() throws LDAPException
+    {
+        return closed;
+    }
+
+    /**
+     * @return <i>true</i> if the connection is open and at least one server is available.
+     */
+    @Override
+    public boolean isValid()
+    {
+        if (closed)
+        {
+            return false;
+        }
+        for (LDAPServer server : servers)
+        {
+            if (server.isAvailable())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The servers of this connection, holding their health and latency metrics.
+     */
+    public boolean isAsyncOperations()
+    {
+        return asyncOperations;
+    }
+
+    /**
+     * @param asyncOperations If <i>true</i> the connections to the servers are borrowed with
+     *            {@link LDAPConnectionPool#borrowAsyncConnection(String, String)}, as this connection performs the
+     *            operations of a {@link LDAPAsyncExecutor}.
+     */
+    public void setAsyncOperations(boolean asyncOperations)
+    {
+        this.asyncOperations = asyncOperations;
+    }
+
+    public List<LDAPServer> getServers()
+    {
+        return servers;
+    }
+
+    public String getPolicy()
+    {
+        return policy;
+    }
+
+    public long getRetryInterval()
+    {
+        return retryInterval;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{policy: " + policy + ", servers: " + servers + ", bindDn: " + getLastBindDn() + "}";
+    }
+
+    /**
+     * Authenticates users on the best available server.
+     */
+    private class LoadBalancedAuthenticator extends LDAPAuthenticator
+    {
+        public LoadBalancedAuthenticator()
+        {
+            super(servers.get(0).getPool(), bindDn, bindPassword);
+        }
+
+        @Override
+        public void authenticate(final String dn, final String password) throws LDAPException
+        {
+            execute(new Operation<Void>()
+            {
+                @Override
+                public Void execute(LDAPServer server) throws LDAPException
+                {
+                    getAuthenticator(server).authenticate(dn, password);
+                    return null;
+                }
+            });
+        }
+    }
+}
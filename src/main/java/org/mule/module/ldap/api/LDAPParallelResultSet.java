@@ -0,0 +1,473 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Result set of a sub tree search split in one search per entry immediately under the base DN. The immediate children
+ * of the base DN are listed first, and then a sub tree search is performed under each one of them in parallel using a
+ * {@link LDAPAsyncExecutor}. The base DN entry itself is matched with an object search.
+ * <p/>
+ * Entries are returned as soon as any of the searches reads them, so the order of the results is not defined. At most
+ * {@link #DEFAULT_BUFFER_SIZE} entries wait to be consumed, and searches stop reading from the server while the
+ * buffer is full. If any of the searches fails, the rest of them are cancelled and the failure is reported once the
+ * entries already read are consumed. If the buffer stays full for longer than the consumer timeout (see
+ * {@link LDAPSearchControls#setConsumerTimeout(long)}) the result set is considered abandoned and the searches are
+ * cancelled as well, giving their connections back.
+ * <p/>
+ * Subclasses split searches in other ways adding their own {@link Search searches}.
+ *
+ * @author mariano
+ */
+public class LDAPParallelResultSet implements LDAPResultSet
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+    public static final int DEFAULT_BUFFER_SIZE = 1000;
+
+    private static final long OFFER_INTERVAL = 100L;
+    private static final Object END = new Object();
+    private static final Executor SAME_THREAD = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    private final LDAPAsyncExecutor executor;
+    private final long maxResults;
+    private final long consumerTimeout;
+    private final int maxConcurrency;
+
+    private final BlockingQueue<Object> results;
+    private final LinkedList<Search> pending = new LinkedList<Search>();
+    private final Set<ListenableFuture<Void>> running = Collections.newSetFromMap(new IdentityHashMap<ListenableFuture<Void>, Boolean>());
+    private LDAPException error = null;
+    private boolean endQueued = false;
+    private volatile boolean closed = false;
+
+    private LDAPEntry nextEntry = null;
+    private boolean finished = false;
+    private long returned = 0;
+
+    /**
+     * One of the searches performed in parallel.
+     */
+    protected static class Search
+    {
+        private final String dn;
+        private final String filter;
+        private final Object[] filterArgs;
+        private final LDAPSearchControls controls;
+
+        public Search(String dn, String filter, Object[] filterArgs, LDAPSearchControls controls)
+        {
+            this.dn = dn;
+            this.filter = filter;
+            this.filterArgs = filterArgs;
+            this.controls = controls;
+        }
+
+        public String getDn()
+        {
+            return dn;
+        }
+
+        public String getFilter()
+        {
+            return filter;
+        }
+
+        @Override
+        public String toString()
+        {
+            return filter + " under " + dn;
+        }
+    }
+
+    /**
+     * Lists the children of <i>baseDn</i> and starts searching under them.
+     *
+     * @param executor Executor running the searches, each on a connection of its own.
+     * @param controls Controls applied to every search. The scope is ignored (the search is always a sub tree search)
+     *        and <i>maxResults</i> limits the total amount of entries returned.
+     * @param maxConcurrency Maximum number of searches performed at the same time.
+     */
+    public LDAPParallelResultSet(LDAPAsyncExecutor executor, String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, int maxConcurrency) throws LDAPException
+    {
+        this(executor, baseDn, filter, filterArgs, controls, maxConcurrency, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize Maximum number of entries read waiting to be consumed.
+     * @see #LDAPParallelResultSet(LDAPAsyncExecutor, String, String, Object[], LDAPSearchControls, int)
+     */
+    public LDAPParallelResultSet(LDAPAsyncExecutor executor, String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, int maxConcurrency, int bufferSize) throws LDAPException
+    {
+        this(executor, controls, maxConcurrency, bufferSize);
+
+        LDAPSearchControls childrenControls = new LDAPSearchControls();
+        childrenControls.setScope(LDAPSearchControls.ONELEVEL_SCOPE);
+        childrenControls.setAttributesToReturn(new String[0]);
+        childrenControls.setTimeout(controls.getTimeout());
+        childrenControls.setPageSize(controls.getPageSize());
+        List<LDAPEntry> children = LDAPAsyncExecutor.getResult(executor.search(baseDn, "(objectClass=*)", null, childrenControls));
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Searching under " + children.size() + " children of " + baseDn + " with up to " + this.maxConcurrency + " concurrent searches");
+        }
+
+        LDAPSearchControls baseControls = new LDAPSearchControls(controls);
+        baseControls.setScope(LDAPSearchControls.OBJECT_SCOPE);
+        addSearch(new Search(baseDn, filter, filterArgs, baseControls));
+
+        LDAPSearchControls subTreeControls = new LDAPSearchControls(controls);
+        subTreeControls.setScope(LDAPSearchControls.SUBTREE_SCOPE);
+        for (LDAPEntry child : children)
+        {
+            addSearch(new Search(child.getDn(), filter, filterArgs, subTreeControls));
+        }
+
+        start();
+    }
+
+    /**
+     * Constructor for result sets that add their own searches.
+     *
+     * @param controls Controls giving the maximum number of entries returned and the consumer timeout.
+     * @param bufferSize Maximum number of entries read waiting to be consumed.
+     */
+    protected LDAPParallelResultSet(LDAPAsyncExecutor executor, LDAPSearchControls controls, int maxConcurrency, int bufferSize)
+    {
+        this.executor = executor;
+        this.maxResults = controls.getMaxResults();
+        this.consumerTimeout = controls.getConsumerTimeout();
+        this.results = new ArrayBlockingQueue<Object>(bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE);
+        this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : DEFAULT_MAX_CONCURRENCY;
+    }
+
+    /**
+     * Queues a search to be performed once there is room for it.
+     */
+    protected synchronized void addSearch(Search search)
+    {
+        pending.add(search);
+    }
+
+    /**
+     * Starts performing the searches added.
+     */
+    protected void start()
+    {
+        scheduleSearches();
+    }
+
+    /**
+     * Called by the thread performing the search for each entry it reads, before the entry is returned.
+     *
+     * @return <i>false</i> to skip the entry (for example because another search already returned it).
+     */
+    protected boolean accept(Search search, LDAPEntry entry)
+    {
+        return true;
+    }
+
+    /**
+     * Called when one of the searches fails, before cancelling the rest of them.
+     *
+     * @return <i>true</i> if the failure was handled (for example adding other searches to replace the failed one),
+     *         so the rest of the searches go on.
+     */
+    protected boolean searchFailed(Search search, LDAPException failure)
+    {
+        return false;
+    }
+
+    private void scheduleSearches()
+    {
+        boolean finish;
+        synchronized (this)
+        {
+            while (!closed && error == null && running.size() < maxConcurrency && !pending.isEmpty())
+            {
+                submit(pending.removeFirst());
+            }
+            finish = running.isEmpty() && !endQueued && (closed || error != null || pending.isEmpty());
+            if (finish)
+            {
+                endQueued = true;
+            }
+        }
+
+        if (finish && !closed)
+        {
+            try
+            {
+                enqueue(END);
+            }
+            catch (LDAPException ex)
+            {
+                // Closed meanwhile
+            }
+        }
+    }
+
+    private void submit(final Search search)
+    {
+        final ListenableFuture<Void> future = executor.submit(new LDAPAsyncExecutor.Operation<Void>()
+        {
+            @Override
+            public Void execute(LDAPConnection conn) throws LDAPException
+            {
+                LDAPResultSet result = conn.search(search.dn, search.filter, search.filterArgs, search.controls);
+                try
+                {
+                    while (result.hasNext())
+                    {
+                        LDAPEntry entry = result.next();
+                        if (accept(search, entry))
+                        {
+                            enqueue(entry);
+                        }
+                    }
+                }
+                finally
+                {
+                    result.close();
+                }
+                return null;
+            }
+        });
+        running.add(future);
+        future.addListener(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                searchFinished(search, future);
+            }
+        }, SAME_THREAD);
+    }
+
+    private void searchFinished(Search search, ListenableFuture<Void> future)
+    {
+        LDAPException failure = null;
+        if (!future.isCancelled())
+        {
+            try
+            {
+                future.get();
+            }
+            catch (ExecutionException ex)
+            {
+                failure = ex.getCause() instanceof LDAPException ? (LDAPException) ex.getCause() : new LDAPException(ex.getCause().getMessage(), ex.getCause());
+            }
+            catch (InterruptedException ex)
+            {
+                // The future is done, so get does not wait
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (failure != null && !closed && searchFailed(search, failure))
+        {
+            failure = null;
+        }
+
+        synchronized (this)
+        {
+            running.remove(future);
+            if (failure != null && error == null && !closed)
+            {
+                logger.warn("Search " + search + " failed. Cancelling the rest of the searches.", failure);
+                error = failure;
+                cancelSearches();
+            }
+        }
+        scheduleSearches();
+    }
+
+    private synchronized void cancelSearches()
+    {
+        for (ListenableFuture<Void> future : new ArrayList<ListenableFuture<Void>>(running))
+        {
+            future.cancel(true);
+        }
+        pending.clear();
+    }
+
+    /**
+     * Waits for room in the buffer giving up if the result set is closed or the consumer timeout expires.
+     */
+    private void enqueue(Object item) throws LDAPException
+    {
+        long start = System.currentTimeMillis();
+        try
+        {
+            while (!results.offer(item, OFFER_INTERVAL, TimeUnit.MILLISECONDS))
+            {
+                if (closed)
+                {
+                    throw new LDAPException("Parallel search was closed");
+                }
+                if (consumerTimeout > 0 && System.currentTimeMillis() - start >= consumerTimeout)
+                {
+                    abandon();
+                    throw new LDAPException("Parallel search was abandoned");
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new LDAPException("Parallel search was cancelled", ex);
+        }
+    }
+
+    /**
+     * Cancels the searches as no entry was consumed for the consumer timeout. The consumer gets the failure if it
+     * ever comes back.
+     */
+    private void abandon()
+    {
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return;
+            }
+            logger.warn("No entry was consumed in " + consumerTimeout + " ms. Cancelling the searches.");
+            if (error == null)
+            {
+                error = new LDAPException("Parallel search was abandoned as no entry was consumed in " + consumerTimeout + " ms");
+            }
+            closed = true;
+        }
+        cancelSearches();
+        results.clear();
+    }
+
+    @Override
+    public boolean hasNext() throws LDAPException
+    {
+        if (nextEntry != null)
+        {
+            return true;
+        }
+        if (finished)
+        {
+            return false;
+        }
+        if (maxResults > 0 && returned >= maxResults)
+        {
+            close();
+            return false;
+        }
+
+        Object item;
+        try
+        {
+            item = results.poll(OFFER_INTERVAL, TimeUnit.MILLISECONDS);
+            while (item == null)
+            {
+                // Abandoned searches do not queue the end of the results
+                item = closed ? END : results.poll(OFFER_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new LDAPException("Interrupted while waiting for search results", ex);
+        }
+
+        if (item == END)
+        {
+            finished = true;
+            LDAPException failure;
+            synchronized (this)
+            {
+                failure = error;
+            }
+            if (failure != null)
+            {
+                throw failure;
+            }
+            return false;
+        }
+
+        nextEntry = (LDAPEntry) item;
+        return true;
+    }
+
+    @Override
+    public LDAPEntry next() throws LDAPException
+    {
+        if (hasNext())
+        {
+            LDAPEntry entry = nextEntry;
+            nextEntry = null;
+            returned++;
+            return entry;
+        }
+        throw new NoSuchElementException("End of result set");
+    }
+
+    /**
+     * Cancels the searches still running.
+     */
+    @Override
+    public void close() throws LDAPException
+    {
+        closed = true;
+        finished = true;
+        nextEntry = null;
+        cancelSearches();
+        results.clear();
+    }
+
+    @Override
+    public List<LDAPEntry> getAllEntries() throws LDAPException
+    {
+        List<LDAPEntry> allEntries = new ArrayList<LDAPEntry>();
+
+        while (hasNext())
+        {
+            allEntries.add(next());
+        }
+
+        return allEntries;
+    }
+
+    @Override
+    public int getResultSize() throws LDAPException
+    {
+        return -1;
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Result set of a search split in partitions by filter, each one searched in parallel on a connection of its own.
+ * <p/>
+ * Partitions are either ranges given by the caller (any filter, like <i>(&(uid&gt;=a)(!(uid&gt;=n)))</i>) or generated
+ * from the first characters of the values of a partition attribute: one partition for the values starting with each
+ * one of {@link #PARTITION_CHARACTERS} and another one for the rest of the entries (including the ones without the
+ * attribute). Matching is expected to be case insensitive, as it is for most attributes.
+ * <p/>
+ * Partitions reaching the size limit of the server are split again by the next character of the partition attribute
+ * (up to {@link #MAX_PREFIX_LENGTH} characters), so searches bigger than the size limit are returned completely. The
+ * entries read before a partition reached the size limit are not returned again by the partitions it is split in.
+ * For that, each running partition keeps the DNs of the entries it returned (up to {@link #MAX_TRACKED_DNS}, as a
+ * partition is only split if it reaches the size limit of the server), and only the partitions that were split keep
+ * them once they finish, until the partitions they were split in finish as well.
+ * <p/>
+ * Entries matching more than one partition (overlapping ranges, or values of a multi-valued partition attribute
+ * starting with different characters) are returned once per partition.
+ *
+ * @author mariano
+ */
+public class LDAPPartitionedResultSet extends LDAPParallelResultSet
+{
+    public static final String PARTITION_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789";
+    public static final int MAX_PREFIX_LENGTH = 8;
+    public static final int MAX_TRACKED_DNS = 100000;
+
+    private final String baseDn;
+    private final String filter;
+    private final Object[] filterArgs;
+    private final LDAPSearchControls controls;
+    private final String attribute;
+
+    /**
+     * A search restricted to a range and/or the entries whose partition attribute starts with a prefix.
+     */
+    private static class Partition extends Search
+    {
+        private final String range;
+        private final String prefix;
+        private final boolean rest;
+        private final Partition parent;
+
+        /*
+         * DNs of the entries returned, only used by the thread performing the search until it finishes (null once
+         * there are too many to keep)
+         */
+        private Set<String> returnedDns = new HashSet<String>();
+
+        /**
+         * @param range Filter given by the caller or <i>null</i>.
+         * @param prefix Prefix of the values of the partition attribute or <i>null</i> for any value.
+         * @param rest If <i>true</i>, the partition holds the values starting with <i>prefix</i> not followed by any
+         *        of the {@link #PARTITION_CHARACTERS}.
+         * @param parent The partition this one was split from or <i>null</i>.
+         */
+        Partition(String dn, String filter, Object[] filterArgs, LDAPSearchControls controls, String range, String prefix, boolean rest, Partition parent)
+        {
+            super(dn, filter, filterArgs, controls);
+            this.range = range;
+            this.prefix = prefix;
+            this.rest = rest;
+            this.parent = parent;
+        }
+
+        /**
+         * @return Whether the entry was not returned by this partition or the ones it was split from.
+         */
+        private boolean track(String entryDn)
+        {
+            for (Partition splitFrom = parent; splitFrom != null; splitFrom = splitFrom.parent)
+            {
+                if (splitFrom.returnedDns != null && splitFrom.returnedDns.contains(entryDn))
+                {
+                    return false;
+                }
+            }
+            if (returnedDns != null)
+            {
+                if (returnedDns.size() < MAX_TRACKED_DNS)
+                {
+                    returnedDns.add(entryDn);
+                }
+                else
+                {
+                    returnedDns = null;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param executor Executor running the searches, each on a connection of its own.
+     * @param controls Controls applied to every partition. <i>maxResults</i> limits the total amount of entries returned.
+     * @param attribute Attribute used to split partitions by the first characters of its values. If <i>null</i>,
+     *        partitions are not split and reaching the size limit fails the search.
+     * @param ranges Filters defining the partitions. If <i>null</i> or empty, partitions are generated from the values
+     *        of <i>attribute</i>.
+     * @param maxConcurrency Maximum number of partitions searched at the same time.
+     */
+    public LDAPPartitionedResultSet(LDAPAsyncExecutor executor, String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, String attribute, List<String> ranges, int maxConcurrency)
+    {
+        super(executor, controls, maxConcurrency, DEFAULT_BUFFER_SIZE);
+
+        if ((ranges == null || ranges.isEmpty()) && (attribute == null || attribute.trim().length() == 0))
+        {
+            throw new IllegalArgumentException("Either a partition attribute or the partition ranges are required");
+        }
+
+        this.baseDn = baseDn;
+        this.filter = filter;
+        this.filterArgs = filterArgs;
+        this.attribute = attribute != null && attribute.trim().length() > 0 ? attribute.trim() : null;
+
+        // The total amount of results is limited by the result set and the size limit is detected to split partitions
+        this.controls = new LDAPSearchControls(controls);
+        this.controls.setMaxResults(0);
+        this.controls.setFailOnSizeLimitExceeded(true);
+
+        if (ranges != null && !ranges.isEmpty())
+        {
+            for (String range : ranges)
+            {
+                addSearch(createPartition(range, null, false, null));
+            }
+        }
+        else
+        {
+            split(null, "", null);
+        }
+
+        start();
+    }
+
+    @Override
+    protected boolean accept(Search search, LDAPEntry entry)
+    {
+        return ((Partition) search).track(entry.getDn().toLowerCase());
+    }
+
+    @Override
+    protected boolean searchFailed(Search search, LDAPException failure)
+    {
+        if (!(failure instanceof SizeLimitExceededException))
+        {
+            return false;
+        }
+
+        Partition partition = (Partition) search;
+        if (this.attribute == null || partition.rest || (partition.prefix != null && partition.prefix.length() >= MAX_PREFIX_LENGTH))
+        {
+            logger.warn("Partition " + partition + " reached the size limit and cannot be split any further.");
+            return false;
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Partition " + partition + " reached the size limit. Splitting it.");
+        }
+        if (partition.returnedDns == null)
+        {
+            logger.warn("Partition " + partition + " returned more than " + MAX_TRACKED_DNS + " entries before reaching the size limit. They may be returned again.");
+        }
+        split(partition.range, partition.prefix != null ? partition.prefix : "", partition);
+        return true;
+    }
+
+    private void split(String range, String prefix, Partition parent)
+    {
+        for (int i = 0; i < PARTITION_CHARACTERS.length(); i++)
+        {
+            addSearch(createPartition(range, prefix + PARTITION_CHARACTERS.charAt(i), false, parent));
+        }
+        addSearch(createPartition(range, prefix, true, parent));
+    }
+
+    private Partition createPartition(String range, String prefix, boolean rest, Partition parent)
+    {
+        StringBuilder partitionFilter = new StringBuilder("(&");
+        partitionFilter.append(enclose(this.filter));
+        if (range != null)
+        {
+            partitionFilter.append(enclose(range));
+        }
+        if (prefix != null)
+        {
+            if (rest)
+            {
+                if (prefix.length() > 0)
+                {
+                    partitionFilter.append("(").append(this.attribute).append("=").append(prefix).append("*)");
+                }
+                partitionFilter.append("(!(|");
+                for (int i = 0; i < PARTITION_CHARACTERS.length(); i++)
+                {
+                    partitionFilter.append("(").append(this.attribute).append("=").append(prefix).append(PARTITION_CHARACTERS.charAt(i)).append("*)");
+                }
+                partitionFilter.append("))");
+            }
+            else
+            {
+                partitionFilter.append("(").append(this.attribute).append("=").append(prefix).append("*)");
+            }
+        }
+        partitionFilter.append(")");
+
+        return new Partition(this.baseDn, partitionFilter.toString(), this.filterArgs, this.controls, range, prefix, rest, parent);
+    }
+
+    private static String enclose(String filter)
+    {
+        String trimmed = filter.trim();
+        return trimmed.startsWith("(") ? trimmed : "(" + trimmed + ")";
+    }
+}
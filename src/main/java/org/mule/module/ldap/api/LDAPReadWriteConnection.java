@@ -0,0 +1,417 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link LDAPConnection} that sends the operations that modify the directory (add, update, delete, rename and the
+ * attribute operations) to the primary server and the rest of the operations (search, lookup and schema queries)
+ * to the read replicas. Reads fall back to the primary if none of the replicas can be reached.
+ * <p/>
+ * As replication is asynchronous, a read executed right after a write may not see the change in the replicas. When
+ * <i>readYourWritesWindow</i> is greater than 0 (zero), the reads executed by a thread within that number of
+ * milliseconds after the same thread wrote to the directory are sent to the primary. Mule executes each synchronous
+ * flow in a single thread, so this pins the reads of a flow to the primary after the flow writes.
+ *
+ * @author mariano
+ */
+public class LDAPReadWriteConnection extends LDAPConnection
+{
+    private final LDAPConnection primary;
+    private final LDAPConnection replicas;
+    private final long readYourWritesWindow;
+
+    private final ThreadLocal<Long> lastWriteTime = new ThreadLocal<Long>();
+
+    /**
+     * @param primary The connection to the primary server, used for writes.
+     * @param replicas The connection to the read replicas (for example a {@link LDAPLoadBalancedConnection}).
+     * @param readYourWritesWindow Number of milliseconds the reads of a thread are sent to the primary after the
+     *            thread writes. Use 0 (zero) to always read from the replicas.
+     */
+    public LDAPReadWriteConnection(LDAPConnection primary, LDAPConnection replicas, long readYourWritesWindow)
+    {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.readYourWritesWindow = readYourWritesWindow;
+        setSchemaEnabled(primary.isSchemaEnabled());
+    }
+
+    /**
+     * Connections are created with {@link #LDAPReadWriteConnection(LDAPConnection, LDAPConnection, long)} instead
+     * of {@link LDAPConnection#getConnection(Map)}, so there is nothing to initialize.
+     */
+    @Override
+    protected void initialize(Map<String, String> conf) throws LDAPException
+    {
+    }
+
+    /**
+     * @return The connection the next read must be sent to.
+     */
+    protected LDAPConnection getReadConnection()
+    {
+        if (readYourWritesWindow > 0)
+        {
+            Long writeTime = lastWriteTime.get();
+            if (writeTime != null)
+            {
+                if (System.currentTimeMillis() - writeTime <= readYourWritesWindow)
+                {
+                    return primary;
+                }
+                lastWriteTime.remove();
+            }
+        }
+        return replicas;
+    }
+
+    /**
+     * @return The connection writes must be sent to, recording the write for read-your-writes.
+     */
+    protected LDAPConnection getWriteConnection()
+    {
+        if (readYourWritesWindow > 0)
+        {
+            lastWriteTime.set(System.currentTimeMillis());
+        }
+        return primary;
+    }
+
+    /**
+     * @return <i>true</i> if the current thread wrote within the read-your-writes window.
+     */
+    public boolean isPinnedToPrimary()
+    {
+        return getReadConnection() == primary;
+    }
+
+    /**
+     * Binds both the primary and the replicas connections.
+     */
+    @Override
+    public void bind(String dn, String password) throws LDAPException
+    {
+        primary.bind(dn, password);
+        try
+        {
+            replicas.bind(dn, password);
+        }
+        catch (CommunicationException ex)
+        {
+            // Reads fall back to the primary until the replicas are reachable again
+            logger.warn("Unable to bind to the read replicas. Reads will be sent to the primary.", ex);
+        }
+    }
+
+    @Override
+    public void rebind() throws LDAPException
+    {
+        primary.rebind();
+        try
+        {
+            replicas.rebind();
+        }
+        catch (CommunicationException ex)
+        {
+            logger.warn("Unable to bind to the read replicas. Reads will be sent to the primary.", ex);
+        }
+    }
+
+    /**
+     * @return The time of the last bind of the primary connection, which holds the identity of this connection.
+     */
+    @Override
+    public long getLastBindTime()
+    {
+        return primary.getLastBindTime();
+    }
+
+    @Override
+    public boolean isBindFresh(String dn, long freshnessWindow)
+    {
+        return primary.isBindFresh(dn, freshnessWindow);
+    }
+
+    @Override
+    public String getBindedUserDn() throws LDAPException
+    {
+        return primary.getBindedUserDn();
+    }
+
+    @Override
+    public LDAPResultSet search(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.search(baseDn, filter, filterArgs, controls);
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).search(baseDn, filter, filterArgs, controls);
+        }
+    }
+
+    @Override
+    public LDAPResultSet search(String baseDn, String filter, LDAPSearchControls controls) throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.search(baseDn, filter, controls);
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).search(baseDn, filter, controls);
+        }
+    }
+
+    @Override
+    public LDAPEntry lookup(String dn) throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.lookup(dn);
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).lookup(dn);
+        }
+    }
+
+    @Override
+    public LDAPEntry lookup(String dn, String[] attributes) throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.lookup(dn, attributes);
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).lookup(dn, attributes);
+        }
+    }
+
+    @Override
+    public boolean exists(String dn) throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.exists(dn);
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).exists(dn);
+        }
+    }
+
+    @Override
+    public int count(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.count(baseDn, filter, filterArgs, controls);
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).count(baseDn, filter, filterArgs, controls);
+        }
+    }
+
+    @Override
+    public LDAPChangeStream persistentSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, int changeTypes, boolean changesOnly, int bufferSize, long reconnectInterval) throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.persistentSearch(baseDn, filter, filterArgs, controls, changeTypes, changesOnly, bufferSize, reconnectInterval);
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).persistentSearch(baseDn, filter, filterArgs, controls, changeTypes, changesOnly, bufferSize, reconnectInterval);
+        }
+    }
+
+    @Override
+    public LDAPChangeStream sync(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, boolean persist, byte[] cookie, int bufferSize, long reconnectInterval, long pollingInterval) throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.sync(baseDn, filter, filterArgs, controls, persist, cookie, bufferSize, reconnectInterval, pollingInterval);
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).sync(baseDn, filter, filterArgs, controls, persist, cookie, bufferSize, reconnectInterval, pollingInterval);
+        }
+    }
+
+    /**
+     * @return The primary connection if a read failed on the replicas or rethrows the exception if it failed on the
+     *         primary.
+     */
+    private LDAPConnection fallbackConnection(LDAPConnection failed, CommunicationException ex) throws CommunicationException
+    {
+        if (failed == primary)
+        {
+            throw ex;
+        }
+        logger.warn("Unable to read from the replicas. Falling back to the primary.", ex);
+        return primary;
+    }
+
+    @Override
+    public void renameEntry(String oldDn, String newDn) throws LDAPException
+    {
+        getWriteConnection().renameEntry(oldDn, newDn);
+    }
+
+    @Override
+    public void addEntry(LDAPEntry entry) throws LDAPException
+    {
+        getWriteConnection().addEntry(entry);
+    }
+
+    @Override
+    public void updateEntry(LDAPEntry entry) throws LDAPException
+    {
+        getWriteConnection().updateEntry(entry);
+    }
+
+    @Override
+    public void deleteEntry(LDAPEntry entry) throws LDAPException
+    {
+        getWriteConnection().deleteEntry(entry);
+    }
+
+    @Override
+    public void deleteEntry(String dn) throws LDAPException
+    {
+        getWriteConnection().deleteEntry(dn);
+    }
+
+    @Override
+    public void addAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+    {
+        getWriteConnection().addAttribute(dn, attribute);
+    }
+
+    @Override
+    public void updateAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+    {
+        getWriteConnection().updateAttribute(dn, attribute);
+    }
+
+    @Override
+    public void deleteAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+    {
+        getWriteConnection().deleteAttribute(dn, attribute);
+    }
+
+    @Override
+    public LDAPEntryAttributeTypeDefinition getAttributeTypeDefinition(String attributeName) throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.getAttributeTypeDefinition(attributeName);
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).getAttributeTypeDefinition(attributeName);
+        }
+    }
+
+    @Override
+    public LDAPEntryObjectClassDefinition getObjectClassDefinition(String objectClassName) throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.getObjectClassDefinition(objectClassName);
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).getObjectClassDefinition(objectClassName);
+        }
+    }
+
+    @Override
+    public List<String> getAllObjectClasses() throws LDAPException
+    {
+        LDAPConnection conn = getReadConnection();
+        try
+        {
+            return conn.getAllObjectClasses();
+        }
+        catch (CommunicationException ex)
+        {
+            return fallbackConnection(conn, ex).getAllObjectClasses();
+        }
+    }
+
+    /**
+     * Closes both the primary and the replicas connections.
+     */
+    @Override
+    public void close() throws LDAPException
+    {
+        try
+        {
+            replicas.close();
+        }
+        finally
+        {
+            primary.close();
+        }
+    }
+
+    /**
+     * @return <i>true</i> if the primary connection is closed, as writes cannot be performed without it.
+     */
+    @Override
+    public boolean isClosed() throws LDAPException
+    {
+        return primary.isClosed();
+    }
+
+    @Override
+    public boolean isValid()
+    {
+        return primary.isValid();
+    }
+
+    public LDAPConnection getPrimary()
+    {
+        return primary;
+    }
+
+    public LDAPConnection getReplicas()
+    {
+        return replicas;
+    }
+
+    public long getReadYourWritesWindow()
+    {
+        return readYourWritesWindow;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{primary: " + primary + ", replicas: " + replicas + "}";
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+
+/**
+ * Coalesces identical lookups and searches performed at the same time by the connections sharing it, so only one of
+ * them (the leader) contacts the server and the rest wait for its result.
+ * <p/>
+ * Requests are identical if they are performed by the same user with the same DN (or base DN, filter, scope and
+ * limits) and attributes. DNs are compared as names (ignoring case and spacing) and attributes ignoring case and
+ * order. The leader reads the whole result of a search before sharing it, so only searches limited to a maximum number
+ * of results, without paging nor virtual list view, are coalesced. Unbounded searches are streamed from the server to
+ * their caller instead.
+ * <p/>
+ * Every caller gets its own copy of the entries. If the request fails, every caller gets the same exception. A request
+ * is in flight only while the leader performs it, whatever the outcome, so results are never reused afterwards (see
+ * {@link LDAPSearchCache} and {@link LDAPEntryCache} for that).
+ * <p/>
+ * Requests that may return an entry that changed are retired (see {@link #invalidate(String)}), so callers arriving
+ * after the change perform the request again instead of joining one that may have read the entry before it.
+ *
+ * @author mariano
+ */
+public class LDAPRequestCoalescer
+{
+    private final ConcurrentMap<Object, InFlight<?>> inFlight = new ConcurrentHashMap<Object, InFlight<?>>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Request performed by the leader.
+     */
+    public interface Request<T>
+    {
+        T execute() throws LDAPException;
+    }
+
+    /**
+     * Result of a request shared by the leader and the callers waiting for it.
+     */
+    private static final class InFlight<T>
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int followers = 0;
+        private boolean closed = false;
+        private boolean succeeded = false;
+        private T result;
+        private Exception error;
+
+        /**
+         * @return <i>false</i> if the leader already finished, so the caller has to perform the request itself.
+         */
+        synchronized boolean join()
+        {
+            if (closed)
+            {
+                return false;
+            }
+            followers++;
+            return true;
+        }
+
+        /**
+         * @return The number of callers that joined, no one joins afterwards.
+         */
+        synchronized int close()
+        {
+            closed = true;
+            return followers;
+        }
+
+        T await() throws LDAPException
+        {
+            try
+            {
+                done.await();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new LDAPException("Interrupted while waiting for an identical request in flight", ex);
+            }
+
+            if (error instanceof LDAPException)
+            {
+                throw (LDAPException) error;
+            }
+            if (error instanceof RuntimeException)
+            {
+                throw (RuntimeException) error;
+            }
+            if (!succeeded)
+            {
+                throw new LDAPException("Identical request in flight failed", error);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Shared result and whether other callers got it too.
+     */
+    private static final class Outcome<T>
+    {
+        private final T result;
+        private final boolean shared;
+
+        Outcome(T result, boolean shared)
+        {
+            this.result = result;
+            this.shared = shared;
+        }
+    }
+
+    /**
+     * Looks up an entry, unless an identical lookup is in flight.
+     *
+     * @param bindDn The DN of the user performing the lookup, as the entry depends on its permissions.
+     * @param lookup The lookup performed if no identical lookup is in flight.
+     * @return The entry looked up. Callers sharing the lookup get copies of it.
+     */
+    public LDAPEntry lookup(String bindDn, String dn, String[] attributes, Request<LDAPEntry> lookup) throws LDAPException
+    {
+        LdapName bindName = toName(bindDn);
+        LdapName name = toName(dn);
+        if (bindName == null || name == null)
+        {
+            requests.incrementAndGet();
+            return lookup.execute();
+        }
+
+        Outcome<LDAPEntry> outcome = execute(Arrays.<Object> asList(bindName, name, normalize(attributes)), lookup);
+        return outcome.shared && outcome.result != null ? LDAPSearchCache.copy(outcome.result) : outcome.result;
+    }
+
+    /**
+     * Performs a search, unless an identical search is in flight.
+     *
+     * @param bindDn The DN of the user performing the search, as results depend on its permissions.
+     * @param search The search performed if no identical search is in flight. Its results are read before returning.
+     * @return The results of the search. Callers sharing the search get copies of the entries.
+     */
+    public LDAPResultSet search(String bindDn, String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, final Request<LDAPResultSet> search) throws LDAPException
+    {
+        LDAPSearchCache.SearchKey key = isCoalescable(controls) ? LDAPSearchCache.SearchKey.create(bindDn, baseDn, filter, filterArgs, controls) : null;
+        if (key == null)
+        {
+            requests.incrementAndGet();
+            return search.execute();
+        }
+
+        Outcome<List<LDAPEntry>> outcome = execute(key, new Request<List<LDAPEntry>>()
+        {
+            @Override
+            public List<LDAPEntry> execute() throws LDAPException
+            {
+                LDAPResultSet result = search.execute();
+                try
+                {
+                    return Collections.unmodifiableList(result.getAllEntries());
+                }
+                finally
+                {
+                    result.close();
+                }
+            }
+        });
+        return new LDAPSearchCache.CachedResultSet(outcome.result, outcome.shared);
+    }
+
+    /**
+     * Retires the requests in flight that may return the entry identified by <i>dn</i>: lookups of the entry or of its
+     * descendants and searches whose base DN is the DN itself, one of its ancestors or one of its descendants. Callers
+     * that already joined them still get their results, but no one else joins them.
+     *
+     * @param dn The DN of the entry added, modified, deleted or renamed.
+     */
+    public void invalidate(String dn)
+    {
+        LdapName name = toName(dn);
+        for (Iterator<Map.Entry<Object, InFlight<?>>> it = inFlight.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<Object, InFlight<?>> entry = it.next();
+            if (name == null || mayReturn(entry.getKey(), name))
+            {
+                entry.getValue().close();
+                inFlight.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static boolean mayReturn(Object key, LdapName name)
+    {
+        if (key instanceof LDAPSearchCache.SearchKey)
+        {
+            LdapName baseDn = ((LDAPSearchCache.SearchKey) key).getBaseDn();
+            return name.startsWith(baseDn) || baseDn.startsWith(name);
+        }
+        return ((LdapName) ((List<?>) key).get(1)).startsWith(name);
+    }
+
+    /**
+     * @return Whether searches with these controls can be coalesced, that is, whether their results are bounded by the
+     *         maximum results and read at once.
+     */
+    public boolean isCoalescable(LDAPSearchControls controls)
+    {
+        return controls.getMaxResults() > 0 && !controls.isPagingEnabled() && !controls.isVirtualListViewEnabled();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Outcome<T> execute(Object key, Request<T> request) throws LDAPException
+    {
+        requests.incrementAndGet();
+        InFlight<T> own = new InFlight<T>();
+        while (true)
+        {
+            InFlight<T> existing = (InFlight<T>) inFlight.putIfAbsent(key, own);
+            if (existing == null)
+            {
+                break;
+            }
+            if (existing.join())
+            {
+                coalesced.incrementAndGet();
+                return new Outcome<T>(existing.await(), true);
+            }
+            // The leader finished but did not remove the request yet
+            inFlight.remove(key, existing);
+        }
+
+        try
+        {
+            own.result = request.execute();
+            own.succeeded = true;
+            return new Outcome<T>(own.result, own.close() > 0);
+        }
+        catch (LDAPException ex)
+        {
+            own.error = ex;
+            throw ex;
+        }
+        catch (RuntimeException ex)
+        {
+            own.error = ex;
+            throw ex;
+        }
+        finally
+        {
+            own.close();
+            inFlight.remove(key, own);
+            own.done.countDown();
+        }
+    }
+
+    private static List<String> normalize(String[] attributes)
+    {
+        if (attributes == null)
+        {
+            return null;
+        }
+        List<String> names = new ArrayList<String>(attributes.length);
+        for (String attribute : attributes)
+        {
+            names.add(attribute.toLowerCase(Locale.ENGLISH));
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static LdapName toName(String dn)
+    {
+        try
+        {
+            return new LdapName(dn != null ? dn : "");
+        }
+        catch (InvalidNameException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return The number of requests in flight.
+     */
+    public int getInFlightCount()
+    {
+        return inFlight.size();
+    }
+
+    public long getRequestCount()
+    {
+        return requests.get();
+    }
+
+    /**
+     * @return The number of requests that shared the result of an identical request instead of contacting the server.
+     */
+    public long getCoalescedCount()
+    {
+        return coalesced.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{requests: " + getRequestCount() + ", coalesced: " + getCoalescedCount() + ", inFlight: " + getInFlightCount() + "}";
+    }
+}
@@ -0,0 +1,566 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Cache of search results. Repeated searches of the same user with the same base DN, filter, scope, attributes and
+ * limits are answered locally during a short period of time.
+ * <p/>
+ * Entries expire <i>ttl</i> milliseconds after the search was performed and the least recently used searches are
+ * evicted once <i>maxSize</i> is reached. Only searches without paging nor virtual list view are cached, and only if
+ * they return at most <i>maxResults</i> entries, as the results are kept in memory. The results of bigger searches
+ * are read from the server as they are consumed, once the entries read to find out are returned.
+ * <p/>
+ * The searches that may have returned an entry must be invalidated when the entry is added, modified, deleted or
+ * renamed (see {@link #invalidate(String)}). Invalidating also bumps the generation of the identical searches in
+ * flight, whose results are then not cached, as they may have been read before the change. Changes made by other LDAP
+ * clients are seen once the searches expire.
+ *
+ * @author mariano
+ */
+public class LDAPSearchCache
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    public static final long DEFAULT_MAX_RESULTS = 1000L;
+
+    private final Cache<SearchKey, List<LDAPEntry>> cache;
+    private final long ttl;
+    private final long maxResults;
+
+    /*
+     * Generations of the searches in flight, guarded by itself
+     */
+    private final Map<SearchKey, Generation> generations = new HashMap<SearchKey, Generation>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Generation of the searches in flight with the same key, bumped when an entry they may return changes.
+     */
+    private static final class Generation
+    {
+        private long value = 0;
+        private int searches = 0;
+    }
+
+    /**
+     * @param ttl Number of milliseconds search results are reused.
+     * @param maxSize Maximum number of searches in the cache.
+     */
+    public LDAPSearchCache(long ttl, long maxSize)
+    {
+        this(ttl, maxSize, DEFAULT_MAX_RESULTS);
+    }
+
+    /**
+     * @param ttl Number of milliseconds search results are reused.
+     * @param maxSize Maximum number of searches in the cache.
+     * @param maxResults Maximum number of entries of the searches cached.
+     */
+    public LDAPSearchCache(long ttl, long maxSize, long maxResults)
+    {
+        this.ttl = ttl;
+        this.maxResults = maxResults > 0 ? maxResults : DEFAULT_MAX_RESULTS;
+        this.cache = CacheBuilder.newBuilder()
+            .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+            .maximumSize(maxSize)
+            .build();
+    }
+
+    /**
+     * @return Whether the results of a search with these controls can be cached (if they are small enough).
+     */
+    public boolean isCacheable(LDAPSearchControls controls)
+    {
+        return !controls.isPagingEnabled() && !controls.isVirtualListViewEnabled();
+    }
+
+    /**
+     * @param bindDn The DN of the user performing the search, as results depend on its permissions.
+     * @return The cached results of the search or <i>null</i> if the search is not cached.
+     */
+    public LDAPResultSet get(String bindDn, String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls)
+    {
+        SearchKey key = SearchKey.create(bindDn, baseDn, filter, filterArgs, controls);
+        List<LDAPEntry> entries = key != null ? cache.getIfPresent(key) : null;
+        if (entries == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return new CachedResultSet(entries);
+    }
+
+    /**
+     * Performs a search that was not cached, caching its results if the search returns at most <i>maxResults</i>
+     * entries and no entry it may have returned changed meanwhile.
+     *
+     * @param search Performs the search.
+     * @return A result set over the results read or, if there are too many to cache, over the entries read followed
+     *         by the rest of the results of <i>search</i>.
+     */
+    public LDAPResultSet search(String bindDn, String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, LDAPRequestCoalescer.Request<LDAPResultSet> search) throws LDAPException
+    {
+        SearchKey key = SearchKey.create(bindDn, baseDn, filter, filterArgs, controls);
+        if (key == null)
+        {
+            return search.execute();
+        }
+
+        Generation generation;
+        long started;
+        synchronized (generations)
+        {
+            generation = generations.get(key);
+            if (generation == null)
+            {
+                generation = new Generation();
+                generations.put(key, generation);
+            }
+            generation.searches++;
+            started = generation.value;
+        }
+
+        try
+        {
+            LDAPResultSet result = search.execute();
+            List<LDAPEntry> entries = new ArrayList<LDAPEntry>();
+            try
+            {
+                while (result.hasNext())
+                {
+                    if (entries.size() >= maxResults)
+                    {
+                        if (logger.isDebugEnabled())
+                        {
+                            logger.debug("Search of " + filter + " under " + baseDn + " returns more than " + maxResults + " entries. Not caching it.");
+                        }
+                        return new ReadAheadResultSet(entries, result);
+                    }
+                    entries.add(result.next());
+                }
+            }
+            catch (LDAPException ex)
+            {
+                result.close();
+                throw ex;
+            }
+            catch (RuntimeException ex)
+            {
+                result.close();
+                throw ex;
+            }
+            result.close();
+
+            List<LDAPEntry> cached = new ArrayList<LDAPEntry>(entries.size());
+            for (LDAPEntry entry : entries)
+            {
+                cached.add(copy(entry));
+            }
+            synchronized (generations)
+            {
+                // Invalidations bump the generation before removing the cached searches, so results put before
+                // are removed and results read before the change are not put
+                if (generation.value == started)
+                {
+                    cache.put(key, Collections.unmodifiableList(cached));
+                }
+            }
+            return new CachedResultSet(entries, false);
+        }
+        finally
+        {
+            synchronized (generations)
+            {
+                if (--generation.searches == 0)
+                {
+                    generations.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the searches that may have returned the entry identified by <i>dn</i>, that is, every search whose base
+     * DN is the DN itself, one of its ancestors or one of its descendants (as renaming an entry moves its children).
+     *
+     * @param dn The DN of the entry added, modified, deleted or renamed.
+     */
+    public void invalidate(String dn)
+    {
+        LdapName name = toName(dn);
+        if (name == null)
+        {
+            invalidateAll();
+            return;
+        }
+
+        synchronized (generations)
+        {
+            for (Map.Entry<SearchKey, Generation> entry : generations.entrySet())
+            {
+                LdapName baseDn = entry.getKey().baseDn;
+                if (name.startsWith(baseDn) || baseDn.startsWith(name))
+                {
+                    entry.getValue().value++;
+                }
+            }
+        }
+
+        for (Iterator<SearchKey> it = cache.asMap().keySet().iterator(); it.hasNext();)
+        {
+            LdapName baseDn = it.next().baseDn;
+            if (name.startsWith(baseDn) || baseDn.startsWith(name))
+            {
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidateAll()
+    {
+        synchronized (generations)
+        {
+            for (Generation generation : generations.values())
+            {
+                generation.value++;
+            }
+        }
+        cache.invalidateAll();
+    }
+
+    private static LdapName toName(String dn)
+    {
+        try
+        {
+            return new LdapName(dn != null ? dn : "");
+        }
+        catch (InvalidNameException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Entries are copied before being cached, so changes to the entries returned do not modify the cached ones.
+     */
+    static LDAPEntry copy(LDAPEntry entry)
+    {
+        LDAPEntry copy = new LDAPEntry(entry.getDn());
+        for (Iterator<LDAPEntryAttribute> it = entry.attributes(); it.hasNext();)
+        {
+            LDAPEntryAttribute attribute = it.next();
+            LDAPEntryAttribute attributeCopy;
+            if (attribute.isMultiValued())
+            {
+                attributeCopy = new LDAPMultiValueEntryAttribute(attribute.getName(), attribute.getValues());
+            }
+            else
+            {
+                attributeCopy = new LDAPSingleValueEntryAttribute(attribute.getName(), attribute.getValue());
+            }
+            attributeCopy.setTypeDefinition(attribute.getTypeDefinition());
+            copy.addAttribute(attributeCopy);
+        }
+        return copy;
+    }
+
+    public long getTtl()
+    {
+        return ttl;
+    }
+
+    /**
+     * @return Maximum number of entries of the searches cached.
+     */
+    public long getMaxResults()
+    {
+        return maxResults;
+    }
+
+    public long getSize()
+    {
+        return cache.size();
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of searches removed because an entry they may have returned changed.
+     */
+    public long getInvalidationCount()
+    {
+        return invalidations.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{ttl: " + ttl + ", size: " + getSize() + ", hits: " + getHitCount() + ", misses: " + getMissCount() + ", invalidations: " + getInvalidationCount() + "}";
+    }
+
+    /**
+     * Identifies a search. DNs are compared as names (ignoring case and spacing) and the returned attributes are
+     * compared ignoring case and order.
+     */
+    static final class SearchKey
+    {
+        private final LdapName bindDn;
+        private final LdapName baseDn;
+        private final List<Object> filter;
+        private final int scope;
+        private final List<String> attributes;
+        private final long maxResults;
+        private final boolean returnObject;
+        private final String sortKeys;
+
+        private SearchKey(LdapName bindDn, LdapName baseDn, List<Object> filter, LDAPSearchControls controls)
+        {
+            this.bindDn = bindDn;
+            this.baseDn = baseDn;
+            this.filter = filter;
+            this.scope = controls.getScope();
+            this.maxResults = controls.getMaxResults();
+            this.returnObject = controls.isReturnObject();
+
+            if (controls.getAttributesToReturn() != null)
+            {
+                List<String> names = new ArrayList<String>(controls.getAttributesToReturn().length);
+                for (String attribute : controls.getAttributesToReturn())
+                {
+                    names.add(attribute.toLowerCase(Locale.ENGLISH));
+                }
+                Collections.sort(names);
+                this.attributes = names;
+            }
+            else
+            {
+                this.attributes = null;
+            }
+
+            StringBuilder sort = new StringBuilder();
+            for (LDAPSortKey key : controls.getSortKeys())
+            {
+                sort.append(key.getAttributeName()).append(key.isAscending() ? '+' : '-').append(key.getMatchingRuleID()).append(';');
+            }
+            this.sortKeys = sort.toString().toLowerCase(Locale.ENGLISH);
+        }
+
+        /**
+         * @return The key of the search or <i>null</i> if any of the DNs is not valid.
+         */
+        static SearchKey create(String bindDn, String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls)
+        {
+            LdapName bindName = toName(bindDn);
+            LdapName baseName = toName(baseDn);
+            if (bindName == null || baseName == null)
+            {
+                return null;
+            }
+
+            List<Object> filterKey = new ArrayList<Object>();
+            filterKey.add(filter != null ? filter.trim() : null);
+            if (filterArgs != null)
+            {
+                for (Object arg : filterArgs)
+                {
+                    // Binary arguments are compared by value
+                    filterKey.add(arg instanceof byte[] ? Arrays.toString((byte[]) arg) : arg);
+                }
+            }
+            return new SearchKey(bindName, baseName, filterKey, controls);
+        }
+
+        LdapName getBaseDn()
+        {
+            return baseDn;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode(new Object[] {bindDn, baseDn, filter, scope, attributes, maxResults, returnObject, sortKeys});
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof SearchKey))
+            {
+                return false;
+            }
+            SearchKey other = (SearchKey) obj;
+            return scope == other.scope && maxResults == other.maxResults && returnObject == other.returnObject
+                   && bindDn.equals(other.bindDn) && baseDn.equals(other.baseDn) && filter.equals(other.filter)
+                   && (attributes == null ? other.attributes == null : attributes.equals(other.attributes))
+                   && sortKeys.equals(other.sortKeys);
+        }
+    }
+
+    /**
+     * Result set over the entries of a cached search. Each one gets its own copies of the entries.
+     */
+    static final class CachedResultSet implements LDAPResultSet
+    {
+        private final List<LDAPEntry> entries;
+        private final boolean copyEntries;
+        private int position = 0;
+
+        CachedResultSet(List<LDAPEntry> entries)
+        {
+            this(entries, true);
+        }
+
+        /**
+         * @param copyEntries Whether the entries are shared, so they have to be copied.
+         */
+        CachedResultSet(List<LDAPEntry> entries, boolean copyEntries)
+        {
+            this.entries = entries;
+            this.copyEntries = copyEntries;
+        }
+
+        @Override
+        public boolean hasNext() throws LDAPException
+        {
+            return position < entries.size();
+        }
+
+        @Override
+        public LDAPEntry next() throws LDAPException
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException("End of result set");
+            }
+            LDAPEntry entry = entries.get(position++);
+            return copyEntries ? copy(entry) : entry;
+        }
+
+        @Override
+        public List<LDAPEntry> getAllEntries() throws LDAPException
+        {
+            List<LDAPEntry> allEntries = new ArrayList<LDAPEntry>(entries.size() - position);
+            while (hasNext())
+            {
+                allEntries.add(next());
+            }
+            return allEntries;
+        }
+
+        @Override
+        public int getResultSize() throws LDAPException
+        {
+            return entries.size();
+        }
+
+        @Override
+        public void close() throws LDAPException
+        {
+            position = entries.size();
+        }
+    }
+
+    /**
+     * Result set over the entries read to find out whether a search could be cached, followed by the rest of the
+     * results of the search.
+     */
+    private static final class ReadAheadResultSet implements LDAPResultSet
+    {
+        private final List<LDAPEntry> entries;
+        private final LDAPResultSet rest;
+        private int position = 0;
+
+        ReadAheadResultSet(List<LDAPEntry> entries, LDAPResultSet rest)
+        {
+            this.entries = entries;
+            this.rest = rest;
+        }
+
+        @Override
+        public boolean hasNext() throws LDAPException
+        {
+            return position < entries.size() || rest.hasNext();
+        }
+
+        @Override
+        public LDAPEntry next() throws LDAPException
+        {
+            if (position < entries.size())
+            {
+                // Released as they are returned, as the rest of the results may be big
+                return entries.set(position++, null);
+            }
+            return rest.next();
+        }
+
+        @Override
+        public List<LDAPEntry> getAllEntries() throws LDAPException
+        {
+            List<LDAPEntry> allEntries = new ArrayList<LDAPEntry>();
+            while (hasNext())
+            {
+                allEntries.add(next());
+            }
+            return allEntries;
+        }
+
+        @Override
+        public int getResultSize() throws LDAPException
+        {
+            return rest.getResultSize();
+        }
+
+        @Override
+        public void close() throws LDAPException
+        {
+            position = entries.size();
+            rest.close();
+        }
+    }
+}
@@ -28,6 +28,8 @@ public class LDAPSearchControls implements Serializable
     public final static int ONELEVEL_SCOPE = 1;
     public final static int SUBTREE_SCOPE = 2;
 
+    public final static long DEFAULT_CONSUMER_TIMEOUT = 300000L;
+
     private int scope = ONELEVEL_SCOPE;
 
     /**
@@ -55,6 +57,36 @@ public class LDAPSearchControls implements Serializable
      */
     private int pageSize = 0;
 
+    /**
+     * Amount of pages to read ahead in the background while the current one is consumed (0 disables prefetching)
+     */
+    private int prefetchPages = 0;
+
+    /**
+     * Milliseconds each page should take to be read when the page size is adapted (0 for no target)
+     */
+    private int pageTargetLatency = 0;
+
+    /**
+     * Bytes each page should hold when the page size is adapted (0 for no budget)
+     */
+    private long pageByteBudget = 0;
+
+    /**
+     * Whether reaching the size limit fails the search instead of ending the results
+     */
+    private boolean failOnSizeLimitExceeded = false;
+
+    /**
+     * Milliseconds entries read in the background wait for the consumer before the search is abandoned (0 is no limit)
+     */
+    private long consumerTimeout = DEFAULT_CONSUMER_TIMEOUT;
+
+    /**
+     * Window of the sorted results to return (null to return every result)
+     */
+    private LDAPVirtualListView virtualListView = null;
+
     /**
      * Sort keys (Determines the attributes to sort by (ascending or not)
      */
@@ -68,6 +100,27 @@ public class LDAPSearchControls implements Serializable
         super();
     }
 
+    /**
+     * Creates a copy of the given search controls.
+     */
+    public LDAPSearchControls(LDAPSearchControls controls)
+    {
+        this();
+        this.scope = controls.scope;
+        this.timeout = controls.timeout;
+        this.maxResults = controls.maxResults;
+        this.attributesToReturn = controls.attributesToReturn;
+        this.returnObject = controls.returnObject;
+        this.pageSize = controls.pageSize;
+        this.prefetchPages = controls.prefetchPages;
+        this.pageTargetLatency = controls.pageTargetLatency;
+        this.pageByteBudget = controls.pageByteBudget;
+        this.failOnSizeLimitExceeded = controls.failOnSizeLimitExceeded;
+        this.consumerTimeout = controls.consumerTimeout;
+        this.virtualListView = controls.virtualListView;
+        this.sortKeys.addAll(controls.sortKeys);
+    }
+
     /**
      * @return Returns the attributesToReturn.
      */
@@ -175,6 +228,135 @@ public class LDAPSearchControls implements Serializable
         return getPageSize() > 0;
     }
 
+    /**
+     * @return Amount of pages read ahead in the background while the current one is consumed.
+     */
+    public int getPrefetchPages()
+    {
+        return prefetchPages;
+    }
+
+    /**
+     * @param prefetchPages Amount of pages to read ahead in the background while the current one is consumed. 0 (or
+     *        less) disables prefetching. Only used if paging is enabled.
+     */
+    public void setPrefetchPages(int prefetchPages)
+    {
+        this.prefetchPages = prefetchPages;
+    }
+
+    /**
+     * @return Whether pages are read ahead in the background.
+     */
+    public boolean isPrefetchEnabled()
+    {
+        return isPagingEnabled() && getPrefetchPages() > 0;
+    }
+
+    /**
+     * @return Milliseconds each page should take to be read when the page size is adapted.
+     */
+    public int getPageTargetLatency()
+    {
+        return pageTargetLatency;
+    }
+
+    /**
+     * @param pageTargetLatency Milliseconds each page should take to be read. If greater than 0, the size of each page
+     *        is adapted to the time per entry spent waiting for the previous pages, starting with <i>pageSize</i>.
+     */
+    public void setPageTargetLatency(int pageTargetLatency)
+    {
+        this.pageTargetLatency = pageTargetLatency;
+    }
+
+    /**
+     * @return Bytes each page should hold when the page size is adapted.
+     */
+    public long getPageByteBudget()
+    {
+        return pageByteBudget;
+    }
+
+    /**
+     * @param pageByteBudget Bytes each page should hold. If greater than 0, the size of each page is adapted to the
+     *        size of the entries of the previous pages, starting with <i>pageSize</i>.
+     */
+    public void setPageByteBudget(long pageByteBudget)
+    {
+        this.pageByteBudget = pageByteBudget;
+    }
+
+    /**
+     * @return Whether the size of each page is adapted to the entries read in the previous pages.
+     */
+    public boolean isAdaptivePageSizeEnabled()
+    {
+        return isPagingEnabled() && (getPageTargetLatency() > 0 || getPageByteBudget() > 0);
+    }
+
+    /**
+     * @return Whether reaching the size limit fails the search.
+     */
+    public boolean isFailOnSizeLimitExceeded()
+    {
+        return failOnSizeLimitExceeded;
+    }
+
+    /**
+     * @param failOnSizeLimitExceeded If <i>true</i>, reading the results of a search that reaches the size limit throws a
+     *        {@link SizeLimitExceededException}. Otherwise (the default) a warning is logged and the results end.
+     */
+    public void setFailOnSizeLimitExceeded(boolean failOnSizeLimitExceeded)
+    {
+        this.failOnSizeLimitExceeded = failOnSizeLimitExceeded;
+    }
+
+    /**
+     * @return Milliseconds entries read in the background wait for the consumer before the search is abandoned.
+     */
+    public long getConsumerTimeout()
+    {
+        return consumerTimeout;
+    }
+
+    /**
+     * @param consumerTimeout Milliseconds the entries read in the background (prefetched pages or the results of
+     *        parallel searches) wait for the consumer to take them, and streaming searches wait for the consumer to
+     *        read the next entry. Once it expires the search is cancelled and its connections are given back, so
+     *        results that are never consumed (or closed) do not hold them forever. 0 (or less) waits forever.
+     *        Defaults to {@link #DEFAULT_CONSUMER_TIMEOUT}.
+     */
+    public void setConsumerTimeout(long consumerTimeout)
+    {
+        this.consumerTimeout = consumerTimeout;
+    }
+
+    /**
+     * @return Window of the sorted results to return.
+     */
+    public LDAPVirtualListView getVirtualListView()
+    {
+        return virtualListView;
+    }
+
+    /**
+     * @param virtualListView Window of the sorted results to return. Requires sort keys and replaces paging, as the
+     *        server returns only the entries of the window.
+     */
+    public void setVirtualListView(LDAPVirtualListView virtualListView)
+    {
+        this.virtualListView = virtualListView;
+    }
+
+    /**
+     * @return Whether only a window of the sorted results is returned.
+     */
+    public boolean isVirtualListViewEnabled()
+    {
+        return getVirtualListView() != null;
+    }
+
     /**
      * 
      * @return
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One of the LDAP servers used by a {@link LDAPLoadBalancedConnection}. It holds the pool the connections to the
+ * server are borrowed from and the health and latency metrics used to choose the server of each operation:
+ * <ul>
+ * <li><b>Outstanding requests</b>: Number of operations currently being executed on the server.</li>
+ * <li><b>EWMA latency</b>: Exponentially weighted moving average of the latency of the operations.</li>
+ * <li><b>Health</b>: A server is marked as down when a {@link CommunicationException} is thrown and it is not
+ * used again until its retry interval elapses.</li>
+ * </ul>
+ *
+ * @author mariano
+ */
+public class LDAPServer
+{
+    /**
+     * Weight of the latest sample in the EWMA latency.
+     */
+    public static final double EWMA_DECAY = 0.3;
+
+    private final String url;
+    private final LDAPConnectionPool pool;
+    private final LDAPLatencyStatistics statistics;
+
+    private final AtomicInteger outstandingRequests = new AtomicInteger();
+    private final AtomicLong consecutiveFailures = new AtomicLong();
+    private volatile double ewmaNanos = 0.0;
+    private volatile long retryAt = 0L;
+
+    public LDAPServer(String url, LDAPConnectionPool pool)
+    {
+        this.url = url;
+        this.pool = pool;
+        this.statistics = new LDAPLatencyStatistics(url);
+    }
+
+    /**
+     * @return <i>true</i> if the server is healthy or if it was marked as down and its retry interval elapsed.
+     */
+    public boolean isAvailable()
+    {
+        return retryAt <= System.currentTimeMillis();
+    }
+
+    public boolean isHealthy()
+    {
+        return retryAt == 0L;
+    }
+
+    /**
+     * Marks the server as down after a communication failure.
+     *
+     * @param retryInterval Number of milliseconds the server is not used.
+     */
+    public void markDown(long retryInterval)
+    {
+        consecutiveFailures.incrementAndGet();
+        retryAt = System.currentTimeMillis() + Math.max(retryInterval, 1L);
+    }
+
+    public void markUp()
+    {
+        consecutiveFailures.set(0);
+        retryAt = 0L;
+    }
+
+    /**
+     * Registers the start of an operation. Must be followed by {@link #operationFinished(long, boolean)}.
+     */
+    public void operationStarted()
+    {
+        outstandingRequests.incrementAndGet();
+    }
+
+    /**
+     * Registers the end of an operation.
+     *
+     * @param nanos Elapsed time in nanoseconds.
+     * @param successful Whether the operation reached the server and got an answer (even if it was an error).
+     */
+    public void operationFinished(long nanos, boolean successful)
+    {
+        outstandingRequests.decrementAndGet();
+        statistics.record(nanos, successful);
+        if (successful)
+        {
+            updateEwma(nanos);
+        }
+    }
+
+    private synchronized void updateEwma(long nanos)
+    {
+        ewmaNanos = ewmaNanos == 0.0 ? nanos : ewmaNanos + EWMA_DECAY * (nanos - ewmaNanos);
+    }
+
+    public String getUrl()
+    {
+        return url;
+    }
+
+    public LDAPConnectionPool getPool()
+    {
+        return pool;
+    }
+
+    public int getOutstandingRequests()
+    {
+        return outstandingRequests.get();
+    }
+
+    /**
+     * @return The EWMA latency in milliseconds.
+     */
+    public double getEwmaLatencyMillis()
+    {
+        return ewmaNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return Number of communication failures since the server was last marked as up.
+     */
+    public long getConsecutiveFailures()
+    {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * @return Latency of all the operations executed on the server.
+     */
+    public LDAPLatencyStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    @Override
+    public String toString()
+    {
+        return url + "{healthy: " + isHealthy() + ", outstanding: " + getOutstandingRequests() + ", ewma: " + String.format("%.3f", getEwmaLatencyMillis()) + " ms, failures: " + getConsecutiveFailures() + ", " + statistics + "}";
+    }
+}
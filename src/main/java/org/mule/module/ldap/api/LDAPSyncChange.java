@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * A change notified by a content synchronization (RFC 4533) search, with the entryUUID of the entry and, if the server
+ * sent one, the cookie that resumes the synchronization right after this change.
+ * <p/>
+ * Synchronization does not tell renames from other modifications, so the change type is {@link #ADD},
+ * {@link #MODIFY}, {@link #DELETE} or 0 for entries that are present but did not change. Checkpoints are changes
+ * without entry, that only carry the cookie sent by the server when a refresh ends.
+ *
+ * @author mariano
+ * @since 2.0.0
+ */
+public class LDAPSyncChange extends LDAPEntryChange
+{
+    private final String entryUuid;
+    private final byte[] cookie;
+
+    /**
+     * @param entry The entry or <i>null</i> for a checkpoint.
+     * @param changeType {@link #ADD}, {@link #MODIFY}, {@link #DELETE} or 0 if the entry is present but did not
+     *        change.
+     * @param entryUuid The entryUUID of the entry.
+     * @param cookie The cookie that resumes the synchronization after this change or <i>null</i>.
+     */
+    public LDAPSyncChange(LDAPEntry entry, int changeType, String entryUuid, byte[] cookie)
+    {
+        super(entry, changeType, null, -1);
+        this.entryUuid = entryUuid;
+        this.cookie = cookie;
+    }
+
+    /**
+     * @return A checkpoint of the synchronization with the given cookie.
+     */
+    public static LDAPSyncChange checkpoint(byte[] cookie)
+    {
+        return new LDAPSyncChange(null, 0, null, cookie);
+    }
+
+    /**
+     * @return Whether this only carries the cookie of the synchronization.
+     */
+    public boolean isCheckpoint()
+    {
+        return getEntry() == null;
+    }
+
+    public String getEntryUuid()
+    {
+        return entryUuid;
+    }
+
+    public byte[] getCookie()
+    {
+        return cookie;
+    }
+
+    @Override
+    public String toString()
+    {
+        return isCheckpoint() ? "{checkpoint}" : "{changeType: " + getChangeType() + ", dn: " + getEntry().getDn() + ", entryUUID: " + entryUuid + (cookie != null ? ", cookie" : "") + "}";
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * Keeps the cookies of content synchronizations (RFC 4533), so a synchronization resumes from the last change
+ * processed instead of reading the whole content again.
+ *
+ * @author mariano
+ * @since 2.0.0
+ */
+public interface LDAPSyncCookieStore
+{
+    /**
+     * @param syncId Identifier of the synchronization.
+     * @return The last cookie stored for the synchronization or <i>null</i> if there is none.
+     */
+    byte[] retrieve(String syncId) throws LDAPException;
+
+    /**
+     * Replaces the cookie of the synchronization.
+     *
+     * @param syncId Identifier of the synchronization.
+     * @param cookie The cookie or <i>null</i> to remove it.
+     */
+    void store(String syncId, byte[] cookie) throws LDAPException;
+}
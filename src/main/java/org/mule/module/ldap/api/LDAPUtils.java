@@ -34,7 +34,92 @@ public class LDAPUtils
             return null;
         }
             
-    }    
-}
+    }
+
+    /**
+     * Replaces the <code>{n}</code> placeholders of the filter with the escaped string representation of the
+     * arguments. <code>byte[]</code> arguments are escaped byte by byte.
+     */
+    public static String formatFilter(String filter, Object[] filterArgs) throws LDAPException
+    {
+        if (filterArgs == null || filterArgs.length == 0)
+        {
+            return filter;
+        }
 
+        StringBuilder formatted = new StringBuilder(filter.length() + 16 * filterArgs.length);
+        int i = 0;
+        while (i < filter.length())
+        {
+            char c = filter.charAt(i);
+            int end;
+            if (c == '{' && (end = filter.indexOf('}', i)) > i)
+            {
+                int index;
+                try
+                {
+                    index = Integer.parseInt(filter.substring(i + 1, end).trim());
+                }
+                catch (NumberFormatException ex)
+                {
+                    throw new InvalidAttributeException("Invalid filter argument placeholder in " + filter);
+                }
+                if (index < 0 || index >= filterArgs.length)
+                {
+                    throw new InvalidAttributeException("Missing filter argument " + index + " for filter " + filter);
+                }
+                formatted.append(escapeFilterValue(filterArgs[index]));
+                i = end + 1;
+            }
+            else
+            {
+                formatted.append(c);
+                i++;
+            }
+        }
+        return formatted.toString();
+    }
 
+    /**
+     * Escapes a filter assertion value as defined in RFC 4515, section 3.
+     */
+    public static String escapeFilterValue(Object value)
+    {
+        StringBuilder escaped = new StringBuilder();
+        if (value instanceof byte[])
+        {
+            for (byte b : (byte[]) value)
+            {
+                appendHex(escaped, b);
+            }
+        }
+        else if (value != null)
+        {
+            String str = value.toString();
+            for (int i = 0; i < str.length(); i++)
+            {
+                char c = str.charAt(i);
+                switch (c)
+                {
+                    case '*' :
+                    case '(' :
+                    case ')' :
+                    case '\\' :
+                    case '\0' :
+                        appendHex(escaped, (byte) c);
+                        break;
+                    default :
+                        escaped.append(c);
+                }
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static void appendHex(StringBuilder builder, byte b)
+    {
+        builder.append('\\');
+        builder.append(Character.forDigit((b >> 4) & 0x0F, 16));
+        builder.append(Character.forDigit(b & 0x0F, 16));
+    }
+}
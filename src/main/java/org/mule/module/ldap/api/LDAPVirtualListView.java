@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * Window of sorted search results requested with the Virtual List View control (draft-ietf-ldapext-ldapv3-vlv). The
+ * window is made of the target entry plus <i>beforeCount</i> entries before it and <i>afterCount</i> entries after
+ * it. The target entry is either the one at a given offset (starting at 1) or the first one whose sort key is greater
+ * than or equal to an assertion value.
+ * <p/>
+ * The server only returns windows of sorted results, so the search controls must have sort keys as well.
+ *
+ * @author mariano
+ */
+public class LDAPVirtualListView
+{
+    /**
+     * Entries returned before the target entry.
+     */
+    private int beforeCount;
+    /**
+     * Entries returned after the target entry.
+     */
+    private int afterCount;
+    /**
+     * Position of the target entry, starting at 1. Only used if there is no assertion value.
+     */
+    private int offset;
+    /**
+     * Estimate of the amount of entries the offset is relative to (0 if the estimate of the server should be used).
+     */
+    private int contentCount;
+    /**
+     * Value of the first sort key to look for. If not null, the target entry is the first one greater than or equal to it.
+     */
+    private String assertionValue;
+    /**
+     * Context identifier returned by the server in the previous response, if any.
+     */
+    private byte[] contextId;
+
+    /**
+     *
+     */
+    public LDAPVirtualListView()
+    {
+        this(0, 0, 1, 0);
+    }
+
+    /**
+     * Window targeting the entry at <i>offset</i>.
+     */
+    public LDAPVirtualListView(int beforeCount, int afterCount, int offset, int contentCount)
+    {
+        super();
+        setBeforeCount(beforeCount);
+        setAfterCount(afterCount);
+        setOffset(offset);
+        setContentCount(contentCount);
+    }
+
+    /**
+     * Window targeting the first entry whose sort key is greater than or equal to <i>assertionValue</i>.
+     */
+    public LDAPVirtualListView(int beforeCount, int afterCount, String assertionValue)
+    {
+        this(beforeCount, afterCount, 1, 0);
+        setAssertionValue(assertionValue);
+    }
+
+    public int getBeforeCount()
+    {
+        return beforeCount;
+    }
+
+    public void setBeforeCount(int beforeCount)
+    {
+        this.beforeCount = beforeCount;
+    }
+
+    public int getAfterCount()
+    {
+        return afterCount;
+    }
+
+    public void setAfterCount(int afterCount)
+    {
+        this.afterCount = afterCount;
+    }
+
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    public void setOffset(int offset)
+    {
+        this.offset = offset;
+    }
+
+    public int getContentCount()
+    {
+        return contentCount;
+    }
+
+    public void setContentCount(int contentCount)
+    {
+        this.contentCount = contentCount;
+    }
+
+    public String getAssertionValue()
+    {
+        return assertionValue;
+    }
+
+    public void setAssertionValue(String assertionValue)
+    {
+        this.assertionValue = assertionValue;
+    }
+
+    /**
+     * @return Whether the target entry is looked for by value instead of by offset.
+     */
+    public boolean isByValue()
+    {
+        return assertionValue != null;
+    }
+
+    public byte[] getContextId()
+    {
+        return contextId;
+    }
+
+    public void setContextId(byte[] contextId)
+    {
+        this.contextId = contextId;
+    }
+}
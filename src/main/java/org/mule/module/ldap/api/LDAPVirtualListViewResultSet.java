@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * Result set of a search with a {@link LDAPVirtualListView}. The position of the window is known once every entry of
+ * the window was read.
+ *
+ * @author mariano
+ */
+public interface LDAPVirtualListViewResultSet extends LDAPResultSet
+{
+    /**
+     * @return Position of the target entry in the sorted results (starting at 1) or -1 if not known yet.
+     */
+    int getTargetPosition() throws LDAPException;
+
+    /**
+     * @return Estimate of the total amount of entries in the sorted results or -1 if not known yet. Also returned by
+     *         {@link #getResultSize()}.
+     */
+    int getContentCount() throws LDAPException;
+
+    /**
+     * @return Context identifier to send in the next request for a window of the same results, if the server returned
+     *         one.
+     */
+    byte[] getContextId() throws LDAPException;
+}
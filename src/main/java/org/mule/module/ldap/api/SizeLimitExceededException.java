@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+/**
+ * The search returned more entries than the size limit of the server (or the maximum results requested). Only thrown
+ * by searches with {@link LDAPSearchControls#setFailOnSizeLimitExceeded(boolean)} enabled. Otherwise, the search
+ * results end at the size limit.
+ *
+ * @author mariano
+ */
+public class SizeLimitExceededException extends LDAPException
+{
+
+    private static final long serialVersionUID = -4437214961723410518L;
+
+    /**
+     * 
+     */
+    public SizeLimitExceededException()
+    {
+    }
+
+    /**
+     * @param message
+     * @param cause
+     */
+    public SizeLimitExceededException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+
+    /**
+     * @param message
+     */
+    public SizeLimitExceededException(String message)
+    {
+        super(message);
+    }
+
+    /**
+     * @param cause
+     */
+    public SizeLimitExceededException(Throwable cause)
+    {
+        super(cause);
+    }
+
+}
+
+
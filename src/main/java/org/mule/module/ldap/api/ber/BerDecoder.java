@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.ber;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decoder of the subset of the ASN.1 Basic Encoding Rules used by LDAPv3 (RFC 4511, section 5.1). Each instance
+ * reads the elements found in a region of a byte array. Reading a constructed element returns a new decoder over
+ * its contents.
+ * <p/>
+ * Malformed input is reported as an {@link IOException}, as it means the stream the bytes were read from cannot be
+ * trusted anymore.
+ *
+ * @author mariano
+ */
+public class BerDecoder
+{
+    private final byte[] buf;
+    private final int limit;
+    private int pos;
+
+    public BerDecoder(byte[] buf)
+    {
+        this(buf, 0, buf.length);
+    }
+
+    public BerDecoder(byte[] buf, int offset, int length)
+    {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Computes the size of the element found at the current position of <i>buffer</i> without consuming it.
+     *
+     * @return The size (header included) of the element or -1 if the buffer does not hold the whole header yet.
+     * @throws IOException If the header is malformed.
+     */
+    public static int getElementLength(ByteBuffer buffer) throws IOException
+    {
+        int start = buffer.position();
+        if (buffer.remaining() < 2)
+        {
+            return -1;
+        }
+
+        int first = buffer.get(start + 1) & 0xFF;
+        if (first < 0x80)
+        {
+            return 2 + first;
+        }
+
+        int lengthBytes = first & 0x7F;
+        if (lengthBytes == 0 || lengthBytes > 4)
+        {
+            throw new IOException("Unsupported BER length with " + lengthBytes + " bytes.");
+        }
+        if (buffer.remaining() < 2 + lengthBytes)
+        {
+            return -1;
+        }
+
+        long length = 0;
+        for (int i = 0; i < lengthBytes; i++)
+        {
+            length = (length << 8) | (buffer.get(start + 2 + i) & 0xFF);
+        }
+        if (length > Integer.MAX_VALUE - 6)
+        {
+            throw new IOException("BER element too long: " + length);
+        }
+        return (int) (2 + lengthBytes + length);
+    }
+
+    public boolean hasMore()
+    {
+        return pos < limit;
+    }
+
+    /**
+     * @return The tag of the next element without consuming it.
+     */
+    public int peekTag() throws IOException
+    {
+        if (pos >= limit)
+        {
+            throw new IOException("Unexpected end of BER element.");
+        }
+        return buf[pos] & 0xFF;
+    }
+
+    /**
+     * Reads the header of the next element.
+     *
+     * @return The length of the contents of the element.
+     */
+    private int readHeader(int expectedTag) throws IOException
+    {
+        int tag = peekTag();
+        if (tag != expectedTag)
+        {
+            throw new IOException("Unexpected BER tag 0x" + Integer.toHexString(tag) + ". Expected 0x" + Integer.toHexString(expectedTag) + ".");
+        }
+        pos++;
+        return readLength();
+    }
+
+    private int readLength() throws IOException
+    {
+        if (pos >= limit)
+        {
+            throw new IOException("Unexpected end of BER element.");
+        }
+
+        int first = buf[pos++] & 0xFF;
+        int length;
+        if (first < 0x80)
+        {
+            length = first;
+        }
+        else
+        {
+            int lengthBytes = first & 0x7F;
+            if (lengthBytes == 0 || lengthBytes > 4 || pos + lengthBytes > limit)
+            {
+                throw new IOException("Malformed BER length.");
+            }
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++)
+            {
+                length = (length << 8) | (buf[pos++] & 0xFF);
+            }
+        }
+
+        if (length < 0 || pos + length > limit)
+        {
+            throw new IOException("BER element length " + length + " exceeds the available " + (limit - pos) + " bytes.");
+        }
+        return length;
+    }
+
+    /**
+     * Reads a constructed element.
+     *
+     * @return A decoder over the contents of the element.
+     */
+    public BerDecoder readSequence(int expectedTag) throws IOException
+    {
+        int length = readHeader(expectedTag);
+        BerDecoder contents = new BerDecoder(buf, pos, length);
+        pos += length;
+        return contents;
+    }
+
+    public BerDecoder readSequence() throws IOException
+    {
+        return readSequence(BerTags.SEQUENCE);
+    }
+
+    public long readInteger() throws IOException
+    {
+        return readInteger(BerTags.INTEGER);
+    }
+
+    public long readInteger(int expectedTag) throws IOException
+    {
+        int length = readHeader(expectedTag);
+        if (length == 0 || length > 8)
+        {
+            throw new IOException("Unsupported BER integer length " + length + ".");
+        }
+
+        // Sign extension of the first byte
+        long value = buf[pos++];
+        for (int i = 1; i < length; i++)
+        {
+            value = (value << 8) | (buf[pos++] & 0xFF);
+        }
+        return value;
+    }
+
+    public int readEnumerated() throws IOException
+    {
+        return (int) readInteger(BerTags.ENUMERATED);
+    }
+
+    public boolean readBoolean() throws IOException
+    {
+        return readBoolean(BerTags.BOOLEAN);
+    }
+
+    public boolean readBoolean(int expectedTag) throws IOException
+    {
+        int length = readHeader(expectedTag);
+        if (length != 1)
+        {
+            throw new IOException("Malformed BER boolean.");
+        }
+        return buf[pos++] != 0;
+    }
+
+    public byte[] readOctetString() throws IOException
+    {
+        return readOctetString(BerTags.OCTET_STRING);
+    }
+
+    public byte[] readOctetString(int expectedTag) throws IOException
+    {
+        int length = readHeader(expectedTag);
+        byte[] value = Arrays.copyOfRange(buf, pos, pos + length);
+        pos += length;
+        return value;
+    }
+
+    /**
+     * Reads an OCTET STRING holding UTF-8 text.
+     */
+    public String readString() throws IOException
+    {
+        return readString(BerTags.OCTET_STRING);
+    }
+
+    public String readString(int expectedTag) throws IOException
+    {
+        int length = readHeader(expectedTag);
+        String value = new String(buf, pos, length, BerEncoder.UTF8);
+        pos += length;
+        return value;
+    }
+
+    /**
+     * Skips the next element whatever its tag is.
+     */
+    public void skip() throws IOException
+    {
+        peekTag();
+        pos++;
+        pos += readLength();
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.ber;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Encoder of the subset of the ASN.1 Basic Encoding Rules used by LDAPv3 (RFC 4511, section 5.1): definite lengths
+ * only, primitive encoding of strings and minimal two's complement integers.
+ * <p/>
+ * Constructed elements are written between {@link #beginSequence(int)} and {@link #endSequence()}. Their lengths
+ * are computed when the element is ended, so elements can be nested without knowing their size in advance.
+ *
+ * @author mariano
+ */
+public class BerEncoder
+{
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private byte[] buf;
+    private int pos = 0;
+    private final Deque<Integer> sequences = new ArrayDeque<Integer>();
+
+    public BerEncoder()
+    {
+        this(INITIAL_CAPACITY);
+    }
+
+    public BerEncoder(int initialCapacity)
+    {
+        this.buf = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Starts a constructed element (for example a SEQUENCE, a SET or a constructed application tag).
+     */
+    public BerEncoder beginSequence(int tag)
+    {
+        ensureCapacity(2);
+        buf[pos++] = (byte) tag;
+        sequences.push(pos);
+        // Placeholder for the short form length, expanded in endSequence() if necessary
+        buf[pos++] = 0;
+        return this;
+    }
+
+    /**
+     * Ends the last constructed element started with {@link #beginSequence(int)}, writing its length.
+     */
+    public BerEncoder endSequence()
+    {
+        if (sequences.isEmpty())
+        {
+            throw new IllegalStateException("There is no sequence to end.");
+        }
+
+        int lengthPos = sequences.pop();
+        int length = pos - lengthPos - 1;
+        if (length < 0x80)
+        {
+            buf[lengthPos] = (byte) length;
+        }
+        else
+        {
+            int lengthBytes = lengthBytes(length);
+            ensureCapacity(lengthBytes);
+            System.arraycopy(buf, lengthPos + 1, buf, lengthPos + 1 + lengthBytes, length);
+            buf[lengthPos] = (byte) (0x80 | lengthBytes);
+            for (int i = lengthBytes; i > 0; i--)
+            {
+                buf[lengthPos + i] = (byte) (length & 0xFF);
+                length >>>= 8;
+            }
+            pos += lengthBytes;
+        }
+        return this;
+    }
+
+    public BerEncoder writeInteger(long value)
+    {
+        return writeInteger(BerTags.INTEGER, value);
+    }
+
+    public BerEncoder writeInteger(int tag, long value)
+    {
+        int length = 1;
+        while (length < 8 && (value >> (length * 8 - 1)) != 0 && (value >> (length * 8 - 1)) != -1)
+        {
+            length++;
+        }
+
+        writeHeader(tag, length);
+        ensureCapacity(length);
+        for (int i = length - 1; i >= 0; i--)
+        {
+            buf[pos++] = (byte) (value >> (i * 8));
+        }
+        return this;
+    }
+
+    public BerEncoder writeEnumerated(int value)
+    {
+        return writeInteger(BerTags.ENUMERATED, value);
+    }
+
+    public BerEncoder writeBoolean(boolean value)
+    {
+        return writeBoolean(BerTags.BOOLEAN, value);
+    }
+
+    public BerEncoder writeBoolean(int tag, boolean value)
+    {
+        writeHeader(tag, 1);
+        ensureCapacity(1);
+        buf[pos++] = value ? (byte) 0xFF : 0x00;
+        return this;
+    }
+
+    public BerEncoder writeNull(int tag)
+    {
+        writeHeader(tag, 0);
+        return this;
+    }
+
+    public BerEncoder writeOctetString(byte[] value)
+    {
+        return writeOctetString(BerTags.OCTET_STRING, value);
+    }
+
+    public BerEncoder writeOctetString(int tag, byte[] value)
+    {
+        byte[] bytes = value != null ? value : new byte[0];
+        writeHeader(tag, bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+        return this;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of <i>value</i> as an OCTET STRING. <i>null</i> is written as an empty string.
+     */
+    public BerEncoder writeString(String value)
+    {
+        return writeString(BerTags.OCTET_STRING, value);
+    }
+
+    public BerEncoder writeString(int tag, String value)
+    {
+        return writeOctetString(tag, value != null ? value.getBytes(UTF8) : null);
+    }
+
+    /**
+     * Writes an already encoded element as is.
+     */
+    public BerEncoder writeEncoded(byte[] encoded)
+    {
+        ensureCapacity(encoded.length);
+        System.arraycopy(encoded, 0, buf, pos, encoded.length);
+        pos += encoded.length;
+        return this;
+    }
+
+    private void writeHeader(int tag, int length)
+    {
+        ensureCapacity(6);
+        buf[pos++] = (byte) tag;
+        if (length < 0x80)
+        {
+            buf[pos++] = (byte) length;
+        }
+        else
+        {
+            int lengthBytes = lengthBytes(length);
+            buf[pos++] = (byte) (0x80 | lengthBytes);
+            for (int i = lengthBytes - 1; i >= 0; i--)
+            {
+                buf[pos++] = (byte) (length >>> (i * 8));
+            }
+        }
+    }
+
+    private static int lengthBytes(int length)
+    {
+        if (length < 0x100)
+        {
+            return 1;
+        }
+        else if (length < 0x10000)
+        {
+            return 2;
+        }
+        else if (length < 0x1000000)
+        {
+            return 3;
+        }
+        return 4;
+    }
+
+    private void ensureCapacity(int extra)
+    {
+        if (pos + extra > buf.length)
+        {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+        }
+    }
+
+    /**
+     * @return The number of bytes written so far.
+     */
+    public int size()
+    {
+        return pos;
+    }
+
+    public byte[] toByteArray()
+    {
+        checkComplete();
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * @return A buffer ready to be read (or written to a channel) holding the encoded bytes.
+     */
+    public ByteBuffer toByteBuffer()
+    {
+        checkComplete();
+        return ByteBuffer.wrap(buf, 0, pos);
+    }
+
+    private void checkComplete()
+    {
+        if (!sequences.isEmpty())
+        {
+            throw new IllegalStateException(sequences.size() + " sequence(s) were not ended.");
+        }
+    }
+}
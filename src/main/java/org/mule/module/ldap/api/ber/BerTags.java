@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.ber;
+
+/**
+ * Identifiers of the universal ASN.1 types and helpers to build context specific and application tags.
+ *
+ * @author mariano
+ */
+public final class BerTags
+{
+    public static final int BOOLEAN = 0x01;
+    public static final int INTEGER = 0x02;
+    public static final int OCTET_STRING = 0x04;
+    public static final int NULL = 0x05;
+    public static final int ENUMERATED = 0x0A;
+    public static final int SEQUENCE = 0x30;
+    public static final int SET = 0x31;
+
+    private static final int CONSTRUCTED = 0x20;
+    private static final int APPLICATION = 0x40;
+    private static final int CONTEXT = 0x80;
+
+    private BerTags()
+    {
+    }
+
+    /**
+     * @return The tag <code>[APPLICATION number]</code>.
+     */
+    public static int application(int number, boolean constructed)
+    {
+        return APPLICATION | (constructed ? CONSTRUCTED : 0) | number;
+    }
+
+    /**
+     * @return The tag <code>[number]</code> (context specific).
+     */
+    public static int context(int number, boolean constructed)
+    {
+        return CONTEXT | (constructed ? CONSTRUCTED : 0) | number;
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.filter;
+
+import java.util.List;
+
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryAttribute;
+import org.mule.module.ldap.api.LDAPEntryAttributeTypeDefinition;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.filter.LDAPMatchingRule.Assertion;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Search filter (RFC 4515) compiled to be evaluated against {@link LDAPEntry} instances in process, so searches can
+ * be answered from entries held in memory.
+ * <p/>
+ * AND, OR, NOT, equality, presence, substrings, greater or equal, less or equal and approximate filters are
+ * supported. Extensible match filters are not, as their matching rules are evaluated by the server.
+ * <p/>
+ * Attribute names are matched ignoring case. Values are compared with the matching rules of the attribute type
+ * definition (see {@link org.mule.module.ldap.api.LDAPConnection#isSchemaEnabled()}) or ignoring case and spacing if
+ * the entry has no schema information. Evaluating a filter does not create objects, except for attributes whose
+ * rule is <i>distinguishedNameMatch</i>. An item whose attribute is missing from the entry evaluates to false, so
+ * entries must hold every attribute used by the filter (with the exception of <i>objectClass</i> presence, that is
+ * true for every entry).
+ * <p/>
+ * As defined in RFC 4511 (section 4.5.1.7), filters evaluate to true, false or undefined. An item is undefined when
+ * its assertion value cannot be applied to the values of the attribute (for example comparing a value that is not an
+ * integer with an integer rule), and undefined is propagated by AND, OR and NOT, so the negation of an undefined item
+ * is undefined too. Only filters evaluating to true match.
+ * <p/>
+ * Filters are immutable and thread safe. Compiled filters are cached by their string representation.
+ *
+ * @author mariano
+ */
+public abstract class LDAPFilter
+{
+    private static final int MAX_CACHED_FILTERS = 1000;
+
+    private static final Cache<String, LDAPFilter> COMPILED = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_FILTERS).build();
+
+    LDAPFilter()
+    {
+    }
+
+    /**
+     * @param filter The string representation of the filter. As in searches, filters not enclosed in parentheses (for
+     *        example <code>uid=user1</code>) are accepted.
+     * @return The compiled filter, reused if the same filter was compiled before.
+     * @throws org.mule.module.ldap.api.InvalidAttributeException If the filter is not valid.
+     * @throws org.mule.module.ldap.api.OperationNotSupportedException If the filter cannot be evaluated in process.
+     */
+    public static LDAPFilter compile(String filter) throws LDAPException
+    {
+        String key = filter != null ? filter.trim() : "";
+        LDAPFilter compiled = COMPILED.getIfPresent(key);
+        if (compiled == null)
+        {
+            compiled = LDAPFilterParser.parse(key);
+            COMPILED.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return Whether the entry matches the filter, that is, whether the filter evaluates to true for the entry.
+     *         Filters evaluating to undefined do not match.
+     */
+    public final boolean matches(LDAPEntry entry)
+    {
+        return evaluate(entry) == Result.TRUE;
+    }
+
+    abstract Result evaluate(LDAPEntry entry);
+
+    /**
+     * Three-valued result of evaluating a filter (RFC 4511, section 4.5.1.7).
+     */
+    enum Result
+    {
+        TRUE, FALSE, UNDEFINED;
+
+        static Result valueOf(boolean value)
+        {
+            return value ? TRUE : FALSE;
+        }
+    }
+
+    static final class And extends LDAPFilter
+    {
+        private final LDAPFilter[] filters;
+
+        And(List<LDAPFilter> filters)
+        {
+            this.filters = filters.toArray(new LDAPFilter[filters.size()]);
+        }
+
+        @Override
+        Result evaluate(LDAPEntry entry)
+        {
+            Result result = Result.TRUE;
+            for (LDAPFilter filter : filters)
+            {
+                Result item = filter.evaluate(entry);
+                if (item == Result.FALSE)
+                {
+                    return Result.FALSE;
+                }
+                if (item == Result.UNDEFINED)
+                {
+                    result = Result.UNDEFINED;
+                }
+            }
+            return result;
+        }
+    }
+
+    static final class Or extends LDAPFilter
+    {
+        private final LDAPFilter[] filters;
+
+        Or(List<LDAPFilter> filters)
+        {
+            this.filters = filters.toArray(new LDAPFilter[filters.size()]);
+        }
+
+        @Override
+        Result evaluate(LDAPEntry entry)
+        {
+            Result result = Result.FALSE;
+            for (LDAPFilter filter : filters)
+            {
+                Result item = filter.evaluate(entry);
+                if (item == Result.TRUE)
+                {
+                    return Result.TRUE;
+                }
+                if (item == Result.UNDEFINED)
+                {
+                    result = Result.UNDEFINED;
+                }
+            }
+            return result;
+        }
+    }
+
+    static final class Not extends LDAPFilter
+    {
+        private final LDAPFilter filter;
+
+        Not(LDAPFilter filter)
+        {
+            this.filter = filter;
+        }
+
+        @Override
+        Result evaluate(LDAPEntry entry)
+        {
+            switch (filter.evaluate(entry))
+            {
+                case TRUE :
+                    return Result.FALSE;
+                case FALSE :
+                    return Result.TRUE;
+                default :
+                    return Result.UNDEFINED;
+            }
+        }
+    }
+
+    /**
+     * Filter item on the values of an attribute.
+     */
+    abstract static class Item extends LDAPFilter
+    {
+        static final String OBJECT_CLASS = "objectclass";
+
+        /**
+         * Lower case, as the attributes of the entries are looked up by their lower case name.
+         */
+        final String attribute;
+
+        Item(String attribute)
+        {
+            this.attribute = attribute.toLowerCase();
+        }
+
+        /**
+         * @return True if any value matches, undefined if no value matches but some of them are undefined and false
+         *         otherwise.
+         */
+        @Override
+        Result evaluate(LDAPEntry entry)
+        {
+            LDAPEntryAttribute entryAttribute = entry.getAttribute(attribute);
+            if (entryAttribute == null)
+            {
+                return Result.FALSE;
+            }
+            if (!entryAttribute.isMultiValued())
+            {
+                Object value = entryAttribute.getValue();
+                return value != null ? evaluate(entryAttribute, value) : Result.FALSE;
+            }
+
+            Result result = Result.FALSE;
+            List<Object> values = entryAttribute.getValues();
+            for (int i = 0; i < values.size(); i++)
+            {
+                Object value = values.get(i);
+                if (value != null)
+                {
+                    Result item = evaluate(entryAttribute, value);
+                    if (item == Result.TRUE)
+                    {
+                        return Result.TRUE;
+                    }
+                    if (item == Result.UNDEFINED)
+                    {
+                        result = Result.UNDEFINED;
+                    }
+                }
+            }
+            return result;
+        }
+
+        abstract Result evaluate(LDAPEntryAttribute entryAttribute, Object value);
+    }
+
+    static final class Present extends Item
+    {
+        Present(String attribute)
+        {
+            super(attribute);
+        }
+
+        @Override
+        Result evaluate(LDAPEntry entry)
+        {
+            return OBJECT_CLASS.equals(attribute) ? Result.TRUE : super.evaluate(entry);
+        }
+
+        @Override
+        Result evaluate(LDAPEntryAttribute entryAttribute, Object value)
+        {
+            return Result.TRUE;
+        }
+    }
+
+    static final class Equality extends Item
+    {
+        private final Assertion assertion;
+
+        Equality(String attribute, Assertion assertion)
+        {
+            super(attribute);
+            this.assertion = assertion;
+        }
+
+        @Override
+        Result evaluate(LDAPEntryAttribute entryAttribute, Object value)
+        {
+            LDAPEntryAttributeTypeDefinition type = entryAttribute.getTypeDefinition();
+            return rule(type != null ? type.getEquality() : null, null).equal(value, assertion);
+        }
+    }
+
+    static final class Ordering extends Item
+    {
+        private final Assertion assertion;
+        private final boolean greater;
+
+        /**
+         * @param greater <i>true</i> for greater or equal, <i>false</i> for less or equal.
+         */
+        Ordering(String attribute, Assertion assertion, boolean greater)
+        {
+            super(attribute);
+            this.assertion = assertion;
+            this.greater = greater;
+        }
+
+        @Override
+        Result evaluate(LDAPEntryAttribute entryAttribute, Object value)
+        {
+            LDAPEntryAttributeTypeDefinition type = entryAttribute.getTypeDefinition();
+            int comparison = rule(type != null ? type.getOrdering() : null, type != null ? type.getEquality() : null).compare(value, assertion);
+            if (comparison == LDAPMatchingRule.UNDEFINED)
+            {
+                return Result.UNDEFINED;
+            }
+            return Result.valueOf(greater ? comparison >= 0 : comparison <= 0);
+        }
+    }
+
+    static final class Approximate extends Item
+    {
+        private final Assertion assertion;
+
+        Approximate(String attribute, Assertion assertion)
+        {
+            super(attribute);
+            this.assertion = assertion;
+        }
+
+        @Override
+        Result evaluate(LDAPEntryAttribute entryAttribute, Object value)
+        {
+            return Result.valueOf(LDAPMatchingRule.approximate(value, assertion));
+        }
+    }
+
+    static final class Substrings extends Item
+    {
+        private final String initial;
+        private final String[] any;
+        private final String last;
+
+        Substrings(String attribute, String initial, List<String> any, String last)
+        {
+            super(attribute);
+            this.initial = initial;
+            this.any = any.toArray(new String[any.size()]);
+            this.last = last;
+        }
+
+        @Override
+        Result evaluate(LDAPEntryAttribute entryAttribute, Object value)
+        {
+            LDAPEntryAttributeTypeDefinition type = entryAttribute.getTypeDefinition();
+            return Result.valueOf(rule(type != null ? type.getSubstring() : null, type != null ? type.getEquality() : null).substrings(value, initial, any, last));
+        }
+    }
+
+    /**
+     * @return The rule with the given name, the fallback one if it is not known or <i>caseIgnoreMatch</i>.
+     */
+    private static LDAPMatchingRule rule(String name, String fallback)
+    {
+        LDAPMatchingRule rule = LDAPMatchingRule.forName(name);
+        if (rule == null)
+        {
+            rule = LDAPMatchingRule.forName(fallback);
+        }
+        return rule != null ? rule : LDAPMatchingRule.CASE_IGNORE;
+    }
+}
@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mule.module.ldap.api.InvalidAttributeException;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.OperationNotSupportedException;
+import org.mule.module.ldap.api.filter.LDAPMatchingRule.Assertion;
+
+/**
+ * Parses the string representation of a search filter (RFC 4515) into a tree of {@link LDAPFilter} nodes. Accepts
+ * the same syntax as {@link org.mule.module.ldap.api.nio.LDAPFilterEncoder}.
+ *
+ * @author mariano
+ */
+final class LDAPFilterParser
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String filter;
+    private int pos;
+
+    private LDAPFilterParser(String filter)
+    {
+        this.filter = filter;
+    }
+
+    static LDAPFilter parse(String filter) throws LDAPException
+    {
+        String trimmed = filter != null ? filter.trim() : "";
+        if (trimmed.length() == 0)
+        {
+            throw new InvalidAttributeException("Empty search filter.");
+        }
+        if (trimmed.charAt(0) != '(')
+        {
+            trimmed = "(" + trimmed + ")";
+        }
+
+        LDAPFilterParser parser = new LDAPFilterParser(trimmed);
+        LDAPFilter parsed = parser.parseFilter();
+        if (parser.pos != trimmed.length())
+        {
+            throw parser.error("Unexpected characters after the end of the filter");
+        }
+        return parsed;
+    }
+
+    private LDAPFilter parseFilter() throws LDAPException
+    {
+        expect('(');
+        LDAPFilter parsed;
+        switch (peek())
+        {
+            case '&' :
+                pos++;
+                parsed = new LDAPFilter.And(parseFilterList());
+                break;
+            case '|' :
+                pos++;
+                parsed = new LDAPFilter.Or(parseFilterList());
+                break;
+            case '!' :
+                pos++;
+                parsed = new LDAPFilter.Not(parseFilter());
+                break;
+            default :
+                parsed = parseItem();
+        }
+        expect(')');
+        return parsed;
+    }
+
+    private List<LDAPFilter> parseFilterList() throws LDAPException
+    {
+        List<LDAPFilter> filters = new ArrayList<LDAPFilter>();
+        while (peek() == '(')
+        {
+            filters.add(parseFilter());
+        }
+        return filters;
+    }
+
+    private LDAPFilter parseItem() throws LDAPException
+    {
+        int start = pos;
+        while (pos < filter.length() && "=~<>:()".indexOf(filter.charAt(pos)) < 0)
+        {
+            pos++;
+        }
+        String attribute = filter.substring(start, pos).trim();
+
+        char c = peek();
+        if (c == ':')
+        {
+            throw new OperationNotSupportedException("Extensible match filter at position " + pos + " of filter " + filter + " cannot be evaluated locally");
+        }
+        if (attribute.length() == 0)
+        {
+            throw error("Missing attribute description");
+        }
+
+        if (c == '=')
+        {
+            pos++;
+            String value = readValue();
+            if ("*".equals(value))
+            {
+                return new LDAPFilter.Present(attribute);
+            }
+            if (hasUnescapedAsterisk(value))
+            {
+                return parseSubstrings(attribute, value);
+            }
+            return new LDAPFilter.Equality(attribute, assertion(value));
+        }
+        if (c == '~' || c == '>' || c == '<')
+        {
+            pos++;
+            expect('=');
+            Assertion assertion = assertion(readValue());
+            if (c == '~')
+            {
+                return new LDAPFilter.Approximate(attribute, assertion);
+            }
+            return new LDAPFilter.Ordering(attribute, assertion, c == '>');
+        }
+        throw error("Invalid filter type");
+    }
+
+    private LDAPFilter parseSubstrings(String attribute, String value) throws LDAPException
+    {
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < value.length(); i++)
+        {
+            if (value.charAt(i) == '\\')
+            {
+                i += 2;
+            }
+            else if (value.charAt(i) == '*')
+            {
+                parts.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(value.substring(start));
+
+        String initial = parts.get(0).length() > 0 ? text(parts.get(0)) : null;
+        String last = parts.get(parts.size() - 1).length() > 0 ? text(parts.get(parts.size() - 1)) : null;
+        List<String> any = new ArrayList<String>();
+        for (int i = 1; i < parts.size() - 1; i++)
+        {
+            if (parts.get(i).length() > 0)
+            {
+                any.add(text(parts.get(i)));
+            }
+        }
+        return new LDAPFilter.Substrings(attribute, initial, any, last);
+    }
+
+    private static boolean hasUnescapedAsterisk(String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            if (value.charAt(i) == '\\')
+            {
+                i += 2;
+            }
+            else if (value.charAt(i) == '*')
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the (still escaped) assertion value up to the closing parenthesis.
+     */
+    private String readValue() throws LDAPException
+    {
+        int start = pos;
+        while (pos < filter.length() && filter.charAt(pos) != ')')
+        {
+            if (filter.charAt(pos) == '(')
+            {
+                throw error("Unescaped parenthesis in assertion value");
+            }
+            pos++;
+        }
+        return filter.substring(start, pos);
+    }
+
+    private Assertion assertion(String value) throws LDAPException
+    {
+        byte[] bytes = unescape(value);
+        return new Assertion(new String(bytes, UTF8), bytes);
+    }
+
+    private String text(String value) throws LDAPException
+    {
+        return new String(unescape(value), UTF8);
+    }
+
+    /**
+     * Converts an escaped assertion value to its UTF-8 bytes, replacing the <code>\XX</code> escapes. For
+     * compatibility with RFC 2254 filters, a backslash not followed by two hex digits escapes the next character.
+     */
+    private byte[] unescape(String value) throws LDAPException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        StringBuilder pending = new StringBuilder();
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c != '\\')
+            {
+                pending.append(c);
+                continue;
+            }
+            if (i + 1 >= value.length())
+            {
+                throw error("Invalid escape sequence at the end of " + value);
+            }
+
+            int high = Character.digit(value.charAt(i + 1), 16);
+            int low = i + 2 < value.length() ? Character.digit(value.charAt(i + 2), 16) : -1;
+            if (high >= 0 && low >= 0)
+            {
+                flush(pending, bytes);
+                bytes.write((high << 4) | low);
+                i += 2;
+            }
+            else
+            {
+                pending.append(value.charAt(i + 1));
+                i++;
+            }
+        }
+        flush(pending, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void flush(StringBuilder pending, ByteArrayOutputStream bytes)
+    {
+        if (pending.length() > 0)
+        {
+            byte[] encoded = pending.toString().getBytes(UTF8);
+            bytes.write(encoded, 0, encoded.length);
+            pending.setLength(0);
+        }
+    }
+
+    private char peek() throws LDAPException
+    {
+        while (pos < filter.length() && filter.charAt(pos) == ' ')
+        {
+            pos++;
+        }
+        if (pos >= filter.length())
+        {
+            throw error("Unexpected end of filter");
+        }
+        return filter.charAt(pos);
+    }
+
+    private void expect(char c) throws LDAPException
+    {
+        if (peek() != c)
+        {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private LDAPException error(String message)
+    {
+        return new InvalidAttributeException(message + " at position " + pos + " of filter " + filter);
+    }
+}
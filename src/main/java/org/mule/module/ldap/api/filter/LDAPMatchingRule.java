@@ -0,0 +1,457 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.filter;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+
+/**
+ * Matching rules (RFC 4517, section 4.2) used to compare attribute values with the assertion values of a filter. The
+ * rule of an attribute is taken from its {@link org.mule.module.ldap.api.LDAPEntryAttributeTypeDefinition} when the
+ * schema is enabled and defaults to <i>caseIgnoreMatch</i>, the rule of most textual attributes.
+ * <p/>
+ * Values are compared in place, without creating normalized copies of them. The only exception is
+ * <i>distinguishedNameMatch</i>, that parses the DN values.
+ *
+ * @author mariano
+ */
+abstract class LDAPMatchingRule
+{
+    /**
+     * Returned by {@link #compare(Object, Assertion)} when the value cannot be compared with the assertion (for example
+     * a value that is not an integer for <i>integerMatch</i>), so the filter item is undefined.
+     */
+    static final int UNDEFINED = Integer.MIN_VALUE;
+
+    static final LDAPMatchingRule CASE_IGNORE = new TextRule(true, false, false);
+    static final LDAPMatchingRule CASE_EXACT = new TextRule(false, false, false);
+    static final LDAPMatchingRule NUMERIC_STRING = new TextRule(false, true, false);
+    static final LDAPMatchingRule TELEPHONE_NUMBER = new TextRule(true, true, true);
+    static final LDAPMatchingRule INTEGER = new IntegerRule();
+    static final LDAPMatchingRule OCTET_STRING = new OctetStringRule();
+    static final LDAPMatchingRule DISTINGUISHED_NAME = new DistinguishedNameRule();
+
+    private static final Map<String, LDAPMatchingRule> RULES = new TreeMap<String, LDAPMatchingRule>(String.CASE_INSENSITIVE_ORDER);
+
+    static
+    {
+        register(CASE_IGNORE, "caseIgnoreMatch", "caseIgnoreOrderingMatch", "caseIgnoreSubstringsMatch", "caseIgnoreIA5Match",
+            "caseIgnoreIA5SubstringsMatch", "caseIgnoreListMatch", "caseIgnoreListSubstringsMatch", "objectIdentifierMatch",
+            "booleanMatch", "2.5.13.2", "2.5.13.3", "2.5.13.4", "1.3.6.1.4.1.1466.109.114.2", "2.5.13.0", "2.5.13.13");
+        register(CASE_EXACT, "caseExactMatch", "caseExactOrderingMatch", "caseExactSubstringsMatch", "caseExactIA5Match",
+            "caseExactIA5SubstringsMatch", "generalizedTimeMatch", "generalizedTimeOrderingMatch", "uuidMatch", "uuidOrderingMatch",
+            "2.5.13.5", "2.5.13.6", "2.5.13.7", "1.3.6.1.4.1.1466.109.114.1", "2.5.13.27", "2.5.13.28");
+        register(NUMERIC_STRING, "numericStringMatch", "numericStringOrderingMatch", "numericStringSubstringsMatch", "2.5.13.8",
+            "2.5.13.9", "2.5.13.10");
+        register(TELEPHONE_NUMBER, "telephoneNumberMatch", "telephoneNumberSubstringsMatch", "2.5.13.20", "2.5.13.21");
+        register(INTEGER, "integerMatch", "integerOrderingMatch", "2.5.13.14", "2.5.13.15");
+        register(OCTET_STRING, "octetStringMatch", "octetStringOrderingMatch", "octetStringSubstringsMatch", "2.5.13.17",
+            "2.5.13.18", "2.5.13.19");
+        register(DISTINGUISHED_NAME, "distinguishedNameMatch", "uniqueMemberMatch", "2.5.13.1", "2.5.13.23");
+    }
+
+    private static void register(LDAPMatchingRule rule, String... names)
+    {
+        for (String name : names)
+        {
+            RULES.put(name, rule);
+        }
+    }
+
+    /**
+     * @param name The name or OID of the matching rule. May be <i>null</i>.
+     * @return The rule or <i>null</i> if it is not known.
+     */
+    static LDAPMatchingRule forName(String name)
+    {
+        return name != null ? RULES.get(name) : null;
+    }
+
+    /**
+     * @return Whether the value matches the assertion value, or undefined if they cannot be compared.
+     */
+    LDAPFilter.Result equal(Object value, Assertion assertion)
+    {
+        int comparison = compare(value, assertion);
+        return comparison == UNDEFINED ? LDAPFilter.Result.UNDEFINED : LDAPFilter.Result.valueOf(comparison == 0);
+    }
+
+    /**
+     * @return A negative number, zero or a positive number if the value is less than, equal to or greater than the
+     *         assertion value, or {@link #UNDEFINED} if they cannot be compared.
+     */
+    abstract int compare(Object value, Assertion assertion);
+
+    /**
+     * @param initial The initial substring or <i>null</i>.
+     * @param any The substrings that must appear in order after the initial one.
+     * @param last The final substring or <i>null</i>.
+     */
+    boolean substrings(Object value, String initial, String[] any, String last)
+    {
+        if (!(value instanceof String))
+        {
+            return false;
+        }
+        String str = (String) value;
+        boolean ignoreCase = ignoreCase();
+
+        int pos = 0;
+        if (initial != null)
+        {
+            if (!str.regionMatches(ignoreCase, 0, initial, 0, initial.length()))
+            {
+                return false;
+            }
+            pos = initial.length();
+        }
+        for (String part : any)
+        {
+            int found = indexOf(str, part, pos, ignoreCase);
+            if (found < 0)
+            {
+                return false;
+            }
+            pos = found + part.length();
+        }
+        if (last != null)
+        {
+            int start = str.length() - last.length();
+            return start >= pos && str.regionMatches(ignoreCase, start, last, 0, last.length());
+        }
+        return true;
+    }
+
+    boolean ignoreCase()
+    {
+        return false;
+    }
+
+    private static int indexOf(String str, String part, int from, boolean ignoreCase)
+    {
+        for (int i = from; i <= str.length() - part.length(); i++)
+        {
+            if (str.regionMatches(ignoreCase, i, part, 0, part.length()))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Approximate match. Its algorithm is left to the implementations by RFC 4511, so values are compared ignoring
+     * case and every character that is not a letter or a digit.
+     */
+    static boolean approximate(Object value, Assertion assertion)
+    {
+        if (!(value instanceof String))
+        {
+            return false;
+        }
+        String a = (String) value;
+        String b = assertion.value;
+        int i = 0;
+        int j = 0;
+        while (true)
+        {
+            while (i < a.length() && !Character.isLetterOrDigit(a.charAt(i)))
+            {
+                i++;
+            }
+            while (j < b.length() && !Character.isLetterOrDigit(b.charAt(j)))
+            {
+                j++;
+            }
+            if (i >= a.length() || j >= b.length())
+            {
+                return i >= a.length() && j >= b.length();
+            }
+            if (fold(a.charAt(i)) != fold(b.charAt(j)))
+            {
+                return false;
+            }
+            i++;
+            j++;
+        }
+    }
+
+    private static int fold(char c)
+    {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Assertion value of a filter item, unescaped once when the filter is compiled.
+     */
+    static final class Assertion
+    {
+        final String value;
+        final byte[] bytes;
+        volatile Object parsed;
+
+        Assertion(String value, byte[] bytes)
+        {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Textual rules. Values are compared ignoring leading and trailing spaces and collapsing runs of spaces into one
+     * (or ignoring spaces altogether for numeric strings and telephone numbers, that also ignore hyphens).
+     */
+    private static final class TextRule extends LDAPMatchingRule
+    {
+        private final boolean ignoreCase;
+        private final boolean ignoreSpaces;
+        private final boolean ignoreHyphens;
+
+        TextRule(boolean ignoreCase, boolean ignoreSpaces, boolean ignoreHyphens)
+        {
+            this.ignoreCase = ignoreCase;
+            this.ignoreSpaces = ignoreSpaces;
+            this.ignoreHyphens = ignoreHyphens;
+        }
+
+        @Override
+        boolean ignoreCase()
+        {
+            return ignoreCase;
+        }
+
+        @Override
+        int compare(Object value, Assertion assertion)
+        {
+            if (value instanceof byte[])
+            {
+                return OCTET_STRING.compare(value, assertion);
+            }
+            if (!(value instanceof String))
+            {
+                return value != null ? compare(value.toString(), assertion) : UNDEFINED;
+            }
+
+            String a = (String) value;
+            String b = assertion.value;
+            int i = next(a, 0, true);
+            int j = next(b, 0, true);
+            while (true)
+            {
+                if (i >= a.length() || j >= b.length())
+                {
+                    return (i >= a.length() ? 0 : 1) - (j >= b.length() ? 0 : 1);
+                }
+                int ca = ignoreCase ? fold(a.charAt(i)) : a.charAt(i);
+                int cb = ignoreCase ? fold(b.charAt(j)) : b.charAt(j);
+                if (ca != cb)
+                {
+                    return ca - cb;
+                }
+                i = next(a, i + 1, false);
+                j = next(b, j + 1, false);
+            }
+        }
+
+        private boolean ignored(char c)
+        {
+            return (ignoreSpaces && c == ' ') || (ignoreHyphens && c == '-');
+        }
+
+        /**
+         * @return The position of the next character to compare, skipping the ignored characters. A run of spaces is
+         *         compared as its last space, unless it is at the beginning or the end of the value.
+         */
+        private int next(String str, int from, boolean leading)
+        {
+            int i = from;
+            while (i < str.length() && ignored(str.charAt(i)))
+            {
+                i++;
+            }
+            if (i < str.length() && str.charAt(i) == ' ')
+            {
+                int end = i;
+                while (end < str.length() && str.charAt(end) == ' ')
+                {
+                    end++;
+                }
+                return leading || end == str.length() ? end : end - 1;
+            }
+            return i;
+        }
+    }
+
+    private static final class IntegerRule extends LDAPMatchingRule
+    {
+        @Override
+        int compare(Object value, Assertion assertion)
+        {
+            if (value instanceof Number)
+            {
+                value = value.toString();
+            }
+            if (!(value instanceof String))
+            {
+                return UNDEFINED;
+            }
+            return compareIntegers(((String) value).trim(), assertion.value.trim());
+        }
+
+        @Override
+        boolean substrings(Object value, String initial, String[] any, String last)
+        {
+            return false;
+        }
+
+        /**
+         * Compares the decimal representation of two integers of any size.
+         */
+        private static int compareIntegers(String a, String b)
+        {
+            if (!isInteger(a) || !isInteger(b))
+            {
+                return UNDEFINED;
+            }
+            boolean negativeA = a.charAt(0) == '-';
+            boolean negativeB = b.charAt(0) == '-';
+            int startA = significant(a, negativeA ? 1 : 0);
+            int startB = significant(b, negativeB ? 1 : 0);
+            boolean zeroA = startA == a.length();
+            boolean zeroB = startB == b.length();
+            negativeA &= !zeroA;
+            negativeB &= !zeroB;
+            if (negativeA != negativeB)
+            {
+                return negativeA ? -1 : 1;
+            }
+
+            int magnitude = (a.length() - startA) - (b.length() - startB);
+            if (magnitude == 0)
+            {
+                for (int i = 0; i < a.length() - startA; i++)
+                {
+                    magnitude = a.charAt(startA + i) - b.charAt(startB + i);
+                    if (magnitude != 0)
+                    {
+                        break;
+                    }
+                }
+            }
+            return negativeA ? -magnitude : magnitude;
+        }
+
+        private static int significant(String str, int from)
+        {
+            int i = from;
+            while (i < str.length() && str.charAt(i) == '0')
+            {
+                i++;
+            }
+            return i;
+        }
+
+        private static boolean isInteger(String str)
+        {
+            int start = str.startsWith("-") ? 1 : 0;
+            if (str.length() == start)
+            {
+                return false;
+            }
+            for (int i = start; i < str.length(); i++)
+            {
+                if (str.charAt(i) < '0' || str.charAt(i) > '9')
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class OctetStringRule extends LDAPMatchingRule
+    {
+        @Override
+        int compare(Object value, Assertion assertion)
+        {
+            if (value instanceof String)
+            {
+                return ((String) value).compareTo(assertion.value);
+            }
+            if (!(value instanceof byte[]))
+            {
+                return UNDEFINED;
+            }
+            byte[] a = (byte[]) value;
+            byte[] b = assertion.bytes;
+            for (int i = 0; i < a.length && i < b.length; i++)
+            {
+                int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if (diff != 0)
+                {
+                    return diff;
+                }
+            }
+            return a.length - b.length;
+        }
+    }
+
+    /**
+     * DNs are equal if their RDNs are equal, ignoring case and spacing. They have no ordering.
+     */
+    private static final class DistinguishedNameRule extends LDAPMatchingRule
+    {
+        @Override
+        LDAPFilter.Result equal(Object value, Assertion assertion)
+        {
+            if (!(value instanceof String))
+            {
+                return LDAPFilter.Result.UNDEFINED;
+            }
+            Object name = assertion.parsed;
+            if (name == null)
+            {
+                name = parse(assertion.value);
+                assertion.parsed = name != null ? name : Boolean.FALSE;
+            }
+            if (!(name instanceof LdapName))
+            {
+                return LDAPFilter.Result.UNDEFINED;
+            }
+            return LDAPFilter.Result.valueOf(name.equals(parse((String) value)));
+        }
+
+        @Override
+        int compare(Object value, Assertion assertion)
+        {
+            return UNDEFINED;
+        }
+
+        @Override
+        boolean substrings(Object value, String initial, String[] any, String last)
+        {
+            return false;
+        }
+
+        private static LdapName parse(String dn)
+        {
+            try
+            {
+                return new LdapName(dn);
+            }
+            catch (InvalidNameException ex)
+            {
+                return null;
+            }
+        }
+    }
+}
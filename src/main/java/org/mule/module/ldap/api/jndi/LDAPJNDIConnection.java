@@ -16,25 +16,36 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
 import javax.naming.Binding;
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.SizeLimitExceededException;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsResponseControl;
 import javax.naming.ldap.StartTlsRequest;
 import javax.naming.ldap.StartTlsResponse;
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
 
 import org.apache.commons.lang.StringUtils;
+import org.mule.module.ldap.api.AuthenticationException;
+import org.mule.module.ldap.api.LDAPChangeStream;
 import org.mule.module.ldap.api.LDAPConnection;
 import org.mule.module.ldap.api.LDAPEntry;
 import org.mule.module.ldap.api.LDAPEntryAttribute;
@@ -42,8 +53,10 @@ import org.mule.module.ldap.api.LDAPEntryAttributeTypeDefinition;
 import org.mule.module.ldap.api.LDAPEntryAttributes;
 import org.mule.module.ldap.api.LDAPEntryObjectClassDefinition;
 import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPRequestCoalescer;
 import org.mule.module.ldap.api.LDAPResultSet;
 import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.OperationNotSupportedException;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -66,6 +79,18 @@ public class LDAPJNDIConnection extends LDAPConnection
 
     private static final String INITIAL_CONTEXT_FACTORY_ATTR = "initialContextFactory";
     
+    /**
+     * Configuration attribute holding the class name of the {@link SSLSocketFactory} used to negotiate StartTLS. Like
+     * the <code>java.naming.ldap.factory.socket</code> JNDI property, the class must have a static
+     * <code>getDefault()</code> method.
+     */
+    public static final String TLS_SOCKET_FACTORY_ATTR = "tlsSocketFactory";
+    
+    /**
+     * Special attribute name (RFC 4511) used to request no attributes at all.
+     */
+    private static final String NO_ATTRIBUTES = "1.1";
+    
     /**
      * Final constants for managing JNDI Pool connections.
      */
@@ -89,6 +114,11 @@ public class LDAPJNDIConnection extends LDAPConnection
     
     private LdapContext conn = null;
     private StartTlsResponse tls = null;
+    private String bindedUserPassword = null;
+    
+    private String tlsSocketFactory = null;
+    
+    private static final ConcurrentMap<String, SSLSocketFactory> TLS_SOCKET_FACTORIES = new ConcurrentHashMap<String, SSLSocketFactory>();
 
     /**
 	 * 
@@ -237,6 +267,9 @@ public class LDAPJNDIConnection extends LDAPConnection
             setTlsEnabled("true".equals(getConfValue(conf, TLS_ENABLED, String.valueOf(DEFAULT_TLS_ENABLED))));
             extendedEnvironment.remove(TLS_ENABLED);
             
+            this.tlsSocketFactory = getConfValue(conf, TLS_SOCKET_FACTORY_ATTR, null);
+            extendedEnvironment.remove(TLS_SOCKET_FACTORY_ATTR);
+            
         }
     }
 
@@ -320,6 +353,46 @@ public class LDAPJNDIConnection extends LDAPConnection
         return this.conn == null;
     }
 
+    /**
+     * Reads the context entry of the connection without requesting any attribute. Any answer from the server (even
+     * an error like the entry not being found) proves that the connection is still usable.
+     * 
+     * @return
+     * @see org.mule.module.ldap.api.LDAPConnection#isValid()
+     */
+    @Override
+    public boolean isValid()
+    {
+        if (isClosed())
+        {
+            return false;
+        }
+        
+        try
+        {
+            getConn().getAttributes("", new String[] {NO_ATTRIBUTES});
+            return true;
+        }
+        catch (javax.naming.CommunicationException nex)
+        {
+            logger.debug("Connection " + toString() + " is not valid.", nex);
+            return false;
+        }
+        catch (ServiceUnavailableException nex)
+        {
+            logger.debug("Connection " + toString() + " is not valid.", nex);
+            return false;
+        }
+        catch (NamingException nex)
+        {
+            return true;
+        }
+        catch (LDAPException ex)
+        {
+            return false;
+        }
+    }
+
     /**
      * @throws LDAPException
      * @see org.mule.module.ldap.api.LDAPConnection#close()
@@ -356,6 +429,9 @@ public class LDAPJNDIConnection extends LDAPConnection
                 finally
                 {
                     setConn(null);
+                    this.tls = null;
+                    this.bindedUserPassword = null;
+                    clearBindInformation();
                 }
             }
         } 
@@ -449,7 +525,22 @@ public class LDAPJNDIConnection extends LDAPConnection
         {
             String dn = getBindedUserDn();
             String password = getBindedUserPassword();
+            
+            if (getCredentialCache() != null && getCredentialCache().isVerified(dn, password))
+            {
+                if(logger.isDebugEnabled())
+                {
+                    logger.debug("Credentials of " + dn + " were verified recently. Skipping rebind.");
+                }
+                return;
+            }
+            
             bind(dn, password);
+            
+            if (getCredentialCache() != null && dn != null)
+            {
+                getCredentialCache().verified(dn, password);
+            }
         }
     }
     
@@ -468,15 +559,8 @@ public class LDAPJNDIConnection extends LDAPConnection
         {
             if(!isClosed())
             {
-                String currentUrl = (String) getConn().getEnvironment().get(Context.PROVIDER_URL);
-                String currentAuth = (String) getConn().getEnvironment().get(Context.SECURITY_AUTHENTICATION);
-                String currentDn = getBindedUserDn();
-                
-                logger.info("Already binded to " + currentUrl + " with " + currentAuth + " authentication as " + (currentDn != null ? currentDn : "anonymous") + ". Closing connection first.");
-                
-                close();
-                
-                logger.info("Re-binding to " + getProviderUrl() + " with " + getAuthentication() + " authentication as " + (dn != null ? dn : "anonymous"));
+                rebindOnOpenConnection(dn, password);
+                return;
             }
             
             logConfiguration(dn, password);
@@ -485,18 +569,7 @@ public class LDAPJNDIConnection extends LDAPConnection
 
             if (isTlsEnabled())
             {
-            	Hashtable<String, String> env = buildEnvironment(dn, password);
-            	
-            	Map<String, String> postEncryptEnv = removeAuthenticationConfigurationFromEnvironment(env);
-            	
-            	conn = new InitialLdapContext(env, null);
-            	initTls();
-            	
-            	/*
-            	 * Note that the username and cleartext password are now encrypted because the authentication
-            	 * is being performed after establishment of the TLS session
-            	 */
-            	applyAuthenticationConfiguration(postEncryptEnv, conn);
+            	conn = openTlsContext(dn, password);
             }
             else
             {
@@ -504,20 +577,58 @@ public class LDAPJNDIConnection extends LDAPConnection
             }
             
             setConn(conn);
+            bindSucceeded(dn, password);
             logger.info("Binded to " + getProviderUrl() + " with " + getAuthentication() + " authentication as " + (dn != null ? dn : "anonymous"));
         }
         catch (NamingException nex)
         {
         	silentyCloseDirContext(conn);
+        	invalidateCredentials(dn);
             throw handleNamingException(nex, "Bind failed.");
         }
         catch (Exception ex)
         {
         	silentyCloseDirContext(conn);
+        	invalidateCredentials(dn);
         	throw ex;
         }
     }
 
+    /**
+     * Opens a new connection, negotiates StartTLS and only then binds as <i>dn</i>.
+     */
+    private LdapContext openTlsContext(String dn, String password) throws NamingException, LDAPException
+    {
+        Hashtable<String, String> env = buildEnvironment(dn, password);
+        
+        Map<String, String> postEncryptEnv = removeAuthenticationConfigurationFromEnvironment(env);
+        
+        LdapContext conn = new InitialLdapContext(env, null);
+        try
+        {
+            initTls(conn);
+            
+            /*
+             * Note that the username and cleartext password are now encrypted because the authentication
+             * is being performed after establishment of the TLS session. The context is not shared with any other
+             * context yet, so the bind is sent on the connection that negotiated TLS.
+             */
+            applyAuthenticationConfiguration(postEncryptEnv, conn);
+            conn.reconnect(null);
+            return conn;
+        }
+        catch (NamingException nex)
+        {
+            silentyCloseDirContext(conn);
+            throw nex;
+        }
+        catch (LDAPException ex)
+        {
+            silentyCloseDirContext(conn);
+            throw ex;
+        }
+    }
+
     private void applyAuthenticationConfiguration(Map<String, String> postEncryptEnv, LdapContext conn) throws NamingException
     {
     	for (String key : postEncryptEnv.keySet())
@@ -542,13 +653,168 @@ public class LDAPJNDIConnection extends LDAPConnection
 		return authEnv;
     }
     
-	private void initTls() throws LDAPException
+    /**
+     * Re-authenticates the connection as <i>dn</i> on the already open connection, so no new TCP connection is
+     * needed. The JNDI provider performs the bind on the existing connection as long as it is still usable and no
+     * other context derived from it (like the one used by a paged search) is still open. Otherwise it silently opens
+     * a new connection, which would not negotiate StartTLS, so TLS connections are re-opened instead (see
+     * {@link #rebindWithTls(String, String)}).
+     * <p/>
+     * If the credentials are rejected the connection is kept open and bound again as the previous identity, so a
+     * wrong password does not cost a new connection. Any other failure closes the connection.
+     */
+    private void rebindOnOpenConnection(String dn, String password) throws LDAPException
+    {
+        if (isTlsEnabled())
+        {
+            rebindWithTls(dn, password);
+            return;
+        }
+        
+        String previousDn = getLastBindDn();
+        String previousPassword = getBindedUserPassword();
+        try
+        {
+            reauthenticate(dn, password);
+            logger.info("Re-binded to " + getProviderUrl() + " with " + getAuthentication() + " authentication as " + (dn != null ? dn : "anonymous") + " using the existing connection");
+        }
+        catch (NamingException nex)
+        {
+            invalidateCredentials(dn);
+            LDAPException ex = handleNamingException(nex, "Bind failed.");
+            if (!(ex instanceof AuthenticationException) || !restoreIdentity(previousDn, previousPassword))
+            {
+                try
+                {
+                    close();
+                }
+                catch (LDAPException cex)
+                {
+                    logger.warn("Cannot close connection after failed bind", cex);
+                }
+            }
+            throw ex;
+        }
+    }
+    
+    /**
+     * Binds as <i>dn</i> on a new connection that negotiates StartTLS before sending the credentials (resuming the
+     * TLS session cached by the socket factory) and replaces the current connection with it. If the bind fails the
+     * current connection is kept as it is, still bound as the previous identity.
+     */
+    private void rebindWithTls(String dn, String password) throws LDAPException
+    {
+        LdapContext previousConn = getConn();
+        StartTlsResponse previousTls = this.tls;
+        LdapContext conn;
+        try
+        {
+            conn = openTlsContext(dn, password);
+        }
+        catch (NamingException nex)
+        {
+            this.tls = previousTls;
+            invalidateCredentials(dn);
+            throw handleNamingException(nex, "Bind failed.");
+        }
+        catch (LDAPException ex)
+        {
+            this.tls = previousTls;
+            invalidateCredentials(dn);
+            throw ex;
+        }
+        
+        setConn(conn);
+        bindSucceeded(dn, password);
+        // The previous TLS session is not closed as other contexts may still share its connection
+        silentyCloseDirContext(previousConn);
+        logger.info("Re-binded to " + getProviderUrl() + " with " + getAuthentication() + " authentication as " + (dn != null ? dn : "anonymous") + " using a new TLS connection");
+    }
+    
+    private void reauthenticate(String dn, String password) throws NamingException, LDAPException
+    {
+        Hashtable<String, String> env = buildEnvironment(dn, password);
+        Map<String, String> authEnv = removeAuthenticationConfigurationFromEnvironment(env);
+        
+        if (!authEnv.containsKey(Context.SECURITY_PRINCIPAL))
+        {
+            getConn().removeFromEnvironment(Context.SECURITY_PRINCIPAL);
+            getConn().removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+        }
+        applyAuthenticationConfiguration(authEnv, getConn());
+        getConn().reconnect(null);
+        bindSucceeded(dn, password);
+    }
+    
+    /**
+     * Binds the connection again as the identity it had before a rejected bind.
+     * 
+     * @return <i>true</i> if the connection is usable as the previous identity.
+     */
+    private boolean restoreIdentity(String dn, String password)
+    {
+        try
+        {
+            reauthenticate(dn, password);
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Restored identity " + (dn != null ? dn : "anonymous") + " after failed bind on the existing connection");
+            }
+            return true;
+        }
+        catch (NamingException nex)
+        {
+            logger.warn("Cannot restore identity " + (dn != null ? dn : "anonymous") + " after failed bind", nex);
+            return false;
+        }
+        catch (LDAPException ex)
+        {
+            logger.warn("Cannot restore identity " + (dn != null ? dn : "anonymous") + " after failed bind", ex);
+            return false;
+        }
+    }
+    
+    /**
+     * Returns the {@link SSLSocketFactory} used to negotiate StartTLS: the one configured with
+     * {@link #TLS_SOCKET_FACTORY_ATTR} or the JVM default one. A single instance of each factory class is shared by
+     * all the connections, so TLS sessions cached by its {@link SSLContext} can be resumed even if the factory builds a
+     * new context on every <code>getDefault()</code> call (like
+     * {@link org.mule.module.ldap.security.BypassTrustSSLSocketFactory} does).
+     */
+    private SSLSocketFactory getTlsSocketFactory() throws LDAPException
+    {
+        if (tlsSocketFactory == null)
+        {
+            return (SSLSocketFactory) SSLSocketFactory.getDefault();
+        }
+        
+        SSLSocketFactory factory = TLS_SOCKET_FACTORIES.get(tlsSocketFactory);
+        if (factory == null)
+        {
+            try
+            {
+                factory = (SSLSocketFactory) Class.forName(tlsSocketFactory).getMethod("getDefault").invoke(null);
+            }
+            catch (Exception ex)
+            {
+                throw handleException(ex, "Cannot create TLS socket factory " + tlsSocketFactory + ".");
+            }
+            SSLSocketFactory existing = TLS_SOCKET_FACTORIES.putIfAbsent(tlsSocketFactory, factory);
+            if (existing != null)
+            {
+                factory = existing;
+            }
+        }
+        return factory;
+    }
+    
+	private void initTls(LdapContext conn) throws LDAPException
 	{
 		try
 		{
 			logger.debug("Enabling TLS");
 			this.tls = (StartTlsResponse) conn.extendedOperation(new StartTlsRequest());
-			final SSLSession negotiate = this.tls.negotiate();
+			final SSLSession negotiate = this.tls.negotiate(getTlsSocketFactory());
 			logger.info("TLS enabled successfully using protocol " + negotiate.getProtocol());
 		}
 		catch(NamingException nex)
@@ -561,16 +827,15 @@ public class LDAPJNDIConnection extends LDAPConnection
 		}
 	}
 
-    private String getBindedUserPassword() throws LDAPException
+    private void bindSucceeded(String dn, String password)
     {
-        try
-        {
-            return (String) getConn().getEnvironment().get(Context.SECURITY_CREDENTIALS);
-        }
-        catch (NamingException nex)
-        {
-            throw handleNamingException(nex, "Cannot get binded user password.");
-        }
+        this.bindedUserPassword = isNoAuthentication() ? null : password;
+        bindPerformed(isNoAuthentication() ? null : dn);
+    }
+    
+    private String getBindedUserPassword()
+    {
+        return bindedUserPassword;
     }
     
     /**
@@ -582,21 +847,7 @@ public class LDAPJNDIConnection extends LDAPConnection
     @Override
     public String getBindedUserDn() throws LDAPException
     {
-        if(!isClosed())
-        {
-            try
-            {
-                return (String) getConn().getEnvironment().get(Context.SECURITY_PRINCIPAL);
-            }
-            catch (NamingException nex)
-            {
-                throw handleNamingException(nex, "Cannot get binded user DN.");
-            }
-        }
-        else
-        {
-            return null;
-        }
+        return !isClosed() ? getLastBindDn() : null;
     }
     
     /**
@@ -633,12 +884,30 @@ public class LDAPJNDIConnection extends LDAPConnection
         return doSearch(baseDn, filter, filterArgs, controls);
     }
 
-    private LDAPResultSet doSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    private LDAPResultSet doSearch(final String baseDn, final String filter, final Object[] filterArgs, final LDAPSearchControls controls) throws LDAPException
+    {
+        LDAPResultSet cached = getCachedSearch(baseDn, filter, filterArgs, controls);
+        if(cached != null)
+        {
+            return cached;
+        }
+        
+        return coalesceSearch(baseDn, filter, filterArgs, controls, new LDAPRequestCoalescer.Request<LDAPResultSet>()
+        {
+            @Override
+            public LDAPResultSet execute() throws LDAPException
+            {
+                return performSearch(baseDn, filter, filterArgs, controls);
+            }
+        });
+    }
+    
+    private LDAPResultSet performSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
     {
         LdapContext searchConn = null;
         try
         {
-            searchConn = controls.isPagingEnabled() ? getConn().newInstance(LDAPJNDIUtils.buildRequestControls(controls, null)) : getConn();
+            searchConn = controls.isPagingEnabled() || controls.isVirtualListViewEnabled() ? getConn().newInstance(LDAPJNDIUtils.buildRequestControls(controls, null)) : getConn();
             
             NamingEnumeration<SearchResult> entries;
             if(filterArgs != null && filterArgs.length > 0)
@@ -657,7 +926,170 @@ public class LDAPJNDIConnection extends LDAPConnection
             throw handleNamingException(nex, "Search failed.");
         }
     }
-    
+
+    /**
+     * Reads the pages of the search results directly from the naming enumeration, so no entries are built.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#count(java.lang.String, java.lang.String, java.lang.Object[],
+     *      org.mule.module.ldap.api.LDAPSearchControls)
+     */
+    @Override
+    public int count(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    {
+        LDAPSearchControls countControls = countControls(controls);
+        LdapContext searchConn = null;
+        NamingEnumeration<SearchResult> entries = null;
+        try
+        {
+            searchConn = getConn().newInstance(LDAPJNDIUtils.buildRequestControls(countControls, null));
+            SearchControls searchControls = LDAPJNDIUtils.buildSearchControls(countControls);
+
+            int count = 0;
+            byte[] cookie;
+            do
+            {
+                if (filterArgs != null && filterArgs.length > 0)
+                {
+                    entries = searchConn.search(baseDn, filter, filterArgs, searchControls);
+                }
+                else
+                {
+                    entries = searchConn.search(baseDn, filter, searchControls);
+                }
+
+                try
+                {
+                    while (entries.hasMore())
+                    {
+                        entries.next();
+                        count++;
+                    }
+                }
+                catch (SizeLimitExceededException slee)
+                {
+                    if (controls.isFailOnSizeLimitExceeded())
+                    {
+                        throw slee;
+                    }
+                    logger.warn("Size limit exceeded. Max results is: " + controls.getMaxResults(), slee);
+                    return count;
+                }
+                finally
+                {
+                    entries.close();
+                    entries = null;
+                }
+
+                cookie = null;
+                Control[] responseControls = searchConn.getResponseControls();
+                for (int i = 0; responseControls != null && i < responseControls.length; i++)
+                {
+                    if (responseControls[i] instanceof PagedResultsResponseControl)
+                    {
+                        PagedResultsResponseControl prrc = (PagedResultsResponseControl) responseControls[i];
+                        cookie = prrc.getCookie();
+                        int estimate = countEstimate(prrc.getResultSize(), countControls);
+                        if (cookie != null && estimate >= 0)
+                        {
+                            abandonPagedSearch(searchConn, baseDn, filter, filterArgs, searchControls, countControls, cookie);
+                            return estimate;
+                        }
+                    }
+                }
+                if (cookie != null)
+                {
+                    searchConn.setRequestControls(LDAPJNDIUtils.buildRequestControls(countControls, cookie));
+                }
+            }
+            while (cookie != null);
+            return count;
+        }
+        catch (NamingException nex)
+        {
+            throw handleNamingException(nex, "Count failed.");
+        }
+        finally
+        {
+            silentyCloseDirContext(searchConn);
+        }
+    }
+
+    /**
+     * Tells the server that no more pages of a paged search will be requested, requesting a page of size zero with the
+     * cookie of the last page (RFC 2696), so the server releases the state of the search.
+     */
+    private void abandonPagedSearch(LdapContext searchConn, String baseDn, String filter, Object[] filterArgs, SearchControls searchControls, LDAPSearchControls controls, byte[] cookie)
+    {
+        NamingEnumeration<SearchResult> entries = null;
+        try
+        {
+            searchConn.setRequestControls(LDAPJNDIUtils.buildRequestControls(controls, cookie, 0));
+            if (filterArgs != null && filterArgs.length > 0)
+            {
+                entries = searchConn.search(baseDn, filter, filterArgs, searchControls);
+            }
+            else
+            {
+                entries = searchConn.search(baseDn, filter, searchControls);
+            }
+            entries.hasMore();
+        }
+        catch (NamingException nex)
+        {
+            logger.debug("Cannot abandon paged search under " + baseDn, nex);
+        }
+        catch (LDAPException ex)
+        {
+            logger.debug("Cannot abandon paged search under " + baseDn, ex);
+        }
+        finally
+        {
+            if (entries != null)
+            {
+                try
+                {
+                    entries.close();
+                }
+                catch (NamingException nex)
+                {
+                    logger.debug("Cannot close paged search under " + baseDn, nex);
+                }
+            }
+        }
+    }
+
+    /**
+     * The search is performed on a context derived from this connection, so the connection can still be used (and
+     * even closed) while the stream is open.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#persistentSearch(java.lang.String, java.lang.String,
+     *      java.lang.Object[], org.mule.module.ldap.api.LDAPSearchControls, int, boolean, int, long)
+     */
+    @Override
+    public LDAPChangeStream persistentSearch(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, int changeTypes, boolean changesOnly, int bufferSize, long reconnectInterval) throws LDAPException
+    {
+        if (controls.isPagingEnabled() || controls.isVirtualListViewEnabled() || !controls.getSortKeys().isEmpty())
+        {
+            throw new OperationNotSupportedException("Persistent search does not support paging, sorting nor virtual list view.");
+        }
+        return new PersistentSearchChangeStream(getConn(), baseDn, filter, filterArgs, LDAPJNDIUtils.buildSearchControls(controls), changeTypes, changesOnly, bufferSize, reconnectInterval, isTlsEnabled() ? getTlsSocketFactory() : null, isSchemaEnabled() ? this : null);
+    }
+
+    /**
+     * The synchronization is performed on a context derived from this connection, so the connection can still be used
+     * (and even closed) while the stream is open.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#sync(java.lang.String, java.lang.String, java.lang.Object[],
+     *      org.mule.module.ldap.api.LDAPSearchControls, boolean, byte[], int, long, long)
+     */
+    @Override
+    public LDAPChangeStream sync(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, boolean persist, byte[] cookie, int bufferSize, long reconnectInterval, long pollingInterval) throws LDAPException
+    {
+        // Fails early if the controls cannot be used for synchronizing
+        LDAPJNDIUtils.buildSyncRequestControls(controls, persist, cookie);
+        return new SyncReplChangeStream(getConn(), baseDn, filter, filterArgs, controls, persist, cookie, bufferSize, reconnectInterval, pollingInterval, isTlsEnabled() ? getTlsSocketFactory() : null, isSchemaEnabled() ? this : null);
+    }
+
     /**
      * @param dn
      * @return
@@ -665,16 +1097,29 @@ public class LDAPJNDIConnection extends LDAPConnection
      * @see org.mule.module.ldap.api.LDAPConnection#lookup(java.lang.String)
      */
     @Override
-    public LDAPEntry lookup(String dn) throws LDAPException
+    public LDAPEntry lookup(final String dn) throws LDAPException
     {
-        try
+        LDAPEntry cached = getCachedEntry(dn, null);
+        if (cached != null)
         {
-            return LDAPJNDIUtils.buildEntry(dn, getConn().getAttributes(dn), isSchemaEnabled() ? this : null);
+            return cached;
         }
-        catch (NamingException nex)
+
+        return coalesceLookup(dn, null, new LDAPRequestCoalescer.Request<LDAPEntry>()
         {
-            throw handleNamingException(nex, "Lookup of entry " + dn + " failed.");
-        }
+            @Override
+            public LDAPEntry execute() throws LDAPException
+            {
+                try
+                {
+                    return LDAPJNDIUtils.buildEntry(dn, getConn().getAttributes(dn), isSchemaEnabled() ? LDAPJNDIConnection.this : null);
+                }
+                catch (NamingException nex)
+                {
+                    throw handleNamingException(nex, "Lookup of entry " + dn + " failed.");
+                }
+            }
+        });
     }
 
     /**
@@ -686,16 +1131,29 @@ public class LDAPJNDIConnection extends LDAPConnection
      *      java.lang.String[])
      */
     @Override
-    public LDAPEntry lookup(String dn, String[] attributes) throws LDAPException
+    public LDAPEntry lookup(final String dn, final String[] attributes) throws LDAPException
     {
-        try
+        LDAPEntry cached = getCachedEntry(dn, attributes);
+        if (cached != null)
         {
-            return LDAPJNDIUtils.buildEntry(dn, getConn().getAttributes(dn, attributes), isSchemaEnabled() ? this : null);
+            return cached;
         }
-        catch (NamingException nex)
+
+        return coalesceLookup(dn, attributes, new LDAPRequestCoalescer.Request<LDAPEntry>()
         {
-            throw handleNamingException(nex, "Lookup of entry " + dn + " failed.");
-        }
+            @Override
+            public LDAPEntry execute() throws LDAPException
+            {
+                try
+                {
+                    return LDAPJNDIUtils.buildEntry(dn, getConn().getAttributes(dn, attributes), isSchemaEnabled() ? LDAPJNDIConnection.this : null);
+                }
+                catch (NamingException nex)
+                {
+                    throw handleNamingException(nex, "Lookup of entry " + dn + " failed.");
+                }
+            }
+        });
     }
 
     /**
@@ -709,6 +1167,7 @@ public class LDAPJNDIConnection extends LDAPConnection
         try
         {
             getConn().bind(entry.getDn(), null, buildAttributes(entry));
+            invalidateCaches(entry.getDn());
         }
         catch (NamingException nex)
         {
@@ -763,6 +1222,8 @@ public class LDAPJNDIConnection extends LDAPConnection
                     buildBasicAttribute(((LDAPEntryAttribute) it.next())));
             }
             getConn().modifyAttributes(entry.getDn(), mods);
+            invalidateCredentials(entry.getDn());
+            invalidateCaches(entry.getDn());
         }
         catch (NamingException nex)
         {
@@ -797,6 +1258,8 @@ public class LDAPJNDIConnection extends LDAPConnection
             } 
             
             getConn().unbind(dn);
+            invalidateCredentials(dn);
+            invalidateCaches(dn);
             
             if(logger.isInfoEnabled())
             {
@@ -827,6 +1290,9 @@ public class LDAPJNDIConnection extends LDAPConnection
             }
             
             getConn().rename(oldDn, newDn);
+            invalidateCredentials(oldDn);
+            invalidateCachedTree(oldDn);
+            invalidateCaches(newDn);
             
             if(logger.isInfoEnabled())
             {
@@ -854,6 +1320,8 @@ public class LDAPJNDIConnection extends LDAPConnection
             ModificationItem[] mods = new ModificationItem[1];
             mods[0] = new ModificationItem(DirContext.ADD_ATTRIBUTE, buildBasicAttribute(attribute));
             getConn().modifyAttributes(dn, mods);
+            invalidateCredentials(dn);
+            invalidateCaches(dn);
         }
         catch (NamingException nex)
         {
@@ -876,6 +1344,8 @@ public class LDAPJNDIConnection extends LDAPConnection
             ModificationItem[] mods = new ModificationItem[1];
             mods[0] = new ModificationItem(DirContext.REPLACE_ATTRIBUTE, buildBasicAttribute(attribute));
             getConn().modifyAttributes(dn, mods);
+            invalidateCredentials(dn);
+            invalidateCaches(dn);
         }
         catch (NamingException nex)
         {
@@ -898,6 +1368,8 @@ public class LDAPJNDIConnection extends LDAPConnection
             ModificationItem[] mods = new ModificationItem[1];
             mods[0] = new ModificationItem(DirContext.REMOVE_ATTRIBUTE, buildBasicAttribute(attribute));
             getConn().modifyAttributes(dn, mods);
+            invalidateCredentials(dn);
+            invalidateCaches(dn);
         }
         catch (NamingException nex)
         {
@@ -10,21 +10,33 @@ package org.mule.module.ldap.api.jndi;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 
+import javax.naming.CommunicationException;
+import javax.naming.Context;
 import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
+import javax.naming.ldap.BasicControl;
 import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.PagedResultsControl;
 import javax.naming.ldap.SortControl;
 import javax.naming.ldap.SortKey;
+import javax.naming.ldap.StartTlsRequest;
+import javax.naming.ldap.StartTlsResponse;
+import javax.net.ssl.SSLSocketFactory;
 
 import org.apache.log4j.Logger;
+import org.mule.module.ldap.api.LDAPControl;
 import org.mule.module.ldap.api.LDAPEntry;
 import org.mule.module.ldap.api.LDAPEntryAttribute;
 import org.mule.module.ldap.api.LDAPEntryAttributeTypeDefinition;
@@ -35,10 +47,22 @@ import org.mule.module.ldap.api.LDAPSchemaAware;
 import org.mule.module.ldap.api.LDAPSearchControls;
 import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
 import org.mule.module.ldap.api.LDAPSortKey;
+import org.mule.module.ldap.api.OperationNotSupportedException;
 
 public class LDAPJNDIUtils
 {
     protected final static Logger logger = Logger.getLogger(LDAPJNDIUtils.class);
+
+    /**
+     * JNDI property limiting the number of search responses the LDAP provider queues for a search that were not read
+     * yet. Once the queue is full, the provider stops reading from the connection.
+     */
+    private static final String REPLY_QUEUE_SIZE_ENV_PARAM = "com.sun.jndi.ldap.search.replyQueueSize";
+
+    /**
+     * Beginning of the explanation of the exceptions the LDAP provider creates for failed operations.
+     */
+    private static final String RESULT_CODE_PREFIX = "[LDAP: error code ";
     
     /**
      * 
@@ -243,19 +267,43 @@ public class LDAPJNDIUtils
      * @throws LDAPException
      */
     public static Control[] buildRequestControls(LDAPSearchControls controls, byte[] cookie) throws LDAPException
+    {
+        return buildRequestControls(controls, cookie, controls.getPageSize());
+    }
+
+    /**
+     * Builds the request controls with a page size other than the one of the search controls.
+     * 
+     * @param controls
+     * @param cookie
+     * @param pageSize Size of the page requested if paging is enabled.
+     * @return
+     * @throws LDAPException
+     */
+    public static Control[] buildRequestControls(LDAPSearchControls controls, byte[] cookie, int pageSize) throws LDAPException
     {
         List<Control> requestControls = new ArrayList<Control>();
         try
         {
-            if(controls.isPagingEnabled())
+            if(controls.isVirtualListViewEnabled())
+            {
+                if(!controls.isSortEnabled())
+                {
+                    throw new LDAPException("Virtual list view requires sorting the results");
+                }
+                // The window replaces paging, both controls cannot be used together
+                LDAPControl vlv = LDAPControl.virtualListView(controls.getVirtualListView());
+                requestControls.add(new BasicControl(vlv.getOid(), vlv.isCritical(), vlv.getValue()));
+            }
+            else if(controls.isPagingEnabled())
             {
                 if(cookie != null)
                 {
-                    requestControls.add(new PagedResultsControl(controls.getPageSize(), cookie, Control.CRITICAL));
+                    requestControls.add(new PagedResultsControl(pageSize, cookie, Control.CRITICAL));
                 }
                 else
                 {
-                    requestControls.add(new PagedResultsControl(controls.getPageSize(), Control.CRITICAL));
+                    requestControls.add(new PagedResultsControl(pageSize, Control.CRITICAL));
                 }
             }
             
@@ -270,8 +318,179 @@ public class LDAPJNDIUtils
         {
             throw new LDAPException("Could not create request paging and/or sort controls", ex);
         }
-    }    
+    }
+
+    /**
+     * Builds the request controls of a content synchronization (RFC 4533) search. The results of a synchronization
+     * cannot be paged, sorted nor windowed.
+     *
+     * @param controls
+     * @param persist Whether the changes are notified after the refresh (refreshAndPersist) or the search ends
+     *        (refreshOnly).
+     * @param syncCookie The cookie of the last synchronization or <i>null</i> to synchronize the whole content.
+     * @return
+     * @throws LDAPException
+     */
+    public static Control[] buildSyncRequestControls(LDAPSearchControls controls, boolean persist, byte[] syncCookie) throws LDAPException
+    {
+        if(controls.isPagingEnabled() || controls.isVirtualListViewEnabled() || controls.isSortEnabled())
+        {
+            throw new OperationNotSupportedException("Content synchronization does not support paging, sorting nor virtual list view.");
+        }
+
+        List<Control> requestControls = new ArrayList<Control>(Arrays.asList(buildRequestControls(controls, null)));
+        LDAPControl sync = LDAPControl.syncRequest(persist ? LDAPControl.SYNC_REFRESH_AND_PERSIST : LDAPControl.SYNC_REFRESH_ONLY, syncCookie);
+        requestControls.add(new BasicControl(sync.getOid(), sync.isCritical(), sync.getValue()));
+        return requestControls.toArray(new Control[0]);
+    }
     
+    /**
+     * Gets the LDAP result code of a failed operation. The LDAP provider does not expose it, but reports result codes
+     * it has no specific exception for (like the ones of extensions) at the beginning of the explanation, as in
+     * <code>[LDAP: error code 4096 - ...]</code>.
+     *
+     * @return The result code or -1 if the exception does not report one.
+     */
+    public static int getResultCode(NamingException nex)
+    {
+        String explanation = nex.getExplanation();
+        if (explanation == null || !explanation.startsWith(RESULT_CODE_PREFIX))
+        {
+            return -1;
+        }
+        int start = RESULT_CODE_PREFIX.length();
+        int end = start;
+        while (end < explanation.length() && Character.isDigit(explanation.charAt(end)))
+        {
+            end++;
+        }
+        try
+        {
+            return end > start ? Integer.parseInt(explanation.substring(start, end)) : -1;
+        }
+        catch (NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Derives the context of a long lived search (like a persistent search) from a connection. The context gets a
+     * connection of its own, as the LDAP provider stops reading from it while <i>replyQueueSize</i> responses of the
+     * search are waiting to be read, which would also block the operations of the connection it is derived from.
+     * <p/>
+     * When <i>tlsSocketFactory</i> is given, the new connection negotiates StartTLS before binding, as the provider
+     * would otherwise open it in cleartext.
+     *
+     * @param conn The connection the context is derived from, whose credentials are used.
+     * @param requestControls The request controls of the search.
+     * @param replyQueueSize Maximum number of responses received from the server waiting to be read.
+     * @param tlsSocketFactory The factory used to negotiate StartTLS or <i>null</i> if the connection does not use TLS.
+     * @return The context, which must be closed once the search ends.
+     * @throws NamingException If the context cannot be connected.
+     */
+    public static LdapContext newSearchContext(LdapContext conn, Control[] requestControls, int replyQueueSize, SSLSocketFactory tlsSocketFactory) throws NamingException
+    {
+        if (tlsSocketFactory != null)
+        {
+            return newTlsSearchContext(conn, requestControls, replyQueueSize, tlsSocketFactory);
+        }
+
+        LdapContext ctx = conn.newInstance(requestControls);
+        try
+        {
+            ctx.addToEnvironment(REPLY_QUEUE_SIZE_ENV_PARAM, String.valueOf(replyQueueSize));
+            ctx.reconnect(null);
+            return ctx;
+        }
+        catch (NamingException nex)
+        {
+            closeSearchContext(ctx);
+            throw nex;
+        }
+    }
+
+    /**
+     * Connects again the context of a long lived search after its connection was lost.
+     *
+     * @param ctx The context of the search, created with {@link #newSearchContext(LdapContext, Control[], int, SSLSocketFactory)}.
+     * @return The context to use from now on. When using TLS it is a new context (with a new connection that
+     *         negotiates StartTLS before binding) and <i>ctx</i> is closed.
+     * @throws NamingException If the context cannot be connected.
+     */
+    public static LdapContext reconnectSearchContext(LdapContext ctx, Control[] requestControls, int replyQueueSize, SSLSocketFactory tlsSocketFactory) throws NamingException
+    {
+        if (tlsSocketFactory == null)
+        {
+            ctx.setRequestControls(requestControls);
+            ctx.reconnect(null);
+            return ctx;
+        }
+
+        LdapContext newCtx = newTlsSearchContext(ctx, requestControls, replyQueueSize, tlsSocketFactory);
+        closeSearchContext(ctx);
+        return newCtx;
+    }
+
+    private static LdapContext newTlsSearchContext(LdapContext conn, Control[] requestControls, int replyQueueSize, SSLSocketFactory tlsSocketFactory) throws NamingException
+    {
+        Hashtable<Object, Object> env = new Hashtable<Object, Object>(conn.getEnvironment());
+        Map<Object, Object> authEnv = new Hashtable<Object, Object>();
+        for (String key : Arrays.asList(Context.SECURITY_AUTHENTICATION, Context.SECURITY_CREDENTIALS, Context.SECURITY_PRINCIPAL, Context.SECURITY_PROTOCOL))
+        {
+            Object value = env.remove(key);
+            if (value != null)
+            {
+                authEnv.put(key, value);
+            }
+        }
+        env.put(REPLY_QUEUE_SIZE_ENV_PARAM, String.valueOf(replyQueueSize));
+
+        LdapContext ctx = new InitialLdapContext(env, null);
+        try
+        {
+            startTls(ctx, tlsSocketFactory);
+            for (Map.Entry<Object, Object> entry : authEnv.entrySet())
+            {
+                ctx.addToEnvironment((String) entry.getKey(), entry.getValue());
+            }
+            ctx.setRequestControls(requestControls);
+            // The context is not shared with any other context yet, so the bind is sent on the TLS connection
+            ctx.reconnect(null);
+            return ctx;
+        }
+        catch (IOException ex)
+        {
+            closeSearchContext(ctx);
+            CommunicationException nex = new CommunicationException("TLS negotiation failed.");
+            nex.setRootCause(ex);
+            throw nex;
+        }
+        catch (NamingException nex)
+        {
+            closeSearchContext(ctx);
+            throw nex;
+        }
+    }
+
+    private static void startTls(LdapContext conn, SSLSocketFactory tlsSocketFactory) throws NamingException, IOException
+    {
+        StartTlsResponse tls = (StartTlsResponse) conn.extendedOperation(new StartTlsRequest());
+        tls.negotiate(tlsSocketFactory);
+    }
+
+    private static void closeSearchContext(LdapContext ctx)
+    {
+        try
+        {
+            ctx.close();
+        }
+        catch (NamingException cex)
+        {
+            logger.debug("Cannot close search context", cex);
+        }
+    }
+
     private static SortKey[] buildSortKeyArray(List<LDAPSortKey> sortKeys)
     {
         SortKey keys[] = new SortKey[sortKeys.size()];
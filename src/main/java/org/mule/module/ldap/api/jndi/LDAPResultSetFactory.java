@@ -38,7 +38,11 @@ public class LDAPResultSetFactory
      */
     public static LDAPResultSet create(String baseDn, String filter, Object[] filterArgs, LdapContext conn, LDAPSearchControls controls, NamingEnumeration<SearchResult> entries, LDAPSchemaAware connection)
     {
-        if(controls.isPagingEnabled())
+        if(controls.isVirtualListViewEnabled())
+        {
+            return new VirtualListViewLDAPResultSet(baseDn, conn, controls, entries, connection);
+        }
+        else if(controls.isPagingEnabled())
         {
             return new PagedLDAPResultSet(baseDn, filter, filterArgs, conn, controls, entries, connection);
         }
@@ -9,8 +9,18 @@
 package org.mule.module.ldap.api.jndi;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
@@ -22,16 +32,42 @@ import javax.naming.ldap.PagedResultsResponseControl;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.LDAPAdaptivePageSize;
 import org.mule.module.ldap.api.LDAPEntry;
 import org.mule.module.ldap.api.LDAPException;
 import org.mule.module.ldap.api.LDAPResultSet;
 import org.mule.module.ldap.api.LDAPSchemaAware;
 import org.mule.module.ldap.api.LDAPSearchControls;
 
+/**
+ * Result set of a search using the paged results control. Each page is requested once the previous one was read.
+ * <p/>
+ * If prefetching is enabled (see {@link LDAPSearchControls#setPrefetchPages(int)}), pages are read in the background
+ * and the next page is requested while the consumer still works on the previous ones. At most <i>prefetchPages</i>
+ * pages are kept waiting for the consumer, so memory usage is still bounded by the page size. If no page is taken
+ * for longer than the consumer timeout (see {@link LDAPSearchControls#setConsumerTimeout(long)}) the search is
+ * abandoned and the background reader stops.
+ * <p/>
+ * If a page target latency or byte budget is set (see {@link LDAPSearchControls#isAdaptivePageSizeEnabled()}), the
+ * size of each page requested is chosen by a {@link LDAPAdaptivePageSize} from the entries of the previous pages.
+ */
 public class PagedLDAPResultSet implements LDAPResultSet
 {
     protected final Log logger = LogFactory.getLog(getClass());
 
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory()
+    {
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "ldap-page-prefetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private String baseDn;
     private String filter;
     private Object[] filterArgs;
@@ -43,6 +79,39 @@ public class PagedLDAPResultSet implements LDAPResultSet
     
     private byte[] cookie = null;
     
+    /*
+     * Only used by the thread reading the pages (the background reader in prefetch mode)
+     */
+    private LDAPAdaptivePageSize pageSizer = null;
+    
+    /*
+     * Prefetch mode only. The background reader owns the context and the entries enumeration until it finishes.
+     */
+    private BlockingQueue<Page> prefetchedPages = null;
+    private Future<?> prefetcher = null;
+    private CountDownLatch prefetcherDone = null;
+    private Iterator<LDAPEntry> currentPage = null;
+    private boolean lastPageTaken = false;
+    private LDAPException prefetchError = null;
+    private volatile int resultSize = -1;
+    
+    /**
+     * A page read by the background reader.
+     */
+    private static class Page
+    {
+        private final List<LDAPEntry> entries;
+        private final LDAPException error;
+        private final boolean last;
+        
+        Page(List<LDAPEntry> entries, LDAPException error, boolean last)
+        {
+            this.entries = entries;
+            this.error = error;
+            this.last = last;
+        }
+    }
+    
     /**
      * 
      */
@@ -55,6 +124,131 @@ public class PagedLDAPResultSet implements LDAPResultSet
         this.conn = conn;
         this.schemaCache = schemaCache; // LDAP connection only for schema cache access
         this.entries = entries;
+        
+        if(controls.isAdaptivePageSizeEnabled())
+        {
+            this.pageSizer = new LDAPAdaptivePageSize(controls.getPageSize(), controls.getPageTargetLatency(), controls.getPageByteBudget());
+        }
+        
+        if(controls.isPrefetchEnabled())
+        {
+            startPrefetching();
+        }
+    }
+    
+    private void startPrefetching()
+    {
+        this.prefetchedPages = new ArrayBlockingQueue<Page>(controls.getPrefetchPages());
+        this.prefetcherDone = new CountDownLatch(1);
+        this.prefetcher = PREFETCH_EXECUTOR.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    prefetch();
+                }
+                catch(InterruptedException ex)
+                {
+                    // Result set closed
+                }
+                finally
+                {
+                    prefetcherDone.countDown();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Reads every page, requesting the next one as soon as the response control with the cookie is received.
+     */
+    private void prefetch() throws InterruptedException
+    {
+        boolean last = false;
+        while(!last)
+        {
+            List<LDAPEntry> page = new ArrayList<LDAPEntry>(controls.getPageSize());
+            try
+            {
+                try
+                {
+                    while(this.entries != null && hasMoreEntries())
+                    {
+                        page.add(buildEntry(this.entries.next()));
+                    }
+                    this.cookie = getPagedResultsResponseControlCookie();
+                    this.resultSize = getPagedResultsResponseControlResultSize();
+                }
+                catch(SizeLimitExceededException slee)
+                {
+                    if(this.controls.isFailOnSizeLimitExceeded())
+                    {
+                        throw slee;
+                    }
+                    logger.warn("Size limit exceeded. Max results is: " + this.controls.getMaxResults(), slee);
+                    this.cookie = null;
+                }
+                
+                last = this.cookie == null;
+                if(Thread.currentThread().isInterrupted())
+                {
+                    throw new InterruptedException();
+                }
+                // Blocks while the consumer is prefetchPages pages behind
+                if(!putPage(new Page(page, null, last)))
+                {
+                    return;
+                }
+                if(!last)
+                {
+                    getNextPage();
+                }
+            }
+            catch(NamingException nex)
+            {
+                putPage(new Page(page, LDAPException.create(nex), true));
+                return;
+            }
+            catch(LDAPException ex)
+            {
+                putPage(new Page(page, ex, true));
+                return;
+            }
+            catch(RuntimeException ex)
+            {
+                putPage(new Page(page, new LDAPException(ex.getMessage(), ex), true));
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Waits for the consumer to make room for the page, abandoning the search if the consumer timeout expires.
+     * 
+     * @return <i>false</i> if the search was abandoned.
+     */
+    private boolean putPage(Page page) throws InterruptedException
+    {
+        long consumerTimeout = this.controls.getConsumerTimeout();
+        if(consumerTimeout <= 0)
+        {
+            this.prefetchedPages.put(page);
+            return true;
+        }
+        if(this.prefetchedPages.offer(page, consumerTimeout, TimeUnit.MILLISECONDS))
+        {
+            return true;
+        }
+        
+        logger.warn("No page was consumed in " + consumerTimeout + " ms. Abandoning search of " + this.filter + " under " + this.baseDn);
+        silentCloseEntriesEnumeration();
+        silentCloseContext();
+        // Only this thread adds pages, so there is room for the failure once the queue is cleared
+        this.prefetchedPages.clear();
+        this.prefetchedPages.offer(new Page(new ArrayList<LDAPEntry>(0), new LDAPException("Paged search was abandoned as no page was consumed in " + consumerTimeout + " ms"), true));
+        return false;
     }
     
     /**
@@ -64,6 +258,7 @@ public class PagedLDAPResultSet implements LDAPResultSet
     @Override
     public void close() throws LDAPException
     {
+        stopPrefetching();
         try
         {
             closeResultSet();
@@ -91,6 +286,33 @@ public class PagedLDAPResultSet implements LDAPResultSet
         }
     }
 
+    /**
+     * Waits for the background reader to give the context back. It stops once it finishes reading the current page.
+     */
+    private void stopPrefetching()
+    {
+        if(this.prefetcher != null)
+        {
+            this.prefetcher.cancel(true);
+            this.prefetchedPages.clear();
+            try
+            {
+                this.prefetcherDone.await();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                this.prefetcher = null;
+                this.prefetchedPages.clear();
+                this.currentPage = null;
+                this.lastPageTaken = true;
+            }
+        }
+    }
+    
     private void closeResultSet() throws LDAPException
     {
         try
@@ -120,29 +342,76 @@ public class PagedLDAPResultSet implements LDAPResultSet
     {
         if (hasNext()) // Force navigating to next page
         {
+            if (this.prefetchedPages != null)
+            {
+                return this.currentPage.next();
+            }
+            
             SearchResult searchResult = (SearchResult) this.entries.nextElement();
-            String entryDn;
             if (searchResult != null)
             {
-                entryDn = searchResult.getName();
-                if (searchResult.isRelative())
-                {
-                    entryDn += "," + baseDn;
-                }
-                return LDAPJNDIUtils.buildEntry(entryDn, searchResult.getAttributes(), schemaCache);
+                return buildEntry(searchResult);
             }
         }
         
         throw new NoSuchElementException("End of result set");
     }
 
+    private LDAPEntry buildEntry(SearchResult searchResult) throws LDAPException
+    {
+        String entryDn = searchResult.getName();
+        if (searchResult.isRelative())
+        {
+            entryDn += "," + baseDn;
+        }
+        LDAPEntry entry = LDAPJNDIUtils.buildEntry(entryDn, searchResult.getAttributes(), schemaCache);
+        if (this.pageSizer != null)
+        {
+            this.pageSizer.entryRead(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Checks for more entries in the current page, recording the time waiting for the server if the page size is
+     * adapted.
+     */
+    private boolean hasMoreEntries() throws NamingException
+    {
+        if (this.pageSizer == null)
+        {
+            return this.entries.hasMore();
+        }
+        
+        long start = System.nanoTime();
+        try
+        {
+            return this.entries.hasMore();
+        }
+        finally
+        {
+            this.pageSizer.waited(System.nanoTime() - start);
+        }
+    }
+
     private void getNextPage() throws LDAPException
     {
         try
         {
             silentCloseEntriesEnumeration();
             
-            this.conn.setRequestControls(LDAPJNDIUtils.buildRequestControls(controls, cookie));
+            int pageSize = controls.getPageSize();
+            if (this.pageSizer != null)
+            {
+                pageSize = this.pageSizer.nextPageSize();
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Requesting next page of " + pageSize + " entries");
+                }
+            }
+            
+            long start = System.nanoTime();
+            this.conn.setRequestControls(LDAPJNDIUtils.buildRequestControls(controls, cookie, pageSize));
             if (filterArgs != null && filterArgs.length > 0)
             {
                 this.entries = this.conn.search(baseDn, filter, filterArgs, LDAPJNDIUtils.buildSearchControls(controls));
@@ -151,6 +420,10 @@ public class PagedLDAPResultSet implements LDAPResultSet
             {
                 this.entries = this.conn.search(baseDn, filter, LDAPJNDIUtils.buildSearchControls(controls));
             }
+            if (this.pageSizer != null)
+            {
+                this.pageSizer.waited(System.nanoTime() - start);
+            }
         }
         catch(NamingException nex)
         {
@@ -158,6 +431,25 @@ public class PagedLDAPResultSet implements LDAPResultSet
         }
     }
     
+    private void silentCloseContext()
+    {
+        if(this.conn != null)
+        {
+            try
+            {
+                this.conn.close();
+            }
+            catch(NamingException nex)
+            {
+                // Ignore
+            }
+            finally
+            {
+                this.conn = null;
+            }
+        }
+    }
+    
     private void silentCloseEntriesEnumeration()
     {
         if(this.entries != null)
@@ -185,17 +477,22 @@ public class PagedLDAPResultSet implements LDAPResultSet
     @Override
     public boolean hasNext() throws LDAPException
     {
+        if(this.prefetchedPages != null)
+        {
+            return hasNextPrefetched();
+        }
+        
         try
         {
             if(this.entries != null)
             {
-                if(!this.entries.hasMore())
+                if(!hasMoreEntries())
                 {
                     this.cookie = getPagedResultsResponseControlCookie();
                     if(this.cookie != null)
                     {
                         getNextPage();
-                        return this.entries != null && this.entries.hasMore();
+                        return this.entries != null && hasMoreEntries();
                     }
                     else
                     {
@@ -215,6 +512,10 @@ public class PagedLDAPResultSet implements LDAPResultSet
         }
         catch(SizeLimitExceededException slee)
         {
+            if(this.controls.isFailOnSizeLimitExceeded())
+            {
+                throw LDAPException.create(slee);
+            }
             logger.warn("Size limit exceeded. Max results is: " + this.controls.getMaxResults(), slee);
             return false;
         }
@@ -224,6 +525,40 @@ public class PagedLDAPResultSet implements LDAPResultSet
         }
     }
 
+    private boolean hasNextPrefetched() throws LDAPException
+    {
+        while(this.currentPage == null || !this.currentPage.hasNext())
+        {
+            if(this.prefetchError != null)
+            {
+                // Entries read before the failure are returned first
+                LDAPException error = this.prefetchError;
+                this.prefetchError = null;
+                throw error;
+            }
+            if(this.lastPageTaken)
+            {
+                return false;
+            }
+            
+            Page page;
+            try
+            {
+                page = this.prefetchedPages.take();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new LDAPException("Interrupted while waiting for the next page of results", ex);
+            }
+            
+            this.currentPage = page.entries.iterator();
+            this.prefetchError = page.error;
+            this.lastPageTaken = page.last;
+        }
+        return true;
+    }
+    
     private int getPagedResultsResponseControlResultSize() throws LDAPException
     {
         try
@@ -299,6 +634,10 @@ public class PagedLDAPResultSet implements LDAPResultSet
 	@Override
 	public int getResultSize() throws LDAPException
 	{
+		if(this.prefetchedPages != null)
+		{
+			return this.resultSize;
+		}
 		return getPagedResultsResponseControlResultSize();
 	}
 }
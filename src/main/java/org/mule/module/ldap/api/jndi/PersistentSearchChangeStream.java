@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.io.IOException;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.HasControls;
+import javax.naming.ldap.LdapContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.mule.module.ldap.api.LDAPChangeStream;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryChange;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPSchemaAware;
+
+/**
+ * Change stream of a persistent search performed with the {@link PersistentSearchControl}.
+ * <p/>
+ * The search uses a context (and a connection) of its own derived from the connection, so it does not interfere with
+ * the rest of the operations. The LDAP provider queues at most <i>bufferSize</i> responses of the search and stops
+ * reading from that connection while they are not read. When the search is lost, that context is reconnected (with
+ * the same credentials) before subscribing again. When using TLS, every connection of the search negotiates StartTLS
+ * before binding.
+ *
+ * @author mariano
+ * @since 2.0.0
+ */
+public class PersistentSearchChangeStream extends LDAPChangeStream
+{
+    private final LdapContext conn;
+    private final String baseDn;
+    private final String filter;
+    private final Object[] filterArgs;
+    private final SearchControls searchControls;
+    private final Control[] requestControls;
+    private final SSLSocketFactory tlsSocketFactory;
+    private final LDAPSchemaAware schemaCache;
+
+    private LdapContext searchConn = null;
+    private NamingEnumeration<SearchResult> entries = null;
+
+    /**
+     * @param conn Context the context of the search is derived from.
+     * @param changeTypes Changes to notify as a combination of the {@link LDAPEntryChange} change types.
+     * @param changesOnly Whether the entries matching the search are not returned before the changes.
+     * @param tlsSocketFactory The factory used to negotiate StartTLS or <i>null</i> if the connection does not use TLS.
+     */
+    public PersistentSearchChangeStream(LdapContext conn, String baseDn, String filter, Object[] filterArgs, SearchControls searchControls, int changeTypes, boolean changesOnly, int bufferSize, long reconnectInterval, SSLSocketFactory tlsSocketFactory, LDAPSchemaAware schemaCache)
+    {
+        super(bufferSize, reconnectInterval);
+        this.conn = conn;
+        this.baseDn = baseDn;
+        this.filter = filter;
+        this.filterArgs = filterArgs;
+        this.searchControls = searchControls;
+        this.requestControls = new Control[] {new PersistentSearchControl(changeTypes, changesOnly, true)};
+        this.tlsSocketFactory = tlsSocketFactory;
+        this.schemaCache = schemaCache;
+        start();
+    }
+
+    @Override
+    protected void subscribe() throws LDAPException
+    {
+        try
+        {
+            LdapContext ctx;
+            synchronized (this)
+            {
+                if (searchConn == null)
+                {
+                    searchConn = LDAPJNDIUtils.newSearchContext(conn, requestControls, getBufferSize(), tlsSocketFactory);
+                }
+                else
+                {
+                    searchConn = LDAPJNDIUtils.reconnectSearchContext(searchConn, requestControls, getBufferSize(), tlsSocketFactory);
+                }
+                ctx = searchConn;
+            }
+
+            NamingEnumeration<SearchResult> result;
+            if (filterArgs != null && filterArgs.length > 0)
+            {
+                result = ctx.search(baseDn, filter, filterArgs, searchControls);
+            }
+            else
+            {
+                result = ctx.search(baseDn, filter, searchControls);
+            }
+
+            synchronized (this)
+            {
+                entries = result;
+            }
+        }
+        catch (NamingException nex)
+        {
+            throw LDAPException.create(nex);
+        }
+    }
+
+    @Override
+    protected LDAPEntryChange readChange() throws LDAPException
+    {
+        NamingEnumeration<SearchResult> current;
+        synchronized (this)
+        {
+            current = entries;
+        }
+        if (current == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            if (!current.hasMore())
+            {
+                return null;
+            }
+            SearchResult result = current.next();
+
+            String entryDn = result.getName();
+            if (result.isRelative())
+            {
+                entryDn = entryDn.length() > 0 ? entryDn + "," + baseDn : baseDn;
+            }
+            LDAPEntry entry = LDAPJNDIUtils.buildEntry(entryDn, result.getAttributes(), schemaCache);
+            return PersistentSearchControl.decodeEntryChange(entry, getEntryChangeNotification(result));
+        }
+        catch (NamingException nex)
+        {
+            throw LDAPException.create(nex);
+        }
+        catch (IOException ex)
+        {
+            throw new LDAPException("Invalid entry change notification control: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static byte[] getEntryChangeNotification(SearchResult result) throws NamingException
+    {
+        if (result instanceof HasControls)
+        {
+            Control[] controls = ((HasControls) result).getControls();
+            for (int i = 0; controls != null && i < controls.length; i++)
+            {
+                if (PersistentSearchControl.ENTRY_CHANGE_NOTIFICATION_OID.equals(controls[i].getID()))
+                {
+                    return controls[i].getEncodedValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void unsubscribe()
+    {
+        NamingEnumeration<SearchResult> current;
+        synchronized (this)
+        {
+            current = entries;
+            entries = null;
+        }
+        if (current != null)
+        {
+            try
+            {
+                current.close();
+            }
+            catch (NamingException nex)
+            {
+                logger.debug("Cannot abandon persistent search under " + baseDn, nex);
+            }
+        }
+    }
+
+    @Override
+    protected void release()
+    {
+        LdapContext ctx;
+        synchronized (this)
+        {
+            ctx = searchConn;
+            searchConn = null;
+        }
+        if (ctx != null)
+        {
+            try
+            {
+                ctx.close();
+            }
+            catch (NamingException nex)
+            {
+                logger.debug("Cannot close persistent search context", nex);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.io.IOException;
+
+import javax.naming.ldap.BasicControl;
+
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryChange;
+import org.mule.module.ldap.api.ber.BerDecoder;
+import org.mule.module.ldap.api.ber.BerEncoder;
+import org.mule.module.ldap.api.ber.BerTags;
+
+/**
+ * Persistent search request control (draft-ietf-ldapext-psearch), as the JRE does not provide one.
+ * <pre>
+ * PersistentSearch ::= SEQUENCE {
+ *      changeTypes INTEGER,
+ *      changesOnly BOOLEAN,
+ *      returnECs   BOOLEAN }
+ * </pre>
+ *
+ * @author mariano
+ * @since 2.0.0
+ */
+public class PersistentSearchControl extends BasicControl
+{
+    private static final long serialVersionUID = -2587464405823497571L;
+
+    public static final String OID = "2.16.840.1.113730.3.4.3";
+    public static final String ENTRY_CHANGE_NOTIFICATION_OID = "2.16.840.1.113730.3.4.7";
+
+    /**
+     * @param changeTypes Changes to notify as a combination of the {@link LDAPEntryChange} change types.
+     * @param changesOnly Whether the entries matching the search are not returned before the changes.
+     * @param returnECs Whether each change is returned with an entry change notification control.
+     */
+    public PersistentSearchControl(int changeTypes, boolean changesOnly, boolean returnECs)
+    {
+        super(OID, true, encode(changeTypes, changesOnly, returnECs));
+    }
+
+    private static byte[] encode(int changeTypes, boolean changesOnly, boolean returnECs)
+    {
+        BerEncoder value = new BerEncoder(16);
+        value.beginSequence(BerTags.SEQUENCE);
+        value.writeInteger(changeTypes);
+        value.writeBoolean(changesOnly);
+        value.writeBoolean(returnECs);
+        value.endSequence();
+        return value.toByteArray();
+    }
+
+    /**
+     * <pre>
+     * EntryChangeNotification ::= SEQUENCE {
+     *      changeType   ENUMERATED,
+     *      previousDN   LDAPDN OPTIONAL,
+     *      changeNumber INTEGER OPTIONAL }
+     * </pre>
+     *
+     * @param entry The entry the control was returned with.
+     * @param controlValue The value of the entry change notification control or <i>null</i> if the entry was
+     *        returned without one (as the entries matching the search when <i>changesOnly</i> is not set).
+     */
+    public static LDAPEntryChange decodeEntryChange(LDAPEntry entry, byte[] controlValue) throws IOException
+    {
+        if (controlValue == null)
+        {
+            return new LDAPEntryChange(entry, 0, null, -1);
+        }
+
+        BerDecoder value = new BerDecoder(controlValue).readSequence();
+        int changeType = value.readEnumerated();
+        String previousDn = null;
+        long changeNumber = -1;
+        while (value.hasMore())
+        {
+            if (value.peekTag() == BerTags.OCTET_STRING)
+            {
+                previousDn = value.readString();
+            }
+            else if (value.peekTag() == BerTags.INTEGER)
+            {
+                changeNumber = value.readInteger();
+            }
+            else
+            {
+                value.skip();
+            }
+        }
+        return new LDAPEntryChange(entry, changeType, previousDn, changeNumber);
+    }
+}
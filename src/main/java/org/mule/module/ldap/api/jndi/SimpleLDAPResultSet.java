@@ -61,6 +61,10 @@ public class SimpleLDAPResultSet implements LDAPResultSet
         }
         catch(SizeLimitExceededException slee)
         {
+            if(this.controls.isFailOnSizeLimitExceeded())
+            {
+                throw LDAPException.create(slee);
+            }
             logger.warn("Size limit exceeded. Max results is: " + this.controls.getMaxResults(), slee);
             return false;
         }
@@ -0,0 +1,363 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.HasControls;
+import javax.naming.ldap.LdapContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.LDAPChangeStream;
+import org.mule.module.ldap.api.LDAPControl;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryChange;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPSchemaAware;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.LDAPSyncChange;
+
+/**
+ * Change stream of a content synchronization (RFC 4533) search, in refreshOnly mode (the search is performed again
+ * every <i>pollingInterval</i> milliseconds) or refreshAndPersist mode (the search goes on notifying the changes after
+ * the refresh). The search uses a connection of its own, which negotiates StartTLS before binding when the connection
+ * it is derived from uses TLS.
+ * <p/>
+ * Every search starts from the last cookie received, so added and modified entries are not missed between searches
+ * nor after losing the connection. If the server no longer accepts the cookie (e-syncRefreshRequired), the whole
+ * content is synchronized again.
+ * <p/>
+ * JNDI does not expose intermediate responses, so cookies are taken from the sync state control of each entry and the
+ * sync done control that ends a refresh, but not from Sync Info messages. The synchronization may then resume from an
+ * older cookie than the last one sent by the server, and changes since then are notified again.
+ * <p/>
+ * Only deletions notified with a delete sync state are reported. Entries reported as present are passed on without
+ * being reconciled with the previous content, and the deleted (or present) entries listed in Sync Info messages are
+ * dropped, so entries deleted while the synchronization was not running may never be notified as deleted.
+ *
+ * @author mariano
+ * @since 2.0.0
+ */
+public class SyncReplChangeStream extends LDAPChangeStream
+{
+    /**
+     * e-syncRefreshRequired result code (RFC 4533, section 2.6).
+     */
+    private static final int SYNC_REFRESH_REQUIRED = 4096;
+
+    private final LdapContext conn;
+    private final String baseDn;
+    private final String filter;
+    private final Object[] filterArgs;
+    private final LDAPSearchControls controls;
+    private final SearchControls searchControls;
+    private final boolean persist;
+    private final long pollingInterval;
+    private final SSLSocketFactory tlsSocketFactory;
+    private final LDAPSchemaAware schemaCache;
+
+    private volatile byte[] cookie;
+
+    /*
+     * Only used by the reader, besides unsubscribing and releasing
+     */
+    private LdapContext searchConn = null;
+    private NamingEnumeration<SearchResult> entries = null;
+    private boolean lost = false;
+
+    /**
+     * @param conn Context the context of the search is derived from.
+     * @param persist Whether the search uses refreshAndPersist mode instead of refreshOnly.
+     * @param cookie The cookie the synchronization resumes from or <i>null</i> to synchronize the whole content.
+     * @param pollingInterval Milliseconds between the searches in refreshOnly mode.
+     * @param tlsSocketFactory The factory used to negotiate StartTLS or <i>null</i> if the connection does not use TLS.
+     */
+    public SyncReplChangeStream(LdapContext conn, String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls, boolean persist, byte[] cookie, int bufferSize, long reconnectInterval, long pollingInterval, SSLSocketFactory tlsSocketFactory, LDAPSchemaAware schemaCache)
+    {
+        super(bufferSize, reconnectInterval);
+        this.conn = conn;
+        this.baseDn = baseDn;
+        this.filter = filter;
+        this.filterArgs = filterArgs;
+        this.controls = controls;
+        this.searchControls = LDAPJNDIUtils.buildSearchControls(controls);
+        this.persist = persist;
+        this.cookie = cookie;
+        this.pollingInterval = pollingInterval;
+        this.tlsSocketFactory = tlsSocketFactory;
+        this.schemaCache = schemaCache;
+        start();
+    }
+
+    @Override
+    protected void subscribe() throws LDAPException
+    {
+        Control[] requestControls = LDAPJNDIUtils.buildSyncRequestControls(controls, persist, cookie);
+        try
+        {
+            LdapContext ctx;
+            synchronized (this)
+            {
+                if (searchConn == null)
+                {
+                    searchConn = LDAPJNDIUtils.newSearchContext(conn, requestControls, getBufferSize(), tlsSocketFactory);
+                }
+                else if (lost)
+                {
+                    searchConn = LDAPJNDIUtils.reconnectSearchContext(searchConn, requestControls, getBufferSize(), tlsSocketFactory);
+                }
+                else
+                {
+                    searchConn.setRequestControls(requestControls);
+                }
+                lost = false;
+                ctx = searchConn;
+            }
+
+            NamingEnumeration<SearchResult> result;
+            if (filterArgs != null && filterArgs.length > 0)
+            {
+                result = ctx.search(baseDn, filter, filterArgs, searchControls);
+            }
+            else
+            {
+                result = ctx.search(baseDn, filter, searchControls);
+            }
+
+            synchronized (this)
+            {
+                entries = result;
+            }
+        }
+        catch (NamingException nex)
+        {
+            throw failed(nex);
+        }
+    }
+
+    @Override
+    protected LDAPEntryChange readChange() throws LDAPException
+    {
+        NamingEnumeration<SearchResult> current;
+        LdapContext ctx;
+        synchronized (this)
+        {
+            current = entries;
+            ctx = searchConn;
+        }
+        if (current == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            if (!current.hasMore())
+            {
+                synchronized (this)
+                {
+                    entries = null;
+                }
+                byte[] doneCookie = getSyncDoneCookie(ctx);
+                if (doneCookie != null)
+                {
+                    cookie = doneCookie;
+                    return LDAPSyncChange.checkpoint(doneCookie);
+                }
+                return null;
+            }
+            SearchResult result = current.next();
+
+            String entryDn = result.getName();
+            if (result.isRelative())
+            {
+                entryDn = entryDn.length() > 0 ? entryDn + "," + baseDn : baseDn;
+            }
+            LDAPEntry entry = LDAPJNDIUtils.buildEntry(entryDn, result.getAttributes(), schemaCache);
+
+            byte[] syncState = getControlValue(result, LDAPControl.SYNC_STATE_OID);
+            if (syncState == null)
+            {
+                return new LDAPSyncChange(entry, 0, null, null);
+            }
+            byte[] entryCookie = LDAPControl.getSyncStateCookie(syncState);
+            if (entryCookie != null)
+            {
+                cookie = entryCookie;
+            }
+            return new LDAPSyncChange(entry, toChangeType(LDAPControl.getSyncState(syncState)), toUuid(LDAPControl.getSyncStateEntryUuid(syncState)), entryCookie);
+        }
+        catch (NamingException nex)
+        {
+            if (LDAPJNDIUtils.getResultCode(nex) == SYNC_REFRESH_REQUIRED)
+            {
+                logger.warn("The server requires a full refresh of the synchronization under " + baseDn + ". The whole content will be notified again.");
+                cookie = null;
+                return null;
+            }
+            throw failed(nex);
+        }
+        catch (IOException ex)
+        {
+            throw new LDAPException("Invalid sync state control: " + ex.getMessage(), ex);
+        }
+    }
+
+    private LDAPException failed(NamingException nex)
+    {
+        LDAPException ex = LDAPException.create(nex);
+        if (ex instanceof CommunicationException)
+        {
+            synchronized (this)
+            {
+                lost = true;
+            }
+        }
+        return ex;
+    }
+
+    private static byte[] getSyncDoneCookie(LdapContext ctx) throws NamingException, IOException
+    {
+        Control[] responseControls = ctx != null ? ctx.getResponseControls() : null;
+        for (int i = 0; responseControls != null && i < responseControls.length; i++)
+        {
+            if (LDAPControl.SYNC_DONE_OID.equals(responseControls[i].getID()))
+            {
+                return LDAPControl.getSyncDoneCookie(responseControls[i].getEncodedValue());
+            }
+        }
+        return null;
+    }
+
+    private static byte[] getControlValue(SearchResult result, String oid) throws NamingException
+    {
+        if (result instanceof HasControls)
+        {
+            Control[] controls = ((HasControls) result).getControls();
+            for (int i = 0; controls != null && i < controls.length; i++)
+            {
+                if (oid.equals(controls[i].getID()))
+                {
+                    return controls[i].getEncodedValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int toChangeType(int syncState)
+    {
+        switch (syncState)
+        {
+            case LDAPControl.SYNC_STATE_ADD:
+                return LDAPEntryChange.ADD;
+            case LDAPControl.SYNC_STATE_MODIFY:
+                return LDAPEntryChange.MODIFY;
+            case LDAPControl.SYNC_STATE_DELETE:
+                return LDAPEntryChange.DELETE;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return The entryUUID as a UUID string (or in hexadecimal if it is not 16 bytes long).
+     */
+    private static String toUuid(byte[] value)
+    {
+        if (value.length == 16)
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(value);
+            return new UUID(buffer.getLong(), buffer.getLong()).toString();
+        }
+        StringBuilder hex = new StringBuilder(value.length * 2);
+        for (byte b : value)
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * In refreshOnly mode the search ends after each refresh, so it is performed again after the polling interval.
+     */
+    @Override
+    protected long searchEnded()
+    {
+        if (persist)
+        {
+            return super.searchEnded();
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Refresh under " + baseDn + " done. Refreshing again in " + pollingInterval + " ms.");
+        }
+        return pollingInterval;
+    }
+
+    @Override
+    protected void unsubscribe()
+    {
+        NamingEnumeration<SearchResult> current;
+        synchronized (this)
+        {
+            current = entries;
+            entries = null;
+        }
+        if (current != null)
+        {
+            try
+            {
+                current.close();
+            }
+            catch (NamingException nex)
+            {
+                logger.debug("Cannot abandon synchronization under " + baseDn, nex);
+            }
+        }
+    }
+
+    @Override
+    protected void release()
+    {
+        LdapContext ctx;
+        synchronized (this)
+        {
+            ctx = searchConn;
+            searchConn = null;
+        }
+        if (ctx != null)
+        {
+            try
+            {
+                ctx.close();
+            }
+            catch (NamingException nex)
+            {
+                logger.debug("Cannot close synchronization context", nex);
+            }
+        }
+    }
+
+    /**
+     * @return The last cookie received, which the next search resumes from.
+     */
+    public byte[] getCookie()
+    {
+        return cookie;
+    }
+}
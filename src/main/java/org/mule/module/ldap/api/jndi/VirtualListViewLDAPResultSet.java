@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.jndi;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import org.mule.module.ldap.api.LDAPControl;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPSchemaAware;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.LDAPVirtualListViewResultSet;
+
+/**
+ * Result set of a search using the virtual list view control. The entries of the window are read as in a
+ * {@link SimpleLDAPResultSet} and the response control with the position of the window is read once the last one was
+ * read.
+ *
+ * @author mariano
+ */
+public class VirtualListViewLDAPResultSet implements LDAPVirtualListViewResultSet
+{
+    private SimpleLDAPResultSet entries;
+    private LdapContext conn;
+
+    private boolean responseRead = false;
+    private int targetPosition = -1;
+    private int contentCount = -1;
+    private byte[] contextId = null;
+
+    /**
+     * @param conn Context the search was performed with. It is a copy with the request controls, so it is closed with
+     *        the result set.
+     */
+    public VirtualListViewLDAPResultSet(String baseDn, LdapContext conn, LDAPSearchControls controls, NamingEnumeration<SearchResult> entries, LDAPSchemaAware schemaCache)
+    {
+        this.entries = new SimpleLDAPResultSet(baseDn, conn, controls, entries, schemaCache);
+        this.conn = conn;
+    }
+
+    @Override
+    public boolean hasNext() throws LDAPException
+    {
+        if(this.entries.hasNext())
+        {
+            return true;
+        }
+        readResponseControl();
+        return false;
+    }
+
+    @Override
+    public LDAPEntry next() throws LDAPException
+    {
+        return this.entries.next();
+    }
+
+    @Override
+    public List<LDAPEntry> getAllEntries() throws LDAPException
+    {
+        List<LDAPEntry> allEntries = this.entries.getAllEntries();
+        readResponseControl();
+        return allEntries;
+    }
+
+    private void readResponseControl() throws LDAPException
+    {
+        if(this.responseRead || this.conn == null)
+        {
+            return;
+        }
+        this.responseRead = true;
+
+        try
+        {
+            Control[] responseControls = this.conn.getResponseControls();
+            if(responseControls != null)
+            {
+                for(Control control : responseControls)
+                {
+                    if(LDAPControl.VLV_RESPONSE_OID.equals(control.getID()))
+                    {
+                        byte[] value = control.getEncodedValue();
+                        int result = LDAPControl.getVirtualListViewResult(value);
+                        if(result != 0)
+                        {
+                            throw new LDAPException("Virtual list view failed with result code " + result);
+                        }
+                        this.targetPosition = LDAPControl.getVirtualListViewTargetPosition(value);
+                        this.contentCount = LDAPControl.getVirtualListViewContentCount(value);
+                        this.contextId = LDAPControl.getVirtualListViewContextId(value);
+                        return;
+                    }
+                }
+            }
+            throw new LDAPException("The LDAP server did not return a virtual list view response control");
+        }
+        catch(NamingException nex)
+        {
+            throw LDAPException.create(nex);
+        }
+        catch(IOException ex)
+        {
+            throw new LDAPException("Malformed virtual list view response control", ex);
+        }
+    }
+
+    @Override
+    public int getTargetPosition() throws LDAPException
+    {
+        return this.targetPosition;
+    }
+
+    @Override
+    public int getContentCount() throws LDAPException
+    {
+        return this.contentCount;
+    }
+
+    @Override
+    public byte[] getContextId() throws LDAPException
+    {
+        return this.contextId;
+    }
+
+    @Override
+    public int getResultSize() throws LDAPException
+    {
+        return getContentCount();
+    }
+
+    /**
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPResultSet#close()
+     */
+    @Override
+    public void close() throws LDAPException
+    {
+        try
+        {
+            this.entries.close();
+        }
+        finally
+        {
+            // This connection is a copy with the request controls, so we need to close it!
+            if(this.conn != null)
+            {
+                try
+                {
+                    this.conn.close();
+                }
+                catch(NamingException nex)
+                {
+                    throw LDAPException.create(nex);
+                }
+                finally
+                {
+                    this.conn = null;
+                }
+            }
+        }
+    }
+}
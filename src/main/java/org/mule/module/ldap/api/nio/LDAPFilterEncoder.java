@@ -0,0 +1,376 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mule.module.ldap.api.InvalidAttributeException;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPUtils;
+import org.mule.module.ldap.api.ber.BerEncoder;
+import org.mule.module.ldap.api.ber.BerTags;
+
+/**
+ * Encodes search filters from their string representation (RFC 4515) to the BER encoding expected by the LDAP
+ * server (RFC 4511, section 4.5.1.7).
+ * <p/>
+ * As the JNDI implementation does, filters not enclosed in parentheses (for example <code>uid=user1</code>) are
+ * accepted. Filter arguments are replaced before encoding with {@link LDAPUtils#formatFilter(String, Object[])}.
+ *
+ * @author mariano
+ */
+public class LDAPFilterEncoder
+{
+    private static final int AND = BerTags.context(0, true);
+    private static final int OR = BerTags.context(1, true);
+    private static final int NOT = BerTags.context(2, true);
+    private static final int EQUALITY_MATCH = BerTags.context(3, true);
+    private static final int SUBSTRINGS = BerTags.context(4, true);
+    private static final int GREATER_OR_EQUAL = BerTags.context(5, true);
+    private static final int LESS_OR_EQUAL = BerTags.context(6, true);
+    private static final int PRESENT = BerTags.context(7, false);
+    private static final int APPROX_MATCH = BerTags.context(8, true);
+    private static final int EXTENSIBLE_MATCH = BerTags.context(9, true);
+
+    private static final int SUBSTRING_INITIAL = BerTags.context(0, false);
+    private static final int SUBSTRING_ANY = BerTags.context(1, false);
+    private static final int SUBSTRING_FINAL = BerTags.context(2, false);
+
+    private static final int MATCHING_RULE = BerTags.context(1, false);
+    private static final int MATCHING_TYPE = BerTags.context(2, false);
+    private static final int MATCH_VALUE = BerTags.context(3, false);
+    private static final int DN_ATTRIBUTES = BerTags.context(4, false);
+
+    private final String filter;
+    private int pos = 0;
+
+    private LDAPFilterEncoder(String filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * @param filter The string representation of the filter.
+     * @return The BER encoding of the filter.
+     * @throws LDAPException If the filter is not valid.
+     */
+    public static byte[] encode(String filter) throws LDAPException
+    {
+        String trimmed = filter != null ? filter.trim() : "";
+        if (trimmed.length() == 0)
+        {
+            throw new InvalidAttributeException("Empty search filter.");
+        }
+        if (trimmed.charAt(0) != '(')
+        {
+            trimmed = "(" + trimmed + ")";
+        }
+
+        LDAPFilterEncoder parser = new LDAPFilterEncoder(trimmed);
+        BerEncoder encoder = new BerEncoder(trimmed.length() * 2);
+        parser.parseFilter(encoder);
+        if (parser.pos != trimmed.length())
+        {
+            throw parser.error("Unexpected characters after the end of the filter");
+        }
+        return encoder.toByteArray();
+    }
+
+    private void parseFilter(BerEncoder encoder) throws LDAPException
+    {
+        expect('(');
+        char c = peek();
+        switch (c)
+        {
+            case '&' :
+                pos++;
+                parseFilterList(encoder, AND);
+                break;
+            case '|' :
+                pos++;
+                parseFilterList(encoder, OR);
+                break;
+            case '!' :
+                pos++;
+                encoder.beginSequence(NOT);
+                parseFilter(encoder);
+                encoder.endSequence();
+                break;
+            default :
+                parseItem(encoder);
+        }
+        expect(')');
+    }
+
+    private void parseFilterList(BerEncoder encoder, int tag) throws LDAPException
+    {
+        encoder.beginSequence(tag);
+        while (peek() == '(')
+        {
+            parseFilter(encoder);
+        }
+        encoder.endSequence();
+    }
+
+    private void parseItem(BerEncoder encoder) throws LDAPException
+    {
+        int start = pos;
+        while (pos < filter.length() && "=~<>:()".indexOf(filter.charAt(pos)) < 0)
+        {
+            pos++;
+        }
+        String attribute = filter.substring(start, pos).trim();
+
+        char c = peek();
+        if (c == ':')
+        {
+            parseExtensible(encoder, attribute);
+            return;
+        }
+        if (attribute.length() == 0)
+        {
+            throw error("Missing attribute description");
+        }
+
+        int tag;
+        if (c == '=')
+        {
+            pos++;
+            tag = EQUALITY_MATCH;
+        }
+        else if (c == '~' || c == '>' || c == '<')
+        {
+            pos++;
+            expect('=');
+            tag = c == '~' ? APPROX_MATCH : (c == '>' ? GREATER_OR_EQUAL : LESS_OR_EQUAL);
+        }
+        else
+        {
+            throw error("Invalid filter type");
+        }
+
+        String value = readValue();
+        if (tag == EQUALITY_MATCH && "*".equals(value))
+        {
+            encoder.writeString(PRESENT, attribute);
+        }
+        else if (tag == EQUALITY_MATCH && hasUnescapedAsterisk(value))
+        {
+            encodeSubstrings(encoder, attribute, value);
+        }
+        else
+        {
+            encoder.beginSequence(tag);
+            encoder.writeString(attribute);
+            encoder.writeOctetString(unescape(value));
+            encoder.endSequence();
+        }
+    }
+
+    /**
+     * <pre>
+     * extensible = ( attr [dnattrs] [matchingrule] COLON EQUALS assertionvalue )
+     *              / ( [dnattrs] matchingrule COLON EQUALS assertionvalue )
+     * </pre>
+     */
+    private void parseExtensible(BerEncoder encoder, String attribute) throws LDAPException
+    {
+        boolean dnAttributes = false;
+        String matchingRule = null;
+        while (peek() == ':')
+        {
+            pos++;
+            if (peek() == '=')
+            {
+                pos++;
+                break;
+            }
+            int start = pos;
+            while (pos < filter.length() && filter.charAt(pos) != ':')
+            {
+                pos++;
+            }
+            String token = filter.substring(start, pos);
+            if ("dn".equalsIgnoreCase(token))
+            {
+                dnAttributes = true;
+            }
+            else
+            {
+                matchingRule = token;
+            }
+        }
+        if (attribute.length() == 0 && matchingRule == null)
+        {
+            throw error("Extensible match requires an attribute or a matching rule");
+        }
+
+        encoder.beginSequence(EXTENSIBLE_MATCH);
+        if (matchingRule != null)
+        {
+            encoder.writeString(MATCHING_RULE, matchingRule);
+        }
+        if (attribute.length() > 0)
+        {
+            encoder.writeString(MATCHING_TYPE, attribute);
+        }
+        encoder.writeOctetString(MATCH_VALUE, unescape(readValue()));
+        if (dnAttributes)
+        {
+            encoder.writeBoolean(DN_ATTRIBUTES, true);
+        }
+        encoder.endSequence();
+    }
+
+    private void encodeSubstrings(BerEncoder encoder, String attribute, String value) throws LDAPException
+    {
+        List<String> parts = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < value.length(); i++)
+        {
+            if (value.charAt(i) == '\\')
+            {
+                i += 2;
+            }
+            else if (value.charAt(i) == '*')
+            {
+                parts.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(value.substring(start));
+
+        encoder.beginSequence(SUBSTRINGS);
+        encoder.writeString(attribute);
+        encoder.beginSequence(BerTags.SEQUENCE);
+        for (int i = 0; i < parts.size(); i++)
+        {
+            String part = parts.get(i);
+            if (part.length() == 0)
+            {
+                continue;
+            }
+            int tag = i == 0 ? SUBSTRING_INITIAL : (i == parts.size() - 1 ? SUBSTRING_FINAL : SUBSTRING_ANY);
+            encoder.writeOctetString(tag, unescape(part));
+        }
+        encoder.endSequence();
+        encoder.endSequence();
+    }
+
+    private static boolean hasUnescapedAsterisk(String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            if (value.charAt(i) == '\\')
+            {
+                i += 2;
+            }
+            else if (value.charAt(i) == '*')
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the (still escaped) assertion value up to the closing parenthesis.
+     */
+    private String readValue() throws LDAPException
+    {
+        int start = pos;
+        while (pos < filter.length() && filter.charAt(pos) != ')')
+        {
+            if (filter.charAt(pos) == '(')
+            {
+                throw error("Unescaped parenthesis in assertion value");
+            }
+            pos++;
+        }
+        return filter.substring(start, pos);
+    }
+
+    /**
+     * Converts an escaped assertion value to its UTF-8 bytes, replacing the <code>\XX</code> escapes. For
+     * compatibility with RFC 2254 filters, a backslash not followed by two hex digits escapes the next character.
+     */
+    private byte[] unescape(String value) throws LDAPException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        StringBuilder pending = new StringBuilder();
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c != '\\')
+            {
+                pending.append(c);
+                continue;
+            }
+            if (i + 1 >= value.length())
+            {
+                throw error("Invalid escape sequence at the end of " + value);
+            }
+
+            int high = Character.digit(value.charAt(i + 1), 16);
+            int low = i + 2 < value.length() ? Character.digit(value.charAt(i + 2), 16) : -1;
+            if (high >= 0 && low >= 0)
+            {
+                flush(pending, bytes);
+                bytes.write((high << 4) | low);
+                i += 2;
+            }
+            else
+            {
+                pending.append(value.charAt(i + 1));
+                i++;
+            }
+        }
+        flush(pending, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void flush(StringBuilder pending, ByteArrayOutputStream bytes)
+    {
+        if (pending.length() > 0)
+        {
+            byte[] encoded = pending.toString().getBytes(BerEncoder.UTF8);
+            bytes.write(encoded, 0, encoded.length);
+            pending.setLength(0);
+        }
+    }
+
+    private char peek() throws LDAPException
+    {
+        while (pos < filter.length() && filter.charAt(pos) == ' ')
+        {
+            pos++;
+        }
+        if (pos >= filter.length())
+        {
+            throw error("Unexpected end of filter");
+        }
+        return filter.charAt(pos);
+    }
+
+    private void expect(char c) throws LDAPException
+    {
+        if (peek() != c)
+        {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private LDAPException error(String message)
+    {
+        return new InvalidAttributeException(message + " at position " + pos + " of filter " + filter);
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mule.module.ldap.api.ber.BerDecoder;
+import org.mule.module.ldap.api.ber.BerTags;
+
+/**
+ * A message received from the LDAP server (RFC 4511, section 4.1.1):
+ *
+ * <pre>
+ * LDAPMessage ::= SEQUENCE {
+ *      messageID       MessageID,
+ *      protocolOp      CHOICE { ... },
+ *      controls        [0] Controls OPTIONAL }
+ * </pre>
+ *
+ * @author mariano
+ */
+public class LDAPMessage
+{
+    private final int messageId;
+    private final int protocolOp;
+    private final byte[] encoded;
+    private final Map<String, byte[]> controls;
+
+    private LDAPMessage(int messageId, int protocolOp, byte[] encoded, Map<String, byte[]> controls)
+    {
+        this.messageId = messageId;
+        this.protocolOp = protocolOp;
+        this.encoded = encoded;
+        this.controls = controls;
+    }
+
+    /**
+     * Decodes a whole LDAP message.
+     *
+     * @param encoded The BER encoding of the message.
+     */
+    public static LDAPMessage decode(byte[] encoded) throws IOException
+    {
+        BerDecoder message = new BerDecoder(encoded).readSequence();
+        int messageId = (int) message.readInteger();
+        int protocolOp = message.peekTag();
+        message.skip();
+
+        Map<String, byte[]> controls = Collections.emptyMap();
+        if (message.hasMore() && message.peekTag() == LDAPProtocol.CONTROLS)
+        {
+            controls = new HashMap<String, byte[]>();
+            BerDecoder controlsSeq = message.readSequence(LDAPProtocol.CONTROLS);
+            while (controlsSeq.hasMore())
+            {
+                BerDecoder control = controlsSeq.readSequence();
+                String oid = control.readString();
+                if (control.hasMore() && control.peekTag() == BerTags.BOOLEAN)
+                {
+                    control.readBoolean();
+                }
+                controls.put(oid, control.hasMore() ? control.readOctetString() : null);
+            }
+        }
+        return new LDAPMessage(messageId, protocolOp, encoded, controls);
+    }
+
+    public int getMessageId()
+    {
+        return messageId;
+    }
+
+    /**
+     * @return The tag of the protocol operation (for example {@link LDAPProtocol#SEARCH_RESULT_ENTRY}).
+     */
+    public int getProtocolOp()
+    {
+        return protocolOp;
+    }
+
+    /**
+     * @return A decoder over the contents of the protocol operation.
+     */
+    public BerDecoder getProtocolOpDecoder() throws IOException
+    {
+        BerDecoder message = new BerDecoder(encoded).readSequence();
+        message.readInteger();
+        return message.readSequence(protocolOp);
+    }
+
+    /**
+     * @return The value of the response control with the given OID or <i>null</i> if the control was not returned
+     *         or has no value.
+     */
+    public byte[] getControl(String oid)
+    {
+        return controls.get(oid);
+    }
+
+    public boolean hasControl(String oid)
+    {
+        return controls.containsKey(oid);
+    }
+
+    /**
+     * @return Whether this message ends the operation it belongs to, as search operations receive several messages.
+     */
+    public boolean isFinal()
+    {
+        return protocolOp != LDAPProtocol.SEARCH_RESULT_ENTRY && protocolOp != LDAPProtocol.SEARCH_RESULT_REFERENCE;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{messageId: " + messageId + ", protocolOp: 0x" + Integer.toHexString(protocolOp) + ", controls: " + controls.keySet() + "}";
+    }
+}
@@ -0,0 +1,475 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.ber.BerDecoder;
+
+/**
+ * A socket to an LDAP server shared by many outstanding operations. Each request gets its own message ID and the
+ * responses are dispatched to the {@link LDAPNIOOperation} waiting for them as the {@link LDAPNIOSelector} reads
+ * them, so requests are pipelined instead of waiting for the previous response.
+ * <p/>
+ * When the response queue of an operation is full, the channel stops reading from the socket until the operation
+ * consumes its responses. As responses arrive in order, the other operations of the channel wait as well: a thread
+ * waiting for an operation while not consuming another one of the same channel only gets its response once the
+ * read timeout elapses.
+ *
+ * @author mariano
+ */
+public class LDAPNIOChannel
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    /**
+     * Maximum number of responses queued for each operation.
+     */
+    public static final int RESPONSE_QUEUE_SIZE = 1000;
+
+    private static final int INITIAL_READ_BUFFER_SIZE = 64 * 1024;
+
+    private final String host;
+    private final int port;
+    private final SocketChannel socketChannel;
+    private final LDAPNIOSelector selector;
+    private volatile SelectionKey selectionKey = null;
+
+    private final AtomicInteger messageIds = new AtomicInteger(0);
+    private final ConcurrentMap<Integer, LDAPNIOOperation> operations = new ConcurrentHashMap<Integer, LDAPNIOOperation>();
+    private final LinkedList<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+
+    // Response that could not be queued because the queue of its operation is full
+    private volatile LDAPNIOOperation stalledOperation = null;
+    private volatile LDAPMessage stalledMessage = null;
+    private volatile boolean readSuspended = false;
+
+    private volatile boolean closed = false;
+
+    private LDAPNIOChannel(String host, int port, SocketChannel socketChannel, LDAPNIOSelector selector)
+    {
+        this.host = host;
+        this.port = port;
+        this.socketChannel = socketChannel;
+        this.selector = selector;
+    }
+
+    /**
+     * Opens a new socket to the LDAP server.
+     *
+     * @param connectTimeout Milliseconds to wait for the TCP connection to be established (0 waits forever).
+     */
+    public static LDAPNIOChannel open(String host, int port, int connectTimeout) throws LDAPException
+    {
+        SocketChannel socketChannel = null;
+        try
+        {
+            socketChannel = SocketChannel.open();
+            socketChannel.socket().setTcpNoDelay(true);
+            socketChannel.socket().setKeepAlive(true);
+            socketChannel.socket().connect(new InetSocketAddress(host, port), connectTimeout);
+            socketChannel.configureBlocking(false);
+
+            LDAPNIOChannel channel = new LDAPNIOChannel(host, port, socketChannel, LDAPNIOSelector.getInstance());
+            channel.selector.register(channel);
+            return channel;
+        }
+        catch (IOException ex)
+        {
+            if (socketChannel != null)
+            {
+                try
+                {
+                    socketChannel.close();
+                }
+                catch (IOException cex)
+                {
+                    // Nothing to do
+                }
+            }
+            throw new CommunicationException(host + ":" + port, ex);
+        }
+    }
+
+    /**
+     * Sends the request to the server.
+     *
+     * @return The operation that receives the responses to the request.
+     * @throws CommunicationException If the channel is closed or the request cannot be written.
+     */
+    public LDAPNIOOperation send(LDAPRequest request) throws LDAPException
+    {
+        LDAPNIOOperation operation = new LDAPNIOOperation(this, nextMessageId(), request, RESPONSE_QUEUE_SIZE);
+        if (request.expectsResponse())
+        {
+            operations.put(operation.getMessageId(), operation);
+        }
+        try
+        {
+            write(request.encode(operation.getMessageId()));
+        }
+        catch (LDAPException ex)
+        {
+            operations.remove(operation.getMessageId());
+            throw ex;
+        }
+        return operation;
+    }
+
+    /**
+     * Stops dispatching responses to the operation and asks the server to abandon it.
+     */
+    public void abandon(LDAPNIOOperation operation)
+    {
+        if (operations.remove(operation.getMessageId()) != null && !closed)
+        {
+            try
+            {
+                send(LDAPRequest.abandon(operation.getMessageId()));
+            }
+            catch (LDAPException ex)
+            {
+                logger.debug("Could not abandon operation " + operation.getMessageId(), ex);
+            }
+        }
+        // The responses the operation did not consume are discarded
+        responseTaken();
+    }
+
+    /**
+     * Called when an operation takes a response from its queue, so reading is resumed if it was stopped.
+     */
+    void responseTaken()
+    {
+        if (readSuspended)
+        {
+            selector.resumeReading(this);
+        }
+    }
+
+    private int nextMessageId()
+    {
+        while (true)
+        {
+            int current = messageIds.get();
+            int next = current == Integer.MAX_VALUE ? 1 : current + 1;
+            if (messageIds.compareAndSet(current, next))
+            {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Writes as much of the request as the socket accepts from the calling thread, leaving the rest to the selector
+     * thread. Requests are written in order, so nothing is written directly while there are requests waiting.
+     */
+    private void write(ByteBuffer buffer) throws LDAPException
+    {
+        if (closed)
+        {
+            throw new CommunicationException("Connection to " + host + ":" + port + " is closed.");
+        }
+
+        boolean queued = false;
+        synchronized (writeQueue)
+        {
+            try
+            {
+                if (writeQueue.isEmpty())
+                {
+                    socketChannel.write(buffer);
+                }
+                if (buffer.hasRemaining())
+                {
+                    writeQueue.add(buffer);
+                    queued = writeQueue.size() == 1;
+                }
+            }
+            catch (IOException ex)
+            {
+                failed(ex);
+                throw new CommunicationException("Could not send request to " + host + ":" + port, ex);
+            }
+        }
+        if (queued)
+        {
+            selector.writePending(this);
+        }
+    }
+
+    /**
+     * Called by the selector thread when the socket can be written.
+     *
+     * @return Whether all the queued requests were written.
+     */
+    boolean writePending() throws IOException
+    {
+        synchronized (writeQueue)
+        {
+            while (!writeQueue.isEmpty())
+            {
+                ByteBuffer buffer = writeQueue.getFirst();
+                socketChannel.write(buffer);
+                if (buffer.hasRemaining())
+                {
+                    return false;
+                }
+                writeQueue.removeFirst();
+            }
+            return true;
+        }
+    }
+
+    boolean hasPendingWrites()
+    {
+        synchronized (writeQueue)
+        {
+            return !writeQueue.isEmpty();
+        }
+    }
+
+    /**
+     * Called by the selector thread when there are bytes to read. Every complete message in the buffer is decoded
+     * and dispatched.
+     */
+    void readAvailable() throws IOException
+    {
+        if (socketChannel.read(readBuffer) < 0)
+        {
+            throw new EOFException("Connection closed by the server.");
+        }
+
+        readBuffer.flip();
+        dispatchBuffered();
+    }
+
+    /**
+     * Called by the selector thread after an operation consumed responses while reading was stopped.
+     *
+     * @return Whether reading from the socket can be resumed.
+     */
+    boolean resumeReading() throws IOException
+    {
+        if (stalledMessage == null || closed || !stalledOperation.received(stalledMessage))
+        {
+            return false;
+        }
+        stalledOperation = null;
+        stalledMessage = null;
+
+        readBuffer.flip();
+        if (!dispatchBuffered())
+        {
+            return false;
+        }
+        readSuspended = false;
+        return true;
+    }
+
+    /**
+     * Dispatches the complete messages of the read buffer and prepares it for the next read.
+     *
+     * @return <i>false</i> if dispatching stopped because the response queue of an operation is full.
+     */
+    private boolean dispatchBuffered() throws IOException
+    {
+        while (true)
+        {
+            int length = BerDecoder.getElementLength(readBuffer);
+            if (length < 0 || length > readBuffer.remaining())
+            {
+                if (length > readBuffer.capacity())
+                {
+                    ByteBuffer larger = ByteBuffer.allocate(length);
+                    larger.put(readBuffer);
+                    readBuffer = larger;
+                    return true;
+                }
+                break;
+            }
+
+            byte[] encoded = new byte[length];
+            readBuffer.get(encoded);
+            if (!dispatch(LDAPMessage.decode(encoded)))
+            {
+                readBuffer.compact();
+                return false;
+            }
+        }
+        readBuffer.compact();
+        return true;
+    }
+
+    private boolean dispatch(LDAPMessage message) throws IOException
+    {
+        if (message.getMessageId() == LDAPProtocol.UNSOLICITED_MESSAGE_ID)
+        {
+            LDAPResult notice = message.getProtocolOp() == LDAPProtocol.EXTENDED_RESPONSE ? LDAPResult.decode(message) : null;
+            throw new IOException("Unsolicited notification received from " + host + ":" + port + (notice != null ? ": " + notice : ""));
+        }
+
+        LDAPNIOOperation operation = message.isFinal() ? operations.remove(message.getMessageId()) : operations.get(message.getMessageId());
+        if (operation != null)
+        {
+            return operation.received(message) || suspendReading(operation, message);
+        }
+        else if (logger.isDebugEnabled())
+        {
+            logger.debug("Discarding response " + message + " of abandoned operation.");
+        }
+        return true;
+    }
+
+    /**
+     * Stops reading from the socket until <i>operation</i> consumes its responses.
+     *
+     * @return <i>true</i> if the response could be queued after all, so reading goes on.
+     */
+    private boolean suspendReading(LDAPNIOOperation operation, LDAPMessage message)
+    {
+        readSuspended = true;
+        // The operation may have consumed a response before it could notice reading was suspended
+        if (operation.received(message))
+        {
+            readSuspended = false;
+            return true;
+        }
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Response queue of operation " + operation.getMessageId() + " is full. Stop reading from " + host + ":" + port);
+        }
+        stalledOperation = operation;
+        stalledMessage = message;
+        if (selectionKey != null && selectionKey.isValid())
+        {
+            selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+        }
+        return false;
+    }
+
+    /**
+     * Closes the channel making every outstanding operation fail.
+     */
+    void failed(IOException cause)
+    {
+        if (!closed)
+        {
+            logger.warn("Connection to " + host + ":" + port + " failed: " + cause.getMessage());
+        }
+        closeSocket();
+        failOperations(new CommunicationException("Connection to " + host + ":" + port + " failed.", cause));
+    }
+
+    private void failOperations(CommunicationException ex)
+    {
+        LDAPNIOOperation stalled = stalledOperation;
+        if (stalled != null)
+        {
+            stalled.failed(ex);
+        }
+        for (Iterator<LDAPNIOOperation> it = operations.values().iterator(); it.hasNext();)
+        {
+            LDAPNIOOperation operation = it.next();
+            it.remove();
+            operation.failed(ex);
+        }
+    }
+
+    /**
+     * Sends an unbind request and closes the socket. Outstanding operations fail.
+     */
+    public void close()
+    {
+        if (!closed)
+        {
+            try
+            {
+                send(LDAPRequest.unbind());
+            }
+            catch (LDAPException ex)
+            {
+                logger.debug("Could not send unbind request to " + host + ":" + port, ex);
+            }
+            closeSocket();
+            failOperations(new CommunicationException("Connection to " + host + ":" + port + " closed."));
+        }
+    }
+
+    private void closeSocket()
+    {
+        closed = true;
+        if (selectionKey != null)
+        {
+            selectionKey.cancel();
+        }
+        try
+        {
+            socketChannel.close();
+        }
+        catch (IOException ex)
+        {
+            logger.debug("Could not close socket to " + host + ":" + port, ex);
+        }
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * @return The number of operations waiting for a response.
+     */
+    public int getOutstandingOperations()
+    {
+        return operations.size();
+    }
+
+    SocketChannel getSocketChannel()
+    {
+        return socketChannel;
+    }
+
+    SelectionKey getSelectionKey()
+    {
+        return selectionKey;
+    }
+
+    void setSelectionKey(SelectionKey selectionKey)
+    {
+        this.selectionKey = selectionKey;
+        if (closed)
+        {
+            selectionKey.cancel();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return host + ":" + port;
+    }
+}
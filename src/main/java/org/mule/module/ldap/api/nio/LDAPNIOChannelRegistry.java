@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.mule.module.ldap.api.LDAPException;
+
+/**
+ * Keeps a single {@link LDAPNIOChannel} per server and identity, shared by every {@link LDAPNIOConnection} bound as
+ * that identity, so the operations of all of them are multiplexed on the same socket. Channels are reference counted
+ * and closed once the last connection using them releases them.
+ *
+ * @author mariano
+ */
+public class LDAPNIOChannelRegistry
+{
+    private static LDAPNIOChannelRegistry instance = null;
+
+    private final Map<ChannelKey, SharedChannel> channels = new HashMap<ChannelKey, SharedChannel>();
+    private final Map<LDAPNIOChannel, SharedChannel> sharedChannels = new IdentityHashMap<LDAPNIOChannel, SharedChannel>();
+
+    private LDAPNIOChannelRegistry()
+    {
+    }
+
+    public static synchronized LDAPNIOChannelRegistry getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new LDAPNIOChannelRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the channel bound as <i>dn</i>, opening and binding a new one if no open channel is bound as that identity.
+     *
+     * @param dn The DN to bind as. Empty for anonymous binds.
+     * @param password The password of <i>dn</i>. Empty for anonymous binds.
+     * @param verify Whether the credentials must be verified by the server even if there is already a channel bound
+     *            with them. They are verified on a short lived socket, as binding the shared one would affect the
+     *            operations in progress.
+     * @return The channel, which must be given back with {@link #release(LDAPNIOChannel)}.
+     * @throws LDAPException If the channel cannot be opened or the credentials are rejected.
+     */
+    public LDAPNIOChannel acquire(String host, int port, int connectTimeout, int readTimeout, String dn, String password, boolean verify) throws LDAPException
+    {
+        ChannelKey key = new ChannelKey(host, port, dn, password);
+        if (!verify)
+        {
+            LDAPNIOChannel shared = share(key);
+            if (shared != null)
+            {
+                return shared;
+            }
+        }
+
+        LDAPNIOChannel opened = LDAPNIOChannel.open(host, port, connectTimeout);
+        try
+        {
+            opened.send(LDAPRequest.bind(dn, password)).result(readTimeout);
+        }
+        catch (LDAPException ex)
+        {
+            opened.close();
+            throw ex;
+        }
+
+        LDAPNIOChannel shared;
+        synchronized (this)
+        {
+            shared = share(key);
+            if (shared == null)
+            {
+                SharedChannel sharedChannel = new SharedChannel(key, opened);
+                channels.put(key, sharedChannel);
+                sharedChannels.put(opened, sharedChannel);
+                return opened;
+            }
+        }
+        // Another thread opened a channel for the same identity in the meantime
+        opened.close();
+        return shared;
+    }
+
+    private synchronized LDAPNIOChannel share(ChannelKey key)
+    {
+        SharedChannel sharedChannel = channels.get(key);
+        if (sharedChannel != null && !sharedChannel.channel.isClosed())
+        {
+            sharedChannel.references++;
+            return sharedChannel.channel;
+        }
+        return null;
+    }
+
+    /**
+     * Gives back a channel obtained with {@link #acquire(String, int, int, int, String, String, boolean)}. The
+     * channel is closed if no other connection uses it.
+     */
+    public void release(LDAPNIOChannel channel)
+    {
+        synchronized (this)
+        {
+            SharedChannel sharedChannel = sharedChannels.get(channel);
+            if (sharedChannel != null && --sharedChannel.references > 0)
+            {
+                return;
+            }
+            if (sharedChannel != null)
+            {
+                sharedChannels.remove(channel);
+                if (channels.get(sharedChannel.key) == sharedChannel)
+                {
+                    channels.remove(sharedChannel.key);
+                }
+            }
+        }
+        channel.close();
+    }
+
+    /**
+     * @return The number of connections using the channel.
+     */
+    public synchronized int getReferences(LDAPNIOChannel channel)
+    {
+        SharedChannel sharedChannel = sharedChannels.get(channel);
+        return sharedChannel != null ? sharedChannel.references : 0;
+    }
+
+    /**
+     * @return Whether the channel was bound with the given credentials.
+     */
+    public synchronized boolean isBoundAs(LDAPNIOChannel channel, String dn, String password)
+    {
+        SharedChannel sharedChannel = sharedChannels.get(channel);
+        return sharedChannel != null && sharedChannel.key.isIdentity(dn, password);
+    }
+
+    private static final class SharedChannel
+    {
+        private final ChannelKey key;
+        private final LDAPNIOChannel channel;
+        private int references = 1;
+
+        private SharedChannel(ChannelKey key, LDAPNIOChannel channel)
+        {
+            this.key = key;
+            this.channel = channel;
+        }
+    }
+
+    private static final class ChannelKey
+    {
+        private final String host;
+        private final int port;
+        private final String dn;
+        private final String password;
+
+        private ChannelKey(String host, int port, String dn, String password)
+        {
+            this.host = host;
+            this.port = port;
+            this.dn = dn;
+            this.password = password;
+        }
+
+        private boolean isIdentity(String otherDn, String otherPassword)
+        {
+            return (dn == null ? otherDn == null : dn.equals(otherDn)) && (password == null ? otherPassword == null : password.equals(otherPassword));
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof ChannelKey))
+            {
+                return false;
+            }
+            ChannelKey other = (ChannelKey) obj;
+            return host.equals(other.host) && port == other.port && isIdentity(other.dn, other.password);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * (31 * host.hashCode() + port) + (dn != null ? dn.hashCode() : 0);
+        }
+
+        @Override
+        public String toString()
+        {
+            return host + ":" + port + " as " + (dn != null && dn.length() > 0 ? dn : "anonymous");
+        }
+    }
+}
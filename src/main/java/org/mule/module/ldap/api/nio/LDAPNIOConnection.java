@@ -0,0 +1,975 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+
+import org.apache.commons.lang.StringUtils;
+import org.mule.module.ldap.api.AuthenticationException;
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.InvalidAttributeException;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPControl;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryAttribute;
+import org.mule.module.ldap.api.LDAPEntryAttributeTypeDefinition;
+import org.mule.module.ldap.api.LDAPEntryObjectClassDefinition;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPMultiValueEntryAttribute;
+import org.mule.module.ldap.api.LDAPRequestCoalescer;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+import org.mule.module.ldap.api.LDAPUtils;
+import org.mule.module.ldap.api.OperationNotSupportedException;
+import org.mule.module.ldap.api.ber.BerDecoder;
+import org.mule.module.ldap.api.ber.BerTags;
+
+/**
+ * {@link LDAPConnection} that speaks LDAPv3 directly over a non blocking socket. Every operation gets its own
+ * message ID, so many threads can have operations outstanding on the same connection at the same time instead of
+ * waiting for each other as they do on a JNDI context. Connections bound as the same identity to the same server
+ * share a single socket (see {@link LDAPNIOChannelRegistry}), so the connections handed out by a pool multiplex
+ * their operations on it.
+ * <p/>
+ * Differences with the JNDI implementation:
+ * <ul>
+ * <li>Only simple and anonymous authentication over plain LDAP are supported (neither <code>ldaps://</code> nor
+ * StartTLS).</li>
+ * <li>Schema retrieval is not supported.</li>
+ * <li>Referrals are ignored.</li>
+ * </ul>
+ * Binds never change the identity of a socket in use: the credentials are verified on a new socket and the connection
+ * moves to the socket of the new identity, so the operations of the other connections are not affected. The socket
+ * of the previous identity is kept until the connection binds again or is closed, so binding back to it (as done
+ * after authenticating a user) needs no round trip.
+ *
+ * @author mariano
+ */
+public class LDAPNIOConnection extends LDAPConnection
+{
+    public static final int DEFAULT_PORT = 389;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 0;
+    public static final int DEFAULT_READ_TIMEOUT = 0;
+
+    /**
+     * Same properties the JNDI LDAP provider uses, so the extended configuration works for both implementations.
+     */
+    public static final String CONNECT_TIMEOUT_ATTR = "com.sun.jndi.ldap.connect.timeout";
+    public static final String READ_TIMEOUT_ATTR = "com.sun.jndi.ldap.read.timeout";
+    public static final String BINARY_ATTRIBUTES_ATTR = "java.naming.ldap.attributes.binary";
+
+    private static final String BINARY_OPTION = ";binary";
+    private static final String ALL_OBJECTS_FILTER = "(objectClass=*)";
+
+    /**
+     * Attributes whose values are returned as <code>byte[]</code> by default by the JNDI LDAP provider.
+     */
+    private static final List<String> DEFAULT_BINARY_ATTRIBUTES = Arrays.asList("userpassword", "userpkcs12", "usercertificate", "cacertificate", "authorityrevocationlist", "certificaterevocationlist", "crosscertificatepair", "x500uniqueidentifier", "photo", "personalsignature", "audio", "jpegphoto", "javaserializeddata", "thumbnailphoto", "thumbnaillogo", "supportedalgorithms", "deltarevocationlist", "objectguid", "objectsid");
+
+    private String providerUrl = null;
+    private String host = null;
+    private int port = DEFAULT_PORT;
+    private String urlBaseDn = "";
+    private String authentication = NO_AUTHENTICATION;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private final Set<String> binaryAttributes = new HashSet<String>(DEFAULT_BINARY_ATTRIBUTES);
+
+    private volatile LDAPNIOChannel channel = null;
+    private volatile LDAPNIOChannel previousChannel = null;
+    private volatile String bindedUserPassword = null;
+
+    public LDAPNIOConnection()
+    {
+        super();
+    }
+
+    /**
+     * @param conf
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#initialize(java.util.Map)
+     */
+    @Override
+    protected void initialize(Map<String, String> conf) throws LDAPException
+    {
+        if (conf != null)
+        {
+            setTlsEnabled("true".equals(getConfValue(conf, TLS_ENABLED, String.valueOf(DEFAULT_TLS_ENABLED))));
+            if (isTlsEnabled())
+            {
+                throw new OperationNotSupportedException("TLS is not supported by the nio connection type. Use the jndi connection type instead.");
+            }
+
+            setProviderUrl(getConfValue(conf, LDAP_URL_ATTR, null));
+            setAuthentication(getConfValue(conf, AUTHENTICATION_ATTR, NO_AUTHENTICATION));
+            setConnectTimeout(Integer.parseInt(getConfValue(conf, CONNECT_TIMEOUT_ATTR, String.valueOf(DEFAULT_CONNECT_TIMEOUT))));
+            setReadTimeout(Integer.parseInt(getConfValue(conf, READ_TIMEOUT_ATTR, String.valueOf(DEFAULT_READ_TIMEOUT))));
+
+            String binary = getConfValue(conf, BINARY_ATTRIBUTES_ATTR, null);
+            if (binary != null)
+            {
+                for (String attribute : binary.trim().split("\\s+"))
+                {
+                    binaryAttributes.add(attribute.toLowerCase());
+                }
+            }
+
+            setSchemaEnabled("true".equals(getConfValue(conf, SCHEMA_ENABLED, String.valueOf(DEFAULT_SCHEMA_ENABLED))));
+            if (isSchemaEnabled())
+            {
+                logger.warn("Schema is not supported by the nio connection type. Attributes will be single or multi valued depending on the number of values returned.");
+            }
+        }
+    }
+
+    private String getConfValue(Map<String, String> conf, String key, String defaultValue)
+    {
+        String value = conf.get(key);
+
+        return StringUtils.isNotEmpty(value) ? value : defaultValue;
+    }
+
+    /**
+     * @param providerUrl <code>ldap://host[:port][/baseDn]</code>
+     */
+    public void setProviderUrl(String providerUrl) throws LDAPException
+    {
+        try
+        {
+            URI uri = new URI(providerUrl);
+            if (!"ldap".equalsIgnoreCase(uri.getScheme()))
+            {
+                throw new OperationNotSupportedException("Unsupported URL " + providerUrl + ". The nio connection type only supports ldap:// URLs.");
+            }
+            this.providerUrl = providerUrl;
+            this.host = uri.getHost() != null ? uri.getHost() : "localhost";
+            this.port = uri.getPort() > 0 ? uri.getPort() : DEFAULT_PORT;
+            this.urlBaseDn = uri.getPath() != null && uri.getPath().length() > 1 ? uri.getPath().substring(1) : "";
+        }
+        catch (URISyntaxException ex)
+        {
+            throw new LDAPException("Invalid URL " + providerUrl, ex);
+        }
+        catch (NullPointerException ex)
+        {
+            throw new LDAPException("LDAP URL cannot be null.", ex);
+        }
+    }
+
+    public String getProviderUrl()
+    {
+        return providerUrl;
+    }
+
+    public String getAuthentication()
+    {
+        return authentication;
+    }
+
+    public void setAuthentication(String authentication)
+    {
+        this.authentication = authentication;
+    }
+
+    public boolean isNoAuthentication()
+    {
+        return NO_AUTHENTICATION.equalsIgnoreCase(getAuthentication());
+    }
+
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout)
+    {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return Milliseconds to wait for each response of the server (0 waits forever).
+     */
+    public int getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout)
+    {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return The number of operations waiting for a response on the socket of this connection, including the
+     *         operations of the connections sharing it.
+     */
+    public int getOutstandingOperations()
+    {
+        LDAPNIOChannel current = channel;
+        return current != null ? current.getOutstandingOperations() : 0;
+    }
+
+    /**
+     * @return The number of connections sharing the socket of this connection, including this one.
+     */
+    public int getSharedConnections()
+    {
+        LDAPNIOChannel current = channel;
+        return current != null ? LDAPNIOChannelRegistry.getInstance().getReferences(current) : 0;
+    }
+
+    /**
+     * @param dn
+     * @param password
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#bind(java.lang.String, java.lang.String)
+     */
+    @Override
+    public synchronized void bind(String dn, String password) throws LDAPException
+    {
+        String bindDn = isNoAuthentication() ? "" : dn;
+        String bindPassword = isNoAuthentication() ? "" : password;
+        if (!isNoAuthentication())
+        {
+            if (dn == null || password == null)
+            {
+                throw new LDAPException("Bind DN and/or password cannot be null when authentication is required. Used authentication = 'none' for anonymous bind.");
+            }
+            if (dn.length() > 0 && password.length() == 0)
+            {
+                // RFC 4513, section 5.1.2: unauthenticated binds must not be mistaken for successful authentication
+                throw new AuthenticationException("Password cannot be empty for simple authentication of " + dn);
+            }
+        }
+
+        LDAPNIOChannelRegistry registry = LDAPNIOChannelRegistry.getInstance();
+        boolean reusing = !isClosed();
+        try
+        {
+            if (!reusing)
+            {
+                logger.debug("{url: " + getProviderUrl() + ", authentication: " + getAuthentication() + ", authDn: " + (StringUtils.isNotEmpty(bindDn) ? bindDn : "{anonymous}") + ", connectTimeout: " + getConnectTimeout() + ", readTimeout: " + getReadTimeout() + "}");
+                closeChannel();
+                channel = registry.acquire(host, port, getConnectTimeout(), getReadTimeout(), bindDn, bindPassword, false);
+            }
+            else if (registry.isBoundAs(channel, bindDn, bindPassword))
+            {
+                // Verified without binding the socket other connections may be using
+                registry.release(registry.acquire(host, port, getConnectTimeout(), getReadTimeout(), bindDn, bindPassword, true));
+            }
+            else if (previousChannel != null && !previousChannel.isClosed() && registry.isBoundAs(previousChannel, bindDn, bindPassword))
+            {
+                LDAPNIOChannel current = channel;
+                channel = previousChannel;
+                previousChannel = null;
+                registry.release(current);
+            }
+            else
+            {
+                LDAPNIOChannel acquired = registry.acquire(host, port, getConnectTimeout(), getReadTimeout(), bindDn, bindPassword, true);
+                if (previousChannel != null)
+                {
+                    registry.release(previousChannel);
+                }
+                previousChannel = channel;
+                channel = acquired;
+            }
+
+            this.bindedUserPassword = isNoAuthentication() ? null : password;
+            bindPerformed(isNoAuthentication() ? null : dn);
+            logger.info((reusing ? "Re-binded to " : "Binded to ") + getProviderUrl() + " with " + getAuthentication() + " authentication as " + (StringUtils.isNotEmpty(bindDn) ? bindDn : "anonymous"));
+        }
+        catch (LDAPException ex)
+        {
+            // Rejected credentials leave the connection bound as its previous identity
+            invalidateCredentials(dn);
+            throw handleException(ex, "Bind failed.");
+        }
+    }
+
+    /**
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#rebind()
+     */
+    @Override
+    public void rebind() throws LDAPException
+    {
+        if (isClosed())
+        {
+            throw new LDAPException("Cannot rebind a close connection. You must first bind.");
+        }
+        else
+        {
+            String dn = getBindedUserDn();
+            String password = bindedUserPassword;
+            if (getCredentialCache() != null && getCredentialCache().isVerified(dn, password))
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Credentials of " + dn + " were verified recently. Skipping rebind.");
+                }
+                return;
+            }
+            bind(dn, password);
+            if (getCredentialCache() != null && dn != null)
+            {
+                getCredentialCache().verified(dn, password);
+            }
+        }
+    }
+
+    /**
+     * @return
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#getBindedUserDn()
+     */
+    @Override
+    public String getBindedUserDn() throws LDAPException
+    {
+        return !isClosed() ? getLastBindDn() : null;
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#search(java.lang.String, java.lang.String,
+     *      org.mule.module.ldap.api.LDAPSearchControls)
+     */
+    @Override
+    public LDAPResultSet search(String baseDn, String filter, LDAPSearchControls controls) throws LDAPException
+    {
+        return search(baseDn, filter, null, controls);
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#search(java.lang.String, java.lang.String, java.lang.Object[],
+     *      org.mule.module.ldap.api.LDAPSearchControls)
+     */
+    @Override
+    public LDAPResultSet search(final String baseDn, final String filter, final Object[] filterArgs, final LDAPSearchControls controls) throws LDAPException
+    {
+        if (controls.isVirtualListViewEnabled())
+        {
+            throw new OperationNotSupportedException("Virtual list view is not supported by the nio connection type. Use the jndi connection type instead.");
+        }
+
+        LDAPResultSet cached = getCachedSearch(baseDn, filter, filterArgs, controls);
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        return coalesceSearch(baseDn, filter, filterArgs, controls, new LDAPRequestCoalescer.Request<LDAPResultSet>()
+        {
+            @Override
+            public LDAPResultSet execute() throws LDAPException
+            {
+                try
+                {
+                    byte[] encodedFilter = LDAPFilterEncoder.encode(LDAPUtils.formatFilter(filter, filterArgs));
+                    return new LDAPNIOResultSet(LDAPNIOConnection.this, baseDn, encodedFilter, controls, sendSearch(baseDn, encodedFilter, controls, null));
+                }
+                catch (LDAPException ex)
+                {
+                    throw handleException(ex, "Search failed.");
+                }
+            }
+        });
+    }
+
+    LDAPNIOOperation sendSearch(String baseDn, byte[] filter, LDAPSearchControls controls, byte[] cookie) throws LDAPException
+    {
+        return sendSearch(baseDn, filter, controls, cookie, controls.getPageSize());
+    }
+
+    /**
+     * @param pageSize Size of the page requested if paging is enabled in the controls.
+     */
+    private LDAPNIOOperation sendSearch(String baseDn, byte[] filter, LDAPSearchControls controls, byte[] cookie, int pageSize) throws LDAPException
+    {
+        long sizeLimit = Math.min(Math.max(controls.getMaxResults(), 0), Integer.MAX_VALUE);
+        int timeLimit = controls.getTimeout() > 0 ? (controls.getTimeout() + 999) / 1000 : 0;
+
+        LDAPRequest request = LDAPRequest.search(toServerDn(baseDn), toProtocolScope(controls.getScope()), LDAPProtocol.DEREF_ALWAYS, (int) sizeLimit, timeLimit, filter, toRequestedAttributes(controls.getAttributesToReturn()));
+        if (controls.isPagingEnabled())
+        {
+            request.addControl(LDAPControl.pagedResults(pageSize, cookie));
+        }
+        if (controls.isSortEnabled())
+        {
+            request.addControl(LDAPControl.sort(controls.getSortKeys()));
+        }
+        return getChannel().send(request);
+    }
+
+    /**
+     * Counts the search result entries as they are received, without decoding them.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#count(java.lang.String, java.lang.String, java.lang.Object[],
+     *      org.mule.module.ldap.api.LDAPSearchControls)
+     */
+    @Override
+    public int count(String baseDn, String filter, Object[] filterArgs, LDAPSearchControls controls) throws LDAPException
+    {
+        LDAPSearchControls countControls = countControls(controls);
+        LDAPNIOOperation operation = null;
+        try
+        {
+            byte[] encodedFilter = LDAPFilterEncoder.encode(LDAPUtils.formatFilter(filter, filterArgs));
+            operation = sendSearch(baseDn, encodedFilter, countControls, null);
+
+            int count = 0;
+            while (operation != null)
+            {
+                LDAPMessage message = operation.nextResponse(getReadTimeout());
+                if (message.getProtocolOp() == LDAPProtocol.SEARCH_RESULT_ENTRY)
+                {
+                    count++;
+                }
+                else if (message.getProtocolOp() == LDAPProtocol.SEARCH_RESULT_DONE)
+                {
+                    operation = null;
+                    LDAPResult result = LDAPResult.decode(message);
+                    if (result.getResultCode() == LDAPResult.SIZE_LIMIT_EXCEEDED && !controls.isFailOnSizeLimitExceeded())
+                    {
+                        logger.warn("Size limit exceeded. Max results is: " + controls.getMaxResults());
+                        return count;
+                    }
+                    result.check();
+
+                    byte[] pagedResults = message.getControl(LDAPControl.PAGED_RESULTS_OID);
+                    byte[] cookie = pagedResults != null ? LDAPControl.getPagedResultsCookie(pagedResults) : null;
+                    if (cookie != null)
+                    {
+                        int estimate = countEstimate(LDAPControl.getPagedResultsSize(pagedResults), countControls);
+                        if (estimate >= 0)
+                        {
+                            abandonPagedSearch(baseDn, encodedFilter, countControls, cookie);
+                            return estimate;
+                        }
+                        operation = sendSearch(baseDn, encodedFilter, countControls, cookie);
+                    }
+                }
+            }
+            return count;
+        }
+        catch (IOException ex)
+        {
+            throw handleException(new CommunicationException("Invalid search response received from " + channel, ex), "Count failed.");
+        }
+        catch (LDAPException ex)
+        {
+            throw handleException(ex, "Count failed.");
+        }
+        finally
+        {
+            if (operation != null)
+            {
+                operation.abandon();
+            }
+        }
+    }
+
+    /**
+     * Tells the server that no more pages of a paged search will be requested, requesting a page of size zero with the
+     * cookie of the last page (RFC 2696), so the server releases the state of the search.
+     */
+    private void abandonPagedSearch(String baseDn, byte[] encodedFilter, LDAPSearchControls controls, byte[] cookie)
+    {
+        try
+        {
+            sendSearch(baseDn, encodedFilter, controls, cookie, 0).result(getReadTimeout());
+        }
+        catch (LDAPException ex)
+        {
+            logger.debug("Cannot abandon paged search under " + baseDn, ex);
+        }
+    }
+
+    private static int toProtocolScope(int scope)
+    {
+        switch (scope)
+        {
+            case LDAPSearchControls.OBJECT_SCOPE :
+                return LDAPProtocol.SCOPE_BASE_OBJECT;
+            case LDAPSearchControls.ONELEVEL_SCOPE :
+                return LDAPProtocol.SCOPE_SINGLE_LEVEL;
+            default :
+                return LDAPProtocol.SCOPE_WHOLE_SUBTREE;
+        }
+    }
+
+    /**
+     * As in JNDI, <i>null</i> requests all the user attributes and an empty array requests none.
+     */
+    private static String[] toRequestedAttributes(String[] attributes)
+    {
+        return attributes != null && attributes.length == 0 ? new String[] {LDAPProtocol.NO_ATTRIBUTES} : attributes;
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#lookup(java.lang.String)
+     */
+    @Override
+    public LDAPEntry lookup(String dn) throws LDAPException
+    {
+        return lookup(dn, null);
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#lookup(java.lang.String, java.lang.String[])
+     */
+    @Override
+    public LDAPEntry lookup(final String dn, final String[] attributes) throws LDAPException
+    {
+        LDAPEntry cached = getCachedEntry(dn, attributes);
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        return coalesceLookup(dn, attributes, new LDAPRequestCoalescer.Request<LDAPEntry>()
+        {
+            @Override
+            public LDAPEntry execute() throws LDAPException
+            {
+                return performLookup(dn, attributes);
+            }
+        });
+    }
+
+    private LDAPEntry performLookup(String dn, String[] attributes) throws LDAPException
+    {
+        LDAPNIOOperation operation = null;
+        try
+        {
+            operation = getChannel().send(LDAPRequest.search(toServerDn(dn), LDAPProtocol.SCOPE_BASE_OBJECT, LDAPProtocol.DEREF_ALWAYS, 0, 0, LDAPFilterEncoder.encode(ALL_OBJECTS_FILTER), toRequestedAttributes(attributes)));
+
+            LDAPEntry entry = null;
+            LDAPMessage message;
+            while (!(message = operation.nextResponse(getReadTimeout())).isFinal())
+            {
+                if (message.getProtocolOp() == LDAPProtocol.SEARCH_RESULT_ENTRY)
+                {
+                    entry = buildEntry(message);
+                    entry.setDn(dn);
+                }
+            }
+            LDAPResult.decode(message).check();
+            return entry;
+        }
+        catch (IOException ex)
+        {
+            throw handleException(new CommunicationException("Invalid response received from " + channel, ex), "Lookup of entry " + dn + " failed.");
+        }
+        catch (LDAPException ex)
+        {
+            throw handleException(ex, "Lookup of entry " + dn + " failed.");
+        }
+        finally
+        {
+            if (operation != null)
+            {
+                operation.abandon();
+            }
+        }
+    }
+
+    /**
+     * <pre>
+     * SearchResultEntry ::= [APPLICATION 4] SEQUENCE {
+     *      objectName      LDAPDN,
+     *      attributes      PartialAttributeList }
+     * </pre>
+     */
+    LDAPEntry buildEntry(LDAPMessage message) throws LDAPException
+    {
+        try
+        {
+            BerDecoder protocolOp = message.getProtocolOpDecoder();
+            LDAPEntry entry = new LDAPEntry(fromServerDn(protocolOp.readString()));
+            BerDecoder attributes = protocolOp.readSequence();
+            while (attributes.hasMore())
+            {
+                BerDecoder attribute = attributes.readSequence();
+                String name = attribute.readString();
+                boolean binary = isBinaryAttribute(name);
+
+                List<Object> values = new ArrayList<Object>();
+                BerDecoder encodedValues = attribute.readSequence(BerTags.SET);
+                while (encodedValues.hasMore())
+                {
+                    values.add(binary ? encodedValues.readOctetString() : encodedValues.readString());
+                }
+
+                if (values.size() > 1)
+                {
+                    entry.addAttribute(new LDAPMultiValueEntryAttribute(name, values));
+                }
+                else
+                {
+                    entry.addAttribute(new LDAPSingleValueEntryAttribute(name, values.isEmpty() ? null : values.get(0)));
+                }
+            }
+            return entry;
+        }
+        catch (IOException ex)
+        {
+            throw new CommunicationException("Invalid search result entry received from " + channel, ex);
+        }
+    }
+
+    private boolean isBinaryAttribute(String name)
+    {
+        String lowerCaseName = name.toLowerCase();
+        return lowerCaseName.endsWith(BINARY_OPTION) || binaryAttributes.contains(lowerCaseName);
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#addEntry(org.mule.module.ldap.api.LDAPEntry)
+     */
+    @Override
+    public void addEntry(LDAPEntry entry) throws LDAPException
+    {
+        try
+        {
+            getChannel().send(LDAPRequest.add(toServerDn(entry.getDn()), entry)).result(getReadTimeout());
+            invalidateCaches(entry.getDn());
+        }
+        catch (LDAPException ex)
+        {
+            throw handleException(ex, "Add entry " + (entry != null ? entry.getDn() : "null") + " failed.");
+        }
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#updateEntry(org.mule.module.ldap.api.LDAPEntry)
+     */
+    @Override
+    public void updateEntry(LDAPEntry entry) throws LDAPException
+    {
+        try
+        {
+            getChannel().send(LDAPRequest.modify(toServerDn(entry.getDn()), LDAPProtocol.MODIFY_REPLACE, entry.attributes())).result(getReadTimeout());
+            invalidateCredentials(entry.getDn());
+            invalidateCaches(entry.getDn());
+        }
+        catch (LDAPException ex)
+        {
+            throw handleException(ex, "Update entry " + (entry != null ? entry.getDn() : "null") + " failed.");
+        }
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#deleteEntry(org.mule.module.ldap.api.LDAPEntry)
+     */
+    @Override
+    public void deleteEntry(LDAPEntry entry) throws LDAPException
+    {
+        deleteEntry(entry.getDn());
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#deleteEntry(java.lang.String)
+     */
+    @Override
+    public void deleteEntry(String dn) throws LDAPException
+    {
+        try
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("About to delete entry " + dn);
+            }
+            getChannel().send(LDAPRequest.delete(toServerDn(dn))).result(getReadTimeout());
+            invalidateCredentials(dn);
+            invalidateCaches(dn);
+            if (logger.isInfoEnabled())
+            {
+                logger.info("Deleted entry " + dn);
+            }
+        }
+        catch (LDAPException ex)
+        {
+            throw handleException(ex, "Delete entry failed.");
+        }
+    }
+
+    /**
+     * Renames the entry with a single ModifyDN request, moving it to a new parent when the parent changes.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#renameEntry(java.lang.String, java.lang.String)
+     */
+    @Override
+    public void renameEntry(String oldDn, String newDn) throws LDAPException
+    {
+        try
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("About to rename entry " + oldDn + " to " + newDn);
+            }
+            LdapName oldName = new LdapName(oldDn);
+            LdapName newName = new LdapName(newDn);
+            if (newName.isEmpty())
+            {
+                throw new InvalidAttributeException("New DN cannot be empty.");
+            }
+
+            String newRdn = newName.getRdn(newName.size() - 1).toString();
+            LdapName newParent = (LdapName) newName.getPrefix(newName.size() - 1);
+            LdapName oldParent = oldName.isEmpty() ? oldName : (LdapName) oldName.getPrefix(oldName.size() - 1);
+            String newSuperior = newParent.equals(oldParent) ? null : toServerDn(newParent.toString());
+
+            getChannel().send(LDAPRequest.modifyDn(toServerDn(oldDn), newRdn, true, newSuperior)).result(getReadTimeout());
+            invalidateCredentials(oldDn);
+            invalidateCachedTree(oldDn);
+            invalidateCaches(newDn);
+            if (logger.isInfoEnabled())
+            {
+                logger.info("Renamed entry " + oldDn + " to " + newDn);
+            }
+        }
+        catch (InvalidNameException ex)
+        {
+            throw handleException(LDAPException.create(ex), "Rename entry " + oldDn + " to " + newDn + " failed.");
+        }
+        catch (LDAPException ex)
+        {
+            throw handleException(ex, "Rename entry " + oldDn + " to " + newDn + " failed.");
+        }
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#addAttribute(java.lang.String,
+     *      org.mule.module.ldap.api.LDAPEntryAttribute)
+     */
+    @Override
+    public void addAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+    {
+        try
+        {
+            modifyAttribute(dn, LDAPProtocol.MODIFY_ADD, attribute);
+        }
+        catch (LDAPException ex)
+        {
+            throw handleException(ex, "Add attribute " + (attribute != null ? attribute.getName() : "null") + " to entry " + dn + " failed.");
+        }
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#updateAttribute(java.lang.String,
+     *      org.mule.module.ldap.api.LDAPEntryAttribute)
+     */
+    @Override
+    public void updateAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+    {
+        try
+        {
+            modifyAttribute(dn, LDAPProtocol.MODIFY_REPLACE, attribute);
+        }
+        catch (LDAPException ex)
+        {
+            throw handleException(ex, "Update attribute " + (attribute != null ? attribute.getName() : "null") + " from entry " + dn + " failed.");
+        }
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#deleteAttribute(java.lang.String,
+     *      org.mule.module.ldap.api.LDAPEntryAttribute)
+     */
+    @Override
+    public void deleteAttribute(String dn, LDAPEntryAttribute attribute) throws LDAPException
+    {
+        try
+        {
+            modifyAttribute(dn, LDAPProtocol.MODIFY_DELETE, attribute);
+        }
+        catch (LDAPException ex)
+        {
+            throw handleException(ex, "Delete attribute " + (attribute != null ? attribute.getName() : "null") + " from entry " + dn + " failed.");
+        }
+    }
+
+    private void modifyAttribute(String dn, int operation, LDAPEntryAttribute attribute) throws LDAPException
+    {
+        getChannel().send(LDAPRequest.modify(toServerDn(dn), operation, Collections.singletonList(attribute).iterator())).result(getReadTimeout());
+        invalidateCredentials(dn);
+        invalidateCaches(dn);
+    }
+
+    /**
+     * Reads the root DSE without requesting any attribute. Any answer from the server proves that the connection is
+     * still usable.
+     *
+     * @see org.mule.module.ldap.api.LDAPConnection#isValid()
+     */
+    @Override
+    public boolean isValid()
+    {
+        if (isClosed())
+        {
+            return false;
+        }
+
+        LDAPNIOOperation operation = null;
+        try
+        {
+            operation = getChannel().send(LDAPRequest.search("", LDAPProtocol.SCOPE_BASE_OBJECT, LDAPProtocol.DEREF_NEVER, 0, 0, LDAPFilterEncoder.encode(ALL_OBJECTS_FILTER), new String[] {LDAPProtocol.NO_ATTRIBUTES}));
+            while (!operation.nextResponse(getReadTimeout()).isFinal())
+            {
+                // Skip the root DSE entry
+            }
+            return true;
+        }
+        catch (CommunicationException ex)
+        {
+            logger.debug("Connection " + toString() + " is not valid.", ex);
+            return false;
+        }
+        catch (LDAPException ex)
+        {
+            return false;
+        }
+        finally
+        {
+            if (operation != null)
+            {
+                operation.abandon();
+            }
+        }
+    }
+
+    /**
+     * @throws LDAPException
+     * @see org.mule.module.ldap.api.LDAPConnection#close()
+     */
+    @Override
+    public synchronized void close() throws LDAPException
+    {
+        if (!isClosed())
+        {
+            String connectionId = toString();
+            closeChannel();
+            logger.info("Connection " + connectionId + " closed.");
+        }
+        else
+        {
+            logger.warn("Connection already closed.");
+        }
+    }
+
+    private void closeChannel()
+    {
+        LDAPNIOChannel current = channel;
+        LDAPNIOChannel previous = previousChannel;
+        channel = null;
+        previousChannel = null;
+        bindedUserPassword = null;
+        clearBindInformation();
+        if (current != null)
+        {
+            LDAPNIOChannelRegistry.getInstance().release(current);
+        }
+        if (previous != null)
+        {
+            LDAPNIOChannelRegistry.getInstance().release(previous);
+        }
+    }
+
+    /**
+     * @see org.mule.module.ldap.api.LDAPConnection#isClosed()
+     */
+    @Override
+    public boolean isClosed()
+    {
+        LDAPNIOChannel current = channel;
+        return current == null || current.isClosed();
+    }
+
+    private LDAPNIOChannel getChannel() throws LDAPException
+    {
+        LDAPNIOChannel current = channel;
+        if (current == null)
+        {
+            throw new LDAPException("Connection is closed. Call bind method first.");
+        }
+        return current;
+    }
+
+    /**
+     * DNs are relative to the base DN of the URL (if any), as they are for the JNDI implementation.
+     */
+    private String toServerDn(String dn)
+    {
+        if (urlBaseDn.length() == 0)
+        {
+            return dn != null ? dn : "";
+        }
+        return StringUtils.isEmpty(dn) ? urlBaseDn : dn + "," + urlBaseDn;
+    }
+
+    private String fromServerDn(String dn)
+    {
+        if (urlBaseDn.length() > 0 && dn.length() > urlBaseDn.length() && dn.toLowerCase().endsWith("," + urlBaseDn.toLowerCase()))
+        {
+            return dn.substring(0, dn.length() - urlBaseDn.length() - 1);
+        }
+        return dn;
+    }
+
+    private LDAPException handleException(LDAPException ex, String logMessage)
+    {
+        if (logger.isDebugEnabled())
+        {
+            logger.debug(logMessage, ex);
+        }
+        else
+        {
+            logger.warn(logMessage);
+        }
+        return ex;
+    }
+
+    @Override
+    public LDAPEntryAttributeTypeDefinition getAttributeTypeDefinition(String attributeName) throws LDAPException
+    {
+        throw new OperationNotSupportedException("Schema retrieval is not supported by the nio connection type.");
+    }
+
+    @Override
+    public LDAPEntryObjectClassDefinition getObjectClassDefinition(String objectClassName) throws LDAPException
+    {
+        throw new OperationNotSupportedException("Schema retrieval is not supported by the nio connection type.");
+    }
+
+    @Override
+    public List<String> getAllObjectClasses() throws LDAPException
+    {
+        throw new OperationNotSupportedException("Schema retrieval is not supported by the nio connection type.");
+    }
+
+    @Override
+    public String toString()
+    {
+        LDAPNIOChannel current = channel;
+        return "{url: " + providerUrl + ", bindDn: " + getLastBindDn() + ", socket: " + (current != null ? current : "closed") + "}";
+    }
+}
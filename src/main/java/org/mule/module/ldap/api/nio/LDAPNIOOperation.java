@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.LDAPException;
+
+/**
+ * An operation sent through an {@link LDAPNIOChannel}. The selector thread queues the responses as they arrive and
+ * the thread that sent the request takes them from the queue. The queue is bounded: once it is full the channel
+ * stops reading from the socket until the responses are consumed, so a slow consumer cannot exhaust the memory.
+ *
+ * @author mariano
+ */
+public class LDAPNIOOperation
+{
+    private final LDAPNIOChannel channel;
+    private final int messageId;
+    private final LDAPRequest request;
+    private final BlockingQueue<Object> responses;
+    private volatile LDAPException failure = null;
+    private volatile boolean done = false;
+
+    LDAPNIOOperation(LDAPNIOChannel channel, int messageId, LDAPRequest request, int responseQueueSize)
+    {
+        this.channel = channel;
+        this.messageId = messageId;
+        this.request = request;
+        this.responses = new ArrayBlockingQueue<Object>(responseQueueSize);
+        this.done = !request.expectsResponse();
+    }
+
+    /**
+     * @return <i>false</i> if the response could not be queued because the queue is full. Responses of abandoned
+     *         operations are discarded.
+     */
+    boolean received(LDAPMessage message)
+    {
+        return done || responses.offer(message);
+    }
+
+    void failed(LDAPException cause)
+    {
+        failure = cause;
+        // Wakes up the waiting thread. If the queue is full the failure is noticed once it is drained.
+        responses.offer(cause);
+    }
+
+    /**
+     * Waits for the next response of the operation.
+     *
+     * @param timeout Milliseconds to wait for the response (0 waits forever). If no response arrives in time the
+     *            operation is abandoned.
+     * @throws CommunicationException If the connection fails or the response does not arrive in time.
+     */
+    public LDAPMessage nextResponse(long timeout) throws LDAPException
+    {
+        if (done)
+        {
+            throw new LDAPException("Operation " + messageId + " has no more responses.");
+        }
+
+        Object response = responses.poll();
+        try
+        {
+            if (response == null)
+            {
+                response = failure != null ? failure : timeout > 0 ? responses.poll(timeout, TimeUnit.MILLISECONDS) : responses.take();
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            abandon();
+            Thread.currentThread().interrupt();
+            throw new LDAPException("Interrupted while waiting for the response of operation " + messageId, ex);
+        }
+
+        if (response == null)
+        {
+            abandon();
+            throw new CommunicationException(channel + " response read timed out after " + timeout + " ms.");
+        }
+        channel.responseTaken();
+        if (response instanceof LDAPException)
+        {
+            done = true;
+            LDAPException cause = (LDAPException) response;
+            throw new CommunicationException(cause.getMessage(), cause.getCause());
+        }
+
+        LDAPMessage message = (LDAPMessage) response;
+        done = message.isFinal();
+        return message;
+    }
+
+    /**
+     * Waits for the response of a single response operation and checks its result.
+     *
+     * @return The result of the operation, which is always successful.
+     * @throws LDAPException Matching the result code of the operation if it failed.
+     */
+    public LDAPResult result(long timeout) throws LDAPException
+    {
+        LDAPMessage message = nextResponse(timeout);
+        try
+        {
+            LDAPResult result = LDAPResult.decode(message);
+            result.check();
+            return result;
+        }
+        catch (IOException ex)
+        {
+            channel.failed(ex);
+            throw new CommunicationException("Invalid response received from " + channel, ex);
+        }
+    }
+
+    /**
+     * Asks the server to abandon the operation unless all its responses were already received.
+     */
+    public void abandon()
+    {
+        if (!done)
+        {
+            done = true;
+            channel.abandon(this);
+        }
+    }
+
+    public boolean isDone()
+    {
+        return done;
+    }
+
+    public int getMessageId()
+    {
+        return messageId;
+    }
+
+    public LDAPRequest getRequest()
+    {
+        return request;
+    }
+}
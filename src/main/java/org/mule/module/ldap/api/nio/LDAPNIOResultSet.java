@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.LDAPControl;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+
+/**
+ * Result set that decodes the entries as the search responses are received, so the first entries can be processed
+ * while the server is still sending the rest. When paging is enabled, the next page is requested once the current
+ * one has been consumed.
+ *
+ * @author mariano
+ */
+public class LDAPNIOResultSet implements LDAPResultSet
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private final LDAPNIOConnection connection;
+    private final String baseDn;
+    private final byte[] filter;
+    private final LDAPSearchControls controls;
+
+    private LDAPNIOOperation operation;
+    private LDAPEntry nextEntry = null;
+    private int resultSize = -1;
+
+    LDAPNIOResultSet(LDAPNIOConnection connection, String baseDn, byte[] filter, LDAPSearchControls controls, LDAPNIOOperation operation)
+    {
+        this.connection = connection;
+        this.baseDn = baseDn;
+        this.filter = filter;
+        this.controls = controls;
+        this.operation = operation;
+    }
+
+    @Override
+    public boolean hasNext() throws LDAPException
+    {
+        while (nextEntry == null && operation != null)
+        {
+            LDAPMessage message = operation.nextResponse(connection.getReadTimeout());
+            if (message.getProtocolOp() == LDAPProtocol.SEARCH_RESULT_ENTRY)
+            {
+                nextEntry = connection.buildEntry(message);
+            }
+            else if (message.getProtocolOp() == LDAPProtocol.SEARCH_RESULT_DONE)
+            {
+                searchDone(message);
+            }
+            // Search result references are ignored as the JNDI implementation does by default
+        }
+        return nextEntry != null;
+    }
+
+    private void searchDone(LDAPMessage message) throws LDAPException
+    {
+        operation = null;
+        try
+        {
+            LDAPResult result = LDAPResult.decode(message);
+            if (result.getResultCode() == LDAPResult.SIZE_LIMIT_EXCEEDED && !controls.isFailOnSizeLimitExceeded())
+            {
+                logger.warn("Size limit exceeded. Max results is: " + controls.getMaxResults());
+                return;
+            }
+            result.check();
+
+            byte[] pagedResults = message.getControl(LDAPControl.PAGED_RESULTS_OID);
+            if (controls.isPagingEnabled() && pagedResults != null)
+            {
+                resultSize = LDAPControl.getPagedResultsSize(pagedResults);
+                byte[] cookie = LDAPControl.getPagedResultsCookie(pagedResults);
+                if (cookie != null)
+                {
+                    operation = connection.sendSearch(baseDn, filter, controls, cookie);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new CommunicationException("Invalid search response " + message, ex);
+        }
+    }
+
+    @Override
+    public LDAPEntry next() throws LDAPException
+    {
+        if (hasNext())
+        {
+            LDAPEntry entry = nextEntry;
+            nextEntry = null;
+            return entry;
+        }
+        throw new NoSuchElementException("End of result set");
+    }
+
+    @Override
+    public void close() throws LDAPException
+    {
+        if (operation != null)
+        {
+            operation.abandon();
+            operation = null;
+        }
+        nextEntry = null;
+    }
+
+    @Override
+    public List<LDAPEntry> getAllEntries() throws LDAPException
+    {
+        List<LDAPEntry> allEntries = new ArrayList<LDAPEntry>();
+
+        while (hasNext())
+        {
+            allEntries.add(next());
+        }
+
+        return allEntries;
+    }
+
+    @Override
+    public int getResultSize() throws LDAPException
+    {
+        return resultSize;
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Single I/O thread shared by all the {@link LDAPNIOChannel}s. It reads the responses of every channel and writes
+ * the requests that could not be written right away by the thread that sent them.
+ * <p/>
+ * Registrations and interest changes are queued and applied by the selector thread itself, as
+ * {@link java.nio.channels.SelectableChannel#register(Selector, int)} blocks while another thread is selecting.
+ *
+ * @author mariano
+ */
+public class LDAPNIOSelector implements Runnable
+{
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private static LDAPNIOSelector instance = null;
+
+    private final Selector selector;
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private LDAPNIOSelector() throws IOException
+    {
+        this.selector = Selector.open();
+        Thread thread = new Thread(this, "ldap-nio-selector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static synchronized LDAPNIOSelector getInstance() throws IOException
+    {
+        if (instance == null)
+        {
+            instance = new LDAPNIOSelector();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts reading the responses received by <i>channel</i>.
+     */
+    public void register(final LDAPNIOChannel channel)
+    {
+        execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    int interestOps = SelectionKey.OP_READ | (channel.hasPendingWrites() ? SelectionKey.OP_WRITE : 0);
+                    channel.setSelectionKey(channel.getSocketChannel().register(selector, interestOps, channel));
+                }
+                catch (ClosedChannelException ex)
+                {
+                    channel.failed(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the selector thread write the requests queued in <i>channel</i> as soon as the socket accepts them.
+     */
+    public void writePending(final LDAPNIOChannel channel)
+    {
+        execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                SelectionKey key = channel.getSelectionKey();
+                if (key != null && key.isValid())
+                {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the selector thread dispatch the response that could not be queued in <i>channel</i> and read from the
+     * socket again if there is room for it.
+     */
+    public void resumeReading(final LDAPNIOChannel channel)
+    {
+        execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    SelectionKey key = channel.getSelectionKey();
+                    if (channel.resumeReading() && key != null && key.isValid())
+                    {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    }
+                }
+                catch (CancelledKeyException ex)
+                {
+                    // Channel closed while resuming
+                }
+                catch (IOException ex)
+                {
+                    channel.failed(ex);
+                }
+            }
+        });
+    }
+
+    private void execute(Runnable task)
+    {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            try
+            {
+                runPendingTasks();
+                selector.select();
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();)
+                {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    process(key);
+                }
+            }
+            catch (Throwable ex)
+            {
+                logger.error("Unexpected error in LDAP NIO selector thread", ex);
+            }
+        }
+    }
+
+    private void runPendingTasks()
+    {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null)
+        {
+            task.run();
+        }
+    }
+
+    private void process(SelectionKey key)
+    {
+        LDAPNIOChannel channel = (LDAPNIOChannel) key.attachment();
+        try
+        {
+            if (key.isReadable())
+            {
+                channel.readAvailable();
+            }
+            if (key.isValid() && key.isWritable() && channel.writePending())
+            {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+        catch (CancelledKeyException ex)
+        {
+            // Channel closed while processing it
+        }
+        catch (IOException ex)
+        {
+            channel.failed(ex);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import org.mule.module.ldap.api.ber.BerTags;
+
+/**
+ * Constants of the LDAPv3 protocol (RFC 4511) used by the NIO implementation.
+ *
+ * @author mariano
+ */
+public final class LDAPProtocol
+{
+    public static final int VERSION = 3;
+
+    public static final int BIND_REQUEST = BerTags.application(0, true);
+    public static final int BIND_RESPONSE = BerTags.application(1, true);
+    public static final int UNBIND_REQUEST = BerTags.application(2, false);
+    public static final int SEARCH_REQUEST = BerTags.application(3, true);
+    public static final int SEARCH_RESULT_ENTRY = BerTags.application(4, true);
+    public static final int SEARCH_RESULT_DONE = BerTags.application(5, true);
+    public static final int MODIFY_REQUEST = BerTags.application(6, true);
+    public static final int MODIFY_RESPONSE = BerTags.application(7, true);
+    public static final int ADD_REQUEST = BerTags.application(8, true);
+    public static final int ADD_RESPONSE = BerTags.application(9, true);
+    public static final int DEL_REQUEST = BerTags.application(10, false);
+    public static final int DEL_RESPONSE = BerTags.application(11, true);
+    public static final int MODIFY_DN_REQUEST = BerTags.application(12, true);
+    public static final int MODIFY_DN_RESPONSE = BerTags.application(13, true);
+    public static final int ABANDON_REQUEST = BerTags.application(16, false);
+    public static final int SEARCH_RESULT_REFERENCE = BerTags.application(19, true);
+    public static final int EXTENDED_RESPONSE = BerTags.application(24, true);
+    public static final int INTERMEDIATE_RESPONSE = BerTags.application(25, true);
+
+    public static final int CONTROLS = BerTags.context(0, true);
+    public static final int SIMPLE_AUTHENTICATION = BerTags.context(0, false);
+    public static final int NEW_SUPERIOR = BerTags.context(0, false);
+
+    public static final int MODIFY_ADD = 0;
+    public static final int MODIFY_DELETE = 1;
+    public static final int MODIFY_REPLACE = 2;
+
+    public static final int SCOPE_BASE_OBJECT = 0;
+    public static final int SCOPE_SINGLE_LEVEL = 1;
+    public static final int SCOPE_WHOLE_SUBTREE = 2;
+
+    public static final int DEREF_NEVER = 0;
+    public static final int DEREF_ALWAYS = 3;
+
+    /**
+     * Message ID used by the server for unsolicited notifications (RFC 4511, section 4.4).
+     */
+    public static final int UNSOLICITED_MESSAGE_ID = 0;
+
+    /**
+     * Attribute list that requests no attributes (RFC 4511, section 4.5.1.8).
+     */
+    public static final String NO_ATTRIBUTES = "1.1";
+
+    private LDAPProtocol()
+    {
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.mule.module.ldap.api.LDAPControl;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryAttribute;
+import org.mule.module.ldap.api.ber.BerEncoder;
+import org.mule.module.ldap.api.ber.BerTags;
+
+/**
+ * A request to be sent to the LDAP server. The protocol operation is encoded when the request is created, so the
+ * message ID can be assigned right before sending it.
+ *
+ * @author mariano
+ */
+public class LDAPRequest
+{
+    private final int protocolOp;
+    private final byte[] encodedOp;
+    private final List<LDAPControl> controls = new ArrayList<LDAPControl>();
+
+    private LDAPRequest(int protocolOp, BerEncoder encodedOp)
+    {
+        this.protocolOp = protocolOp;
+        this.encodedOp = encodedOp.toByteArray();
+    }
+
+    /**
+     * <pre>
+     * BindRequest ::= [APPLICATION 0] SEQUENCE {
+     *      version                 INTEGER (1 ..  127),
+     *      name                    LDAPDN,
+     *      authentication          AuthenticationChoice }
+     * </pre>
+     */
+    public static LDAPRequest bind(String dn, String password)
+    {
+        BerEncoder op = new BerEncoder();
+        op.beginSequence(LDAPProtocol.BIND_REQUEST);
+        op.writeInteger(LDAPProtocol.VERSION);
+        op.writeString(dn);
+        op.writeString(LDAPProtocol.SIMPLE_AUTHENTICATION, password);
+        op.endSequence();
+        return new LDAPRequest(LDAPProtocol.BIND_REQUEST, op);
+    }
+
+    public static LDAPRequest unbind()
+    {
+        return new LDAPRequest(LDAPProtocol.UNBIND_REQUEST, new BerEncoder(2).writeNull(LDAPProtocol.UNBIND_REQUEST));
+    }
+
+    public static LDAPRequest abandon(int messageId)
+    {
+        return new LDAPRequest(LDAPProtocol.ABANDON_REQUEST, new BerEncoder(8).writeInteger(LDAPProtocol.ABANDON_REQUEST, messageId));
+    }
+
+    /**
+     * <pre>
+     * SearchRequest ::= [APPLICATION 3] SEQUENCE {
+     *      baseObject      LDAPDN,
+     *      scope           ENUMERATED { ... },
+     *      derefAliases    ENUMERATED { ... },
+     *      sizeLimit       INTEGER (0 ..  maxInt),
+     *      timeLimit       INTEGER (0 ..  maxInt),
+     *      typesOnly       BOOLEAN,
+     *      filter          Filter,
+     *      attributes      AttributeSelection }
+     * </pre>
+     *
+     * @param filter The encoded filter (see {@link LDAPFilterEncoder}).
+     * @param attributes The attributes to return or <i>null</i> for all the user attributes.
+     */
+    public static LDAPRequest search(String baseDn, int scope, int derefAliases, int sizeLimit, int timeLimit, byte[] filter, String[] attributes)
+    {
+        BerEncoder op = new BerEncoder();
+        op.beginSequence(LDAPProtocol.SEARCH_REQUEST);
+        op.writeString(baseDn);
+        op.writeEnumerated(scope);
+        op.writeEnumerated(derefAliases);
+        op.writeInteger(sizeLimit);
+        op.writeInteger(timeLimit);
+        op.writeBoolean(false);
+        op.writeEncoded(filter);
+        op.beginSequence(BerTags.SEQUENCE);
+        if (attributes != null)
+        {
+            for (String attribute : attributes)
+            {
+                op.writeString(attribute);
+            }
+        }
+        op.endSequence();
+        op.endSequence();
+        return new LDAPRequest(LDAPProtocol.SEARCH_REQUEST, op);
+    }
+
+    /**
+     * <pre>
+     * AddRequest ::= [APPLICATION 8] SEQUENCE {
+     *      entry           LDAPDN,
+     *      attributes      AttributeList }
+     * </pre>
+     */
+    public static LDAPRequest add(String dn, LDAPEntry entry)
+    {
+        BerEncoder op = new BerEncoder();
+        op.beginSequence(LDAPProtocol.ADD_REQUEST);
+        op.writeString(dn);
+        op.beginSequence(BerTags.SEQUENCE);
+        for (Iterator<LDAPEntryAttribute> it = entry.attributes(); it.hasNext();)
+        {
+            writeAttribute(op, it.next());
+        }
+        op.endSequence();
+        op.endSequence();
+        return new LDAPRequest(LDAPProtocol.ADD_REQUEST, op);
+    }
+
+    /**
+     * <pre>
+     * ModifyRequest ::= [APPLICATION 6] SEQUENCE {
+     *      object          LDAPDN,
+     *      changes         SEQUENCE OF change SEQUENCE {
+     *           operation       ENUMERATED { add (0), delete (1), replace (2), ... },
+     *           modification    PartialAttribute } }
+     * </pre>
+     *
+     * @param operation {@link LDAPProtocol#MODIFY_ADD}, {@link LDAPProtocol#MODIFY_DELETE} or
+     *            {@link LDAPProtocol#MODIFY_REPLACE}.
+     */
+    public static LDAPRequest modify(String dn, int operation, Iterator<LDAPEntryAttribute> attributes)
+    {
+        BerEncoder op = new BerEncoder();
+        op.beginSequence(LDAPProtocol.MODIFY_REQUEST);
+        op.writeString(dn);
+        op.beginSequence(BerTags.SEQUENCE);
+        while (attributes.hasNext())
+        {
+            op.beginSequence(BerTags.SEQUENCE);
+            op.writeEnumerated(operation);
+            writeAttribute(op, attributes.next());
+            op.endSequence();
+        }
+        op.endSequence();
+        op.endSequence();
+        return new LDAPRequest(LDAPProtocol.MODIFY_REQUEST, op);
+    }
+
+    public static LDAPRequest delete(String dn)
+    {
+        return new LDAPRequest(LDAPProtocol.DEL_REQUEST, new BerEncoder().writeString(LDAPProtocol.DEL_REQUEST, dn));
+    }
+
+    /**
+     * <pre>
+     * ModifyDNRequest ::= [APPLICATION 12] SEQUENCE {
+     *      entry           LDAPDN,
+     *      newrdn          RelativeLDAPDN,
+     *      deleteoldrdn    BOOLEAN,
+     *      newSuperior     [0] LDAPDN OPTIONAL }
+     * </pre>
+     *
+     * @param newSuperior The new parent of the entry or <i>null</i> to keep the current one.
+     */
+    public static LDAPRequest modifyDn(String dn, String newRdn, boolean deleteOldRdn, String newSuperior)
+    {
+        BerEncoder op = new BerEncoder();
+        op.beginSequence(LDAPProtocol.MODIFY_DN_REQUEST);
+        op.writeString(dn);
+        op.writeString(newRdn);
+        op.writeBoolean(deleteOldRdn);
+        if (newSuperior != null)
+        {
+            op.writeString(LDAPProtocol.NEW_SUPERIOR, newSuperior);
+        }
+        op.endSequence();
+        return new LDAPRequest(LDAPProtocol.MODIFY_DN_REQUEST, op);
+    }
+
+    /**
+     * <pre>
+     * PartialAttribute ::= SEQUENCE {
+     *      type       AttributeDescription,
+     *      vals       SET OF value AttributeValue }
+     * </pre>
+     */
+    private static void writeAttribute(BerEncoder op, LDAPEntryAttribute attribute)
+    {
+        op.beginSequence(BerTags.SEQUENCE);
+        op.writeString(attribute.getName());
+        op.beginSequence(BerTags.SET);
+        if (attribute.isMultiValued())
+        {
+            for (Object value : attribute.getValues())
+            {
+                writeValue(op, value);
+            }
+        }
+        else if (attribute.getValue() != null)
+        {
+            writeValue(op, attribute.getValue());
+        }
+        op.endSequence();
+        op.endSequence();
+    }
+
+    private static void writeValue(BerEncoder op, Object value)
+    {
+        if (value instanceof byte[])
+        {
+            op.writeOctetString((byte[]) value);
+        }
+        else if (value != null)
+        {
+            op.writeString(value.toString());
+        }
+    }
+
+    public LDAPRequest addControl(LDAPControl control)
+    {
+        controls.add(control);
+        return this;
+    }
+
+    public int getProtocolOp()
+    {
+        return protocolOp;
+    }
+
+    /**
+     * @return Whether the server answers this request. Unbind and abandon requests have no response.
+     */
+    public boolean expectsResponse()
+    {
+        return protocolOp != LDAPProtocol.UNBIND_REQUEST && protocolOp != LDAPProtocol.ABANDON_REQUEST;
+    }
+
+    /**
+     * Encodes the whole LDAPMessage holding this request.
+     */
+    public ByteBuffer encode(int messageId)
+    {
+        BerEncoder message = new BerEncoder(encodedOp.length + 16);
+        message.beginSequence(BerTags.SEQUENCE);
+        message.writeInteger(messageId);
+        message.writeEncoded(encodedOp);
+        if (!controls.isEmpty())
+        {
+            message.beginSequence(LDAPProtocol.CONTROLS);
+            for (LDAPControl control : controls)
+            {
+                control.encode(message);
+            }
+            message.endSequence();
+        }
+        message.endSequence();
+        return message.toByteBuffer();
+    }
+}
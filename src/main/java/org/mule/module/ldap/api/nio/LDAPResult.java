@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.nio;
+
+import java.io.IOException;
+
+import org.mule.module.ldap.api.AuthenticationException;
+import org.mule.module.ldap.api.CommunicationException;
+import org.mule.module.ldap.api.ContextNotEmptyException;
+import org.mule.module.ldap.api.InvalidAttributeException;
+import org.mule.module.ldap.api.InvalidEntryException;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.NameAlreadyBoundException;
+import org.mule.module.ldap.api.NameNotFoundException;
+import org.mule.module.ldap.api.NoPermissionException;
+import org.mule.module.ldap.api.OperationNotSupportedException;
+import org.mule.module.ldap.api.SizeLimitExceededException;
+import org.mule.module.ldap.api.ber.BerDecoder;
+
+/**
+ * The result of an LDAP operation (RFC 4511, section 4.1.9):
+ *
+ * <pre>
+ * LDAPResult ::= SEQUENCE {
+ *      resultCode         ENUMERATED { ... },
+ *      matchedDN          LDAPDN,
+ *      diagnosticMessage  LDAPString,
+ *      referral           [3] Referral OPTIONAL }
+ * </pre>
+ *
+ * @author mariano
+ */
+public class LDAPResult
+{
+    public static final int SUCCESS = 0;
+    public static final int OPERATIONS_ERROR = 1;
+    public static final int PROTOCOL_ERROR = 2;
+    public static final int TIME_LIMIT_EXCEEDED = 3;
+    public static final int SIZE_LIMIT_EXCEEDED = 4;
+    public static final int AUTH_METHOD_NOT_SUPPORTED = 7;
+    public static final int STRONGER_AUTH_REQUIRED = 8;
+    public static final int REFERRAL = 10;
+    public static final int ADMIN_LIMIT_EXCEEDED = 11;
+    public static final int UNAVAILABLE_CRITICAL_EXTENSION = 12;
+    public static final int CONFIDENTIALITY_REQUIRED = 13;
+    public static final int NO_SUCH_ATTRIBUTE = 16;
+    public static final int UNDEFINED_ATTRIBUTE_TYPE = 17;
+    public static final int INAPPROPRIATE_MATCHING = 18;
+    public static final int CONSTRAINT_VIOLATION = 19;
+    public static final int ATTRIBUTE_OR_VALUE_EXISTS = 20;
+    public static final int INVALID_ATTRIBUTE_SYNTAX = 21;
+    public static final int NO_SUCH_OBJECT = 32;
+    public static final int INVALID_DN_SYNTAX = 34;
+    public static final int INAPPROPRIATE_AUTHENTICATION = 48;
+    public static final int INVALID_CREDENTIALS = 49;
+    public static final int INSUFFICIENT_ACCESS_RIGHTS = 50;
+    public static final int BUSY = 51;
+    public static final int UNAVAILABLE = 52;
+    public static final int UNWILLING_TO_PERFORM = 53;
+    public static final int NAMING_VIOLATION = 64;
+    public static final int OBJECT_CLASS_VIOLATION = 65;
+    public static final int NOT_ALLOWED_ON_NON_LEAF = 66;
+    public static final int NOT_ALLOWED_ON_RDN = 67;
+    public static final int ENTRY_ALREADY_EXISTS = 68;
+    public static final int OBJECT_CLASS_MODS_PROHIBITED = 69;
+
+    private final int resultCode;
+    private final String matchedDn;
+    private final String diagnosticMessage;
+
+    public LDAPResult(int resultCode, String matchedDn, String diagnosticMessage)
+    {
+        this.resultCode = resultCode;
+        this.matchedDn = matchedDn;
+        this.diagnosticMessage = diagnosticMessage;
+    }
+
+    /**
+     * Decodes the result found at the beginning of a response protocol operation.
+     */
+    public static LDAPResult decode(BerDecoder protocolOp) throws IOException
+    {
+        int resultCode = protocolOp.readEnumerated();
+        String matchedDn = protocolOp.readString();
+        String diagnosticMessage = protocolOp.readString();
+        return new LDAPResult(resultCode, matchedDn, diagnosticMessage);
+    }
+
+    public static LDAPResult decode(LDAPMessage message) throws IOException
+    {
+        return decode(message.getProtocolOpDecoder());
+    }
+
+    public int getResultCode()
+    {
+        return resultCode;
+    }
+
+    public String getMatchedDn()
+    {
+        return matchedDn;
+    }
+
+    public String getDiagnosticMessage()
+    {
+        return diagnosticMessage;
+    }
+
+    public boolean isSuccess()
+    {
+        return resultCode == SUCCESS;
+    }
+
+    /**
+     * Throws the exception matching the result code unless the operation succeeded.
+     */
+    public void check() throws LDAPException
+    {
+        if (!isSuccess())
+        {
+            throw toException();
+        }
+    }
+
+    /**
+     * Maps the result code to the same {@link LDAPException} that the JNDI implementation throws for it.
+     */
+    public LDAPException toException()
+    {
+        String message = "[LDAP: error code " + resultCode + (diagnosticMessage != null && diagnosticMessage.length() > 0 ? " - " + diagnosticMessage : "") + "]";
+        switch (resultCode)
+        {
+            case INAPPROPRIATE_AUTHENTICATION :
+            case INVALID_CREDENTIALS :
+                return new AuthenticationException(message);
+            case NO_SUCH_OBJECT :
+                return new NameNotFoundException(message);
+            case INSUFFICIENT_ACCESS_RIGHTS :
+                return new NoPermissionException(message);
+            case ENTRY_ALREADY_EXISTS :
+                return new NameAlreadyBoundException(message);
+            case NOT_ALLOWED_ON_NON_LEAF :
+                return new ContextNotEmptyException(message);
+            case SIZE_LIMIT_EXCEEDED :
+                return new SizeLimitExceededException(message);
+            case NO_SUCH_ATTRIBUTE :
+            case UNDEFINED_ATTRIBUTE_TYPE :
+            case INAPPROPRIATE_MATCHING :
+            case CONSTRAINT_VIOLATION :
+            case ATTRIBUTE_OR_VALUE_EXISTS :
+            case INVALID_ATTRIBUTE_SYNTAX :
+            case INVALID_DN_SYNTAX :
+                return new InvalidAttributeException(message);
+            case NAMING_VIOLATION :
+            case OBJECT_CLASS_VIOLATION :
+            case NOT_ALLOWED_ON_RDN :
+            case OBJECT_CLASS_MODS_PROHIBITED :
+                return new InvalidEntryException(message);
+            case AUTH_METHOD_NOT_SUPPORTED :
+            case UNAVAILABLE_CRITICAL_EXTENSION :
+            case UNWILLING_TO_PERFORM :
+                return new OperationNotSupportedException(message);
+            case BUSY :
+            case UNAVAILABLE :
+                return new CommunicationException(message);
+            default :
+                return new LDAPException(message);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "{resultCode: " + resultCode + ", matchedDn: " + matchedDn + ", diagnosticMessage: " + diagnosticMessage + "}";
+    }
+}
@@ -9,10 +9,18 @@
 package org.mule.module.ldap;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.directory.server.core.DirectoryService;
 import org.apache.directory.server.core.schema.SchemaInterceptor;
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
 import org.mule.util.FileUtils;
 import org.springframework.security.ldap.server.ApacheDSContainer;
 
@@ -22,6 +30,8 @@ public abstract class AbstractLDAPConnectorEmbeddedLDAPTest extends AbstractLDAP
     public static int LDAP_PORT = 10389;
     public static File WORKING_DIRECTORY = new File(System.getProperty("java.io.tmpdir") + File.separator + "ldap-connector-junit-server");
     
+    private final List<LDAPConnectionPool> pools = new ArrayList<LDAPConnectionPool>();
+    
     @BeforeClass
     public static void startLdapServer() throws Exception {
         FileUtils.deleteDirectory(WORKING_DIRECTORY);
@@ -38,6 +48,42 @@ public abstract class AbstractLDAPConnectorEmbeddedLDAPTest extends AbstractLDAP
         ldapServer.getService().getSchemaService().getRegistries();
     }
 
+    /**
+     * @return The directory service of the embedded server, to serve it through other listeners.
+     */
+    protected static DirectoryService getDirectoryService()
+    {
+        return ldapServer.getService();
+    }
+
+    /**
+     * @return A JNDI connection pool to the embedded server, closed after the test.
+     */
+    protected LDAPConnectionPool createPool(int initialPoolSize, int maxPoolSize, long poolTimeout)
+    {
+        return createPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", new HashMap<String, String>(), false, initialPoolSize, maxPoolSize, poolTimeout);
+    }
+
+    /**
+     * @return A connection pool closed after the test.
+     */
+    protected LDAPConnectionPool createPool(String type, String url, Map<String, String> extendedConf, boolean tlsEnabled, int initialPoolSize, int maxPoolSize, long poolTimeout)
+    {
+        LDAPConnectionPool pool = new LDAPConnectionPool(LDAPConnection.buildConfiguration(type, url, LDAPConnection.SIMPLE_AUTHENTICATION, initialPoolSize, maxPoolSize, poolTimeout, "IGNORE", extendedConf, false, tlsEnabled), initialPoolSize, maxPoolSize, poolTimeout);
+        pools.add(pool);
+        return pool;
+    }
+
+    @After
+    public void closePools()
+    {
+        for (LDAPConnectionPool pool : pools)
+        {
+            pool.close();
+        }
+        pools.clear();
+    }
+
     @AfterClass
     public static void stopLdapServer() throws Exception {
         if (ldapServer != null) {
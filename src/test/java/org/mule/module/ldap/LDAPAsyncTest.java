@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPAsyncExecutor;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPParallelResultSet;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.NameNotFoundException;
+
+public class LDAPAsyncTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+    private static final String ADMIN_DN = "uid=admin,ou=people,dc=mulesoft,dc=org";
+
+    private LDAPConnectionPool pool;
+    private LDAPAsyncExecutor executor;
+
+    /**
+     *
+     */
+    public LDAPAsyncTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "ldap-config.xml";
+    }
+
+    @Before
+    public void createExecutor()
+    {
+        pool = LDAPConnectionPool.getPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 60000L, "IGNORE", new HashMap<String, String>(), false, false);
+        executor = new LDAPAsyncExecutor(pool, ADMIN_DN, "admin", 4);
+    }
+
+    @After
+    public void shutdownExecutor()
+    {
+        executor.shutdown();
+        pool.release();
+    }
+
+    @Test
+    public void testLookupAll() throws Exception
+    {
+        List<String> dns = new ArrayList<String>();
+        for (int i = 1; i <= 5; i++)
+        {
+            dns.add("uid=user" + i + ",ou=people,dc=mulesoft,dc=org");
+        }
+
+        List<LDAPEntry> result = LDAPAsyncExecutor.getResult(executor.lookupAll(dns, null));
+
+        assertEquals(5, result.size());
+        for (int i = 0; i < dns.size(); i++)
+        {
+            assertEquals(dns.get(i), result.get(i).getDn());
+        }
+    }
+
+    @Test
+    public void testSearch() throws Exception
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.SUBTREE_SCOPE);
+
+        List<LDAPEntry> result = LDAPAsyncExecutor.getResult(executor.search("ou=people,dc=mulesoft,dc=org", "(uid=user*)", null, controls));
+
+        assertEquals(5, result.size());
+    }
+
+    @Test
+    public void testLookupNotExistingEntry() throws Exception
+    {
+        try
+        {
+            LDAPAsyncExecutor.getResult(executor.lookup("uid=notexists,ou=people,dc=mulesoft,dc=org", null));
+            fail("Lookup of a not existing entry should fail");
+        }
+        catch (NameNotFoundException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testAsyncOperationsDoNotWaitForBorrowedConnections() throws Exception
+    {
+        // The calling thread holds every connection of the identity, as a flow using several of them would
+        List<LDAPConnection> borrowed = new ArrayList<LDAPConnection>();
+        try
+        {
+            for (int i = 0; i < 5; i++)
+            {
+                borrowed.add(pool.borrowConnection(ADMIN_DN, "admin"));
+            }
+
+            List<String> dns = new ArrayList<String>();
+            for (int i = 1; i <= 5; i++)
+            {
+                dns.add("uid=user" + i + ",ou=people,dc=mulesoft,dc=org");
+            }
+
+            assertEquals(5, LDAPAsyncExecutor.getResult(executor.lookupAll(dns, null)).size());
+        }
+        finally
+        {
+            for (LDAPConnection conn : borrowed)
+            {
+                pool.returnConnection(conn);
+            }
+        }
+    }
+
+    @Test
+    public void testAbandonedParallelSearchGivesConnectionsBack() throws Exception
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setConsumerTimeout(200L);
+
+        // A buffer of one entry so the searches wait for the consumer
+        LDAPParallelResultSet result = new LDAPParallelResultSet(executor, "dc=mulesoft,dc=org", "(objectClass=*)", null, controls, 4, 1);
+        assertTrue(result.hasNext());
+        result.next();
+
+        // The iterator is abandoned without being closed
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (pool.getActiveCount() > 0 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50L);
+        }
+        assertEquals(0, pool.getActiveCount());
+
+        try
+        {
+            result.getAllEntries();
+            fail("Reading an abandoned search should fail");
+        }
+        catch (LDAPException ex)
+        {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testAbandonedStreamingSearchGivesConnectionBack() throws Exception
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.SUBTREE_SCOPE);
+        controls.setConsumerTimeout(200L);
+
+        LDAPResultSet result = executor.openSearch("dc=mulesoft,dc=org", "(objectClass=*)", controls);
+        assertTrue(result.hasNext());
+        result.next();
+        assertEquals(1, pool.getActiveCount());
+
+        // The iterator is abandoned without being closed
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (pool.getActiveCount() > 0 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50L);
+        }
+        assertEquals(0, pool.getActiveCount());
+
+        try
+        {
+            result.next();
+            fail("Reading an abandoned search should fail");
+        }
+        catch (LDAPException ex)
+        {
+            // Expected
+        }
+        result.close();
+    }
+}
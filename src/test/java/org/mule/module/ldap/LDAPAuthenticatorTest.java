@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.AuthenticationException;
+import org.mule.module.ldap.api.LDAPAuthenticator;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
+
+public class LDAPAuthenticatorTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+    private static final String ADMIN_DN = "uid=admin,ou=people,dc=mulesoft,dc=org";
+    private static final String USER1_DN = "uid=user1,ou=people,dc=mulesoft,dc=org";
+
+    private LDAPConnectionPool pool;
+    private LDAPAuthenticator authenticator;
+
+    /**
+     *
+     */
+    public LDAPAuthenticatorTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "ldap-config.xml";
+    }
+
+    @Before
+    public void createAuthenticator()
+    {
+        pool = createPool(1, 5, 0L);
+        authenticator = new LDAPAuthenticator(pool, ADMIN_DN, "admin");
+    }
+
+    @Test
+    public void testAuthenticateReusesConnection() throws Exception
+    {
+        authenticator.authenticate(USER1_DN, "user1");
+        authenticator.authenticate(USER1_DN, "user1");
+
+        assertEquals(1, pool.getConnectStatistics().getCount());
+        assertEquals(2, pool.getBindStatistics().getCount());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testWrongPasswordKeepsConnection() throws Exception
+    {
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        pool.returnConnection(conn);
+
+        try
+        {
+            authenticator.authenticate(USER1_DN, "wrong");
+            fail("Authenticating with a wrong password should fail");
+        }
+        catch (AuthenticationException ex)
+        {
+            // Expected
+        }
+
+        // The connection is kept and bound again as the service identity
+        assertEquals(1, pool.getConnectStatistics().getCount());
+        assertEquals(1, pool.getBindStatistics().getFailures());
+        assertEquals(1, pool.getIdleCount());
+
+        LDAPConnection reused = pool.borrowConnection(ADMIN_DN, "admin");
+        assertSame(conn, reused);
+        assertEquals(ADMIN_DN, reused.getBindedUserDn());
+        assertEquals(USER1_DN, reused.lookup(USER1_DN).getDn());
+        pool.returnConnection(reused);
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPAsyncExecutor;
+import org.mule.module.ldap.api.LDAPAuthenticator;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPFilterTemplate;
+
+public class LDAPBindFreshnessTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+    private static final String ADMIN_DN = "uid=admin,ou=people,dc=mulesoft,dc=org";
+    private static final String USER1_DN = "uid=user1,ou=people,dc=mulesoft,dc=org";
+
+    private LDAPConnectionPool pool;
+    private LDAPConnection conn;
+
+    /**
+     *
+     */
+    public LDAPBindFreshnessTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "ldap-config.xml";
+    }
+
+    @Before
+    public void borrowConnection() throws Exception
+    {
+        pool = createPool(1, 5, 0L);
+        conn = pool.borrowConnection(ADMIN_DN, "admin");
+    }
+
+    @After
+    public void invalidateConnection()
+    {
+        pool.invalidateConnection(conn);
+    }
+
+    private LDAPConnector createConnector(long bindFreshnessWindow)
+    {
+        LDAPConnector connector = new LDAPConnector();
+        connector.setConnectionStrategy(new FixedConnectionStrategy(conn, new LDAPAuthenticator(pool, ADMIN_DN, "admin"), bindFreshnessWindow));
+        return connector;
+    }
+
+    @Test
+    public void testFreshBindWithSameDnIsReused() throws Exception
+    {
+        long bindTime = conn.getLastBindTime();
+        assertTrue(conn.isBindFresh("UID=admin, ou=people, dc=mulesoft, dc=org", 60000L));
+
+        Thread.sleep(10L);
+        assertEquals(ADMIN_DN, createConnector(60000L).bind().getDn());
+        assertEquals(bindTime, conn.getLastBindTime());
+    }
+
+    @Test
+    public void testFreshBindWithOtherDnIsRebinded() throws Exception
+    {
+        conn.bind(USER1_DN, "user1");
+        long bindTime = conn.getLastBindTime();
+        assertFalse(conn.isBindFresh(ADMIN_DN, 60000L));
+
+        Thread.sleep(10L);
+        createConnector(60000L).bind();
+        assertTrue(conn.getLastBindTime() > bindTime);
+    }
+
+    @Test
+    public void testNoFreshnessWindowAlwaysRebinds() throws Exception
+    {
+        long bindTime = conn.getLastBindTime();
+        assertFalse(conn.isBindFresh(ADMIN_DN, 0L));
+
+        Thread.sleep(10L);
+        assertEquals(ADMIN_DN, createConnector(0L).bind().getDn());
+        assertTrue(conn.getLastBindTime() > bindTime);
+    }
+
+    /**
+     * Connection strategy handing out an already bound connection, as the Connection Manager does.
+     */
+    private static class FixedConnectionStrategy implements LDAPConnectionStrategy
+    {
+        private final LDAPConnection connection;
+        private final LDAPAuthenticator authenticator;
+        private final long bindFreshnessWindow;
+
+        FixedConnectionStrategy(LDAPConnection connection, LDAPAuthenticator authenticator, long bindFreshnessWindow)
+        {
+            this.connection = connection;
+            this.authenticator = authenticator;
+            this.bindFreshnessWindow = bindFreshnessWindow;
+        }
+
+        @Override
+        public LDAPConnection getConnection()
+        {
+            return connection;
+        }
+
+        @Override
+        public void disconnect()
+        {
+        }
+
+        @Override
+        public LDAPAuthenticator getAuthenticator()
+        {
+            return authenticator;
+        }
+
+        @Override
+        public long getBindFreshnessWindow()
+        {
+            return bindFreshnessWindow;
+        }
+
+        @Override
+        public LDAPAsyncExecutor getAsyncExecutor()
+        {
+            return null;
+        }
+
+        @Override
+        public LDAPFilterTemplate getFilterTemplate(String name) throws LDAPException
+        {
+            throw new LDAPException("No filter templates configured");
+        }
+    }
+}
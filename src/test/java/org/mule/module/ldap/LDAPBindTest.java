@@ -123,6 +123,42 @@ public class LDAPBindTest extends AbstractLDAPConnectorEmbeddedLDAPTest
             assertEquals(ConnectionExceptionCode.INCORRECT_CREDENTIALS,((ConnectionException) ex).getCode());
         }
     }      
+    
+    @Test
+    public void testValidAuthenticate() throws Exception
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("authDn", "uid=user1,ou=people,dc=mulesoft,dc=org");
+        params.put("authPassword", "user1");
+        
+        assertEquals(Boolean.TRUE, runFlow("testAuthenticate", params).getMessage().getPayload());
+        
+        // Connection is reset to the config identity, so it can be reused for other users
+        params.put("authDn", "uid=user2,ou=people,dc=mulesoft,dc=org");
+        params.put("authPassword", "user2");
+        
+        assertEquals(Boolean.TRUE, runFlow("testAuthenticate", params).getMessage().getPayload());
+    }
+    
+    @Test
+    public void testInvalidPasswordAuthenticate() throws Exception
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("authDn", "uid=user2,ou=people,dc=mulesoft,dc=org");
+        params.put("authPassword", "invalidPassword");
+        
+        assertEquals(Boolean.FALSE, runFlow("testAuthenticate", params).getMessage().getPayload());
+    }
+    
+    @Test
+    public void testEmptyPasswordAuthenticate() throws Exception
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("authDn", "uid=user2,ou=people,dc=mulesoft,dc=org");
+        params.put("authPassword", "");
+        
+        assertEquals(Boolean.FALSE, runFlow("testAuthenticate", params).getMessage().getPayload());
+    }
 }
 
 
@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
+import org.mule.module.ldap.api.LDAPException;
+
+public class LDAPConnectionPoolTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+    private static final String ADMIN_DN = "uid=admin,ou=people,dc=mulesoft,dc=org";
+    private static final String USER1_DN = "uid=user1,ou=people,dc=mulesoft,dc=org";
+
+    private LDAPConnectionPool pool;
+
+    /**
+     *
+     */
+    public LDAPConnectionPoolTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "ldap-config.xml";
+    }
+
+    @Test
+    public void testBorrowAndReturn() throws Exception
+    {
+        pool = createPool(2, 5, 0L);
+
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        assertEquals(ADMIN_DN, conn.getBindedUserDn());
+        assertEquals(1, pool.getActiveCount());
+        // The remaining initial connection
+        assertEquals(1, pool.getIdleCount());
+
+        pool.returnConnection(conn);
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(2, pool.getIdleCount());
+
+        // Most recently used connections are reused first
+        assertSame(conn, pool.borrowConnection(ADMIN_DN, "admin"));
+        pool.returnConnection(conn);
+    }
+
+    @Test
+    public void testInvalidateConnection() throws Exception
+    {
+        pool = createPool(1, 5, 0L);
+
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        pool.invalidateConnection(conn);
+
+        assertTrue(conn.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testMaxWait() throws Exception
+    {
+        pool = createPool(1, 1, 0L);
+        pool.setMaxWait(100L);
+
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        try
+        {
+            pool.borrowConnection(ADMIN_DN, "admin");
+            fail("Borrowing beyond maxPoolSize should time out");
+        }
+        catch (LDAPException ex)
+        {
+            // Expected
+        }
+        finally
+        {
+            pool.returnConnection(conn);
+        }
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void testFairWaiting() throws Exception
+    {
+        pool = createPool(1, 1, 0L);
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(3);
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+
+        for (int i = 1; i <= 3; i++)
+        {
+            final String name = "waiter" + i;
+            new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        LDAPConnection waiterConn = pool.borrowConnection(ADMIN_DN, "admin");
+                        order.add(name);
+                        pool.returnConnection(waiterConn);
+                    }
+                    catch (LDAPException ex)
+                    {
+                        order.add(name + " failed: " + ex.getMessage());
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }, name).start();
+            // Gives each waiter the time to queue before the next one arrives
+            Thread.sleep(200L);
+        }
+
+        assertTrue(order.isEmpty());
+        pool.returnConnection(conn);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, order.size());
+        assertEquals("waiter1", order.get(0));
+        assertEquals("waiter2", order.get(1));
+        assertEquals("waiter3", order.get(2));
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception
+    {
+        pool = createPool(1, 5, 1000L);
+
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        pool.returnConnection(conn);
+        assertEquals(1, pool.getIdleCount());
+
+        // Idle for more than poolTimeout plus one eviction interval
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (pool.getIdleCount() > 0 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(100L);
+        }
+
+        assertEquals(0, pool.getIdleCount());
+        assertTrue(conn.isClosed());
+    }
+
+    @Test
+    public void testValidateOnBorrow() throws Exception
+    {
+        pool = createPool(1, 5, 0L);
+
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        pool.returnConnection(conn);
+        // The connection dies while idle
+        conn.close();
+
+        LDAPConnection other = pool.borrowConnection(ADMIN_DN, "admin");
+        assertNotSame(conn, other);
+        assertFalse(other.isClosed());
+        assertEquals(ADMIN_DN, other.getBindedUserDn());
+        pool.returnConnection(other);
+    }
+
+    @Test
+    public void testIdentityIsolation() throws Exception
+    {
+        pool = createPool(1, 1, 0L);
+        pool.setMaxWait(100L);
+
+        // Each identity has its own maxPoolSize
+        LDAPConnection adminConn = pool.borrowConnection(ADMIN_DN, "admin");
+        LDAPConnection userConn = pool.borrowConnection(USER1_DN, "user1");
+        assertEquals(2, pool.getActiveCount());
+        pool.returnConnection(adminConn);
+        pool.returnConnection(userConn);
+
+        // Idle connections are only handed out to the identity they are bound as
+        LDAPConnection conn = pool.borrowConnection(USER1_DN, "user1");
+        assertSame(userConn, conn);
+        assertEquals(USER1_DN, conn.getBindedUserDn());
+        pool.returnConnection(conn);
+
+        // Same DN with another password is another identity
+        try
+        {
+            pool.borrowConnection(USER1_DN, "wrong");
+            fail("Borrowing with a wrong password should fail");
+        }
+        catch (LDAPException ex)
+        {
+            // Expected
+        }
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void testSharedPoolIsClosedByLastRelease() throws Exception
+    {
+        LDAPConnectionPool first = LDAPConnectionPool.getPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 0L, "IGNORE", new HashMap<String, String>(), false, false);
+        LDAPConnectionPool second = LDAPConnectionPool.getPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 0L, "IGNORE", new HashMap<String, String>(), false, false);
+        assertSame(first, second);
+
+        LDAPConnection conn = first.borrowConnection(ADMIN_DN, "admin");
+        first.returnConnection(conn);
+
+        first.release();
+        assertFalse(second.isClosed());
+
+        second.release();
+        assertTrue(second.isClosed());
+        assertTrue(conn.isClosed());
+
+        // The next user gets a new pool
+        LDAPConnectionPool third = LDAPConnectionPool.getPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 0L, "IGNORE", new HashMap<String, String>(), false, false);
+        assertNotSame(first, third);
+        assertFalse(third.isClosed());
+        third.release();
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.AuthenticationException;
+import org.mule.module.ldap.api.LDAPAuthenticator;
+import org.mule.module.ldap.api.LDAPCacheConfiguration;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
+import org.mule.module.ldap.api.LDAPCredentialCache;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+
+public class LDAPCredentialCacheTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+    private static final String ADMIN_DN = "uid=admin,ou=people,dc=mulesoft,dc=org";
+    private static final String USER1_DN = "uid=user1,ou=people,dc=mulesoft,dc=org";
+
+    private LDAPConnectionPool pool;
+    private LDAPAuthenticator authenticator;
+
+    /**
+     *
+     */
+    public LDAPCredentialCacheTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "ldap-config.xml";
+    }
+
+    @Before
+    public void createAuthenticator()
+    {
+        pool = createPool(1, 5, 0L);
+        authenticator = new LDAPAuthenticator(pool, ADMIN_DN, "admin");
+    }
+
+    @Test
+    public void testVerifiedCredentialsAreReused() throws Exception
+    {
+        pool.enableCredentialCache(60000L, 100L);
+
+        authenticator.authenticate(USER1_DN, "user1");
+        authenticator.authenticate(USER1_DN, "user1");
+        // Equivalent spelling of the same DN
+        authenticator.authenticate("UID=user1, ou=People, dc=mulesoft, dc=org", "user1");
+
+        assertEquals(1, pool.getBindStatistics().getCount());
+        assertEquals(2, pool.getCredentialCache().getHitCount());
+    }
+
+    @Test
+    public void testTtlExpiry() throws Exception
+    {
+        pool.enableCredentialCache(200L, 100L);
+
+        authenticator.authenticate(USER1_DN, "user1");
+        Thread.sleep(400L);
+        authenticator.authenticate(USER1_DN, "user1");
+
+        assertEquals(2, pool.getBindStatistics().getCount());
+    }
+
+    @Test
+    public void testWrongPasswordIsNotAccepted() throws Exception
+    {
+        pool.enableCredentialCache(60000L, 100L);
+
+        authenticator.authenticate(USER1_DN, "user1");
+        try
+        {
+            authenticator.authenticate(USER1_DN, "wrong");
+            fail("Authenticating with a wrong password should fail");
+        }
+        catch (AuthenticationException ex)
+        {
+            // Expected
+        }
+
+        assertEquals(1, pool.getBindStatistics().getFailures());
+        // The failed bind invalidated the credentials
+        assertFalse(pool.getCredentialCache().isVerified(USER1_DN, "user1"));
+    }
+
+    @Test
+    public void testWriteInvalidatesCredentials() throws Exception
+    {
+        pool.enableCredentialCache(60000L, 100L);
+
+        authenticator.authenticate(USER1_DN, "user1");
+        assertTrue(pool.getCredentialCache().isVerified(USER1_DN, "user1"));
+
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        try
+        {
+            conn.addAttribute(USER1_DN, new LDAPSingleValueEntryAttribute("description", "credential cache test"));
+            assertFalse(pool.getCredentialCache().isVerified(USER1_DN, "user1"));
+
+            authenticator.authenticate(USER1_DN, "user1");
+            assertEquals(2, pool.getBindStatistics().getCount());
+        }
+        finally
+        {
+            conn.deleteAttribute(USER1_DN, new LDAPSingleValueEntryAttribute("description", "credential cache test"));
+            pool.returnConnection(conn);
+        }
+    }
+
+    @Test
+    public void testCacheIsOffWithoutTtl() throws Exception
+    {
+        LDAPCredentialCache cache = pool.enableCredentialCache(0L, 100L);
+
+        authenticator.authenticate(USER1_DN, "user1");
+        authenticator.authenticate(USER1_DN, "user1");
+
+        assertEquals(2, pool.getBindStatistics().getCount());
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testSharedPoolsDoNotShareCredentialCaches() throws Exception
+    {
+        LDAPCacheConfiguration cached = new LDAPCacheConfiguration();
+        cached.setCredentialCacheTtl(60000L);
+        cached.setCredentialCacheMaxSize(100L);
+
+        LDAPConnectionPool cachingPool = LDAPConnectionPool.getPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 0L, "IGNORE", new HashMap<String, String>(), false, false, cached);
+        LDAPConnectionPool plainPool = LDAPConnectionPool.getPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 0L, "IGNORE", new HashMap<String, String>(), false, false, new LDAPCacheConfiguration());
+        try
+        {
+            assertNotSame(cachingPool, plainPool);
+            assertNotNull(cachingPool.getCredentialCache());
+            assertNull(plainPool.getCredentialCache());
+        }
+        finally
+        {
+            cachingPool.release();
+            plainPool.release();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPCacheConfiguration;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryCache;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPRequestCoalescer;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+import org.mule.module.ldap.api.NameNotFoundException;
+
+public class LDAPEntryCacheTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+    private LDAPConnection conn;
+    private LDAPEntryCache cache;
+
+    /**
+     *
+     */
+    public LDAPEntryCacheTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "ldap-config.xml";
+    }
+
+    @Before
+    public void createConnection() throws Exception
+    {
+        cache = new LDAPEntryCache(60000L, 60000L, 100L);
+        conn = LDAPConnection.getConnection("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION);
+        conn.bind("uid=admin,ou=people,dc=mulesoft,dc=org", "admin");
+        conn.setEntryCache(cache);
+    }
+
+    @After
+    public void closeConnection() throws Exception
+    {
+        conn.close();
+    }
+
+    @Test
+    public void testRepeatedLookupIsCached() throws Exception
+    {
+        assertEquals("User One", conn.lookup("uid=user1,ou=people,dc=mulesoft,dc=org").getAttribute("cn").getValue());
+        assertEquals("User One", conn.lookup("UID=user1, ou=People, dc=mulesoft, dc=org").getAttribute("cn").getValue());
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testProjectionsAreCachedSeparately() throws Exception
+    {
+        LDAPEntry entry = conn.lookup("uid=user1,ou=people,dc=mulesoft,dc=org", new String[] {"cn"});
+        assertNull(entry.getAttribute("sn"));
+
+        assertEquals("One", conn.lookup("uid=user1,ou=people,dc=mulesoft,dc=org", new String[] {"cn", "sn"}).getAttribute("sn").getValue());
+        assertEquals(2, cache.getMissCount());
+
+        // Any projection tells the entry exists
+        assertTrue(conn.exists("uid=user1,ou=people,dc=mulesoft,dc=org"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testMissingEntryIsCached() throws Exception
+    {
+        assertFalse(conn.exists("uid=nobody,ou=people,dc=mulesoft,dc=org"));
+        assertFalse(conn.exists("uid=nobody,ou=people,dc=mulesoft,dc=org"));
+
+        try
+        {
+            conn.lookup("uid=nobody,ou=people,dc=mulesoft,dc=org");
+        }
+        catch (NameNotFoundException nnfe)
+        {
+            assertEquals(2, cache.getNegativeHitCount());
+            return;
+        }
+        throw new AssertionError("Lookup of missing entry should have failed");
+    }
+
+    @Test
+    public void testWritesInvalidateEntries() throws Exception
+    {
+        assertFalse(conn.exists("uid=cacheduser,ou=people,dc=mulesoft,dc=org"));
+
+        LDAPEntry entryToAdd = new LDAPEntry("uid=cacheduser,ou=people,dc=mulesoft,dc=org");
+        entryToAdd.addAttribute("uid", "cacheduser");
+        entryToAdd.addAttribute("cn", "Cached User");
+        entryToAdd.addAttribute("sn", "User");
+        entryToAdd.addAttribute("objectclass", new String[] {"top", "person", "organizationalPerson", "inetOrgPerson"});
+        conn.addEntry(entryToAdd);
+
+        assertTrue(conn.exists("uid=cacheduser,ou=people,dc=mulesoft,dc=org"));
+        assertEquals("Cached User", conn.lookup("uid=cacheduser,ou=people,dc=mulesoft,dc=org").getAttribute("cn").getValue());
+
+        conn.updateAttribute("uid=cacheduser,ou=people,dc=mulesoft,dc=org", new LDAPSingleValueEntryAttribute("cn", "Cached User Modified"));
+        assertEquals("Cached User Modified", conn.lookup("uid=cacheduser,ou=people,dc=mulesoft,dc=org").getAttribute("cn").getValue());
+
+        conn.deleteEntry("uid=cacheduser,ou=people,dc=mulesoft,dc=org");
+        assertFalse(conn.exists("uid=cacheduser,ou=people,dc=mulesoft,dc=org"));
+    }
+
+    @Test
+    public void testReturnedEntriesAreCopies() throws Exception
+    {
+        conn.lookup("uid=user1,ou=people,dc=mulesoft,dc=org").addAttribute("description", "Not in the server");
+
+        assertNull(conn.lookup("uid=user1,ou=people,dc=mulesoft,dc=org").getAttribute("description"));
+    }
+
+    @Test
+    public void testLookupInvalidatedWhileInFlightIsNotCached() throws Exception
+    {
+        conn.setEntryCache(null);
+        cache.lookup("uid=admin,ou=people,dc=mulesoft,dc=org", "uid=user1,ou=people,dc=mulesoft,dc=org", null, new LDAPRequestCoalescer.Request<LDAPEntry>()
+        {
+            @Override
+            public LDAPEntry execute() throws LDAPException
+            {
+                LDAPEntry read = conn.lookup("uid=user1,ou=people,dc=mulesoft,dc=org");
+                // The entry changes once the lookup was answered
+                cache.invalidate("uid=user1,ou=people,dc=mulesoft,dc=org");
+                return read;
+            }
+        });
+
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testMissingEntryAddedWhileInFlightIsNotCached() throws Exception
+    {
+        conn.setEntryCache(null);
+        try
+        {
+            cache.lookup("uid=admin,ou=people,dc=mulesoft,dc=org", "uid=nobody,ou=people,dc=mulesoft,dc=org", null, new LDAPRequestCoalescer.Request<LDAPEntry>()
+            {
+                @Override
+                public LDAPEntry execute() throws LDAPException
+                {
+                    try
+                    {
+                        return conn.lookup("uid=nobody,ou=people,dc=mulesoft,dc=org");
+                    }
+                    finally
+                    {
+                        // The entry is added once the lookup was answered
+                        cache.invalidate("uid=nobody,ou=people,dc=mulesoft,dc=org");
+                    }
+                }
+            });
+        }
+        catch (NameNotFoundException nnfe)
+        {
+            assertEquals(0, cache.getMissingSize());
+            return;
+        }
+        throw new AssertionError("Lookup of missing entry should have failed");
+    }
+
+    @Test
+    public void testSharedPoolsDoNotShareEntryCaches() throws Exception
+    {
+        LDAPCacheConfiguration cached = new LDAPCacheConfiguration();
+        cached.setEntryCacheTtl(60000L);
+        cached.setEntryCacheMaxSize(100L);
+
+        LDAPConnectionPool cachingPool = LDAPConnectionPool.getPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 0L, "IGNORE", new HashMap<String, String>(), false, false, cached);
+        LDAPConnectionPool plainPool = LDAPConnectionPool.getPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 0L, "IGNORE", new HashMap<String, String>(), false, false, new LDAPCacheConfiguration());
+        try
+        {
+            assertNotSame(cachingPool, plainPool);
+            assertNotNull(cachingPool.getEntryCache());
+            assertNull(plainPool.getEntryCache());
+
+            LDAPConnection plainConn = plainPool.borrowConnection("uid=admin,ou=people,dc=mulesoft,dc=org", "admin");
+            assertNull(plainConn.getEntryCache());
+            plainPool.returnConnection(plainConn);
+        }
+        finally
+        {
+            cachingPool.release();
+            plainPool.release();
+        }
+    }
+}
@@ -8,9 +8,15 @@
 
 package org.mule.module.ldap;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Test;
 
 public class LDAPExistsTest extends AbstractLDAPConnectorEmbeddedLDAPTest
@@ -46,6 +52,19 @@ public class LDAPExistsTest extends AbstractLDAPConnectorEmbeddedLDAPTest
         
         assertFalse(result);
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExistsAll() throws Exception
+    {
+        List<String> dns = Arrays.asList("uid=user1,ou=people,dc=mulesoft,dc=org", "uid=userXXX,ou=people,dc=mulesoft,dc=org", "uid=user2,ou=people,dc=mulesoft,dc=org", "uid=user1,ou=people,dc=mulesoft,dc=org");
+        Map<String, Boolean> result = (Map<String, Boolean>) runFlow("testExistsAllFlow", dns).getMessage().getPayload();
+        
+        assertEquals(Arrays.asList("uid=user1,ou=people,dc=mulesoft,dc=org", "uid=userXXX,ou=people,dc=mulesoft,dc=org", "uid=user2,ou=people,dc=mulesoft,dc=org"), new ArrayList<String>(result.keySet()));
+        assertTrue(result.get("uid=user1,ou=people,dc=mulesoft,dc=org"));
+        assertFalse(result.get("uid=userXXX,ou=people,dc=mulesoft,dc=org"));
+        assertTrue(result.get("uid=user2,ou=people,dc=mulesoft,dc=org"));
+    }
 }
 
 
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPEntry;
+
+public class LDAPMultiServerTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+
+    /**
+     * 
+     */
+    public LDAPMultiServerTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "multi-server-mule-config.xml";
+    }
+    
+    @Test
+    public void testFailoverLookup() throws Exception
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            LDAPEntry result = (LDAPEntry) runFlow("testFailoverLookup", "uid=user1,ou=people,dc=mulesoft,dc=org").getMessage().getPayload();
+            
+            assertEquals("user1", result.getAttribute("uid").getValue());
+            assertEquals("User One", result.getAttribute("cn").getValue());
+        }
+    }
+    
+    @Test
+    public void testFailoverBind() throws Exception
+    {
+        LDAPEntry result = (LDAPEntry) runFlow("testFailoverBind").getMessage().getPayload();
+        
+        assertEquals("admin", result.getAttribute("uid").getValue());
+    }
+    
+    @Test
+    public void testEwmaSearch() throws Exception
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            @SuppressWarnings("unchecked")
+            List<LDAPEntry> result = (List<LDAPEntry>) runFlow("testEwmaSearch", "(uid=user*)").getMessage().getPayload();
+            
+            assertEquals(5, result.size());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.NameAlreadyBoundException;
+import org.mule.module.ldap.api.NameNotFoundException;
+import org.mule.module.ldap.api.nio.LDAPNIOConnection;
+
+public class LDAPNIOTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+    private static final String ADMIN_DN = "uid=admin,ou=people,dc=mulesoft,dc=org";
+
+    /**
+     *
+     */
+    public LDAPNIOTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "nio-mule-config.xml";
+    }
+
+    @Test
+    public void testLookup() throws Exception
+    {
+        LDAPEntry result = (LDAPEntry) runFlow("testNioLookupFlow", "uid=user1,ou=people,dc=mulesoft,dc=org").getMessage().getPayload();
+
+        assertEquals("uid=user1,ou=people,dc=mulesoft,dc=org", result.getDn());
+        assertEquals("user1", result.getAttribute("uid").getValue());
+        assertEquals("User One", result.getAttribute("cn").getValue());
+        assertTrue(result.getAttribute("objectclass").isMultiValued());
+    }
+
+    @Test
+    public void testAnonymousLookup() throws Exception
+    {
+        LDAPEntry result = (LDAPEntry) runFlow("testNioAnonymousLookupFlow", "uid=admin,ou=people,dc=mulesoft,dc=org").getMessage().getPayload();
+
+        assertEquals("admin", result.getAttribute("uid").getValue());
+    }
+
+    @Test
+    public void testLookupNotExistingEntry() throws Exception
+    {
+        runFlowWithPayloadAndExpectException("testNioLookupFlow", NameNotFoundException.class, "uid=notexists,ou=people,dc=mulesoft,dc=org");
+    }
+
+    @Test
+    public void testSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<LDAPEntry> result = (List<LDAPEntry>) runFlow("testNioSearchFlow", "(&(objectClass=person)(uid=user*))").getMessage().getPayload();
+
+        assertEquals(5, result.size());
+    }
+
+    @Test
+    public void testPagedResultSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) runFlow("testNioPagedResultSearchFlow", "(uid=user*)").getMessage().getPayload();
+        List<String> cns = new ArrayList<String>();
+        cns.add("User One");
+        cns.add("User Two");
+        cns.add("User Three");
+        cns.add("User Four");
+        cns.add("User Five");
+
+        assertEquals(5, result.size());
+
+        for(Object o : result)
+        {
+            assertTrue(cns.contains(o));
+        }
+    }
+
+    @Test
+    public void testAddAndDeleteEntry() throws Exception
+    {
+        LDAPEntry entryToAdd = new LDAPEntry("uid=niouser,ou=people,dc=mulesoft,dc=org");
+        entryToAdd.addAttribute("uid", "niouser");
+        entryToAdd.addAttribute("cn", "NIO User");
+        entryToAdd.addAttribute("sn", "User");
+        entryToAdd.addAttribute("userPassword", "test1234");
+        entryToAdd.addAttribute("objectclass", new String[] {"top", "person", "organizationalPerson", "inetOrgPerson"});
+
+        LDAPEntry result = (LDAPEntry) runFlow("testNioAddEntryFlow", entryToAdd).getMessage().getPayload();
+
+        assertEquals("NIO User", result.getAttribute("cn").getValue());
+
+        runFlowWithPayloadAndExpectException("testNioAddEntryFlow", NameAlreadyBoundException.class, entryToAdd);
+
+        runFlow("testNioDeleteEntryFlow", entryToAdd.getDn());
+
+        runFlowWithPayloadAndExpectException("testNioLookupFlow", NameNotFoundException.class, entryToAdd.getDn());
+    }
+
+    @Test
+    public void testConcurrentOperationsOnOneConnection() throws Exception
+    {
+        final LDAPConnection conn = LDAPConnection.getConnection("nio", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION);
+        conn.bind(ADMIN_DN, "admin");
+
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(10);
+        try
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                final String uid = "user" + (i % 5 + 1);
+                new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+                            for (int j = 0; j < 20; j++)
+                            {
+                                // Each response must reach the operation with the same message ID
+                                String dn = "uid=" + uid + ",ou=people,dc=mulesoft,dc=org";
+                                LDAPEntry entry = conn.lookup(dn);
+                                if (!dn.equals(entry.getDn()))
+                                {
+                                    errors.add("Lookup of " + dn + " returned " + entry.getDn());
+                                }
+
+                                LDAPSearchControls controls = new LDAPSearchControls();
+                                controls.setScope(LDAPSearchControls.SUBTREE_SCOPE);
+                                LDAPResultSet result = conn.search("ou=people,dc=mulesoft,dc=org", "(uid=" + uid + ")", controls);
+                                List<LDAPEntry> entries = result.getAllEntries();
+                                result.close();
+                                if (entries.size() != 1 || !dn.equals(entries.get(0).getDn()))
+                                {
+                                    errors.add("Search of " + uid + " returned " + entries);
+                                }
+                            }
+                        }
+                        catch (Exception ex)
+                        {
+                            errors.add(ex.toString());
+                        }
+                        finally
+                        {
+                            done.countDown();
+                        }
+                    }
+                }, "nio-client-" + i).start();
+            }
+            start.countDown();
+
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertEquals(Collections.<String> emptyList(), errors);
+            assertEquals(0, ((LDAPNIOConnection) conn).getOutstandingOperations());
+        }
+        finally
+        {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testPooledConnectionsShareSocket() throws Exception
+    {
+        LDAPConnectionPool pool = createPool("nio", "ldap://localhost:" + LDAP_PORT + "/", new HashMap<String, String>(), false, 1, 5, 0L);
+        LDAPNIOConnection conn1 = (LDAPNIOConnection) pool.borrowConnection(ADMIN_DN, "admin");
+        LDAPNIOConnection conn2 = (LDAPNIOConnection) pool.borrowConnection(ADMIN_DN, "admin");
+
+        assertNotSame(conn1, conn2);
+        assertEquals(2, conn1.getSharedConnections());
+        assertEquals(2, conn2.getSharedConnections());
+        assertEquals(ADMIN_DN, conn2.lookup(ADMIN_DN).getDn());
+
+        pool.invalidateConnection(conn1);
+        // The socket stays open for the other connection
+        assertEquals(1, conn2.getSharedConnections());
+        assertEquals(ADMIN_DN, conn2.lookup(ADMIN_DN).getDn());
+        pool.returnConnection(conn2);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mule.api.MuleEventContext;
+import org.mule.api.MuleMessage;
+import org.mule.api.lifecycle.Callable;
+import org.mule.module.ldap.api.LDAPEntry;
+
+public class LDAPPersistentSearchTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final BlockingQueue<MuleMessage> CHANGES = new LinkedBlockingQueue<MuleMessage>();
+
+    /**
+     * Keeps the messages sent by the persistent search source.
+     */
+    public static class ChangeCollector implements Callable
+    {
+        @Override
+        public Object onCall(MuleEventContext eventContext) throws Exception
+        {
+            CHANGES.add(eventContext.getMessage());
+            return eventContext.getMessage().getPayload();
+        }
+    }
+
+    /**
+     *
+     */
+    public LDAPPersistentSearchTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "persistent-search-mule-config.xml";
+    }
+
+    @Test
+    public void testModifyIsNotified() throws Exception
+    {
+        // As changesOnly is false, the matching entry is sent first once the search is subscribed
+        MuleMessage existing = CHANGES.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(existing);
+        assertEquals("uid=user2,ou=people,dc=mulesoft,dc=org", ((LDAPEntry) existing.getPayload()).getDn());
+        assertNull(existing.getInboundProperty(LDAPConnector.CHANGE_TYPE_PROPERTY));
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("dn", "uid=user2,ou=people,dc=mulesoft,dc=org");
+        params.put("attributeName", "cn");
+        params.put("attributeValue", "User Two Changed");
+        runFlow("testModifySingleAttributeFlow", params);
+
+        MuleMessage change = CHANGES.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(change);
+        assertEquals(ChangeType.MODIFY.name(), change.getInboundProperty(LDAPConnector.CHANGE_TYPE_PROPERTY));
+        assertEquals("User Two Changed", ((LDAPEntry) change.getPayload()).getAttribute("cn").getValue());
+    }
+}
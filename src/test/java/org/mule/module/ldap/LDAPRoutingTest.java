@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPEntry;
+
+public class LDAPRoutingTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+
+    /**
+     * 
+     */
+    public LDAPRoutingTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "routing-mule-config.xml";
+    }
+    
+    @Test
+    public void testReadYourWrites() throws Exception
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("oldDn", "uid=user2,ou=people,dc=mulesoft,dc=org");
+        params.put("newDn", "uid=userRouting,ou=people,dc=mulesoft,dc=org");
+        
+        LDAPEntry result = (LDAPEntry) runFlow("testRenameAndLookupFlow", params).getMessage().getPayload();
+        
+        assertEquals("userRouting", result.getAttribute("uid").getValue());
+        assertEquals("User Two", result.getAttribute("cn").getValue());
+    }
+    
+    @Test
+    public void testUnreachableReplicaLookup() throws Exception
+    {
+        LDAPEntry result = (LDAPEntry) runFlow("testUnreachableReplicaLookupFlow", "uid=user1,ou=people,dc=mulesoft,dc=org").getMessage().getPayload();
+        
+        assertEquals("user1", result.getAttribute("uid").getValue());
+        assertEquals("User One", result.getAttribute("cn").getValue());
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPCacheConfiguration;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPRequestCoalescer;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchCache;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+
+public class LDAPSearchCacheTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+    private LDAPConnection conn;
+    private LDAPSearchCache cache;
+
+    /**
+     *
+     */
+    public LDAPSearchCacheTest()
+    {
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "ldap-config.xml";
+    }
+
+    @Before
+    public void createConnection() throws Exception
+    {
+        cache = new LDAPSearchCache(60000L, 100L);
+        conn = LDAPConnection.getConnection("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION);
+        conn.bind("uid=admin,ou=people,dc=mulesoft,dc=org", "admin");
+        conn.setSearchCache(cache);
+    }
+
+    @After
+    public void closeConnection() throws Exception
+    {
+        conn.close();
+    }
+
+    @Test
+    public void testRepeatedSearchIsCached() throws Exception
+    {
+        assertEquals(5, search("ou=people,dc=mulesoft,dc=org", "(uid=user*)").size());
+        assertEquals(5, search("ou=People, dc=mulesoft, dc=org", "(uid=user*)").size());
+
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testModificationInvalidatesAncestorSearches() throws Exception
+    {
+        assertEquals("User One", search("ou=people,dc=mulesoft,dc=org", "(uid=user1)").get(0).getAttribute("cn").getValue());
+        assertEquals(1, search("uid=user2,ou=people,dc=mulesoft,dc=org", "(uid=user2)").size());
+
+        conn.updateAttribute("uid=user1,ou=people,dc=mulesoft,dc=org", new LDAPSingleValueEntryAttribute("cn", "User One Cached"));
+
+        // Only the search under an ancestor of the modified entry was removed
+        assertEquals(1, cache.getSize());
+        assertEquals("User One Cached", search("ou=people,dc=mulesoft,dc=org", "(uid=user1)").get(0).getAttribute("cn").getValue());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testReturnedEntriesAreCopies() throws Exception
+    {
+        search("ou=people,dc=mulesoft,dc=org", "(uid=user1)").get(0).addAttribute("description", "Not in the server");
+
+        assertNull(search("ou=people,dc=mulesoft,dc=org", "(uid=user1)").get(0).getAttribute("description"));
+    }
+
+    @Test
+    public void testSearchWithTooManyResultsIsNotCached() throws Exception
+    {
+        cache = new LDAPSearchCache(60000L, 100L, 3L);
+        conn.setSearchCache(cache);
+
+        assertEquals(5, search("ou=people,dc=mulesoft,dc=org", "(uid=user*)").size());
+        assertEquals(2, search("ou=people,dc=mulesoft,dc=org", "(|(uid=user1)(uid=user2))").size());
+
+        assertEquals(1, cache.getSize());
+        assertEquals(5, search("ou=people,dc=mulesoft,dc=org", "(uid=user*)").size());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testSearchInvalidatedWhileInFlightIsNotCached() throws Exception
+    {
+        final LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.SUBTREE_SCOPE);
+
+        LDAPResultSet result = cache.search("uid=admin,ou=people,dc=mulesoft,dc=org", "ou=people,dc=mulesoft,dc=org", "(uid=user1)", null, controls, new LDAPRequestCoalescer.Request<LDAPResultSet>()
+        {
+            @Override
+            public LDAPResultSet execute() throws LDAPException
+            {
+                LDAPResultSet read = conn.search("ou=people,dc=mulesoft,dc=org", "(uid=user1)", controls);
+                // The entry changes once the search was answered
+                cache.invalidate("uid=user1,ou=people,dc=mulesoft,dc=org");
+                return read;
+            }
+        });
+
+        assertEquals(1, result.getAllEntries().size());
+        assertEquals(0, cache.getSize());
+    }
+
+    private List<LDAPEntry> search(String baseDn, String filter) throws Exception
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setScope(LDAPSearchControls.SUBTREE_SCOPE);
+        return conn.search(baseDn, filter, controls).getAllEntries();
+    }
+
+    @Test
+    public void testSharedPoolsDoNotShareSearchCaches() throws Exception
+    {
+        LDAPCacheConfiguration cached = new LDAPCacheConfiguration();
+        cached.setSearchCacheTtl(60000L);
+        cached.setSearchCacheMaxSize(100L);
+
+        LDAPConnectionPool cachingPool = LDAPConnectionPool.getPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 0L, "IGNORE", new HashMap<String, String>(), false, false, cached);
+        LDAPConnectionPool plainPool = LDAPConnectionPool.getPool("jndi", "ldap://localhost:" + LDAP_PORT + "/", LDAPConnection.SIMPLE_AUTHENTICATION, 1, 5, 0L, "IGNORE", new HashMap<String, String>(), false, false, new LDAPCacheConfiguration());
+        try
+        {
+            assertNotSame(cachingPool, plainPool);
+            assertNotNull(cachingPool.getSearchCache());
+            assertNull(plainPool.getSearchCache());
+
+            LDAPConnection plainConn = plainPool.borrowConnection("uid=admin,ou=people,dc=mulesoft,dc=org", "admin");
+            assertNull(plainConn.getSearchCache());
+            plainPool.returnConnection(plainConn);
+        }
+        finally
+        {
+            cachingPool.release();
+            plainPool.release();
+        }
+    }
+}
@@ -9,12 +9,15 @@
 package org.mule.module.ldap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import javax.naming.ldap.SortControl;
 
@@ -94,6 +97,202 @@ public class LDAPSearchLookupTest extends AbstractLDAPConnectorEmbeddedLDAPTest
         }
     }
     
+    @Test
+    public void testStreamingSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) runFlow("testStreamingSearchFlow", "(uid=user*)").getMessage().getPayload();
+        List<String> cns = new ArrayList<String>();
+        cns.add("User One");
+        cns.add("User Two");
+        cns.add("User Three");
+        cns.add("User Four");
+        cns.add("User Five");
+
+        assertEquals(5, result.size());
+
+        for(Object o : result)
+        {
+            assertTrue(cns.contains(o));
+        }
+    }
+    
+    @Test
+    public void testStreamingSearchClosesWhenConsumed() throws Exception
+    {
+        LDAPResultSetIterator result = (LDAPResultSetIterator) runFlow("testStreamingSearchIteratorFlow", "(uid=user*)").getMessage().getPayload();
+        int count = 0;
+        
+        assertFalse(result.isClosed());
+        while(result.hasNext())
+        {
+            assertNotNull(result.next());
+            count++;
+        }
+        
+        assertEquals(5, count);
+        assertTrue(result.isClosed());
+    }
+    
+    @Test
+    public void testStreamingSearchClose() throws Exception
+    {
+        LDAPResultSetIterator result = (LDAPResultSetIterator) runFlow("testStreamingSearchIteratorFlow", "(uid=user*)").getMessage().getPayload();
+        
+        assertNotNull(result.next());
+        result.close();
+        
+        assertTrue(result.isClosed());
+        assertFalse(result.hasNext());
+    }
+    
+    @Test
+    public void testStreamingSearchOwnsConnection() throws Exception
+    {
+        LDAPResultSetIterator result = (LDAPResultSetIterator) runFlow("testStreamingSearchIteratorFlow", "(uid=user*)").getMessage().getPayload();
+        assertNotNull(result.next());
+        
+        // Other operations of the same configuration do not affect the search being read
+        @SuppressWarnings("unchecked")
+        List<Object> entries = (List<Object>) runFlow("testSearchFlow", "(uid=user1)").getMessage().getPayload();
+        assertEquals(1, entries.size());
+        
+        int count = 1;
+        while(result.hasNext())
+        {
+            assertNotNull(result.next());
+            count++;
+        }
+        
+        assertEquals(5, count);
+        assertTrue(result.isClosed());
+    }
+    
+    @Test
+    public void testStreamingSearchPrefetch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) runFlow("testStreamingSearchPrefetchFlow", "(uid=user*)").getMessage().getPayload();
+        List<String> cns = new ArrayList<String>();
+        cns.add("User One");
+        cns.add("User Two");
+        cns.add("User Three");
+        cns.add("User Four");
+        cns.add("User Five");
+
+        assertEquals(5, result.size());
+
+        for(Object o : result)
+        {
+            assertTrue(cns.contains(o));
+        }
+    }
+    
+    @Test
+    public void testStreamingSearchPrefetchClose() throws Exception
+    {
+        LDAPResultSetIterator result = (LDAPResultSetIterator) runFlow("testStreamingSearchPrefetchIteratorFlow", "(uid=user*)").getMessage().getPayload();
+        
+        assertNotNull(result.next());
+        result.close();
+        
+        assertTrue(result.isClosed());
+        assertFalse(result.hasNext());
+    }
+    
+    @Test
+    public void testStreamingSearchAdaptivePageSize() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) runFlow("testStreamingSearchAdaptivePageSizeFlow", "(uid=user*)").getMessage().getPayload();
+        List<String> cns = new ArrayList<String>();
+        cns.add("User One");
+        cns.add("User Two");
+        cns.add("User Three");
+        cns.add("User Four");
+        cns.add("User Five");
+
+        assertEquals(5, result.size());
+
+        for(Object o : result)
+        {
+            assertTrue(cns.contains(o));
+        }
+    }
+    
+    @Test
+    public void testParallelSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) runFlow("testParallelSearchFlow", "(uid=user*)").getMessage().getPayload();
+        List<String> cns = new ArrayList<String>();
+        cns.add("User One");
+        cns.add("User Two");
+        cns.add("User Three");
+        cns.add("User Four");
+        cns.add("User Five");
+
+        assertEquals(5, result.size());
+
+        for(Object o : result)
+        {
+            assertTrue(cns.contains(o));
+        }
+    }
+    
+    @Test
+    public void testPartitionedSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) runFlow("testPartitionedSearchFlow", "(uid=user*)").getMessage().getPayload();
+        List<String> cns = new ArrayList<String>();
+        cns.add("User One");
+        cns.add("User Two");
+        cns.add("User Three");
+        cns.add("User Four");
+        cns.add("User Five");
+
+        assertEquals(5, result.size());
+
+        for(Object o : result)
+        {
+            assertTrue(cns.contains(o));
+        }
+    }
+    
+    @Test
+    public void testPartitionedSearchRanges() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<Object> result = (List<Object>) runFlow("testPartitionedSearchRangesFlow", "(objectClass=person)").getMessage().getPayload();
+        List<String> cns = new ArrayList<String>();
+        cns.add("User One");
+        cns.add("User Two");
+        cns.add("User Three");
+        cns.add("User Four");
+        cns.add("User Five");
+
+        assertEquals(5, result.size());
+
+        for(Object o : result)
+        {
+            assertTrue(cns.contains(o));
+        }
+    }
+    
+    @Test
+    @Ignore // The embedded LDAP Server doesn't support sorting nor virtual list views!
+    public void testVirtualListViewSearch() throws Exception
+    {
+        LDAPVirtualListViewResult result = (LDAPVirtualListViewResult) runFlow("testVirtualListViewSearchFlow", "(uid=user*)").getMessage().getPayload();
+        
+        assertEquals(2, result.getTargetPosition());
+        assertEquals(5, result.getContentCount());
+        assertEquals(2, result.getEntries().size());
+        assertEquals("uid=user2,ou=people,dc=mulesoft,dc=org", result.getEntries().get(0).getDn());
+        assertEquals("uid=user3,ou=people,dc=mulesoft,dc=org", result.getEntries().get(1).getDn());
+    }
+    
     @Test
     @Ignore // The embedded LDAP Server doesn't support sorting!
     public void testPagedResultSearchSort() throws Exception
@@ -111,6 +310,41 @@ public class LDAPSearchLookupTest extends AbstractLDAPConnectorEmbeddedLDAPTest
         }
     } 
     
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testLookupMany() throws Exception
+    {
+        List<String> dns = Arrays.asList("uid=user3,ou=people,dc=mulesoft,dc=org", "uid=userXXX,ou=people,dc=mulesoft,dc=org", "uid=user1,ou=people,dc=mulesoft,dc=org", "ou=groups,dc=mulesoft,dc=org");
+        Map<String, LDAPEntry> result = (Map<String, LDAPEntry>) runFlow("testLookupManyFlow", dns).getMessage().getPayload();
+        
+        assertEquals(Arrays.asList("uid=user3,ou=people,dc=mulesoft,dc=org", "uid=user1,ou=people,dc=mulesoft,dc=org", "ou=groups,dc=mulesoft,dc=org"), new ArrayList<String>(result.keySet()));
+        assertEquals("User One", result.get("uid=user1,ou=people,dc=mulesoft,dc=org").getAttribute("cn").getValue());
+        assertNull(result.get("uid=user1,ou=people,dc=mulesoft,dc=org").getAttribute("sn"));
+        assertEquals("uid=user3,ou=people,dc=mulesoft,dc=org", result.get("uid=user3,ou=people,dc=mulesoft,dc=org").getDn());
+    }
+    
+    @Test
+    public void testCount() throws Exception
+    {
+        assertEquals(5, runFlow("testCountFlow", "(uid=user*)").getMessage().getPayload());
+        assertEquals(0, runFlow("testCountFlow", "(uid=userXXX)").getMessage().getPayload());
+    }
+    
+    @Test
+    public void testTemplateSearch() throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<LDAPEntry> result = (List<LDAPEntry>) runFlow("testTemplateSearchFlow", "user1").getMessage().getPayload();
+        
+        assertEquals(1, result.size());
+        assertEquals("uid=user1,ou=people,dc=mulesoft,dc=org", result.get(0).getDn());
+        
+        // The argument is escaped, so the asterisk is not a wildcard
+        @SuppressWarnings("unchecked")
+        List<LDAPEntry> escaped = (List<LDAPEntry>) runFlow("testTemplateSearchFlow", "user*").getMessage().getPayload();
+        assertEquals(0, escaped.size());
+    }
+    
     @Test
     @Ignore
     public void testUnsupportedSortControl() throws Exception
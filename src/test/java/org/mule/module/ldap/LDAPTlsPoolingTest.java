@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mule.module.ldap.api.LDAPChangeStream;
+import org.mule.module.ldap.api.LDAPConnection;
+import org.mule.module.ldap.api.LDAPConnectionPool;
+import org.mule.module.ldap.api.LDAPEntryChange;
+import org.mule.module.ldap.api.LDAPResultSet;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.jndi.LDAPJNDIConnection;
+import org.mule.module.ldap.security.BypassTrustSSLSocketFactory;
+
+public class LDAPTlsPoolingTest extends AbstractLDAPConnectorEmbeddedLDAPTest
+{
+    private static final int TLS_PORT = 10390;
+    private static final String ADMIN_DN = "uid=admin,ou=people,dc=mulesoft,dc=org";
+    private static final String USER1_DN = "uid=user1,ou=people,dc=mulesoft,dc=org";
+
+    private static LdapServer tlsServer;
+
+    private LDAPConnectionPool pool;
+
+    /**
+     *
+     */
+    public LDAPTlsPoolingTest()
+    {
+    }
+
+    /**
+     * Serves the embedded directory through a listener supporting StartTLS (with the server self-signed certificate)
+     * that rejects any other request sent before StartTLS, so a bind sent in cleartext fails.
+     */
+    @BeforeClass
+    public static void startTlsServer() throws Exception
+    {
+        tlsServer = new LdapServer();
+        tlsServer.setDirectoryService(getDirectoryService());
+        tlsServer.setTransports(new TcpTransport(TLS_PORT));
+        tlsServer.addExtendedOperationHandler(new StartTlsHandler());
+        tlsServer.setConfidentialityRequired(true);
+        tlsServer.start();
+    }
+
+    @AfterClass
+    public static void stopTlsServer() throws Exception
+    {
+        if (tlsServer != null)
+        {
+            tlsServer.stop();
+        }
+    }
+
+    @Override
+    protected String getConfigResources()
+    {
+        return "ldap-config.xml";
+    }
+
+    private LDAPConnectionPool createTlsPool()
+    {
+        Map<String, String> extendedConf = new HashMap<String, String>();
+        extendedConf.put(LDAPJNDIConnection.TLS_SOCKET_FACTORY_ATTR, BypassTrustSSLSocketFactory.class.getName());
+        // LDAPv3 connections are opened without an anonymous bind, which the listener would reject before StartTLS
+        extendedConf.put("java.naming.ldap.version", "3");
+        pool = createPool("jndi", "ldap://localhost:" + TLS_PORT + "/", extendedConf, true, 1, 5, 0L);
+        return pool;
+    }
+
+    @Test
+    public void testPooledConnectionKeepsTlsSession() throws Exception
+    {
+        createTlsPool();
+
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        assertEquals(USER1_DN, conn.lookup(USER1_DN).getDn());
+        pool.returnConnection(conn);
+
+        // The idle connection is reused with its TLS session
+        assertSame(conn, pool.borrowConnection(ADMIN_DN, "admin"));
+        assertEquals(USER1_DN, conn.lookup(USER1_DN).getDn());
+        pool.returnConnection(conn);
+    }
+
+    @Test
+    public void testBindOnTlsSession() throws Exception
+    {
+        createTlsPool();
+
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        try
+        {
+            conn.bind(USER1_DN, "user1");
+            assertEquals(USER1_DN, conn.getBindedUserDn());
+            assertEquals(USER1_DN, conn.lookup(USER1_DN).getDn());
+        }
+        finally
+        {
+            pool.invalidateConnection(conn);
+        }
+    }
+
+    @Test
+    public void testIdleConnectionsOfOtherIdentitiesAreNotRebindedByDefault() throws Exception
+    {
+        createTlsPool();
+
+        LDAPConnection adminConn = pool.borrowConnection(ADMIN_DN, "admin");
+        pool.returnConnection(adminConn);
+
+        LDAPConnection userConn = pool.borrowConnection(USER1_DN, "user1");
+        assertNotSame(adminConn, userConn);
+        assertEquals(ADMIN_DN, adminConn.getBindedUserDn());
+        pool.returnConnection(userConn);
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void testRebindIdleConnections() throws Exception
+    {
+        createTlsPool();
+        pool.setRebindIdleConnections(true);
+
+        LDAPConnection adminConn = pool.borrowConnection(ADMIN_DN, "admin");
+        pool.returnConnection(adminConn);
+
+        LDAPConnection userConn = pool.borrowConnection(USER1_DN, "user1");
+        assertSame(adminConn, userConn);
+        assertEquals(USER1_DN, userConn.getBindedUserDn());
+        assertEquals(USER1_DN, userConn.lookup(USER1_DN).getDn());
+        pool.returnConnection(userConn);
+    }
+
+    @Test
+    public void testBindOnSharedConnectionKeepsTls() throws Exception
+    {
+        createTlsPool();
+
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        // An open paged search shares the connection, so JNDI would re-bind on a new connection without StartTLS
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setPageSize(1);
+        LDAPResultSet result = conn.search("ou=people,dc=mulesoft,dc=org", "(uid=*)", controls);
+        try
+        {
+            conn.bind(USER1_DN, "user1");
+            assertEquals(USER1_DN, conn.getBindedUserDn());
+            assertEquals(USER1_DN, conn.lookup(USER1_DN).getDn());
+            assertTrue(result.hasNext());
+        }
+        finally
+        {
+            result.close();
+            pool.invalidateConnection(conn);
+        }
+    }
+
+    @Test
+    public void testPersistentSearchConnectionNegotiatesTls() throws Exception
+    {
+        createTlsPool();
+
+        LDAPConnection conn = pool.borrowConnection(ADMIN_DN, "admin");
+        // The search has a connection of its own, which the listener only serves after StartTLS
+        LDAPChangeStream changes = conn.persistentSearch("ou=people,dc=mulesoft,dc=org", "(uid=user1)", null, new LDAPSearchControls(), LDAPEntryChange.ANY, false, 10, 1000L);
+        try
+        {
+            LDAPEntryChange existing = changes.next(10000L);
+            assertNotNull(existing);
+            assertEquals(USER1_DN, existing.getEntry().getDn());
+        }
+        finally
+        {
+            changes.close();
+            pool.returnConnection(conn);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestLDAPAdaptivePageSize
+{
+
+    /**
+     *
+     */
+    public TestLDAPAdaptivePageSize()
+    {
+    }
+
+    @Test
+    public void testShrinksToByteBudget()
+    {
+        LDAPAdaptivePageSize sizer = new LDAPAdaptivePageSize(100, 0, 10000);
+
+        int pageSize = sizer.getPageSize();
+        for (int i = 0; i < 10; i++)
+        {
+            readPage(sizer, pageSize, new byte[1000], 0);
+            pageSize = sizer.nextPageSize();
+        }
+
+        // About 10 entries of a bit more than 1000 bytes fit in the budget
+        assertTrue(pageSize >= 8 && pageSize <= 10);
+    }
+
+    @Test
+    public void testGrowsToTargetLatency()
+    {
+        LDAPAdaptivePageSize sizer = new LDAPAdaptivePageSize(10, 1000, 0);
+
+        readPage(sizer, 10, "small", TimeUnit.MILLISECONDS.toNanos(1));
+        // Growth is limited between pages
+        assertEquals(20, sizer.nextPageSize());
+
+        int pageSize = 20;
+        for (int i = 0; i < 20; i++)
+        {
+            readPage(sizer, pageSize, "small", TimeUnit.MILLISECONDS.toNanos(1));
+            pageSize = sizer.nextPageSize();
+        }
+        assertEquals(1000, pageSize);
+    }
+
+    @Test
+    public void testKeepsSizeWithoutEntries()
+    {
+        LDAPAdaptivePageSize sizer = new LDAPAdaptivePageSize(50, 1000, 1000);
+
+        assertEquals(50, sizer.nextPageSize());
+    }
+
+    @Test
+    public void testEstimateSize()
+    {
+        LDAPEntry entry = new LDAPEntry("uid=user1");
+        entry.addAttribute("cn", "User One");
+        entry.addAttribute("jpegPhoto", new byte[2000]);
+
+        assertTrue(LDAPAdaptivePageSize.estimateSize(entry) > 2000 + "uid=user1".length() + "User One".length());
+    }
+
+    private void readPage(LDAPAdaptivePageSize sizer, int entries, Object value, long nanosPerEntry)
+    {
+        for (int i = 0; i < entries; i++)
+        {
+            LDAPEntry entry = new LDAPEntry("uid=user" + i);
+            entry.addAttribute("value", value);
+            sizer.entryRead(entry);
+            sizer.waited(nanosPerEntry);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestLDAPChangeStream
+{
+    private static final int BUFFER_SIZE = 5;
+    private static final int CHANGES = 20;
+
+    /**
+     * Stream that cannot reach the server the first time and then reads {@link #CHANGES} changes before failing.
+     */
+    private static class TestStream extends LDAPChangeStream
+    {
+        private final AtomicInteger attempts = new AtomicInteger();
+        private int read = 0;
+
+        TestStream()
+        {
+            super(BUFFER_SIZE, 10L);
+            start();
+        }
+
+        @Override
+        protected void subscribe() throws LDAPException
+        {
+            if (attempts.incrementAndGet() == 1)
+            {
+                throw new CommunicationException("Connection refused");
+            }
+        }
+
+        @Override
+        protected LDAPEntryChange readChange() throws LDAPException
+        {
+            if (read == CHANGES)
+            {
+                throw new NameNotFoundException("ou=people,dc=mulesoft,dc=org");
+            }
+            read++;
+            return new LDAPEntryChange(new LDAPEntry("uid=user" + read + ",ou=people,dc=mulesoft,dc=org"), LDAPEntryChange.MODIFY, null, read);
+        }
+
+        @Override
+        protected void unsubscribe()
+        {
+        }
+    }
+
+    /**
+     *
+     */
+    public TestLDAPChangeStream()
+    {
+    }
+
+    @Test
+    public void testChangesAreBufferedAfterSubscribingAgain() throws Exception
+    {
+        TestStream stream = new TestStream();
+        try
+        {
+            // Waits for the reader to fill the buffer
+            while (stream.getPendingCount() < BUFFER_SIZE)
+            {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            assertEquals(1, stream.getSubscriptionCount());
+            assertTrue(stream.getReceivedCount() <= BUFFER_SIZE + 1);
+
+            for (int i = 1; i <= CHANGES; i++)
+            {
+                LDAPEntryChange change = stream.next(1000L);
+                assertEquals(i, change.getChangeNumber());
+                assertEquals(LDAPEntryChange.MODIFY, change.getChangeType());
+            }
+
+            try
+            {
+                stream.next(1000L);
+                fail("Stream should have failed");
+            }
+            catch (NameNotFoundException ex)
+            {
+                // Reported once the changes were consumed
+            }
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+}
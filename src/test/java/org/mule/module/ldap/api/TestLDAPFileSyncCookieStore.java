@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLDAPFileSyncCookieStore
+{
+    private File directory;
+    private LDAPFileSyncCookieStore store;
+
+    /**
+     * 
+     */
+    public TestLDAPFileSyncCookieStore()
+    {
+    }
+
+    @Before
+    public void createStore() throws Exception
+    {
+        // The store creates the directory on the first write
+        directory = new File(Files.createTempDirectory("ldap-sync").toFile(), "cookies");
+        store = new LDAPFileSyncCookieStore(directory);
+    }
+
+    @Test
+    public void testMissingCookie() throws Exception
+    {
+        assertNull(store.retrieve("people"));
+    }
+
+    @Test
+    public void testStoreCookie() throws Exception
+    {
+        store.store("people", new byte[] {0x01, 0x02});
+        store.store("people", new byte[] {0x03});
+        store.store("groups", new byte[] {0x04});
+
+        assertArrayEquals(new byte[] {0x03}, store.retrieve("people"));
+        assertArrayEquals(new byte[] {0x04}, store.retrieve("groups"));
+        assertArrayEquals(new byte[] {0x03}, new LDAPFileSyncCookieStore(directory).retrieve("people"));
+    }
+
+    @Test
+    public void testRemoveCookie() throws Exception
+    {
+        store.store("people", new byte[] {0x01});
+        store.store("people", null);
+
+        assertNull(store.retrieve("people"));
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testUnsafeSyncId() throws Exception
+    {
+        store.store("ou=people/dc=org", new byte[] {0x01});
+
+        assertArrayEquals(new byte[] {0x01}, store.retrieve("ou=people/dc=org"));
+        assertEquals(1, directory.list().length);
+    }
+}
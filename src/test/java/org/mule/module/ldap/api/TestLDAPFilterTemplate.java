@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestLDAPFilterTemplate
+{
+
+    /**
+     *
+     */
+    public TestLDAPFilterTemplate()
+    {
+    }
+
+    @Test
+    public void testFormatEscapesArguments() throws Exception
+    {
+        LDAPFilterTemplate template = LDAPFilterTemplate.compile("byName", "(&(objectClass=person)(|(sn={0})(cn={1}*)))");
+
+        assertEquals(2, template.getArgumentCount());
+        assertEquals("(&(objectClass=person)(|(sn=Doe)(cn=J\\2a\\29\\28uid=\\2a\\29*)))", template.format(new Object[] {"Doe", "J*)(uid=*)"}));
+        assertEquals("(&(objectClass=person)(|(sn=\\01\\ff)(cn=*)))", template.format(new Object[] {new byte[] {1, (byte) 0xff}, ""}));
+    }
+
+    @Test
+    public void testRepeatedPlaceholder() throws Exception
+    {
+        LDAPFilterTemplate template = LDAPFilterTemplate.compile("byId", "(|(uid={0})(mail={0}))");
+
+        assertEquals(1, template.getArgumentCount());
+        assertEquals("(|(uid=jdoe)(mail=jdoe))", template.format(new Object[] {"jdoe"}));
+    }
+
+    @Test(expected = InvalidAttributeException.class)
+    public void testWrongArgumentCount() throws Exception
+    {
+        LDAPFilterTemplate.compile("byId", "(uid={0})").format(new Object[] {"a", "b"});
+    }
+
+    @Test(expected = InvalidAttributeException.class)
+    public void testInvalidSyntax() throws Exception
+    {
+        LDAPFilterTemplate.compile("broken", "(&(uid={0})");
+    }
+
+    @Test(expected = InvalidAttributeException.class)
+    public void testUnusedPlaceholder() throws Exception
+    {
+        LDAPFilterTemplate.compile("gap", "(&(uid={0})(sn={2}))");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileAllFailsOnInvalidTemplate()
+    {
+        Map<String, String> filters = new HashMap<String, String>();
+        filters.put("valid", "(uid={0})");
+        filters.put("invalid", "(uid={x})");
+        LDAPFilterTemplate.compileAll(filters);
+    }
+}
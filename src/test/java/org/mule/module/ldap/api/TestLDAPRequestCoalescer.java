@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestLDAPRequestCoalescer
+{
+    private static final int CALLERS = 8;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    private final LDAPRequestCoalescer coalescer = new LDAPRequestCoalescer();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger executions = new AtomicInteger();
+
+    /**
+     *
+     */
+    public TestLDAPRequestCoalescer()
+    {
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    private List<Future<LDAPEntry>> lookupConcurrently(final String[] dns, final LDAPRequestCoalescer.Request<LDAPEntry> lookup) throws Exception
+    {
+        List<Future<LDAPEntry>> results = new ArrayList<Future<LDAPEntry>>();
+        for (int i = 0; i < CALLERS; i++)
+        {
+            final String dn = dns[i % dns.length];
+            results.add(executor.submit(new Callable<LDAPEntry>()
+            {
+                @Override
+                public LDAPEntry call() throws Exception
+                {
+                    return coalescer.lookup("uid=admin,ou=people,dc=mulesoft,dc=org", dn, new String[] {"member"}, lookup);
+                }
+            }));
+        }
+        // Waits for the callers to join the request in flight
+        while (coalescer.getCoalescedCount() < CALLERS - 1)
+        {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        return results;
+    }
+
+    @Test
+    public void testIdenticalLookupsShareOneRequest() throws Exception
+    {
+        List<Future<LDAPEntry>> results = lookupConcurrently(new String[] {"cn=admins,ou=groups,dc=mulesoft,dc=org", "CN=Admins, ou=groups,dc=mulesoft,dc=org"}, new LDAPRequestCoalescer.Request<LDAPEntry>()
+        {
+            @Override
+            public LDAPEntry execute() throws LDAPException
+            {
+                executions.incrementAndGet();
+                awaitRelease();
+                LDAPEntry entry = new LDAPEntry("cn=admins,ou=groups,dc=mulesoft,dc=org");
+                entry.addAttribute("member", "uid=user1,ou=people,dc=mulesoft,dc=org");
+                return entry;
+            }
+        });
+
+        List<LDAPEntry> entries = new ArrayList<LDAPEntry>();
+        for (Future<LDAPEntry> result : results)
+        {
+            LDAPEntry entry = result.get();
+            assertEquals("uid=user1,ou=people,dc=mulesoft,dc=org", entry.getAttribute("member").getValue());
+            for (LDAPEntry other : entries)
+            {
+                assertNotSame(other, entry);
+            }
+            entries.add(entry);
+        }
+        assertEquals(1, executions.get());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testFailureIsSharedAndNotKept() throws Exception
+    {
+        List<Future<LDAPEntry>> results = lookupConcurrently(new String[] {"cn=missing,ou=groups,dc=mulesoft,dc=org"}, new LDAPRequestCoalescer.Request<LDAPEntry>()
+        {
+            @Override
+            public LDAPEntry execute() throws LDAPException
+            {
+                executions.incrementAndGet();
+                awaitRelease();
+                throw new NameNotFoundException("cn=missing,ou=groups,dc=mulesoft,dc=org");
+            }
+        });
+
+        for (Future<LDAPEntry> result : results)
+        {
+            try
+            {
+                result.get();
+                fail("Lookup should have failed");
+            }
+            catch (ExecutionException ex)
+            {
+                assertEquals(NameNotFoundException.class, ex.getCause().getClass());
+            }
+        }
+        assertEquals(1, executions.get());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testInvalidatedRequestIsNotJoined() throws Exception
+    {
+        final LDAPRequestCoalescer.Request<LDAPEntry> lookup = new LDAPRequestCoalescer.Request<LDAPEntry>()
+        {
+            @Override
+            public LDAPEntry execute() throws LDAPException
+            {
+                if (executions.incrementAndGet() == 1)
+                {
+                    awaitRelease();
+                }
+                return new LDAPEntry("cn=admins,ou=groups,dc=mulesoft,dc=org");
+            }
+        };
+        Future<LDAPEntry> leader = executor.submit(new Callable<LDAPEntry>()
+        {
+            @Override
+            public LDAPEntry call() throws Exception
+            {
+                return coalescer.lookup("uid=admin,ou=people,dc=mulesoft,dc=org", "cn=admins,ou=groups,dc=mulesoft,dc=org", null, lookup);
+            }
+        });
+        while (executions.get() == 0)
+        {
+            Thread.sleep(10);
+        }
+
+        // Changes of other entries do not retire the lookup
+        coalescer.invalidate("uid=user1,ou=people,dc=mulesoft,dc=org");
+        assertEquals(1, coalescer.getInFlightCount());
+
+        // The entry changes while the lookup is in flight
+        coalescer.invalidate("ou=groups,dc=mulesoft,dc=org");
+        assertEquals(0, coalescer.getInFlightCount());
+
+        coalescer.lookup("uid=admin,ou=people,dc=mulesoft,dc=org", "cn=admins,ou=groups,dc=mulesoft,dc=org", null, lookup);
+        assertEquals(2, executions.get());
+        assertEquals(0, coalescer.getCoalescedCount());
+
+        release.countDown();
+        leader.get();
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testOnlyBoundedSearchesAreCoalesced() throws Exception
+    {
+        final LDAPResultSet streamed = new LDAPSearchCache.CachedResultSet(new ArrayList<LDAPEntry>(), false);
+        LDAPRequestCoalescer.Request<LDAPResultSet> search = new LDAPRequestCoalescer.Request<LDAPResultSet>()
+        {
+            @Override
+            public LDAPResultSet execute() throws LDAPException
+            {
+                executions.incrementAndGet();
+                return streamed;
+            }
+        };
+
+        // Unbounded searches are handed to the caller without being read
+        LDAPSearchControls controls = new LDAPSearchControls();
+        assertFalse(coalescer.isCoalescable(controls));
+        assertSame(streamed, coalescer.search("uid=admin,ou=people,dc=mulesoft,dc=org", "ou=people,dc=mulesoft,dc=org", "(uid=*)", null, controls, search));
+
+        controls.setMaxResults(10);
+        assertTrue(coalescer.isCoalescable(controls));
+        assertNotSame(streamed, coalescer.search("uid=admin,ou=people,dc=mulesoft,dc=org", "ou=people,dc=mulesoft,dc=org", "(uid=*)", null, controls, search));
+        assertEquals(2, executions.get());
+    }
+
+    private void awaitRelease()
+    {
+        try
+        {
+            release.await();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.ldap.api.filter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.ldap.api.InvalidAttributeException;
+import org.mule.module.ldap.api.LDAPEntry;
+import org.mule.module.ldap.api.LDAPEntryAttributeTypeDefinition;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPSingleValueEntryAttribute;
+import org.mule.module.ldap.api.OperationNotSupportedException;
+
+public class TestLDAPFilter
+{
+    private LDAPEntry entry;
+
+    /**
+     *
+     */
+    public TestLDAPFilter()
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        entry = new LDAPEntry("uid=user1,ou=people,dc=mulesoft,dc=org");
+        entry.addAttribute("uid", "user1");
+        entry.addAttribute("cn", "User  One");
+        entry.addAttribute("sn", "One");
+        entry.addAttribute("objectClass", Arrays.<Object> asList("top", "person", "inetOrgPerson"));
+
+        LDAPEntryAttributeTypeDefinition integer = new LDAPEntryAttributeTypeDefinition();
+        integer.setEquality("integerMatch");
+        integer.setOrdering("integerOrderingMatch");
+        LDAPSingleValueEntryAttribute uidNumber = new LDAPSingleValueEntryAttribute("uidNumber", "1042");
+        uidNumber.setTypeDefinition(integer);
+        entry.addAttribute(uidNumber);
+
+        LDAPEntryAttributeTypeDefinition dn = new LDAPEntryAttributeTypeDefinition();
+        dn.setEquality("distinguishedNameMatch");
+        LDAPSingleValueEntryAttribute manager = new LDAPSingleValueEntryAttribute("manager", "uid=boss, ou=people,dc=mulesoft,dc=org");
+        manager.setTypeDefinition(dn);
+        entry.addAttribute(manager);
+    }
+
+    private boolean matches(String filter) throws LDAPException
+    {
+        return LDAPFilter.compile(filter).matches(entry);
+    }
+
+    @Test
+    public void testEquality() throws Exception
+    {
+        assertTrue(matches("(uid=USER1)"));
+        assertTrue(matches("UID=user1"));
+        assertTrue(matches("(cn=user one)"));
+        assertTrue(matches("(cn=User\\20One)"));
+        assertFalse(matches("(sn=Two)"));
+    }
+
+    @Test
+    public void testPresence() throws Exception
+    {
+        assertTrue(matches("(sn=*)"));
+        assertFalse(matches("(mail=*)"));
+        assertTrue(LDAPFilter.compile("(objectClass=*)").matches(new LDAPEntry("dc=mulesoft,dc=org")));
+    }
+
+    @Test
+    public void testSubstrings() throws Exception
+    {
+        assertTrue(matches("(cn=user*)"));
+        assertTrue(matches("(cn=*ser*n*)"));
+        assertTrue(matches("(objectClass=*org*)"));
+        assertFalse(matches("(cn=*two)"));
+    }
+
+    @Test
+    public void testBooleanOperators() throws Exception
+    {
+        assertTrue(matches("(&(objectClass=person)(|(sn=Two)(sn=one)))"));
+        assertFalse(matches("(&(objectClass=person)(!(sn=one)))"));
+    }
+
+    @Test
+    public void testOrderingWithSchemaRules() throws Exception
+    {
+        assertTrue(matches("(uidNumber>=999)"));
+        assertFalse(matches("(uidNumber<=999)"));
+        assertTrue(matches("(uidNumber=01042)"));
+        assertFalse(matches("(uidNumber>=abc)"));
+        assertTrue(matches("(sn>=N)"));
+    }
+
+    @Test
+    public void testUndefinedItems() throws Exception
+    {
+        // Undefined is neither true nor false, so its negation does not match either
+        assertFalse(matches("(!(uidNumber>=abc))"));
+        assertFalse(matches("(!(uidNumber=abc))"));
+        assertFalse(matches("(|(sn=Two)(uidNumber>=abc))"));
+        assertTrue(matches("(|(sn=One)(uidNumber>=abc))"));
+        assertTrue(matches("(!(&(sn=Two)(uidNumber>=abc)))"));
+        assertFalse(matches("(!(&(sn=One)(uidNumber>=abc)))"));
+    }
+
+    @Test
+    public void testApproximateAndDistinguishedName() throws Exception
+    {
+        assertTrue(matches("(cn~=userone)"));
+        assertTrue(matches("(manager=UID=Boss,ou=people,dc=mulesoft,dc=org)"));
+    }
+
+    @Test
+    public void testCompiledFiltersAreCached() throws Exception
+    {
+        assertSame(LDAPFilter.compile("(uid=user1)"), LDAPFilter.compile(" (uid=user1) "));
+    }
+
+    @Test(expected = InvalidAttributeException.class)
+    public void testInvalidFilter() throws Exception
+    {
+        LDAPFilter.compile("(&(uid=user1)");
+    }
+
+    @Test(expected = OperationNotSupportedException.class)
+    public void testExtensibleMatchNotSupported() throws Exception
+    {
+        LDAPFilter.compile("(cn:caseExactMatch:=User One)");
+    }
+}
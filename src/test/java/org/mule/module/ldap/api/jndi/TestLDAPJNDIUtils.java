@@ -8,13 +8,25 @@
 
 package org.mule.module.ldap.api.jndi;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.naming.NamingException;
+import javax.naming.ldap.Control;
+
 import org.junit.Test;
+import org.mule.module.ldap.api.LDAPControl;
+import org.mule.module.ldap.api.LDAPException;
+import org.mule.module.ldap.api.LDAPSearchControls;
+import org.mule.module.ldap.api.LDAPSortKey;
+import org.mule.module.ldap.api.LDAPVirtualListView;
+import org.mule.module.ldap.api.OperationNotSupportedException;
 
 public class TestLDAPJNDIUtils
 {
@@ -47,6 +59,91 @@ public class TestLDAPJNDIUtils
         assertFalse(LDAPJNDIUtils.containsDnValue("not-a-dn", dns));
         
     }
-}
 
+    @Test
+    public void testVirtualListViewRequestControls() throws Exception
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setPageSize(100);
+        controls.getSortKeys().add(new LDAPSortKey("sn", true, null));
+        controls.setVirtualListView(new LDAPVirtualListView(0, 19, 80001, 0));
+        
+        Control[] requestControls = LDAPJNDIUtils.buildRequestControls(controls, null);
+        
+        // The window replaces paging
+        assertEquals(2, requestControls.length);
+        assertEquals(LDAPControl.VLV_REQUEST_OID, requestControls[0].getID());
+        assertTrue(requestControls[0].isCritical());
+        // SEQUENCE { 0, 19, [0] { 80001, 0 } }
+        assertArrayEquals(new byte[] {0x30, 0x10, 0x02, 0x01, 0x00, 0x02, 0x01, 0x13, (byte) 0xa0, 0x08, 0x02, 0x03, 0x01, 0x38, (byte) 0x81, 0x02, 0x01, 0x00}, requestControls[0].getEncodedValue());
+    }
+    
+    @Test
+    public void testVirtualListViewRequiresSort() throws Exception
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setVirtualListView(new LDAPVirtualListView(0, 19, "Smith"));
+        
+        try
+        {
+            LDAPJNDIUtils.buildRequestControls(controls, null);
+            fail("Virtual list view without sort keys should fail");
+        }
+        catch(LDAPException ex)
+        {
+            // Expected
+        }
+    }
 
+    @Test
+    public void testSyncRequestControls() throws Exception
+    {
+        Control[] requestControls = LDAPJNDIUtils.buildSyncRequestControls(new LDAPSearchControls(), true, null);
+        
+        assertEquals(1, requestControls.length);
+        assertEquals(LDAPControl.SYNC_REQUEST_OID, requestControls[0].getID());
+        assertTrue(requestControls[0].isCritical());
+        // SEQUENCE { refreshAndPersist }
+        assertArrayEquals(new byte[] {0x30, 0x03, 0x0a, 0x01, 0x03}, requestControls[0].getEncodedValue());
+        
+        requestControls = LDAPJNDIUtils.buildSyncRequestControls(new LDAPSearchControls(), false, new byte[] {0x61, 0x62, 0x63});
+        // SEQUENCE { refreshOnly, "abc" }
+        assertArrayEquals(new byte[] {0x30, 0x08, 0x0a, 0x01, 0x01, 0x04, 0x03, 0x61, 0x62, 0x63}, requestControls[0].getEncodedValue());
+    }
+    
+    @Test
+    public void testSyncStateControl() throws Exception
+    {
+        // SEQUENCE { delete, 0x0102, "ckie" }
+        byte[] value = new byte[] {0x30, 0x0d, 0x0a, 0x01, 0x03, 0x04, 0x02, 0x01, 0x02, 0x04, 0x04, 0x63, 0x6b, 0x69, 0x65};
+        
+        assertEquals(LDAPControl.SYNC_STATE_DELETE, LDAPControl.getSyncState(value));
+        assertArrayEquals(new byte[] {0x01, 0x02}, LDAPControl.getSyncStateEntryUuid(value));
+        assertArrayEquals(new byte[] {0x63, 0x6b, 0x69, 0x65}, LDAPControl.getSyncStateCookie(value));
+    }
+    
+    @Test
+    public void testSyncRequiresPlainSearch() throws Exception
+    {
+        LDAPSearchControls controls = new LDAPSearchControls();
+        controls.setPageSize(100);
+        
+        try
+        {
+            LDAPJNDIUtils.buildSyncRequestControls(controls, true, null);
+            fail("Paged synchronization should fail");
+        }
+        catch(OperationNotSupportedException ex)
+        {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void testResultCode() throws Exception
+    {
+        assertEquals(4096, LDAPJNDIUtils.getResultCode(new NamingException("[LDAP: error code 4096 - Sync refresh required]")));
+        assertEquals(-1, LDAPJNDIUtils.getResultCode(new NamingException("Cannot sync (error code 4096 expected)")));
+        assertEquals(-1, LDAPJNDIUtils.getResultCode(new NamingException()));
+    }
+}